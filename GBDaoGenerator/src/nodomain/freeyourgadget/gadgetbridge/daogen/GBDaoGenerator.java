@@ -46,7 +46,7 @@ public class GBDaoGenerator {
 
 
     public static void main(String[] args) throws Exception {
-        Schema schema = new Schema(33, MAIN_PACKAGE + ".entities");
+        Schema schema = new Schema(39, MAIN_PACKAGE + ".entities");
 
         Entity userAttributes = addUserAttributes(schema);
         Entity user = addUserInfo(schema, userAttributes);
@@ -96,9 +96,56 @@ public class GBDaoGenerator {
 
         addActivitySummary(schema, user, device);
         addBatteryLevel(schema, device);
+        addBatteryLevelRollup(schema, device);
+        addDetectedStepSession(schema, device);
+        addDetectedSleepSession(schema, device);
+        addActivitySessionCheckpoint(schema, device);
+        addActivitySampleRollup(schema, device);
+        addHeartRateHistogramDay(schema, device);
+
+        for (Entity entity : schema.getEntities()) {
+            addDeviceTimeIndex(entity);
+        }
         new DaoGenerator().generateAll(schema, "app/src/main/java");
     }
 
+    /**
+     * Samples are primary keyed by (timestamp, deviceId), but queried by device and time
+     * range, and often by activity kind. Adds an index (deviceId, timestamp[, rawKind]) to
+     * all entities with these properties that do not declare their own indices. DBOpenHelper
+     * creates them on existing tables when the database is upgraded.
+     */
+    private static void addDeviceTimeIndex(Entity entity) {
+        if (!entity.getIndexes().isEmpty()) {
+            return;
+        }
+        Property deviceId = findPropertyOrNull(entity, "deviceId");
+        Property time = findPropertyOrNull(entity, "timestamp");
+        if (time == null) {
+            time = findPropertyOrNull(entity, TIMESTAMP_FROM);
+        }
+        if (deviceId == null || time == null) {
+            return;
+        }
+        Index index = new Index();
+        index.addProperty(deviceId);
+        index.addProperty(time);
+        Property rawKind = findPropertyOrNull(entity, SAMPLE_RAW_KIND);
+        if (rawKind != null) {
+            index.addProperty(rawKind);
+        }
+        entity.addIndex(index);
+    }
+
+    private static Property findPropertyOrNull(Entity entity, String name) {
+        for (Property property : entity.getProperties()) {
+            if (name.equals(property.getPropertyName())) {
+                return property;
+            }
+        }
+        return null;
+    }
+
     private static Entity addTag(Schema schema) {
         Entity tag = addEntity(schema, "Tag");
         tag.addIdProperty();
@@ -602,9 +649,9 @@ public class GBDaoGenerator {
                 "This class represents the summary of a user's activity event. I.e. a walk, hike, a bicycle tour, etc.");
 
         summary.addStringProperty("name").codeBeforeGetter(OVERRIDE);
-        summary.addDateProperty("startTime").notNull().codeBeforeGetter(OVERRIDE);
+        Property startTime = summary.addDateProperty("startTime").notNull().codeBeforeGetter(OVERRIDE).getProperty();
         summary.addDateProperty("endTime").notNull().codeBeforeGetter(OVERRIDE);
-        summary.addIntProperty("activityKind").notNull().codeBeforeGetter(OVERRIDE);
+        Property activityKind = summary.addIntProperty("activityKind").notNull().codeBeforeGetter(OVERRIDE).getProperty();
 
         summary.addIntProperty("baseLongitude").javaDocGetterAndSetter("Temporary, bip-specific");
         summary.addIntProperty("baseLatitude").javaDocGetterAndSetter("Temporary, bip-specific");
@@ -618,6 +665,13 @@ public class GBDaoGenerator {
         summary.addToOne(user, userId);
         summary.addStringProperty("summaryData");
         summary.addByteArrayProperty("rawSummaryData");
+
+        // the summaries list is filtered by device and paged by start time
+        Index deviceStartKindIndex = new Index();
+        deviceStartKindIndex.addProperty(deviceId);
+        deviceStartKindIndex.addProperty(startTime);
+        deviceStartKindIndex.addProperty(activityKind);
+        summary.addIndex(deviceStartKindIndex);
     }
 
     private static Property findProperty(Entity entity, String propertyName) {
@@ -644,4 +698,125 @@ public class GBDaoGenerator {
         batteryLevel.addIntProperty("level").notNull();
         return batteryLevel;
     }
+
+    private static Entity addBatteryLevelRollup(Schema schema, Entity device) {
+        Entity rollup = addEntity(schema, "BatteryLevelRollup");
+        rollup.setJavaDoc("The battery levels of a device within one hour or day, used for long range charts.");
+        rollup.addIdProperty().autoincrement();
+        Property deviceId = rollup.addLongProperty("deviceId").notNull().getProperty();
+        rollup.addToOne(device, deviceId);
+        Property resolution = rollup.addIntProperty("resolution").notNull().javaDocGetterAndSetter("The length of the bucket in seconds.").getProperty();
+        Property timestamp = rollup.addIntProperty("timestamp").notNull().javaDocGetterAndSetter("The start of the bucket.").getProperty();
+        rollup.addIntProperty("minLevel").notNull();
+        rollup.addIntProperty("maxLevel").notNull();
+        rollup.addIntProperty("firstLevel").notNull();
+        rollup.addIntProperty("lastLevel").notNull();
+        rollup.addIntProperty("sampleCount").notNull();
+
+        Index index = new Index();
+        index.addProperty(deviceId);
+        index.addProperty(resolution);
+        index.addProperty(timestamp);
+        index.makeUnique();
+        rollup.addIndex(index);
+        return rollup;
+    }
+
+    private static Entity addDetectedStepSession(Schema schema, Entity device) {
+        Entity session = addEntity(schema, "DetectedStepSession");
+        session.setJavaDoc("A step session detected by ActivitySessionIndex.");
+        session.addIdProperty().autoincrement();
+        Property deviceId = session.addLongProperty("deviceId").notNull().getProperty();
+        session.addToOne(device, deviceId);
+        session.addIntProperty("startTime").notNull();
+        session.addIntProperty("endTime").notNull();
+        Property closedAt = session.addIntProperty("closedAt").notNull().javaDocGetterAndSetter("The timestamp of the sample that closed the session.").getProperty();
+        session.addIntProperty("activeSteps").notNull();
+        session.addIntProperty("heartRateAverage").notNull();
+        session.addFloatProperty("intensity").notNull();
+        addDeviceIndex(session, deviceId, closedAt);
+        return session;
+    }
+
+    private static Entity addDetectedSleepSession(Schema schema, Entity device) {
+        Entity session = addEntity(schema, "DetectedSleepSession");
+        session.setJavaDoc("A sleep session detected by ActivitySessionIndex.");
+        session.addIdProperty().autoincrement();
+        Property deviceId = session.addLongProperty("deviceId").notNull().getProperty();
+        session.addToOne(device, deviceId);
+        session.addIntProperty("startTime").notNull();
+        session.addIntProperty("endTime").notNull();
+        Property closedAt = session.addIntProperty("closedAt").notNull().javaDocGetterAndSetter("The timestamp of the sample that closed the session.").getProperty();
+        session.addLongProperty("lightSleepDuration").notNull();
+        session.addLongProperty("deepSleepDuration").notNull();
+        addDeviceIndex(session, deviceId, closedAt);
+        return session;
+    }
+
+    private static Entity addActivitySessionCheckpoint(Schema schema, Entity device) {
+        Entity checkpoint = addEntity(schema, "ActivitySessionCheckpoint");
+        checkpoint.setJavaDoc("A sample after which a session detector of ActivitySessionIndex had no open session.");
+        checkpoint.addIdProperty().autoincrement();
+        Property deviceId = checkpoint.addLongProperty("deviceId").notNull().getProperty();
+        checkpoint.addToOne(device, deviceId);
+        Property detector = checkpoint.addIntProperty("detector").notNull().getProperty();
+        Property checkpointAt = checkpoint.addIntProperty("checkpointAt").notNull().javaDocGetterAndSetter("The timestamp of the sample.").getProperty();
+        checkpoint.addStringProperty("settings").notNull().javaDocGetterAndSetter("The thresholds the detector used.");
+
+        Index index = new Index();
+        index.addProperty(deviceId);
+        index.addProperty(detector);
+        index.addProperty(checkpointAt);
+        checkpoint.addIndex(index);
+        return checkpoint;
+    }
+
+    private static Entity addActivitySampleRollup(Schema schema, Entity device) {
+        Entity rollup = addEntity(schema, "ActivitySampleRollup");
+        rollup.setJavaDoc("Describes an activity sample that replaced several older samples of a device, see SampleRetention.");
+        rollup.addIdProperty().autoincrement();
+        Property deviceId = rollup.addLongProperty("deviceId").notNull().getProperty();
+        rollup.addToOne(device, deviceId);
+        Property timestamp = rollup.addIntProperty("timestamp").notNull().javaDocGetterAndSetter("The timestamp of the sample, the start of the bucket.").getProperty();
+        rollup.addIntProperty("resolution").notNull().javaDocGetterAndSetter("The length of the bucket in seconds.");
+        rollup.addIntProperty("sampleCount").notNull().javaDocGetterAndSetter("The number of original samples in the bucket.");
+        rollup.addIntProperty("heartRateMin").notNull();
+        rollup.addIntProperty("heartRateMax").notNull();
+
+        Index index = new Index();
+        index.addProperty(deviceId);
+        index.addProperty(timestamp);
+        index.makeUnique();
+        rollup.addIndex(index);
+        return rollup;
+    }
+
+    private static Entity addHeartRateHistogramDay(Schema schema, Entity device) {
+        Entity day = addEntity(schema, "HeartRateHistogramDay");
+        day.setJavaDoc("The heart rate histogram of a day of a device, see HeartRateHistogramIndex.");
+        day.addIdProperty().autoincrement();
+        Property deviceId = day.addLongProperty("deviceId").notNull().getProperty();
+        day.addToOne(device, deviceId);
+        day.addStringProperty("provider").notNull().javaDocGetterAndSetter("The class name of the sample provider the day was computed from.");
+        Property dayStart = day.addIntProperty("dayStart").notNull().javaDocGetterAndSetter("The timestamp of the local midnight the day starts at.").getProperty();
+        day.addIntProperty("dayEnd").notNull().javaDocGetterAndSetter("The timestamp of the local midnight the day ends at.");
+        day.addIntProperty("heartRateMin").notNull();
+        day.addIntProperty("heartRateMax").notNull();
+        day.addIntProperty("restingHeartRate").notNull().javaDocGetterAndSetter("The estimated resting heart rate, or -1.");
+        day.addByteArrayProperty("histogram").notNull().javaDocGetterAndSetter("The seconds per bpm, encoded by HeartRateHistogram#encode.");
+
+        Index index = new Index();
+        index.addProperty(deviceId);
+        index.addProperty(dayStart);
+        index.makeUnique();
+        day.addIndex(index);
+        return day;
+    }
+
+    private static void addDeviceIndex(Entity entity, Property deviceId, Property time) {
+        Index index = new Index();
+        index.addProperty(deviceId);
+        index.addProperty(time);
+        entity.addIndex(index);
+    }
 }
@@ -60,10 +60,15 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivitySessionIndex;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.HeartRateHistogramIndex;
+import nodomain.freeyourgadget.gadgetbridge.database.BatteryHistoryStore;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.database.DBOpenHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.schema.DataMigrations;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceManager;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleRangeCache;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
@@ -72,14 +77,17 @@ import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceService;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
 import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceSummaryCache;
 import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
 import nodomain.freeyourgadget.gadgetbridge.service.NotificationCollectorMonitorService;
 import nodomain.freeyourgadget.gadgetbridge.util.AndroidUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
 import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 import nodomain.freeyourgadget.gadgetbridge.util.GBPrefs;
 import nodomain.freeyourgadget.gadgetbridge.util.LimitedQueue;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
+import nodomain.freeyourgadget.gadgetbridge.util.StartupTasks;
 
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceType.AMAZFITBIP;
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceType.AMAZFITCOR;
@@ -173,6 +181,9 @@ public class GBApplication extends Application {
             return;
         }
 
+        // tests set up their environment before, and expect everything to be done when we return
+        StartupTasks startup = new StartupTasks(GBEnvironment.isEnvironmentSetup() && GBEnvironment.env().isTest());
+
         sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
         prefs = new Prefs(sharedPrefs);
         gbPrefs = new GBPrefs(prefs);
@@ -183,25 +194,52 @@ public class GBApplication extends Application {
             // in test mode, it's done individually, see TestBase
             setupDatabase();
         }
+        startup.mark("database");
 
         // don't do anything here before we set up logging, otherwise
         // slf4j may be implicitly initialized before we properly configured it.
         setupLogging(isFileLoggingEnabled());
+        startup.mark("logging");
 
         if (getPrefsFileVersion() != CURRENT_PREFS_VERSION) {
             migratePrefs(getPrefsFileVersion());
         }
 
         setupExceptionHandler();
+        startup.mark("prefs");
 
+        // only registers the receivers, the devices are read in the background below
         deviceManager = new DeviceManager(this);
         String language = prefs.getString("language", "default");
         setLanguage(language);
 
         deviceService = createDeviceService();
-        loadAppsNotifBlackList();
-        loadAppsPebbleBlackList();
-        loadCalendarsBlackList();
+        startup.mark("device manager and service");
+
+        // whatever is not needed to handle the first intents is done in the background;
+        // the blacklists and devices are read on first use if that comes earlier
+        startup.runInBackground("blacklists", new Runnable() {
+            @Override
+            public void run() {
+                loadBlackLists();
+            }
+        });
+        startup.runInBackground("coordinators", new Runnable() {
+            @Override
+            public void run() {
+                DeviceHelper.getInstance().getAllCoordinators();
+            }
+        });
+        startup.runInBackground("devices", new Runnable() {
+            @Override
+            public void run() {
+                deviceManager.loadInitialDevices();
+            }
+        }, "coordinators");
+        if (!GBEnvironment.env().isTest()) {
+            // continues the data migrations of earlier upgrades as well
+            DataMigrations.getInstance().start();
+        }
 
         if (isRunningMarshmallowOrLater()) {
             notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
@@ -244,6 +282,8 @@ public class GBApplication extends Application {
                                 .build());
             }
         }
+        startup.mark("notification channels and services");
+        startup.finish();
     }
 
     @Override
@@ -431,14 +471,14 @@ public class GBApplication extends Application {
 
     private static HashSet<String> apps_notification_blacklist = null;
 
-    public static boolean appIsNotifBlacklisted(String packageName) {
+    public static synchronized boolean appIsNotifBlacklisted(String packageName) {
         if (apps_notification_blacklist == null) {
-            GB.log("appIsNotifBlacklisted: apps_notification_blacklist is null!", GB.INFO, null);
+            loadAppsNotifBlackList();
         }
-        return apps_notification_blacklist != null && apps_notification_blacklist.contains(packageName);
+        return apps_notification_blacklist.contains(packageName);
     }
 
-    public static void setAppsNotifBlackList(Set<String> packageNames) {
+    public static synchronized void setAppsNotifBlackList(Set<String> packageNames) {
         if (packageNames == null) {
             GB.log("Set null apps_notification_blacklist", GB.INFO, null);
             apps_notification_blacklist = new HashSet<>();
@@ -449,6 +489,30 @@ public class GBApplication extends Application {
         saveAppsNotifBlackList();
     }
 
+    /**
+     * Reads the blacklists, which are otherwise read when they are first used.
+     */
+    static synchronized void loadBlackLists() {
+        if (apps_notification_blacklist == null) {
+            loadAppsNotifBlackList();
+        }
+        if (apps_pebblemsg_blacklist == null) {
+            loadAppsPebbleBlackList();
+        }
+        if (calendars_blacklist == null) {
+            loadCalendarsBlackList();
+        }
+    }
+
+    /**
+     * Forgets the blacklists, so that they are read again when they are next used.
+     */
+    static synchronized void forgetBlackLists() {
+        apps_notification_blacklist = null;
+        apps_pebblemsg_blacklist = null;
+        calendars_blacklist = null;
+    }
+
     private static void loadAppsNotifBlackList() {
         GB.log("Loading apps_notification_blacklist", GB.INFO, null);
         apps_notification_blacklist = (HashSet<String>) sharedPrefs.getStringSet(GBPrefs.PACKAGE_BLACKLIST, null); // lgtm [java/abstract-to-concrete-cast]
@@ -469,7 +533,10 @@ public class GBApplication extends Application {
         editor.apply();
     }
 
-    public static void addAppToNotifBlacklist(String packageName) {
+    public static synchronized void addAppToNotifBlacklist(String packageName) {
+        if (apps_notification_blacklist == null) {
+            loadAppsNotifBlackList();
+        }
         if (apps_notification_blacklist.add(packageName)) {
             saveAppsNotifBlackList();
         }
@@ -477,20 +544,23 @@ public class GBApplication extends Application {
 
     public static synchronized void removeFromAppsNotifBlacklist(String packageName) {
         GB.log("Removing from apps_notification_blacklist: " + packageName, GB.INFO, null);
+        if (apps_notification_blacklist == null) {
+            loadAppsNotifBlackList();
+        }
         apps_notification_blacklist.remove(packageName);
         saveAppsNotifBlackList();
     }
 
     private static HashSet<String> apps_pebblemsg_blacklist = null;
 
-    public static boolean appIsPebbleBlacklisted(String sender) {
+    public static synchronized boolean appIsPebbleBlacklisted(String sender) {
         if (apps_pebblemsg_blacklist == null) {
-            GB.log("appIsPebbleBlacklisted: apps_pebblemsg_blacklist is null!", GB.INFO, null);
+            loadAppsPebbleBlackList();
         }
-        return apps_pebblemsg_blacklist != null && apps_pebblemsg_blacklist.contains(sender);
+        return apps_pebblemsg_blacklist.contains(sender);
     }
 
-    public static void setAppsPebbleBlackList(Set<String> packageNames) {
+    public static synchronized void setAppsPebbleBlackList(Set<String> packageNames) {
         if (packageNames == null) {
             GB.log("Set null apps_pebblemsg_blacklist", GB.INFO, null);
             apps_pebblemsg_blacklist = new HashSet<>();
@@ -521,7 +591,10 @@ public class GBApplication extends Application {
         editor.apply();
     }
 
-    public static void addAppToPebbleBlacklist(String packageName) {
+    public static synchronized void addAppToPebbleBlacklist(String packageName) {
+        if (apps_pebblemsg_blacklist == null) {
+            loadAppsPebbleBlackList();
+        }
         if (apps_pebblemsg_blacklist.add(packageNameToPebbleMsgSender(packageName))) {
             saveAppsPebbleBlackList();
         }
@@ -529,6 +602,9 @@ public class GBApplication extends Application {
 
     public static synchronized void removeFromAppsPebbleBlacklist(String packageName) {
         GB.log("Removing from apps_pebblemsg_blacklist: " + packageName, GB.INFO, null);
+        if (apps_pebblemsg_blacklist == null) {
+            loadAppsPebbleBlackList();
+        }
         apps_pebblemsg_blacklist.remove(packageNameToPebbleMsgSender(packageName));
         saveAppsPebbleBlackList();
     }
@@ -544,14 +620,14 @@ public class GBApplication extends Application {
 
     private static HashSet<String> calendars_blacklist = null;
 
-    public static boolean calendarIsBlacklisted(String calendarDisplayName) {
+    public static synchronized boolean calendarIsBlacklisted(String calendarDisplayName) {
         if (calendars_blacklist == null) {
-            GB.log("calendarIsBlacklisted: calendars_blacklist is null!", GB.INFO, null);
+            loadCalendarsBlackList();
         }
-        return calendars_blacklist != null && calendars_blacklist.contains(calendarDisplayName);
+        return calendars_blacklist.contains(calendarDisplayName);
     }
 
-    public static void setCalendarsBlackList(Set<String> calendarNames) {
+    public static synchronized void setCalendarsBlackList(Set<String> calendarNames) {
         if (calendarNames == null) {
             GB.log("Set null apps_notification_blacklist", GB.INFO, null);
             calendars_blacklist = new HashSet<>();
@@ -562,13 +638,19 @@ public class GBApplication extends Application {
         saveCalendarsBlackList();
     }
 
-    public static void addCalendarToBlacklist(String calendarDisplayName) {
+    public static synchronized void addCalendarToBlacklist(String calendarDisplayName) {
+        if (calendars_blacklist == null) {
+            loadCalendarsBlackList();
+        }
         if (calendars_blacklist.add(calendarDisplayName)) {
             saveCalendarsBlackList();
         }
     }
 
-    public static void removeFromCalendarBlacklist(String calendarDisplayName) {
+    public static synchronized void removeFromCalendarBlacklist(String calendarDisplayName) {
+        if (calendars_blacklist == null) {
+            loadCalendarsBlackList();
+        }
         calendars_blacklist.remove(calendarDisplayName);
         saveCalendarsBlackList();
     }
@@ -605,6 +687,11 @@ public class GBApplication extends Application {
         }
         boolean result = deleteOldActivityDatabase(context);
         result &= getContext().deleteDatabase(DATABASE_NAME);
+        BatteryHistoryStore.getInstance().invalidateAll();
+        ActivitySessionIndex.getInstance().invalidateAll();
+        HeartRateHistogramIndex.getInstance().invalidateAll();
+        DeviceSummaryCache.getInstance().invalidateAll();
+        SampleRangeCache.getInstance().invalidateAll();
         return result;
     }
 
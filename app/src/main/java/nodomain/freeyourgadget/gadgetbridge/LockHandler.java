@@ -20,6 +20,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.schema.DataMigrations;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 
@@ -82,6 +83,10 @@ public class LockHandler implements DBHandler {
         }
         // this will create completely new db instances and in turn update this handler through #init()
         GBApplication.app().setupDatabase();
+        if (!GBEnvironment.env().isTest()) {
+            // e.g. an imported database may have been upgraded
+            DataMigrations.getInstance().start();
+        }
     }
 
     @Override
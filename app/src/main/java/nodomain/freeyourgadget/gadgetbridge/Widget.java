@@ -53,8 +53,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.text.DecimalFormat;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -64,7 +62,7 @@ import nodomain.freeyourgadget.gadgetbridge.activities.WidgetAlarmsActivity;
 import nodomain.freeyourgadget.gadgetbridge.activities.charts.ChartsActivity;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
-import nodomain.freeyourgadget.gadgetbridge.model.DailyTotals;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceSummaryCache;
 import nodomain.freeyourgadget.gadgetbridge.model.RecordedDataTypes;
 import nodomain.freeyourgadget.gadgetbridge.util.AndroidUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
@@ -102,14 +100,11 @@ public class Widget extends AppWidgetProvider {
 
     private long[] getSteps() {
         Context context = GBApplication.getContext();
-        Calendar day = GregorianCalendar.getInstance();
 
         if (!(context instanceof GBApplication)) {
             return new long[]{0, 0, 0};
         }
-        DailyTotals ds = new DailyTotals();
-        return ds.getDailyTotalsForDevice(selectedDevice, day);
-        //return ds.getDailyTotalsForAllDevices(day);
+        return DeviceSummaryCache.getInstance().getSummary(selectedDevice).getDailyTotals();
     }
 
     private String getHM(long value) {
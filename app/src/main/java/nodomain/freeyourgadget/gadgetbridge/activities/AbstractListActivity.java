@@ -17,6 +17,7 @@
 package nodomain.freeyourgadget.gadgetbridge.activities;
 
 import android.os.Bundle;
+import android.widget.AbsListView;
 import android.widget.ListView;
 
 import java.util.List;
@@ -25,6 +26,8 @@ import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.adapter.AbstractActivityListingAdapter;
 
 public abstract class AbstractListActivity<T> extends AbstractGBActivity {
+    // load the next page when the user scrolls within this many items of the end of the list
+    private static final int LOAD_MORE_THRESHOLD = 10;
     private AbstractActivityListingAdapter<T> itemAdapter;
     private ListView itemListView;
 
@@ -75,5 +78,18 @@ public abstract class AbstractListActivity<T> extends AbstractGBActivity {
 
         setContentView(R.layout.activity_list);
         itemListView = findViewById(R.id.itemListView);
+        itemListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (itemAdapter != null && itemAdapter.hasMoreItems()
+                        && firstVisibleItem + visibleItemCount >= totalItemCount - LOAD_MORE_THRESHOLD) {
+                    itemAdapter.loadMoreItems();
+                }
+            }
+        });
     }
 }
@@ -24,6 +24,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
+import android.database.DataSetObserver;
 import android.net.Uri;
 import android.os.Bundle;
 import android.util.SparseBooleanArray;
@@ -52,13 +53,18 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+
+import de.greenrobot.dao.query.LazyList;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.adapter.ActivitySummariesAdapter;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivitySummariesQuery;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
@@ -66,6 +72,7 @@ import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySummaryTotals;
 import nodomain.freeyourgadget.gadgetbridge.model.RecordedDataTypes;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
@@ -105,6 +112,10 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
         }
     };
     private int subtrackDashboard = 0;
+    // after "select all", the actions apply to all summaries matching the filter except the
+    // unchecked ones, including the summaries that have not been loaded into the list yet
+    private boolean allSelected;
+    private final Set<Long> uncheckedIds = new HashSet<>();
 
     public static int getBackgroundColor(Context context) {
         TypedValue typedValue = new TypedValue();
@@ -185,6 +196,14 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
         activitySummariesAdapter.setBackgroundColor(backgroundColor);
         activitySummariesAdapter.setShowTime(false);
         setItemAdapter(activitySummariesAdapter);
+        activitySummariesAdapter.registerDataSetObserver(new DataSetObserver() {
+            @Override
+            public void onChanged() {
+                if (allSelected) {
+                    checkAllItems();
+                }
+            }
+        });
 
         getItemListView().setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
@@ -210,7 +229,17 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
             public void onItemCheckedStateChanged(ActionMode actionMode, int position, long id, boolean checked) {
                 if (position == 0 && checked) subtrackDashboard = 1;
                 if (position == 0 && !checked) subtrackDashboard = 0;
-                final int selectedItems = getItemListView().getCheckedItemCount() - subtrackDashboard;
+                if (allSelected && position > 0) {
+                    Long itemId = getItemAdapter().getItem(position).getId();
+                    if (checked) {
+                        uncheckedIds.remove(itemId);
+                    } else {
+                        uncheckedIds.add(itemId);
+                    }
+                }
+                final int selectedItems = allSelected
+                        ? ((ActivitySummariesAdapter) getItemAdapter()).getTotalCount() - uncheckedIds.size()
+                        : getItemListView().getCheckedItemCount() - subtrackDashboard;
                 actionMode.setTitle(selectedItems + " selected");
             }
 
@@ -232,53 +261,20 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
                 SparseBooleanArray checked = getItemListView().getCheckedItemPositions();
                 switch (menuItem.getItemId()) {
                     case R.id.activity_action_delete:
-                        List<BaseActivitySummary> toDelete = new ArrayList<>();
-                        for (int i = 0; i < checked.size(); i++) {
-                            if (checked.valueAt(i)) {
-                                toDelete.add(getItemAdapter().getItem(checked.keyAt(i)));
-                            }
-                        }
-                        deleteItems(toDelete);
+                        deleteItems(getSelectedIds(checked));
                         processed = true;
                         break;
                     case R.id.activity_action_export:
-                        List<String> paths = new ArrayList<>();
-
-                        for (int i = 0; i < checked.size(); i++) {
-                            if (checked.valueAt(i)) {
-
-                                BaseActivitySummary item = getItemAdapter().getItem(checked.keyAt(i));
-                                if (item != null) {
-                                    ActivitySummary summary = item;
-
-                                    String gpxTrack = summary.getGpxTrack();
-                                    if (gpxTrack != null) {
-                                        paths.add(gpxTrack);
-                                    }
-                                }
-                            }
-                        }
-                        shareMultiple(paths);
+                        shareMultiple(getSelectedGpxTracks(checked));
                         processed = true;
                         break;
                     case R.id.activity_action_select_all:
-                        for (int i = 0; i < getItemListView().getCount(); i++) {
-                            getItemListView().setItemChecked(i, true);
-                        }
+                        allSelected = true;
+                        uncheckedIds.clear();
+                        checkAllItems();
                         return true; //don't finish actionmode in this case!
                     case R.id.activity_action_addto_filter:
-                        List<Long> toFilter = new ArrayList<>();
-                        for (int i = 0; i < checked.size(); i++) {
-                            if (checked.valueAt(i)) {
-                                BaseActivitySummary item = getItemAdapter().getItem(checked.keyAt(i));
-                                if (item != null && item.getId() != null) {
-                                    ActivitySummary summary = item;
-                                    Long id = summary.getId();
-                                    toFilter.add(id);
-                                }
-                            }
-                        }
-                        itemsFilter = toFilter;
+                        itemsFilter = getSelectedIds(checked);
                         setItemsFilter(itemsFilter);
                         refresh();
 
@@ -293,6 +289,8 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
 
             @Override
             public void onDestroyActionMode(ActionMode actionMode) {
+                allSelected = false;
+                uncheckedIds.clear();
                 findViewById(R.id.fab).setVisibility(View.VISIBLE);
             }
         });
@@ -322,10 +320,11 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
         LinkedHashMap<String, Integer> newMap = new LinkedHashMap<>(0); //reset
 
         newMap.put(getString(R.string.activity_summaries_all_activities), 0);
-        for (BaseActivitySummary item : getItemAdapter().getItems()) {
-            String activityName = ActivityKind.asString(item.getActivityKind(), this);
-            if (!newMap.containsKey(activityName) && item.getActivityKind() != 0) {
-                newMap.put(activityName, item.getActivityKind());
+        ActivitySummariesAdapter adapter = (ActivitySummariesAdapter) getItemAdapter();
+        for (ActivitySummaryTotals totals : adapter.getTotalsByKindAndDevice()) {
+            String activityName = ActivityKind.asString(totals.getActivityKind(), this);
+            if (!newMap.containsKey(activityName) && totals.getActivityKind() != 0) {
+                newMap.put(activityName, totals.getActivityKind());
 
             }
         }
@@ -355,15 +354,88 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
         super.onDestroy();
     }
 
-    private void deleteItems(List<BaseActivitySummary> items) {
-        for (BaseActivitySummary item : items) {
-            try {
-                item.delete();
-                getItemAdapter().remove(item);
+    private void checkAllItems() {
+        for (int i = 0; i < getItemListView().getCount(); i++) {
+            BaseActivitySummary item = getItemAdapter().getItem(i);
+            if (i == 0 || !uncheckedIds.contains(item.getId())) {
+                getItemListView().setItemChecked(i, true);
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the selected summaries. After "select all", they are read through
+     * the query, so that the summaries which have not been loaded yet are included.
+     */
+    private List<Long> getSelectedIds(SparseBooleanArray checked) {
+        List<Long> ids = new ArrayList<>();
+        if (allSelected) {
+            ActivitySummariesQuery query = ((ActivitySummariesAdapter) getItemAdapter()).getQuery();
+            if (query == null) {
+                return ids;
+            }
+            try (DBHandler handler = GBApplication.acquireDB()) {
+                for (Long id : query.getIds(handler.getDaoSession())) {
+                    if (!uncheckedIds.contains(id)) {
+                        ids.add(id);
+                    }
+                }
+            } catch (Exception e) {
+                GB.toast("Error loading activity summaries.", Toast.LENGTH_SHORT, GB.ERROR, e);
+            }
+            return ids;
+        }
+        for (int i = 0; i < checked.size(); i++) {
+            if (checked.valueAt(i) && checked.keyAt(i) > 0) {
+                BaseActivitySummary item = getItemAdapter().getItem(checked.keyAt(i));
+                if (item != null && item.getId() != null) {
+                    ids.add(item.getId());
+                }
+            }
+        }
+        return ids;
+    }
+
+    private List<String> getSelectedGpxTracks(SparseBooleanArray checked) {
+        List<String> paths = new ArrayList<>();
+        if (allSelected) {
+            ActivitySummariesQuery query = ((ActivitySummariesAdapter) getItemAdapter()).getQuery();
+            if (query == null) {
+                return paths;
+            }
+            try (DBHandler handler = GBApplication.acquireDB()) {
+                LazyList<BaseActivitySummary> summaries = query.listLazy(handler.getDaoSession());
+                try {
+                    for (BaseActivitySummary summary : summaries) {
+                        if (summary.getGpxTrack() != null && !uncheckedIds.contains(summary.getId())) {
+                            paths.add(summary.getGpxTrack());
+                        }
+                    }
+                } finally {
+                    summaries.close();
+                }
             } catch (Exception e) {
-                //pass delete error
+                GB.toast("Error loading activity summaries.", Toast.LENGTH_SHORT, GB.ERROR, e);
+            }
+            return paths;
+        }
+        for (int i = 0; i < checked.size(); i++) {
+            if (checked.valueAt(i) && checked.keyAt(i) > 0) {
+                BaseActivitySummary item = getItemAdapter().getItem(checked.keyAt(i));
+                if (item != null && item.getGpxTrack() != null) {
+                    paths.add(item.getGpxTrack());
+                }
             }
         }
+        return paths;
+    }
+
+    private void deleteItems(List<Long> ids) {
+        try (DBHandler handler = GBApplication.acquireDB()) {
+            handler.getDaoSession().getBaseActivitySummaryDao().deleteByKeyInTx(ids);
+        } catch (Exception e) {
+            GB.toast("Error deleting activity summaries.", Toast.LENGTH_SHORT, GB.ERROR, e);
+        }
         refresh();
     }
 
@@ -401,7 +473,7 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
         Intent ActivitySummaryDetailIntent = new Intent(this, ActivitySummaryDetail.class);
         Bundle bundle = new Bundle();
 
-        bundle.putInt("position", position);
+        bundle.putLong("summaryId", getItemAdapter().getItem(position).getId());
         bundle.putSerializable("activityKindMap", activityKindMap);
         bundle.putSerializable("itemsFilter", (Serializable) itemsFilter);
         bundle.putInt("activityFilter", activityFilter);
@@ -49,16 +49,13 @@ import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
 
-import de.greenrobot.dao.query.QueryBuilder;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.charts.AbstractChartFragment;
+import nodomain.freeyourgadget.gadgetbridge.database.BatteryHistoryStore;
 import nodomain.freeyourgadget.gadgetbridge.database.DBAccess;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.entities.BatteryLevel;
-import nodomain.freeyourgadget.gadgetbridge.entities.BatteryLevelDao;
-import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 
 
@@ -175,17 +172,7 @@ public class BatteryInfoChartFragment extends AbstractGBFragment {
     }
 
     private List<? extends BatteryLevel> getBatteryLevels(DBHandler db, GBDevice device, int tsFrom, int tsTo) {
-        BatteryLevelDao batteryLevelDao = db.getDaoSession().getBatteryLevelDao();
-        Device dbDevice = DBHelper.findDevice(device, db.getDaoSession());
-        QueryBuilder<BatteryLevel> qb = batteryLevelDao.queryBuilder();
-
-        qb.where(BatteryLevelDao.Properties.DeviceId.eq(dbDevice.getId())).orderAsc(BatteryLevelDao.Properties.Timestamp);
-        qb.where(BatteryLevelDao.Properties.Timestamp.gt(tsFrom));
-        qb.where(BatteryLevelDao.Properties.Timestamp.lt(tsTo));
-
-        List<BatteryLevel> levels = new ArrayList<>();
-        levels.addAll(qb.build().list());
-        return levels;
+        return BatteryHistoryStore.getInstance().getLevels(db, device, tsFrom, tsTo);
     }
 
     protected static class customFormatter extends ValueFormatter {
@@ -97,7 +97,13 @@ public class ControlCenterv2 extends AppCompatActivity
                     finish();
                     break;
                 case DeviceManager.ACTION_DEVICES_CHANGED:
-                    refreshPairedDevices();
+                    String[] addresses = intent.getStringArrayExtra(DeviceManager.EXTRA_CHANGED_DEVICES);
+                    int[] fields = intent.getIntArrayExtra(DeviceManager.EXTRA_CHANGED_FIELDS);
+                    if (addresses != null && fields != null) {
+                        refreshChangedDevices(addresses, fields);
+                    } else {
+                        refreshPairedDevices();
+                    }
                     break;
             }
         }
@@ -329,6 +335,28 @@ public class ControlCenterv2 extends AppCompatActivity
         mGBDeviceAdapter.notifyDataSetChanged();
     }
 
+    /**
+     * Rebinds only the given devices, passing the changed DeviceManager.FIELD_* flags on to
+     * the adapter, so that e.g. a battery update does not rebind the whole list.
+     */
+    private void refreshChangedDevices(String[] addresses, int[] fields) {
+        List<GBDevice> devices = deviceManager.getDevices();
+        for (int i = 0; i < addresses.length; i++) {
+            int position = -1;
+            for (int j = 0; j < devices.size(); j++) {
+                if (addresses[i].equals(devices.get(j).getAddress())) {
+                    position = j;
+                    break;
+                }
+            }
+            if (position < 0) {
+                refreshPairedDevices();
+                return;
+            }
+            mGBDeviceAdapter.notifyItemChanged(position, fields[i]);
+        }
+    }
+
     private void showFabIfNeccessary() {
         if (GBApplication.getPrefs().getBoolean("display_add_device_fab", true)) {
             fab.show();
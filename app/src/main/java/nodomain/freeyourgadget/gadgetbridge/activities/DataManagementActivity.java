@@ -46,10 +46,12 @@ import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivitySessionIndex;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.database.PeriodicExporter;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.export.HealthDataExporter;
 import nodomain.freeyourgadget.gadgetbridge.util.AndroidUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
@@ -113,6 +115,22 @@ public class DataManagementActivity extends AbstractGBActivity {
             }
         });
 
+        Button healthExportButton = findViewById(R.id.healthExportButton);
+        healthExportButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                exportHealthData();
+            }
+        });
+
+        Button rebuildSessionsButton = findViewById(R.id.rebuildSessionsButton);
+        rebuildSessionsButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                rebuildActivitySessions();
+            }
+        });
+
         int oldDBVisibility = hasOldActivityDatabase() ? View.VISIBLE : View.GONE;
 
         TextView deleteOldActivityTitle = findViewById(R.id.mergeOldActivityDataTitle);
@@ -305,6 +323,37 @@ public class DataManagementActivity extends AbstractGBActivity {
                 .show();
     }
 
+    private void exportHealthData() {
+        final String[] values = getResources().getStringArray(R.array.health_export_format_values);
+        new AlertDialog.Builder(this)
+                .setCancelable(true)
+                .setTitle(R.string.health_export_format_title)
+                .setItems(R.array.health_export_formats, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String value = values[which];
+                        boolean gzip = value.endsWith("_gzip");
+                        HealthDataExporter.Format format = HealthDataExporter.Format.fromValue(value.replace("_gzip", ""));
+                        HealthDataExporter.exportInBackground(getApplicationContext(), format, gzip);
+                    }
+                })
+                .setNegativeButton(R.string.Cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                    }
+                })
+                .show();
+    }
+
+    private void rebuildActivitySessions() {
+        try (DBHandler dbHandler = GBApplication.acquireDB()) {
+            ActivitySessionIndex.getInstance().rebuild(dbHandler.getDaoSession());
+            GB.toast(this, getString(R.string.activity_DB_rebuild_sessions_started), Toast.LENGTH_LONG, GB.INFO);
+        } catch (Exception ex) {
+            GB.toast(this, getString(R.string.activity_DB_rebuild_sessions_failed, ex.getMessage()), Toast.LENGTH_LONG, GB.ERROR, ex);
+        }
+    }
+
     private void importDB() {
         new AlertDialog.Builder(this)
                 .setCancelable(true)
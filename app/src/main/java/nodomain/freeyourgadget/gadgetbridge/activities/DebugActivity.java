@@ -53,7 +53,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Objects;
@@ -70,7 +75,9 @@ import nodomain.freeyourgadget.gadgetbridge.model.MusicStateSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
 import nodomain.freeyourgadget.gadgetbridge.model.RecordedDataTypes;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.GattMetrics;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.GBDeviceProtocol;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 import nodomain.freeyourgadget.gadgetbridge.util.WidgetPreferenceStorage;
 
@@ -341,6 +348,14 @@ public class DebugActivity extends AbstractGBActivity {
             }
         });
 
+        Button gattMetricsButton = findViewById(R.id.gattMetricsButton);
+        gattMetricsButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showGattMetrics();
+            }
+        });
+
         Button showWidgetsButton = findViewById(R.id.showWidgetsButton);
         showWidgetsButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -467,6 +482,45 @@ public class DebugActivity extends AbstractGBActivity {
         }
     }
 
+    private void showGattMetrics() {
+        final String report = GattMetrics.getReportOfAllDevices();
+        new AlertDialog.Builder(this)
+                .setCancelable(true)
+                .setTitle("GATT metrics")
+                .setMessage(report)
+                .setPositiveButton("Save to file", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        saveGattMetrics(report);
+                    }
+                })
+                .setNeutralButton("Reset", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        GattMetrics.resetAll();
+                    }
+                })
+                .setNegativeButton(R.string.Cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        // do nothing
+                    }
+                })
+                .show();
+    }
+
+    private void saveGattMetrics(String report) {
+        try {
+            File file = new File(FileUtils.getExternalFilesDir(), "gatt-metrics-" + System.currentTimeMillis() + ".txt");
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                writer.write(report);
+            }
+            GB.toast(this, "Saved to " + file.getAbsolutePath(), Toast.LENGTH_LONG, GB.INFO);
+        } catch (IOException e) {
+            GB.toast(this, "Error saving GATT metrics: " + e.getMessage(), Toast.LENGTH_LONG, GB.ERROR, e);
+        }
+    }
+
     private void testNotification() {
         Intent notificationIntent = new Intent(getApplicationContext(), DebugActivity.class);
         notificationIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK
@@ -66,4 +66,17 @@ public class HeartRateUtils {
     public boolean isValidHeartRateValue(int value) {
         return value >= getMinHeartRate() && value <= getMaxHeartRate();
     }
+
+    /**
+     * Returns the lower bounds of the five heart rate zones, at 50, 60, 70, 80 and 90 percent
+     * of the maximum heart rate estimated for the given age (220 - age).
+     */
+    public int[] getHeartRateZoneStarts(int age) {
+        int maxHeartRate = 220 - age;
+        int[] zoneStarts = new int[5];
+        for (int i = 0; i < zoneStarts.length; i++) {
+            zoneStarts[i] = Math.round(maxHeartRate * (50 + 10 * i) / 100f);
+        }
+        return zoneStarts;
+    }
 }
@@ -55,6 +55,7 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.charts.ChartsPreferencesActivity;
 import nodomain.freeyourgadget.gadgetbridge.database.PeriodicExporter;
+import nodomain.freeyourgadget.gadgetbridge.database.SampleRetention;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceManager;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandPreferencesActivity;
 import nodomain.freeyourgadget.gadgetbridge.devices.qhybrid.ConfigActivity;
@@ -344,6 +345,27 @@ public class SettingsActivity extends AbstractSettingsActivity {
             }
         });
 
+        findPreference(SampleRetention.PREF_ENABLED).setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object retentionEnabled) {
+                SampleRetention.scheduleAlarm(getApplicationContext(), (boolean) retentionEnabled);
+                return true;
+            }
+        });
+
+        findPreference(SampleRetention.PREF_TIERS).setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object tiers) {
+                try {
+                    SampleRetention.parseTiers((String) tiers);
+                    return true;
+                } catch (IllegalArgumentException e) {
+                    GB.toast(getApplicationContext(), getString(R.string.pref_invalid_retention_tiers), Toast.LENGTH_SHORT, GB.ERROR);
+                    return false;
+                }
+            }
+        });
+
         pref = findPreference("auto_fetch_interval_limit");
         pref.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
             @Override
@@ -67,6 +67,7 @@ import nodomain.freeyourgadget.gadgetbridge.database.DBAccess;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleRangeCache;
 import nodomain.freeyourgadget.gadgetbridge.devices.dafit.DaFitSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.UserInfo;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
@@ -347,7 +348,7 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
      */
     protected List<? extends ActivitySample> getAllSamples(DBHandler db, GBDevice device, int tsFrom, int tsTo) {
         SampleProvider<? extends ActivitySample> provider = getProvider(db, device);
-        return provider.getAllActivitySamples(tsFrom, tsTo);
+        return SampleRangeCache.getInstance().getAllActivitySamples(provider, device, tsFrom, tsTo);
     }
 
     protected List<? extends AbstractActivitySample> getActivitySamples(DBHandler db, GBDevice device, int tsFrom, int tsTo) {
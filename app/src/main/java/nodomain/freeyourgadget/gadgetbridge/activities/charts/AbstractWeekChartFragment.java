@@ -53,6 +53,7 @@ import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.DaySamples;
 import nodomain.freeyourgadget.gadgetbridge.util.LimitedQueue;
 
 
@@ -60,6 +61,7 @@ public abstract class AbstractWeekChartFragment extends AbstractChartFragment {
     protected static final Logger LOG = LoggerFactory.getLogger(AbstractWeekChartFragment.class);
     protected final int TOTAL_DAYS = getRangeDays();
     protected int TOTAL_DAYS_FOR_AVERAGE = 0;
+    private static final int DAY_SECONDS = 24 * 60 * 60;
 
     private Locale mLocale;
     private int mTargetValue = 0;
@@ -118,7 +120,7 @@ public abstract class AbstractWeekChartFragment extends AbstractChartFragment {
         }
     }
 
-    private WeekChartsData<BarData> refreshWeekBeforeData(DBHandler db, BarChart barChart, Calendar day, GBDevice device) {
+    private WeekChartsData<BarData> refreshWeekBeforeData(DBHandler db, BarChart barChart, Calendar day, final GBDevice device) {
         day = (Calendar) day.clone(); // do not modify the caller's argument
         day.add(Calendar.DATE, -TOTAL_DAYS);
         List<BarEntry> entries = new ArrayList<>();
@@ -128,8 +130,10 @@ public abstract class AbstractWeekChartFragment extends AbstractChartFragment {
         long daily_balance = 0;
         TOTAL_DAYS_FOR_AVERAGE=0;
 
+        List<ActivityAmounts> dailyAmounts = getActivityAmountsForDays(db, day, TOTAL_DAYS, device);
+
         for (int counter = 0; counter < TOTAL_DAYS; counter++) {
-            ActivityAmounts amounts = getActivityAmountsForDay(db, day, device);
+            ActivityAmounts amounts = dailyAmounts.get(counter);
             daily_balance=calculateBalance(amounts);
             if (daily_balance > 0) {
                 TOTAL_DAYS_FOR_AVERAGE++;
@@ -287,20 +291,14 @@ public abstract class AbstractWeekChartFragment extends AbstractChartFragment {
         yAxisRight.setTextColor(CHART_TEXT_COLOR);
     }
 
-    private List<? extends ActivitySample> getSamplesOfDay(DBHandler db, Calendar day, int offsetHours, GBDevice device) {
-        int startTs;
-        int endTs;
-
+    private int getDayStart(Calendar day, int offsetHours) {
         day = (Calendar) day.clone(); // do not modify the caller's argument
         day.set(Calendar.HOUR_OF_DAY, 0);
         day.set(Calendar.MINUTE, 0);
         day.set(Calendar.SECOND, 0);
         day.add(Calendar.HOUR, offsetHours);
 
-        startTs = (int) (day.getTimeInMillis() / 1000);
-        endTs = startTs + 24 * 60 * 60 - 1;
-
-        return getSamples(db, device, startTs, endTs);
+        return (int) (day.getTimeInMillis() / 1000);
     }
 
     @Override
@@ -337,26 +335,60 @@ public abstract class AbstractWeekChartFragment extends AbstractChartFragment {
     }
 
     private ActivityAmounts getActivityAmountsForDay(DBHandler db, Calendar day, GBDevice device) {
+        return getActivityAmountsForDays(db, day, 1, device).get(0);
+    }
 
+    /**
+     * Returns the activity amounts of the given number of days, starting with the given day.
+     * The samples of the days which are not cached yet are read with one range query and
+     * split into days.
+     */
+    private List<ActivityAmounts> getActivityAmountsForDays(DBHandler db, Calendar firstDay, int count, GBDevice device) {
         LimitedQueue activityAmountCache = null;
-        ActivityAmounts amounts = null;
-
         Activity activity = getActivity();
-        int key = (int) (day.getTimeInMillis() / 1000) + (mOffsetHours * 3600);
         if (activity != null) {
             activityAmountCache = ((ChartsActivity) activity).mActivityAmountCache;
-            amounts = (ActivityAmounts) (activityAmountCache.lookup(key));
         }
 
-        if (amounts == null) {
-            ActivityAnalysis analysis = new ActivityAnalysis();
-            amounts = analysis.calculateActivityAmounts(getSamplesOfDay(db, day, mOffsetHours, device));
+        List<ActivityAmounts> dailyAmounts = new ArrayList<>(count);
+        int[] keys = new int[count];
+        int[] dayStarts = new int[count];
+        int firstMissing = -1;
+        int lastMissing = -1;
+        Calendar day = (Calendar) firstDay.clone();
+        for (int i = 0; i < count; i++) {
+            keys[i] = (int) (day.getTimeInMillis() / 1000) + (mOffsetHours * 3600);
+            dayStarts[i] = getDayStart(day, mOffsetHours);
+            ActivityAmounts amounts = null;
             if (activityAmountCache != null) {
-                activityAmountCache.add(key, amounts);
+                amounts = (ActivityAmounts) (activityAmountCache.lookup(keys[i]));
             }
+            if (amounts == null) {
+                if (firstMissing < 0) {
+                    firstMissing = i;
+                }
+                lastMissing = i;
+            }
+            dailyAmounts.add(amounts);
+            day.add(Calendar.DATE, 1);
+        }
+        if (firstMissing < 0) {
+            return dailyAmounts;
         }
 
-        return amounts;
+        List<? extends ActivitySample> samples = getSamples(db, device, dayStarts[firstMissing], dayStarts[lastMissing] + DAY_SECONDS - 1);
+        List<List<ActivitySample>> daySamples = DaySamples.split(samples, dayStarts, DAY_SECONDS);
+        ActivityAnalysis analysis = new ActivityAnalysis();
+        for (int i = firstMissing; i <= lastMissing; i++) {
+            if (dailyAmounts.get(i) == null) {
+                ActivityAmounts amounts = analysis.calculateActivityAmounts(daySamples.get(i));
+                if (activityAmountCache != null) {
+                    activityAmountCache.add(keys[i], amounts);
+                }
+                dailyAmounts.set(i, amounts);
+            }
+        }
+        return dailyAmounts;
     }
 
     private int getRangeDays(){
@@ -121,7 +121,8 @@ public class ActivityListingChartFragment extends AbstractChartFragment {
         boolean isEmptySummary = false;
 
         if (activitySamples != null) {
-            stepSessions = stepAnalysis.calculateStepSessions(activitySamples);
+            stepSessions = ActivitySessionIndex.getInstance().getStepSessions(db, getProvider(db, device), device, tsDateTo - 24 * 60 * 60 + 1, tsDateTo);
+            stepAnalysis.calculateTotalSteps(activitySamples);
             if (stepSessions.toArray().length == 0) {
                 isEmptySummary = true;
             }
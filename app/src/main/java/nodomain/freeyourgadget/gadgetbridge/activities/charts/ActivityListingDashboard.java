@@ -224,7 +224,8 @@ public class ActivityListingDashboard extends DialogFragment {
 
         boolean isEmptySummary = false;
         if (activitySamples != null) {
-            stepSessions = stepAnalysis.calculateStepSessions(activitySamples);
+            stepSessions = ActivitySessionIndex.getInstance().getStepSessions(db, getProvider(db, gbDevice), gbDevice, timeFrom, timeTo);
+            stepAnalysis.calculateTotalSteps(activitySamples);
             if (stepSessions.toArray().length == 0) {
                 isEmptySummary = true;
             }
@@ -0,0 +1,609 @@
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.greenrobot.dao.AbstractDao;
+import de.greenrobot.dao.Property;
+import nodomain.freeyourgadget.gadgetbridge.GBEnvironment;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.SleepAnalysis.SleepSession;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.schema.DataMigrations;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleNormalizer;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleRangeCache;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivitySessionCheckpoint;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivitySessionCheckpointDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.DetectedSleepSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.DetectedSleepSessionDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.DetectedStepSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.DetectedStepSessionDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySession;
+
+/**
+ * Keeps the step and sleep sessions detected in the samples of each device in the database,
+ * so that the sessions of a day or a week are looked up instead of being detected again in
+ * all samples of that range.
+ * <p/>
+ * Each lookup first continues the detection from the last checkpoint or closed session, i.e.
+ * the last sample after which the detector had no open session, so only the samples stored
+ * since then are read. The session that is still open after the latest sample is detected
+ * again at every lookup and not stored. When samples are added, the sessions and checkpoints
+ * from the first added sample on are deleted.
+ * <p/>
+ * The sessions of the whole history are detected by ActivitySessionRebuild in the background:
+ * when a device has no checkpoint yet, when the thresholds of a detector or the sample provider
+ * of the device have changed, and when requested by #rebuild. Until it is done, the sessions are
+ * detected in the samples of the requested range, like before the index existed.
+ * <p/>
+ * Providers that are not range cacheable (see AbstractSampleProvider#isRangeCacheable) compute
+ * their samples relative to the requested range, so their sessions are still detected in the
+ * samples of the requested range only.
+ * <p/>
+ * Must be called with the database locked, i.e. with the DBHandler acquired.
+ */
+public final class ActivitySessionIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(ActivitySessionIndex.class);
+
+    private static final int STEP_DETECTOR = 0;
+    private static final int SLEEP_DETECTOR = 1;
+    // the number of seconds of samples read at once
+    private static final int CHUNK_SECONDS = 7 * 24 * 60 * 60;
+    // the minimum number of seconds between two stored checkpoints
+    private static final int CHECKPOINT_INTERVAL = 6 * 60 * 60;
+
+    private static final ActivitySessionIndex instance = new ActivitySessionIndex();
+
+    // the number of chunks read per batch of the rebuild, unless no checkpoint was stored yet
+    private static final int REBUILD_BATCH_CHUNKS = 4;
+
+    // device address -> upper bound of the timestamps of all stored sessions and checkpoints
+    // guarded by this
+    private final Map<String, Integer> lastCheckpoints = new HashMap<>();
+    // whether ActivitySessionRebuild is pending, null if not looked up yet
+    // guarded by this
+    private Boolean rebuilding;
+
+    public static ActivitySessionIndex getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the step sessions of the device that overlap the given range, ordered by time,
+     * including the ongoing session after the latest sample.
+     */
+    public List<ActivitySession> getStepSessions(DBHandler db, SampleProvider<? extends ActivitySample> provider, GBDevice device, int timestampFrom, int timestampTo) {
+        return getSessions(new StepTracker(db.getDaoSession()), provider, device, timestampFrom, timestampTo);
+    }
+
+    /**
+     * Returns the sleep sessions of the device that overlap the given range, ordered by time,
+     * including the ongoing session after the latest sample.
+     */
+    public List<SleepSession> getSleepSessions(DBHandler db, SampleProvider<? extends ActivitySample> provider, GBDevice device, int timestampFrom, int timestampTo) {
+        return getSessions(new SleepTracker(db.getDaoSession()), provider, device, timestampFrom, timestampTo);
+    }
+
+    /**
+     * Deletes the sessions and checkpoints that may depend on the samples added for the device
+     * from the given timestamp on.
+     */
+    public void onSamplesAdded(DaoSession session, GBDevice device, int timestamp) {
+        if (device == null) {
+            return;
+        }
+        synchronized (this) {
+            Integer lastCheckpoint = lastCheckpoints.get(device.getAddress());
+            if (lastCheckpoint != null && timestamp > lastCheckpoint) {
+                return;
+            }
+        }
+        Device dbDevice = DBHelper.findDevice(device, session);
+        if (dbDevice != null) {
+            delete(session, dbDevice.getId(), timestamp);
+        }
+        synchronized (this) {
+            lastCheckpoints.put(device.getAddress(), timestamp - 1);
+        }
+    }
+
+    /**
+     * Deletes all sessions and checkpoints of the device, e.g. when the device is deleted.
+     */
+    public void deleteDevice(DaoSession session, GBDevice device, long deviceId) {
+        delete(session, deviceId, Integer.MIN_VALUE);
+        synchronized (this) {
+            lastCheckpoints.remove(device.getAddress());
+        }
+    }
+
+    /**
+     * Forgets the state kept in memory, e.g. after the database has been replaced.
+     */
+    public synchronized void invalidateAll() {
+        lastCheckpoints.clear();
+        rebuilding = null;
+    }
+
+    /**
+     * Detects the sessions of all devices again in the background, e.g. after the samples have
+     * been changed outside of the sample providers.
+     */
+    public void rebuild(DaoSession session) {
+        // without checkpoints, the sessions of every detector are deleted when its device is rebuilt
+        session.getActivitySessionCheckpointDao().deleteAll();
+        scheduleRebuild(session.getDatabase(), true);
+    }
+
+    private void scheduleRebuild(SQLiteDatabase db, boolean force) {
+        synchronized (this) {
+            if (!force && isRebuilding(db)) {
+                return;
+            }
+            rebuilding = true;
+        }
+        LOG.info("Scheduling the detection of all sessions");
+        DataMigrations.schedule(db, ActivitySessionRebuild.class);
+        if (!GBEnvironment.env().isTest()) {
+            DataMigrations.getInstance().start();
+        }
+    }
+
+    private synchronized boolean isRebuilding(SQLiteDatabase db) {
+        if (rebuilding == null) {
+            rebuilding = DataMigrations.getPending(db).contains(ActivitySessionRebuild.class.getName());
+        }
+        return rebuilding;
+    }
+
+    /**
+     * Detects and stores the sessions of the device closed since the last checkpoint, reading
+     * about REBUILD_BATCH_CHUNKS weeks of samples per detector. Called by ActivitySessionRebuild.
+     *
+     * @return whether all sessions up to the latest sample are stored
+     */
+    boolean detectSessions(DaoSession session, AbstractSampleProvider<?> provider, GBDevice device, long deviceId) {
+        return update(new StepTracker(session), provider, device, deviceId, REBUILD_BATCH_CHUNKS)
+                && update(new SleepTracker(session), provider, device, deviceId, REBUILD_BATCH_CHUNKS);
+    }
+
+    /**
+     * Called by ActivitySessionRebuild when the sessions of all devices have been detected.
+     */
+    synchronized void onRebuildDone() {
+        rebuilding = false;
+    }
+
+    private void delete(DaoSession session, long deviceId, int timestamp) {
+        new StepTracker(session).deleteSessions(deviceId, timestamp);
+        new SleepTracker(session).deleteSessions(deviceId, timestamp);
+        session.getActivitySessionCheckpointDao().queryBuilder()
+                .where(ActivitySessionCheckpointDao.Properties.DeviceId.eq(deviceId),
+                        ActivitySessionCheckpointDao.Properties.CheckpointAt.ge(timestamp))
+                .buildDelete().executeDeleteWithoutDetachingEntities();
+    }
+
+    private <S, E> List<S> getSessions(Tracker<S, E> tracker, SampleProvider<? extends ActivitySample> provider, GBDevice device, int timestampFrom, int timestampTo) {
+        if (!(provider instanceof AbstractSampleProvider) || !((AbstractSampleProvider<?>) provider).isRangeCacheable()) {
+            return tracker.calculate(SampleRangeCache.getInstance().getAllActivitySamples(provider, device, timestampFrom, timestampTo));
+        }
+        Device dbDevice = DBHelper.findDevice(device, tracker.daoSession);
+        if (dbDevice == null) {
+            return new ArrayList<>();
+        }
+        long deviceId = dbDevice.getId();
+        if (!isIndexed(tracker, (AbstractSampleProvider<?>) provider, deviceId)) {
+            // the sessions of the whole history are detected by the rebuild, not at a lookup
+            return tracker.calculate(SampleRangeCache.getInstance().getAllActivitySamples(provider, device, timestampFrom, timestampTo));
+        }
+        update(tracker, (AbstractSampleProvider<?>) provider, device, deviceId, Integer.MAX_VALUE);
+        S ongoingSession = tracker.getOngoingSession();
+
+        List<S> result = new ArrayList<>();
+        for (E entity : tracker.getDao().queryBuilder()
+                .where(tracker.getDeviceIdProperty().eq(deviceId), tracker.getClosedAtProperty().ge(timestampFrom))
+                .where(tracker.getStartTimeProperty().le(timestampTo), tracker.getEndTimeProperty().ge(timestampFrom))
+                .orderAsc(tracker.getClosedAtProperty())
+                .list()) {
+            result.add(tracker.toSession(entity));
+        }
+        tracker.getDao().detachAll();
+        if (ongoingSession != null && tracker.getStart(ongoingSession) <= timestampTo && tracker.getEnd(ongoingSession) >= timestampFrom) {
+            result.add(ongoingSession);
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether the sessions of the device are stored with the current settings of the
+     * detector, or else schedules the rebuild.
+     */
+    private <S, E> boolean isIndexed(Tracker<S, E> tracker, AbstractSampleProvider<?> provider, long deviceId) {
+        SQLiteDatabase db = tracker.daoSession.getDatabase();
+        if (isRebuilding(db)) {
+            return false;
+        }
+        ActivitySessionCheckpoint checkpoint = getLastCheckpoint(tracker, deviceId);
+        if (checkpoint != null && getSettings(tracker, provider).equals(checkpoint.getSettings())) {
+            return true;
+        }
+        if (provider.getFirstActivitySample() != null) {
+            scheduleRebuild(db, false);
+        }
+        return false;
+    }
+
+    private ActivitySessionCheckpoint getLastCheckpoint(Tracker<?, ?> tracker, long deviceId) {
+        ActivitySessionCheckpointDao checkpointDao = tracker.daoSession.getActivitySessionCheckpointDao();
+        List<ActivitySessionCheckpoint> checkpoints = checkpointDao.queryBuilder()
+                .where(ActivitySessionCheckpointDao.Properties.DeviceId.eq(deviceId),
+                        ActivitySessionCheckpointDao.Properties.Detector.eq(tracker.detectorType))
+                .orderDesc(ActivitySessionCheckpointDao.Properties.CheckpointAt)
+                .limit(1).list();
+        checkpointDao.detachAll();
+        return checkpoints.isEmpty() ? null : checkpoints.get(0);
+    }
+
+    private String getSettings(Tracker<?, ?> tracker, AbstractSampleProvider<?> provider) {
+        // devices like the Pebble can switch between providers that store their samples in
+        // different tables, so the sessions of one provider are not valid for the other
+        return provider.getClass().getName() + ';' + tracker.getSettings();
+    }
+
+    /**
+     * Detects and stores the sessions closed since the last checkpoint. Reading stops after
+     * maxChunks chunks once a checkpoint has been stored, so that the next call continues there.
+     * The ongoing session after the latest sample is left in the tracker.
+     *
+     * @return whether all samples up to the latest one have been read
+     */
+    private <S, E> boolean update(Tracker<S, E> tracker, AbstractSampleProvider<?> provider, GBDevice device, long deviceId, int maxChunks) {
+        ActivitySessionCheckpointDao checkpointDao = tracker.daoSession.getActivitySessionCheckpointDao();
+        ActivitySessionCheckpoint checkpoint = getLastCheckpoint(tracker, deviceId);
+        String settings = getSettings(tracker, provider);
+
+        int resumeFrom;
+        int lastCheckpointAt;
+        if (checkpoint == null || !settings.equals(checkpoint.getSettings())) {
+            LOG.info("Detecting all " + tracker.getClass().getSimpleName() + " sessions of " + device.getName());
+            tracker.deleteSessions(deviceId, Integer.MIN_VALUE);
+            checkpointDao.queryBuilder()
+                    .where(ActivitySessionCheckpointDao.Properties.DeviceId.eq(deviceId),
+                            ActivitySessionCheckpointDao.Properties.Detector.eq(tracker.detectorType))
+                    .buildDelete().executeDeleteWithoutDetachingEntities();
+            AbstractActivitySample firstSample = provider.getFirstActivitySample();
+            if (firstSample == null) {
+                return true;
+            }
+            resumeFrom = firstSample.getTimestamp();
+            lastCheckpointAt = Integer.MIN_VALUE;
+        } else {
+            lastCheckpointAt = checkpoint.getCheckpointAt();
+            resumeFrom = tracker.getResumeTimestamp(Math.max(lastCheckpointAt, tracker.getLastClosedAt(deviceId)));
+        }
+
+        AbstractActivitySample latestSample = provider.getLatestActivitySample();
+        if (latestSample == null) {
+            return true;
+        }
+        int end = latestSample.getTimestamp();
+
+        int chunks = 0;
+        boolean checkpointStored = false;
+        for (long chunkFrom = resumeFrom; chunkFrom <= end; chunkFrom += CHUNK_SECONDS) {
+            if (chunks >= maxChunks && checkpointStored) {
+                tracker.getDao().detachAll();
+                checkpointDao.detachAll();
+                synchronized (this) {
+                    Integer lastCheckpoint = lastCheckpoints.get(device.getAddress());
+                    // the samples read so far are an upper bound of what has been stored
+                    lastCheckpoints.put(device.getAddress(), (int) Math.max(chunkFrom - 1, lastCheckpoint != null ? lastCheckpoint : Integer.MIN_VALUE));
+                }
+                return false;
+            }
+            int chunkTo = (int) Math.min(end, chunkFrom + CHUNK_SECONDS - 1);
+            List<? extends AbstractActivitySample> samples = provider.getAllActivitySamples((int) chunkFrom, chunkTo);
+            int[] kinds = new int[samples.size()];
+            float[] intensities = new float[samples.size()];
+            SampleNormalizer.normalize(samples, kinds, intensities);
+
+            List<E> closedSessions = new ArrayList<>();
+            List<ActivitySessionCheckpoint> newCheckpoints = new ArrayList<>();
+            for (int i = 0; i < kinds.length; i++) {
+                AbstractActivitySample sample = samples.get(i);
+                S closedSession = tracker.add(sample, kinds[i], intensities[i]);
+                if (closedSession != null) {
+                    closedSessions.add(tracker.toEntity(deviceId, closedSession, sample.getTimestamp()));
+                }
+                if (tracker.isIdle() && sample.getTimestamp() >= lastCheckpointAt + CHECKPOINT_INTERVAL) {
+                    lastCheckpointAt = sample.getTimestamp();
+                    newCheckpoints.add(new ActivitySessionCheckpoint(null, deviceId, tracker.detectorType, lastCheckpointAt, settings));
+                }
+            }
+            tracker.getDao().insertInTx(closedSessions);
+            checkpointDao.insertInTx(newCheckpoints);
+            checkpointStored |= !newCheckpoints.isEmpty();
+            chunks++;
+        }
+        tracker.getDao().detachAll();
+        checkpointDao.detachAll();
+
+        synchronized (this) {
+            // all stored timestamps are timestamps of samples, so the latest sample is an upper bound
+            lastCheckpoints.put(device.getAddress(), end);
+        }
+        return true;
+    }
+
+    /**
+     * Connects a session detector to the table its closed sessions are stored in.
+     *
+     * @param <S> the session type of the detector
+     * @param <E> the entity type of the stored sessions
+     */
+    private abstract static class Tracker<S, E> {
+        final DaoSession daoSession;
+        final int detectorType;
+
+        Tracker(DaoSession daoSession, int detectorType) {
+            this.daoSession = daoSession;
+            this.detectorType = detectorType;
+        }
+
+        abstract String getSettings();
+
+        /**
+         * Returns the timestamp of the first sample to add to a new detector after the given
+         * checkpoint.
+         */
+        abstract int getResumeTimestamp(int checkpointAt);
+
+        abstract S add(ActivitySample sample, int kind, float intensity);
+
+        abstract boolean isIdle();
+
+        abstract S getOngoingSession();
+
+        abstract List<S> calculate(List<? extends ActivitySample> samples);
+
+        abstract int getStart(S session);
+
+        abstract int getEnd(S session);
+
+        abstract E toEntity(long deviceId, S session, int closedAt);
+
+        abstract S toSession(E entity);
+
+        abstract AbstractDao<E, Long> getDao();
+
+        abstract Property getDeviceIdProperty();
+
+        abstract Property getStartTimeProperty();
+
+        abstract Property getEndTimeProperty();
+
+        abstract Property getClosedAtProperty();
+
+        int getLastClosedAt(long deviceId) {
+            List<E> last = getDao().queryBuilder()
+                    .where(getDeviceIdProperty().eq(deviceId))
+                    .orderDesc(getClosedAtProperty())
+                    .limit(1).list();
+            getDao().detachAll();
+            return last.isEmpty() ? Integer.MIN_VALUE : getClosedAt(last.get(0));
+        }
+
+        abstract int getClosedAt(E entity);
+
+        void deleteSessions(long deviceId, int closedFrom) {
+            getDao().queryBuilder()
+                    .where(getDeviceIdProperty().eq(deviceId), getClosedAtProperty().ge(closedFrom))
+                    .buildDelete().executeDeleteWithoutDetachingEntities();
+        }
+    }
+
+    private static class StepTracker extends Tracker<ActivitySession, DetectedStepSession> {
+        private StepAnalysis.SessionDetector detector;
+
+        StepTracker(DaoSession session) {
+            super(session, STEP_DETECTOR);
+        }
+
+        private StepAnalysis.SessionDetector getDetector() {
+            if (detector == null) {
+                detector = new StepAnalysis.SessionDetector();
+            }
+            return detector;
+        }
+
+        @Override
+        String getSettings() {
+            return getDetector().getSettings();
+        }
+
+        @Override
+        int getResumeTimestamp(int checkpointAt) {
+            // the detector has to start after the sample that closed the last session
+            return checkpointAt + 1;
+        }
+
+        @Override
+        ActivitySession add(ActivitySample sample, int kind, float intensity) {
+            return getDetector().add(sample, kind, intensity);
+        }
+
+        @Override
+        boolean isIdle() {
+            return getDetector().isIdle();
+        }
+
+        @Override
+        ActivitySession getOngoingSession() {
+            return getDetector().getOngoingSession();
+        }
+
+        @Override
+        List<ActivitySession> calculate(List<? extends ActivitySample> samples) {
+            return new StepAnalysis().calculateStepSessions(samples);
+        }
+
+        @Override
+        int getStart(ActivitySession session) {
+            return (int) (session.getStartTime().getTime() / 1000);
+        }
+
+        @Override
+        int getEnd(ActivitySession session) {
+            return (int) (session.getEndTime().getTime() / 1000);
+        }
+
+        @Override
+        DetectedStepSession toEntity(long deviceId, ActivitySession session, int closedAt) {
+            return new DetectedStepSession(null, deviceId, getStart(session), getEnd(session), closedAt,
+                    session.getActiveSteps(), session.getHeartRateAverage(), session.getIntensity());
+        }
+
+        @Override
+        ActivitySession toSession(DetectedStepSession entity) {
+            return getDetector().createSession(new Date(entity.getStartTime() * 1000L), new Date(entity.getEndTime() * 1000L),
+                    entity.getActiveSteps(), entity.getHeartRateAverage(), entity.getIntensity(),
+                    entity.getEndTime() - entity.getStartTime());
+        }
+
+        @Override
+        AbstractDao<DetectedStepSession, Long> getDao() {
+            return daoSession.getDetectedStepSessionDao();
+        }
+
+        @Override
+        Property getDeviceIdProperty() {
+            return DetectedStepSessionDao.Properties.DeviceId;
+        }
+
+        @Override
+        Property getStartTimeProperty() {
+            return DetectedStepSessionDao.Properties.StartTime;
+        }
+
+        @Override
+        Property getEndTimeProperty() {
+            return DetectedStepSessionDao.Properties.EndTime;
+        }
+
+        @Override
+        Property getClosedAtProperty() {
+            return DetectedStepSessionDao.Properties.ClosedAt;
+        }
+
+        @Override
+        int getClosedAt(DetectedStepSession entity) {
+            return entity.getClosedAt();
+        }
+    }
+
+    private static class SleepTracker extends Tracker<SleepSession, DetectedSleepSession> {
+        private final SleepAnalysis.SessionDetector detector = new SleepAnalysis.SessionDetector();
+
+        SleepTracker(DaoSession session) {
+            super(session, SLEEP_DETECTOR);
+        }
+
+        @Override
+        String getSettings() {
+            return detector.getSettings();
+        }
+
+        @Override
+        int getResumeTimestamp(int checkpointAt) {
+            // a new detector starting with the sample of the checkpoint continues like the old one
+            return checkpointAt;
+        }
+
+        @Override
+        SleepSession add(ActivitySample sample, int kind, float intensity) {
+            return detector.add(sample, kind);
+        }
+
+        @Override
+        boolean isIdle() {
+            return detector.isIdle();
+        }
+
+        @Override
+        SleepSession getOngoingSession() {
+            return detector.getOngoingSession();
+        }
+
+        @Override
+        List<SleepSession> calculate(List<? extends ActivitySample> samples) {
+            return new SleepAnalysis().calculateSleepSessions(samples);
+        }
+
+        @Override
+        int getStart(SleepSession session) {
+            return (int) (session.getSleepStart().getTime() / 1000);
+        }
+
+        @Override
+        int getEnd(SleepSession session) {
+            return (int) (session.getSleepEnd().getTime() / 1000);
+        }
+
+        @Override
+        DetectedSleepSession toEntity(long deviceId, SleepSession session, int closedAt) {
+            return new DetectedSleepSession(null, deviceId, getStart(session), getEnd(session), closedAt,
+                    session.getLightSleepDuration(), session.getDeepSleepDuration());
+        }
+
+        @Override
+        SleepSession toSession(DetectedSleepSession entity) {
+            return new SleepSession(new Date(entity.getStartTime() * 1000L), new Date(entity.getEndTime() * 1000L),
+                    entity.getLightSleepDuration(), entity.getDeepSleepDuration());
+        }
+
+        @Override
+        AbstractDao<DetectedSleepSession, Long> getDao() {
+            return daoSession.getDetectedSleepSessionDao();
+        }
+
+        @Override
+        Property getDeviceIdProperty() {
+            return DetectedSleepSessionDao.Properties.DeviceId;
+        }
+
+        @Override
+        Property getStartTimeProperty() {
+            return DetectedSleepSessionDao.Properties.StartTime;
+        }
+
+        @Override
+        Property getEndTimeProperty() {
+            return DetectedSleepSessionDao.Properties.EndTime;
+        }
+
+        @Override
+        Property getClosedAtProperty() {
+            return DetectedSleepSessionDao.Properties.ClosedAt;
+        }
+
+        @Override
+        int getClosedAt(DetectedSleepSession entity) {
+            return entity.getClosedAt();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.database.DBDataMigration;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.DeviceDao;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+
+/**
+ * Detects the step and sleep sessions of the whole history of all devices in the background,
+ * scheduled by ActivitySessionIndex. Each batch continues the detection of one device from its
+ * last checkpoint, so devices whose sessions are stored with the current settings already are
+ * only brought up to date. The position is the number of devices done.
+ */
+public class ActivitySessionRebuild implements DBDataMigration {
+    @Override
+    public long getEndPosition(SQLiteDatabase db) {
+        return getDevices(new DaoMaster(db).newSession()).size();
+    }
+
+    @Override
+    public long migrateBatch(SQLiteDatabase db, long position) {
+        DaoSession session = new DaoMaster(db).newSession();
+        List<Device> devices = getDevices(session);
+        long next = position + 1;
+        if (position < devices.size()) {
+            Device device = devices.get((int) position);
+            GBDevice gbDevice = DeviceHelper.getInstance().toGBDevice(device);
+            DeviceCoordinator coordinator = DeviceHelper.getInstance().getCoordinator(gbDevice);
+            SampleProvider<?> provider = coordinator.getSampleProvider(gbDevice, session);
+            if (provider instanceof AbstractSampleProvider && ((AbstractSampleProvider<?>) provider).isRangeCacheable()
+                    && !ActivitySessionIndex.getInstance().detectSessions(session, (AbstractSampleProvider<?>) provider, gbDevice, device.getId())) {
+                next = position;
+            }
+        }
+        if (next >= devices.size()) {
+            ActivitySessionIndex.getInstance().onRebuildDone();
+            return DONE;
+        }
+        return next;
+    }
+
+    private List<Device> getDevices(DaoSession session) {
+        // a stable order, so that a migration continued after a restart skips the right devices
+        return session.getDeviceDao().queryBuilder().orderAsc(DeviceDao.Properties.Id).list();
+    }
+}
@@ -0,0 +1,355 @@
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.HeartRateHistogramDay;
+import nodomain.freeyourgadget.gadgetbridge.entities.HeartRateHistogramDayDao;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.HeartRateHistogram;
+
+/**
+ * Keeps a heart rate histogram per device and local day in the database, so that the time
+ * in heart rate zones and the resting heart rate over weeks or months are computed from one
+ * row per day instead of all samples of the range.
+ * <p/>
+ * A valid heart rate counts until the next sample if that follows within MAX_GAP_SECONDS,
+ * the gap up to which the charts interpolate heart rates, and ISOLATED_SAMPLE_SECONDS
+ * otherwise, e.g. for the latest sample. The resting heart rate of a day is
+ * estimated as the RESTING_PERCENTILE of the heart rates measured without steps.
+ * <p/>
+ * The complete days, i.e. the days before the day of the latest sample, are indexed at
+ * each lookup, continuing after the last indexed day; GadgetbridgeUpdate_39 indexes the
+ * existing samples in the background. When samples are added, the days that may depend on
+ * them and all later ones are deleted. When the sample provider of a device has changed,
+ * e.g. the activity tracker of a Pebble, all days of the device are indexed again. Lookups
+ * combine the indexed days within the range with the samples of the remaining parts of the
+ * range.
+ * <p/>
+ * Providers that are not range cacheable (see AbstractSampleProvider#isRangeCacheable) compute
+ * their samples relative to the requested range, so their histograms are always computed
+ * from the samples of the requested range.
+ * <p/>
+ * Must be called with the database locked, i.e. with the DBHandler acquired.
+ */
+public final class HeartRateHistogramIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(HeartRateHistogramIndex.class);
+
+    static final int MAX_GAP_SECONDS = HeartRateUtils.MAX_HR_MEASUREMENTS_GAP_MINUTES * 60;
+    private static final int ISOLATED_SAMPLE_SECONDS = 60;
+    private static final float RESTING_PERCENTILE = 0.1f;
+
+    private static final HeartRateHistogramIndex instance = new HeartRateHistogramIndex();
+
+    private static final Comparator<ActivitySample> TIMESTAMP_COMPARATOR = new Comparator<ActivitySample>() {
+        @Override
+        public int compare(ActivitySample lhs, ActivitySample rhs) {
+            return lhs.getTimestamp() < rhs.getTimestamp() ? -1 : (lhs.getTimestamp() == rhs.getTimestamp() ? 0 : 1);
+        }
+    };
+
+    // device address -> upper bound of the ends of all indexed days
+    // guarded by this
+    private final Map<String, Integer> indexedUntil = new HashMap<>();
+
+    public static HeartRateHistogramIndex getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the time spent at each heart rate in the given range.
+     */
+    public HeartRateHistogram getHistogram(DBHandler db, SampleProvider<? extends ActivitySample> provider, GBDevice device, int timestampFrom, int timestampTo) {
+        HeartRateHistogram result = new HeartRateHistogram();
+        Long deviceId = prepare(db.getDaoSession(), provider, device);
+        if (deviceId == null) {
+            addSamples(result, null, provider, timestampFrom, end(timestampTo));
+            return result;
+        }
+        int covered = timestampFrom;
+        for (HeartRateHistogramDay day : db.getDaoSession().getHeartRateHistogramDayDao().queryBuilder()
+                .where(HeartRateHistogramDayDao.Properties.DeviceId.eq(deviceId),
+                        HeartRateHistogramDayDao.Properties.DayStart.ge(timestampFrom))
+                .where(HeartRateHistogramDayDao.Properties.DayEnd.le(end(timestampTo)))
+                .orderAsc(HeartRateHistogramDayDao.Properties.DayStart)
+                .list()) {
+            if (day.getDayStart() > covered) {
+                addSamples(result, null, provider, covered, day.getDayStart());
+            }
+            result.add(HeartRateHistogram.decode(day.getHistogram()));
+            covered = day.getDayEnd();
+        }
+        db.getDaoSession().getHeartRateHistogramDayDao().detachAll();
+        if (covered < end(timestampTo)) {
+            addSamples(result, null, provider, covered, end(timestampTo));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the seconds spent in the given heart rate zones in the given range, see
+     * HeartRateHistogram#getSecondsInZones.
+     */
+    public long[] getSecondsInZones(DBHandler db, SampleProvider<? extends ActivitySample> provider, GBDevice device, int timestampFrom, int timestampTo, int... zoneStarts) {
+        return getHistogram(db, provider, device, timestampFrom, timestampTo).getSecondsInZones(zoneStarts);
+    }
+
+    /**
+     * Returns the local days that overlap the given range, ordered by time, e.g. for the trend
+     * of the resting heart rate. Days without samples are included once they are indexed.
+     * The day of the latest sample is computed again at every lookup and has no id.
+     */
+    public List<HeartRateHistogramDay> getDays(DBHandler db, SampleProvider<? extends ActivitySample> provider, GBDevice device, int timestampFrom, int timestampTo) {
+        Long deviceId = prepare(db.getDaoSession(), provider, device);
+        if (deviceId == null) {
+            return computeDays(provider, -1, timestampFrom, timestampTo);
+        }
+        HeartRateHistogramDayDao dao = db.getDaoSession().getHeartRateHistogramDayDao();
+        List<HeartRateHistogramDay> result = new ArrayList<>(dao.queryBuilder()
+                .where(HeartRateHistogramDayDao.Properties.DeviceId.eq(deviceId),
+                        HeartRateHistogramDayDao.Properties.DayEnd.gt(timestampFrom))
+                .where(HeartRateHistogramDayDao.Properties.DayStart.le(timestampTo))
+                .orderAsc(HeartRateHistogramDayDao.Properties.DayStart)
+                .list());
+        dao.detachAll();
+        // all days before the day of the latest sample are indexed now
+        ActivitySample latestSample = ((AbstractSampleProvider<?>) provider).getLatestActivitySample();
+        if (latestSample != null) {
+            int latestDayStart = getDayStart(latestSample.getTimestamp());
+            int latestDayEnd = getNextDayStart(latestDayStart);
+            if (latestDayStart <= timestampTo && latestDayEnd > timestampFrom) {
+                result.add(computeDay(provider, deviceId, latestDayStart, latestDayEnd));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Indexes at most the given number of complete days of the device that have not been
+     * indexed yet.
+     *
+     * @return true if all complete days are indexed
+     */
+    public boolean indexDays(DaoSession session, AbstractSampleProvider<?> provider, GBDevice device, long deviceId, int maxDays) {
+        HeartRateHistogramDayDao dao = session.getHeartRateHistogramDayDao();
+        AbstractActivitySample latestSample = provider.getLatestActivitySample();
+        if (latestSample == null) {
+            return true;
+        }
+        int dayStart = getIndexedEnd(session, provider, deviceId);
+        if (dayStart == Integer.MIN_VALUE) {
+            AbstractActivitySample firstSample = provider.getFirstActivitySample();
+            dayStart = getDayStart(firstSample.getTimestamp());
+        }
+        // the day of the latest sample is not complete yet
+        int latestDayStart = getDayStart(latestSample.getTimestamp());
+        List<HeartRateHistogramDay> days = new ArrayList<>();
+        while (dayStart < latestDayStart && days.size() < maxDays) {
+            int dayEnd = getNextDayStart(dayStart);
+            days.add(computeDay(provider, deviceId, dayStart, dayEnd));
+            dayStart = dayEnd;
+        }
+        if (!days.isEmpty()) {
+            LOG.debug("Indexed " + days.size() + " days of heart rates of " + device.getName());
+            dao.insertInTx(days);
+            dao.detachAll();
+        }
+        synchronized (this) {
+            indexedUntil.put(device.getAddress(), dayStart);
+        }
+        return dayStart >= latestDayStart;
+    }
+
+    /**
+     * Deletes the days that may depend on the samples added for the device from the given
+     * timestamp on, and all later ones.
+     */
+    public void onSamplesAdded(DaoSession session, GBDevice device, int timestamp) {
+        if (device == null) {
+            return;
+        }
+        int affectedFrom = timestamp - MAX_GAP_SECONDS;
+        synchronized (this) {
+            Integer until = indexedUntil.get(device.getAddress());
+            if (until != null && affectedFrom >= until) {
+                return;
+            }
+        }
+        Device dbDevice = DBHelper.findDevice(device, session);
+        if (dbDevice != null) {
+            session.getHeartRateHistogramDayDao().queryBuilder()
+                    .where(HeartRateHistogramDayDao.Properties.DeviceId.eq(dbDevice.getId()),
+                            HeartRateHistogramDayDao.Properties.DayEnd.gt(affectedFrom))
+                    .buildDelete().executeDeleteWithoutDetachingEntities();
+        }
+        synchronized (this) {
+            indexedUntil.put(device.getAddress(), affectedFrom);
+        }
+    }
+
+    /**
+     * Computes the indexed days that depend on the samples of the given range again, after
+     * the samples have been replaced, e.g. by SampleRetention.
+     */
+    public void onSamplesReplaced(DaoSession session, SampleProvider<? extends ActivitySample> provider, long deviceId, int timestampFrom, int timestampTo) {
+        HeartRateHistogramDayDao dao = session.getHeartRateHistogramDayDao();
+        List<HeartRateHistogramDay> days = new ArrayList<>();
+        for (HeartRateHistogramDay day : dao.queryBuilder()
+                .where(HeartRateHistogramDayDao.Properties.DeviceId.eq(deviceId),
+                        HeartRateHistogramDayDao.Properties.DayEnd.gt(timestampFrom - MAX_GAP_SECONDS))
+                .where(HeartRateHistogramDayDao.Properties.DayStart.le(timestampTo))
+                .list()) {
+            HeartRateHistogramDay computed = computeDay(provider, deviceId, day.getDayStart(), day.getDayEnd());
+            computed.setId(day.getId());
+            days.add(computed);
+        }
+        dao.updateInTx(days);
+        dao.detachAll();
+    }
+
+    /**
+     * Deletes all days of the device, e.g. when the device is deleted.
+     */
+    public void deleteDevice(DaoSession session, GBDevice device, long deviceId) {
+        session.getHeartRateHistogramDayDao().queryBuilder()
+                .where(HeartRateHistogramDayDao.Properties.DeviceId.eq(deviceId))
+                .buildDelete().executeDeleteWithoutDetachingEntities();
+        synchronized (this) {
+            indexedUntil.remove(device.getAddress());
+        }
+    }
+
+    /**
+     * Forgets the state kept in memory, e.g. after the database has been replaced.
+     */
+    public synchronized void invalidateAll() {
+        indexedUntil.clear();
+    }
+
+    /**
+     * Indexes the complete days of the device, if its provider is range cacheable.
+     *
+     * @return the id of the device, or null if the samples must be used directly
+     */
+    private Long prepare(DaoSession session, SampleProvider<? extends ActivitySample> provider, GBDevice device) {
+        if (!(provider instanceof AbstractSampleProvider) || !((AbstractSampleProvider<?>) provider).isRangeCacheable()) {
+            return null;
+        }
+        Device dbDevice = DBHelper.findDevice(device, session);
+        if (dbDevice == null) {
+            return null;
+        }
+        indexDays(session, (AbstractSampleProvider<?>) provider, device, dbDevice.getId(), Integer.MAX_VALUE);
+        return dbDevice.getId();
+    }
+
+    /**
+     * Returns the end of the last indexed day of the device, or Integer.MIN_VALUE. Deletes
+     * all days of the device if they have been computed by another provider.
+     */
+    private int getIndexedEnd(DaoSession session, SampleProvider<? extends ActivitySample> provider, long deviceId) {
+        HeartRateHistogramDayDao dao = session.getHeartRateHistogramDayDao();
+        List<HeartRateHistogramDay> last = dao.queryBuilder()
+                .where(HeartRateHistogramDayDao.Properties.DeviceId.eq(deviceId))
+                .orderDesc(HeartRateHistogramDayDao.Properties.DayStart)
+                .limit(1).list();
+        dao.detachAll();
+        if (last.isEmpty()) {
+            return Integer.MIN_VALUE;
+        }
+        if (!last.get(0).getProvider().equals(provider.getClass().getName())) {
+            LOG.info("Sample provider changed from " + last.get(0).getProvider() + ", indexing all days of device " + deviceId + " again");
+            dao.queryBuilder()
+                    .where(HeartRateHistogramDayDao.Properties.DeviceId.eq(deviceId))
+                    .buildDelete().executeDeleteWithoutDetachingEntities();
+            return Integer.MIN_VALUE;
+        }
+        return last.get(0).getDayEnd();
+    }
+
+    private List<HeartRateHistogramDay> computeDays(SampleProvider<? extends ActivitySample> provider, long deviceId, int timestampFrom, int timestampTo) {
+        List<HeartRateHistogramDay> result = new ArrayList<>();
+        for (int dayStart = getDayStart(timestampFrom); dayStart <= timestampTo; dayStart = getNextDayStart(dayStart)) {
+            result.add(computeDay(provider, deviceId, dayStart, getNextDayStart(dayStart)));
+        }
+        return result;
+    }
+
+    private HeartRateHistogramDay computeDay(SampleProvider<? extends ActivitySample> provider, long deviceId, int dayStart, int dayEnd) {
+        HeartRateHistogram histogram = new HeartRateHistogram();
+        HeartRateHistogram resting = new HeartRateHistogram();
+        addSamples(histogram, resting, provider, dayStart, dayEnd);
+        return new HeartRateHistogramDay(null, deviceId, provider.getClass().getName(), dayStart, dayEnd, histogram.getMin(), histogram.getMax(),
+                resting.getPercentile(RESTING_PERCENTILE), histogram.encode());
+    }
+
+    /**
+     * Adds the heart rates of the samples from the given timestamp, inclusive, to the given
+     * end, exclusive.
+     *
+     * @param resting receives the heart rates of the samples without steps, may be null
+     */
+    private static void addSamples(HeartRateHistogram histogram, HeartRateHistogram resting, SampleProvider<? extends ActivitySample> provider, int timestampFrom, int end) {
+        if (end <= timestampFrom) {
+            return;
+        }
+        // the samples after the end tell how long the last ones count
+        int readTo = (int) Math.min((long) end - 1 + MAX_GAP_SECONDS, Integer.MAX_VALUE);
+        List<ActivitySample> samples = new ArrayList<ActivitySample>(provider.getAllActivitySamples(timestampFrom, readTo));
+        Collections.sort(samples, TIMESTAMP_COMPARATOR);
+        HeartRateUtils heartRateUtils = HeartRateUtils.getInstance();
+        for (int i = 0; i < samples.size(); i++) {
+            ActivitySample sample = samples.get(i);
+            int heartRate = sample.getHeartRate();
+            if (sample.getTimestamp() >= end || !heartRateUtils.isValidHeartRateValue(heartRate)) {
+                continue;
+            }
+            int seconds = ISOLATED_SAMPLE_SECONDS;
+            if (i + 1 < samples.size() && samples.get(i + 1).getTimestamp() - sample.getTimestamp() <= MAX_GAP_SECONDS) {
+                seconds = samples.get(i + 1).getTimestamp() - sample.getTimestamp();
+            }
+            histogram.add(heartRate, seconds);
+            if (resting != null && sample.getSteps() <= 0) {
+                resting.add(heartRate, seconds);
+            }
+        }
+    }
+
+    private static int end(int timestampTo) {
+        return timestampTo == Integer.MAX_VALUE ? timestampTo : timestampTo + 1;
+    }
+
+    private static int getDayStart(int timestamp) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timestamp * 1000L);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return (int) (calendar.getTimeInMillis() / 1000);
+    }
+
+    private static int getNextDayStart(int dayStart) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(dayStart * 1000L);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        return getDayStart((int) (calendar.getTimeInMillis() / 1000));
+    }
+}
@@ -20,6 +20,8 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import androidx.annotation.Nullable;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleNormalizer;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 
@@ -30,16 +32,62 @@ public class SleepAnalysis {
 
     public List<SleepSession> calculateSleepSessions(List<? extends ActivitySample> samples) {
         List<SleepSession> result = new ArrayList<>();
+        SessionDetector detector = new SessionDetector();
 
-        ActivitySample previousSample = null;
-        Date sleepStart = null;
-        Date sleepEnd = null;
-        long lightSleepDuration = 0;
-        long deepSleepDuration = 0;
-        long durationSinceLastSleep = 0;
-
+        int[] kinds = SampleNormalizer.normalizeKinds(samples);
+        int i = 0;
         for (ActivitySample sample : samples) {
-            if (isSleep(sample)) {
+            SleepSession sleepSession = detector.add(sample, kinds[i++]);
+            if (sleepSession != null) {
+                result.add(sleepSession);
+            }
+        }
+        SleepSession ongoingSession = detector.getOngoingSession();
+        if (ongoingSession != null) {
+            result.add(ongoingSession);
+        }
+        return result;
+    }
+
+    /**
+     * Detects sleep sessions in samples that are added one at a time in chronological order,
+     * so that the detection can be continued when new samples have been stored.
+     * <p/>
+     * A detector that #isIdle() after a sample behaves like a new detector that starts with
+     * that sample, so the detection may be resumed with a new detector from such a sample.
+     */
+    public static class SessionDetector {
+        private ActivitySample previousSample = null;
+        private Date sleepStart = null;
+        private Date sleepEnd = null;
+        private long lightSleepDuration = 0;
+        private long deepSleepDuration = 0;
+        private long durationSinceLastSleep = 0;
+
+        /**
+         * Returns the thresholds that decide where sessions start and end. Sessions detected
+         * with other settings have to be detected again.
+         */
+        public String getSettings() {
+            return MIN_SESSION_LENGTH + "/" + MAX_WAKE_PHASE_LENGTH;
+        }
+
+        /**
+         * Whether there is no open session after the last added sample.
+         */
+        public boolean isIdle() {
+            return sleepStart == null;
+        }
+
+        /**
+         * Adds the next sample with its normalized kind.
+         *
+         * @return the session closed by this sample, or null
+         */
+        @Nullable
+        public SleepSession add(ActivitySample sample, int kind) {
+            SleepSession result = null;
+            if (isSleep(kind)) {
                 if (sleepStart == null)
                     sleepStart = getDateFromSample(sample);
                 sleepEnd = getDateFromSample(sample);
@@ -49,15 +97,15 @@ public class SleepAnalysis {
 
             if (previousSample != null) {
                 long durationSinceLastSample = sample.getTimestamp() - previousSample.getTimestamp();
-                if (sample.getKind() == ActivityKind.TYPE_LIGHT_SLEEP) {
+                if (kind == ActivityKind.TYPE_LIGHT_SLEEP) {
                     lightSleepDuration += durationSinceLastSample;
-                } else if (sample.getKind() == ActivityKind.TYPE_DEEP_SLEEP) {
+                } else if (kind == ActivityKind.TYPE_DEEP_SLEEP) {
                     deepSleepDuration += durationSinceLastSample;
                 } else {
                     durationSinceLastSleep += durationSinceLastSample;
                     if (sleepStart != null && durationSinceLastSleep > MAX_WAKE_PHASE_LENGTH) {
                         if (lightSleepDuration + deepSleepDuration > MIN_SESSION_LENGTH)
-                            result.add(new SleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration));
+                            result = new SleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration);
                         sleepStart = null;
                         sleepEnd = null;
                         lightSleepDuration = 0;
@@ -67,32 +115,40 @@ public class SleepAnalysis {
             }
 
             previousSample = sample;
+            return result;
         }
-        if (lightSleepDuration + deepSleepDuration > MIN_SESSION_LENGTH) {
-            result.add(new SleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration));
+
+        /**
+         * Returns the session that is still open after the last added sample, if it is long
+         * enough already.
+         */
+        @Nullable
+        public SleepSession getOngoingSession() {
+            if (lightSleepDuration + deepSleepDuration > MIN_SESSION_LENGTH) {
+                return new SleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration);
+            }
+            return null;
         }
-        return result;
-    }
 
-    private boolean isSleep(ActivitySample sample) {
-        return sample.getKind() == ActivityKind.TYPE_DEEP_SLEEP || sample.getKind() == ActivityKind.TYPE_LIGHT_SLEEP;
-    }
+        private boolean isSleep(int kind) {
+            return kind == ActivityKind.TYPE_DEEP_SLEEP || kind == ActivityKind.TYPE_LIGHT_SLEEP;
+        }
 
-    private Date getDateFromSample(ActivitySample sample) {
-        return new Date(sample.getTimestamp() * 1000L);
+        private Date getDateFromSample(ActivitySample sample) {
+            return new Date(sample.getTimestamp() * 1000L);
+        }
     }
 
-
     public static class SleepSession {
         private final Date sleepStart;
         private final Date sleepEnd;
         private final long lightSleepDuration;
         private final long deepSleepDuration;
 
-        private SleepSession(Date sleepStart,
-                             Date sleepEnd,
-                             long lightSleepDuration,
-                             long deepSleepDuration) {
+        SleepSession(Date sleepStart,
+                     Date sleepEnd,
+                     long lightSleepDuration,
+                     long deepSleepDuration) {
             this.sleepStart = sleepStart;
             this.sleepEnd = sleepEnd;
             this.lightSleepDuration = lightSleepDuration;
@@ -101,7 +101,10 @@ public class SleepChartFragment extends AbstractChartFragment {
             samples = getSamplesofSleep(db, device);
         }
 
-        MySleepChartsData mySleepChartsData = refreshSleepAmounts(device, samples);
+        int tsFrom = samples.isEmpty() ? getTSStart() : samples.get(0).getTimestamp();
+        int tsTo = samples.isEmpty() ? getTSEnd() : samples.get(samples.size() - 1).getTimestamp();
+        List<SleepSession> sleepSessions = ActivitySessionIndex.getInstance().getSleepSessions(db, getProvider(db, device), device, tsFrom, tsTo);
+        MySleepChartsData mySleepChartsData = refreshSleepAmounts(device, sleepSessions);
 
         if (!CHARTS_SLEEP_RANGE_24H) {
             if (mySleepChartsData.sleepSessions.size() > 0) {
@@ -124,9 +127,7 @@ public class SleepChartFragment extends AbstractChartFragment {
 
 
 
-    private MySleepChartsData refreshSleepAmounts(GBDevice mGBDevice, List<? extends ActivitySample> samples) {
-        SleepAnalysis sleepAnalysis = new SleepAnalysis();
-        List<SleepSession> sleepSessions = sleepAnalysis.calculateSleepSessions(samples);
+    private MySleepChartsData refreshSleepAmounts(GBDevice mGBDevice, List<SleepSession> sleepSessions) {
 
         PieData data = new PieData();
 
@@ -38,6 +38,7 @@ import java.util.List;
 import java.util.Map;
 
 import nodomain.freeyourgadget.gadgetbridge.R;
+import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
@@ -49,14 +50,39 @@ public class SpeedZonesFragment extends AbstractChartFragment {
     protected static final Logger LOG = LoggerFactory.getLogger(SpeedZonesFragment.class);
 
     private HorizontalBarChart mStatsChart;
+    private HorizontalBarChart mHeartRateZonesChart;
 
     @Override
     protected ChartsData refreshInBackground(ChartsHost chartsHost, DBHandler db, GBDevice device) {
         List<? extends ActivitySample> samples = getSamples(db, device);
 
         MySpeedZonesData mySpeedZonesData = refreshStats(samples);
+        BarData heartRateZonesData = refreshHeartRateZones(chartsHost, db, device);
 
-        return new MyChartsData(mySpeedZonesData);
+        return new MyChartsData(mySpeedZonesData, heartRateZonesData);
+    }
+
+    /**
+     * Looks up the minutes per heart rate zone in the HeartRateHistogramIndex, so that long
+     * ranges do not need all heart rate samples.
+     */
+    private BarData refreshHeartRateZones(ChartsHost chartsHost, DBHandler db, GBDevice device) {
+        int[] zoneStarts = HeartRateUtils.getInstance().getHeartRateZoneStarts(new ActivityUser().getAge());
+        long[] secondsInZones = HeartRateHistogramIndex.getInstance().getSecondsInZones(db, getProvider(db, device), device,
+                (int) (chartsHost.getStartDate().getTime() / 1000), (int) (chartsHost.getEndDate().getTime() / 1000), zoneStarts);
+        List<BarEntry> entries = new ArrayList<>();
+        // the first element is the time below the first zone
+        for (int zone = 1; zone < secondsInZones.length; zone++) {
+            entries.add(new BarEntry(zone, secondsInZones[zone] / 60));
+        }
+
+        BarData data = new BarData();
+        data.setValueTextColor(CHART_TEXT_COLOR);
+        BarDataSet set = new BarDataSet(entries, "");
+        set.setValueTextColor(CHART_TEXT_COLOR);
+        set.setColors(getColorFor(ActivityKind.TYPE_ACTIVITY));
+        data.addDataSet(set);
+        return data;
     }
 
     private MySpeedZonesData refreshStats(List<? extends ActivitySample> samples) {
@@ -92,6 +118,7 @@ public class SpeedZonesFragment extends AbstractChartFragment {
     protected void updateChartsnUIThread(ChartsData chartsData) {
         MyChartsData mcd = (MyChartsData) chartsData;
         mStatsChart.setData(mcd.getChartsData().getBarData());
+        mHeartRateZonesChart.setData(mcd.getHeartRateZonesData());
     }
 
     @Override
@@ -105,7 +132,9 @@ public class SpeedZonesFragment extends AbstractChartFragment {
         View rootView = inflater.inflate(R.layout.fragment_statschart, container, false);
 
         mStatsChart = (HorizontalBarChart) rootView.findViewById(R.id.statschart);
-        setupStatsChart();
+        mHeartRateZonesChart = (HorizontalBarChart) rootView.findViewById(R.id.heartratezoneschart);
+        setupStatsChart(mStatsChart);
+        setupStatsChart(mHeartRateZonesChart);
 
         // refresh immediately instead of use refreshIfVisible(), for perceived performance
         refresh();
@@ -113,22 +142,22 @@ public class SpeedZonesFragment extends AbstractChartFragment {
         return rootView;
     }
 
-    private void setupStatsChart() {
-        mStatsChart.setBackgroundColor(BACKGROUND_COLOR);
-        mStatsChart.getDescription().setTextColor(DESCRIPTION_COLOR);
-        mStatsChart.setNoDataText("");
-        mStatsChart.getLegend().setEnabled(false);
-        mStatsChart.setTouchEnabled(false);
-        mStatsChart.getDescription().setText("");
+    private void setupStatsChart(HorizontalBarChart chart) {
+        chart.setBackgroundColor(BACKGROUND_COLOR);
+        chart.getDescription().setTextColor(DESCRIPTION_COLOR);
+        chart.setNoDataText("");
+        chart.getLegend().setEnabled(false);
+        chart.setTouchEnabled(false);
+        chart.getDescription().setText("");
 
-        XAxis right = mStatsChart.getXAxis(); //believe it or not, the X axis is vertical for HorizontalBarChart
+        XAxis right = chart.getXAxis(); //believe it or not, the X axis is vertical for HorizontalBarChart
         right.setTextColor(CHART_TEXT_COLOR);
 
-        YAxis bottom = mStatsChart.getAxisRight();
+        YAxis bottom = chart.getAxisRight();
         bottom.setTextColor(CHART_TEXT_COLOR);
         bottom.setGranularity(1f);
 
-        YAxis top = mStatsChart.getAxisLeft();
+        YAxis top = chart.getAxisLeft();
         top.setTextColor(CHART_TEXT_COLOR);
         top.setGranularity(1f);
     }
@@ -147,6 +176,7 @@ public class SpeedZonesFragment extends AbstractChartFragment {
     @Override
     protected void renderCharts() {
         mStatsChart.invalidate();
+        mHeartRateZonesChart.invalidate();
     }
 
     private static class MySpeedZonesData extends ChartsData {
@@ -163,13 +193,19 @@ public class SpeedZonesFragment extends AbstractChartFragment {
 
     private static class MyChartsData extends ChartsData {
         private final MySpeedZonesData chartsData;
+        private final BarData heartRateZonesData;
 
-        MyChartsData(MySpeedZonesData chartsData) {
+        MyChartsData(MySpeedZonesData chartsData, BarData heartRateZonesData) {
             this.chartsData = chartsData;
+            this.heartRateZonesData = heartRateZonesData;
         }
 
         MySpeedZonesData getChartsData() {
             return chartsData;
         }
+
+        BarData getHeartRateZonesData() {
+            return heartRateZonesData;
+        }
     }
-}
\ No newline at end of file
+}
@@ -23,12 +23,15 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import androidx.annotation.Nullable;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleNormalizer;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySession;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
+import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 
 public class StepAnalysis {
     protected static final Logger LOG = LoggerFactory.getLogger(StepAnalysis.class);
@@ -36,123 +39,46 @@ public class StepAnalysis {
 
     public List<ActivitySession> calculateStepSessions(List<? extends ActivitySample> samples) {
         LOG.debug("get all samples activitysessions: " + samples.toArray().length);
+        SessionDetector detector = new SessionDetector();
         List<ActivitySession> result = new ArrayList<>();
-        ActivityUser activityUser = new ActivityUser();
-        double STEP_LENGTH_M;
-        final int MIN_SESSION_LENGTH = 60 * GBApplication.getPrefs().getInt("chart_list_min_session_length", 5);
-        final int MAX_IDLE_PHASE_LENGTH = 60 * GBApplication.getPrefs().getInt("chart_list_max_idle_phase_length", 5);
-        final int MIN_STEPS_PER_MINUTE = GBApplication.getPrefs().getInt("chart_list_min_steps_per_minute", 40);
-        int stepLengthCm = activityUser.getStepLengthCm();
-        int heightCm = activityUser.getHeightCm();
         totalDailySteps = 0;
 
-        if (stepLengthCm == 0 && heightCm != 0) {
-            STEP_LENGTH_M = heightCm * 0.43 * 0.01;
-        } else {
-            STEP_LENGTH_M = stepLengthCm * 0.01;
-        }
-        final double MIN_SESSION_INTENSITY = Math.max(0, Math.min(1, MIN_STEPS_PER_MINUTE * 0.01));
-
-        ActivitySample previousSample = null;
-        Date sessionStart = null;
-        Date sessionEnd;
-        int activeSteps = 0; //steps that we count
-        int stepsBetweenActivePeriods = 0; //steps during time when we maybe take a rest but then restart
-        int durationSinceLastActiveStep = 0;
-        int activityKind;
-
-        List<Integer> heartRateSum = new ArrayList<>();
-        List<Integer> heartRateBetweenActivePeriodsSum = new ArrayList<>();
-
-        float activeIntensity = 0;
-        float intensityBetweenActivePeriods = 0;
-        HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
+        int[] kinds = new int[samples.size()];
+        float[] intensities = new float[samples.size()];
+        SampleNormalizer.normalize(samples, kinds, intensities);
+        int sampleIndex = 0;
 
         for (ActivitySample sample : samples) {
             int steps = sample.getSteps();
             if (steps > 0) {
                 totalDailySteps += steps;
             }
-
-            if (sample.getKind() != ActivityKind.TYPE_SLEEP //anything but sleep counts
-                    && !(sample instanceof TrailingActivitySample)) { //trailing samples have wrong date and make trailing activity have 0 duration
-
-                if (sessionStart == null) {
-                    sessionStart = getDateFromSample(sample);
-                    activeSteps = sample.getSteps();
-                    activeIntensity = sample.getIntensity();
-                    heartRateSum = new ArrayList<>();
-                    if (heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
-                        heartRateSum.add(sample.getHeartRate());
-                    }
-                    durationSinceLastActiveStep = 0;
-                    stepsBetweenActivePeriods = 0;
-                    heartRateBetweenActivePeriodsSum = new ArrayList<>();
-                    previousSample = null;
-                }
-                if (previousSample != null) {
-                    int durationSinceLastSample = sample.getTimestamp() - previousSample.getTimestamp();
-
-                    if (sample.getSteps() > MIN_STEPS_PER_MINUTE || //either some steps
-                            (sample.getIntensity() > MIN_SESSION_INTENSITY && sample.getSteps() > 0)) { //or some intensity plus at least one step
-                        activeSteps += sample.getSteps() + stepsBetweenActivePeriods;
-                        activeIntensity += sample.getIntensity() + intensityBetweenActivePeriods;
-                        if (heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
-                            heartRateSum.add(sample.getHeartRate());
-                        }
-                        heartRateSum.addAll(heartRateBetweenActivePeriodsSum);
-                        heartRateBetweenActivePeriodsSum = new ArrayList<>();
-                        stepsBetweenActivePeriods = 0;
-                        intensityBetweenActivePeriods = 0;
-                        durationSinceLastActiveStep = 0;
-
-                    } else { //short break data to remember, we will add it to the rest later, if break not too long
-                        stepsBetweenActivePeriods += sample.getSteps();
-                        if (heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
-                            heartRateBetweenActivePeriodsSum.add(sample.getHeartRate());
-                        }
-                        durationSinceLastActiveStep += durationSinceLastSample;
-                        intensityBetweenActivePeriods += sample.getIntensity();
-                    }
-                    if (durationSinceLastActiveStep >= MAX_IDLE_PHASE_LENGTH) { //break too long, we split here
-
-                        int current = sample.getTimestamp();
-                        int starting = (int) (sessionStart.getTime() / 1000);
-                        int session_length = current - starting - durationSinceLastActiveStep;
-
-                        if (session_length >= MIN_SESSION_LENGTH) { //valid activity session
-                            int heartRateAverage = heartRateSum.toArray().length > 0 ? calculateSumOfInts(heartRateSum) / heartRateSum.toArray().length : 0;
-                            float distance = (float) (activeSteps * STEP_LENGTH_M);
-                            sessionEnd = new Date((sample.getTimestamp() - durationSinceLastActiveStep) * 1000L);
-                            activityKind = detect_activity_kind(session_length, activeSteps, heartRateAverage, activeIntensity);
-                            ActivitySession activitySession = new ActivitySession(sessionStart, sessionEnd, activeSteps, heartRateAverage, activeIntensity, distance, activityKind);
-                            //activitySession.setSessionType(ActivitySession.SESSION_ONGOING);
-                            result.add(activitySession);
-                        }
-                        sessionStart = null;
-                    }
-                }
-                previousSample = sample;
+            ActivitySession activitySession = detector.add(sample, kinds[sampleIndex], intensities[sampleIndex]);
+            sampleIndex++;
+            if (activitySession != null) {
+                result.add(activitySession);
             }
         }
         //trailing activity: make sure we show the last portion of the data as well in case no further activity is recorded yet
+        ActivitySession ongoingActivity = detector.getOngoingSession();
+        if (ongoingActivity != null) {
+            result.add(ongoingActivity);
+        }
+        return result;
+    }
 
-        if (sessionStart != null && previousSample != null) {
-            int current = previousSample.getTimestamp();
-            int starting = (int) (sessionStart.getTime() / 1000);
-            int session_length = current - starting - durationSinceLastActiveStep;
-
-            if (session_length >= MIN_SESSION_LENGTH) {
-                int heartRateAverage = heartRateSum.toArray().length > 0 ? calculateSumOfInts(heartRateSum) / heartRateSum.toArray().length : 0;
-                float distance = (float) (activeSteps * STEP_LENGTH_M);
-                sessionEnd = getDateFromSample(previousSample);
-                activityKind = detect_activity_kind(session_length, activeSteps, heartRateAverage, activeIntensity);
-                ActivitySession ongoingActivity = new ActivitySession(sessionStart, sessionEnd, activeSteps, heartRateAverage, activeIntensity, distance, activityKind);
-                ongoingActivity.setSessionType(ActivitySession.SESSION_ONGOING);
-                result.add(ongoingActivity);
+    /**
+     * Sets the total steps shown by #calculateSummary from the given samples, for sessions
+     * that have not been calculated from these samples, e.g. looked up in ActivitySessionIndex.
+     */
+    public void calculateTotalSteps(List<? extends ActivitySample> samples) {
+        totalDailySteps = 0;
+        for (ActivitySample sample : samples) {
+            int steps = sample.getSteps();
+            if (steps > 0) {
+                totalDailySteps += steps;
             }
         }
-        return result;
     }
 
     public ActivitySession calculateSummary(List<ActivitySession> sessions, boolean empty) {
@@ -206,7 +132,7 @@ public class StepAnalysis {
         return null;
     }
 
-    private int calculateSumOfInts(List<Integer> samples) {
+    private static int calculateSumOfInts(List<Integer> samples) {
         int result = 0;
         for (Integer sample : samples) {
             result += sample;
@@ -214,22 +140,184 @@ public class StepAnalysis {
         return result;
     }
 
-    private int detect_activity_kind(int session_length, int activeSteps, int heartRateAverage, float intensity) {
-        final int MIN_STEPS_PER_MINUTE_FOR_RUN = GBApplication.getPrefs().getInt("chart_list_min_steps_per_minute_for_run", 120);
-        int spm = (int) (activeSteps / (session_length / 60));
-        if (spm > MIN_STEPS_PER_MINUTE_FOR_RUN) {
-            return ActivityKind.TYPE_RUNNING;
+    /**
+     * Detects step sessions in samples that are added one at a time in chronological order,
+     * so that the detection can be continued when new samples have been stored. The
+     * thresholds are read from the preferences once, when the detector is created.
+     * <p/>
+     * A detector that #isIdle() after a sample behaves like a new detector for all later
+     * samples, so the detection may be resumed with a new detector after such a sample.
+     */
+    public static class SessionDetector {
+        private final int minSessionLength;
+        private final int maxIdlePhaseLength;
+        private final int minStepsPerMinute;
+        private final int minStepsPerMinuteForRun;
+        private final double minSessionIntensity;
+        private final double stepLengthM;
+        private final HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
+
+        private ActivitySample previousSample = null;
+        private Date sessionStart = null;
+        private int activeSteps = 0; //steps that we count
+        private int stepsBetweenActivePeriods = 0; //steps during time when we maybe take a rest but then restart
+        private int durationSinceLastActiveStep = 0;
+        private List<Integer> heartRateSum = new ArrayList<>();
+        private List<Integer> heartRateBetweenActivePeriodsSum = new ArrayList<>();
+        private float activeIntensity = 0;
+        private float intensityBetweenActivePeriods = 0;
+
+        public SessionDetector() {
+            Prefs prefs = GBApplication.getPrefs();
+            minSessionLength = 60 * prefs.getInt("chart_list_min_session_length", 5);
+            maxIdlePhaseLength = 60 * prefs.getInt("chart_list_max_idle_phase_length", 5);
+            minStepsPerMinute = prefs.getInt("chart_list_min_steps_per_minute", 40);
+            minStepsPerMinuteForRun = prefs.getInt("chart_list_min_steps_per_minute_for_run", 120);
+            minSessionIntensity = Math.max(0, Math.min(1, minStepsPerMinute * 0.01));
+
+            ActivityUser activityUser = new ActivityUser();
+            int stepLengthCm = activityUser.getStepLengthCm();
+            int heightCm = activityUser.getHeightCm();
+            if (stepLengthCm == 0 && heightCm != 0) {
+                stepLengthM = heightCm * 0.43 * 0.01;
+            } else {
+                stepLengthM = stepLengthCm * 0.01;
+            }
         }
-        if (activeSteps > 200) {
-            return ActivityKind.TYPE_WALKING;
+
+        /**
+         * Returns the thresholds that decide where sessions start and end. Sessions detected
+         * with other settings have to be detected again.
+         */
+        public String getSettings() {
+            return minSessionLength + "/" + maxIdlePhaseLength + "/" + minStepsPerMinute;
         }
-        if (heartRateAverage > 90 && intensity > 15) { //needs tuning
-            return ActivityKind.TYPE_EXERCISE;
+
+        /**
+         * Whether there is no open session after the last added sample.
+         */
+        public boolean isIdle() {
+            return sessionStart == null;
         }
-        return ActivityKind.TYPE_ACTIVITY;
-    }
 
-    private Date getDateFromSample(ActivitySample sample) {
-        return new Date(sample.getTimestamp() * 1000L);
+        /**
+         * Adds the next sample with its normalized kind and intensity.
+         *
+         * @return the session closed by this sample, or null
+         */
+        @Nullable
+        public ActivitySession add(ActivitySample sample, int kind, float intensity) {
+            if (kind == ActivityKind.TYPE_SLEEP //anything but sleep counts
+                    || sample instanceof TrailingActivitySample) { //trailing samples have wrong date and make trailing activity have 0 duration
+                return null;
+            }
+            ActivitySession result = null;
+
+            if (sessionStart == null) {
+                sessionStart = getDateFromSample(sample);
+                activeSteps = sample.getSteps();
+                activeIntensity = intensity;
+                heartRateSum = new ArrayList<>();
+                if (heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
+                    heartRateSum.add(sample.getHeartRate());
+                }
+                durationSinceLastActiveStep = 0;
+                stepsBetweenActivePeriods = 0;
+                heartRateBetweenActivePeriodsSum = new ArrayList<>();
+                previousSample = null;
+            }
+            if (previousSample != null) {
+                int durationSinceLastSample = sample.getTimestamp() - previousSample.getTimestamp();
+
+                if (sample.getSteps() > minStepsPerMinute || //either some steps
+                        (intensity > minSessionIntensity && sample.getSteps() > 0)) { //or some intensity plus at least one step
+                    activeSteps += sample.getSteps() + stepsBetweenActivePeriods;
+                    activeIntensity += intensity + intensityBetweenActivePeriods;
+                    if (heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
+                        heartRateSum.add(sample.getHeartRate());
+                    }
+                    heartRateSum.addAll(heartRateBetweenActivePeriodsSum);
+                    heartRateBetweenActivePeriodsSum = new ArrayList<>();
+                    stepsBetweenActivePeriods = 0;
+                    intensityBetweenActivePeriods = 0;
+                    durationSinceLastActiveStep = 0;
+
+                } else { //short break data to remember, we will add it to the rest later, if break not too long
+                    stepsBetweenActivePeriods += sample.getSteps();
+                    if (heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
+                        heartRateBetweenActivePeriodsSum.add(sample.getHeartRate());
+                    }
+                    durationSinceLastActiveStep += durationSinceLastSample;
+                    intensityBetweenActivePeriods += intensity;
+                }
+                if (durationSinceLastActiveStep >= maxIdlePhaseLength) { //break too long, we split here
+
+                    int current = sample.getTimestamp();
+                    int starting = (int) (sessionStart.getTime() / 1000);
+                    int session_length = current - starting - durationSinceLastActiveStep;
+
+                    if (session_length >= minSessionLength) { //valid activity session
+                        Date sessionEnd = new Date((sample.getTimestamp() - durationSinceLastActiveStep) * 1000L);
+                        result = createSession(sessionStart, sessionEnd, activeSteps, getHeartRateAverage(), activeIntensity, session_length);
+                    }
+                    sessionStart = null;
+                }
+            }
+            previousSample = sample;
+            return result;
+        }
+
+        /**
+         * Returns the session that is still open after the last added sample, if it is long
+         * enough already.
+         */
+        @Nullable
+        public ActivitySession getOngoingSession() {
+            if (sessionStart == null || previousSample == null) {
+                return null;
+            }
+            int current = previousSample.getTimestamp();
+            int starting = (int) (sessionStart.getTime() / 1000);
+            int session_length = current - starting - durationSinceLastActiveStep;
+
+            if (session_length < minSessionLength) {
+                return null;
+            }
+            ActivitySession ongoingActivity = createSession(sessionStart, getDateFromSample(previousSample), activeSteps, getHeartRateAverage(), activeIntensity, session_length);
+            ongoingActivity.setSessionType(ActivitySession.SESSION_ONGOING);
+            return ongoingActivity;
+        }
+
+        /**
+         * Creates a session with the distance and activity kind derived from the current
+         * preferences.
+         */
+        public ActivitySession createSession(Date start, Date end, int activeSteps, int heartRateAverage, float intensity, int sessionLength) {
+            float distance = (float) (activeSteps * stepLengthM);
+            int activityKind = detect_activity_kind(sessionLength, activeSteps, heartRateAverage, intensity);
+            return new ActivitySession(start, end, activeSteps, heartRateAverage, intensity, distance, activityKind);
+        }
+
+        private int getHeartRateAverage() {
+            return heartRateSum.toArray().length > 0 ? calculateSumOfInts(heartRateSum) / heartRateSum.toArray().length : 0;
+        }
+
+        private int detect_activity_kind(int session_length, int activeSteps, int heartRateAverage, float intensity) {
+            int spm = (int) (activeSteps / (session_length / 60));
+            if (spm > minStepsPerMinuteForRun) {
+                return ActivityKind.TYPE_RUNNING;
+            }
+            if (activeSteps > 200) {
+                return ActivityKind.TYPE_WALKING;
+            }
+            if (heartRateAverage > 90 && intensity > 15) { //needs tuning
+                return ActivityKind.TYPE_EXERCISE;
+            }
+            return ActivityKind.TYPE_ACTIVITY;
+        }
+
+        private Date getDateFromSample(ActivitySample sample) {
+            return new Date(sample.getTimestamp() * 1000L);
+        }
     }
 }
@@ -27,6 +27,7 @@ public class DeviceSettingsPreferenceConst {
     public static final String PREF_SCREEN_ORIENTATION = "screen_orientation";
     public static final String PREF_RESERVER_ALARMS_CALENDAR = "reserve_alarms_calendar";
     public static final String PREF_ALLOW_HIGH_MTU = "allow_high_mtu";
+    public static final String PREF_ALLOW_WRITE_WITHOUT_RESPONSE = "allow_write_without_response";
     public static final String PREF_SYNC_CALENDAR = "sync_calendar";
     public static final String PREF_USE_CUSTOM_DEVICEICON = "use_custom_deviceicon";
     public static final String PREF_BUTTON_1_FUNCTION_SHORT = "button_1_function_short";
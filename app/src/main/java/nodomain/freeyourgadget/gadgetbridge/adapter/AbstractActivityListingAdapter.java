@@ -247,6 +247,19 @@ public abstract class AbstractActivityListingAdapter<T> extends ArrayAdapter<T>
     public void loadItems() {
     }
 
+    /**
+     * Returns whether further items can be loaded via #loadMoreItems()
+     */
+    public boolean hasMoreItems() {
+        return false;
+    }
+
+    /**
+     * Appends the next page of items, if the adapter loads its items in pages.
+     */
+    public void loadMoreItems() {
+    }
+
     public void setItems(List<T> items, boolean notify) {
         this.items.clear();
         this.items.addAll(items);
@@ -255,6 +268,13 @@ public abstract class AbstractActivityListingAdapter<T> extends ArrayAdapter<T>
         }
     }
 
+    public void addItems(List<T> items, boolean notify) {
+        this.items.addAll(items);
+        if (notify) {
+            notifyDataSetChanged();
+        }
+    }
+
     public void setActivityKindFilter(int activityKind) {
         this.setActivityKindFilter(activityKind);
     }
@@ -25,8 +25,6 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,23 +34,19 @@ import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
-import de.greenrobot.dao.query.QueryBuilder;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.SettingsActivity;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivitySummariesQuery;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
-import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummaryDao;
-import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
-import nodomain.freeyourgadget.gadgetbridge.model.ActivitySummaryJsonSummary;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySummaryTotals;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
-import static nodomain.freeyourgadget.gadgetbridge.activities.ActivitySummariesFilter.ALL_DEVICES;
-
 public class ActivitySummariesAdapter extends AbstractActivityListingAdapter<BaseActivitySummary> {
     protected static final Logger LOG = LoggerFactory.getLogger(ActivitySummariesAdapter.class);
     private final GBDevice device;
@@ -63,6 +57,10 @@ public class ActivitySummariesAdapter extends AbstractActivityListingAdapter<Bas
     List<Long> itemsFilter;
     private int activityKindFilter;
     private int backgroundColor = 0;
+    private ActivitySummariesQuery query;
+    private ActivitySummaryTotals totals = new ActivitySummaryTotals(ActivityKind.TYPE_UNKNOWN, 0);
+    private List<ActivitySummaryTotals> totalsByKindAndDevice = new ArrayList<>();
+    private boolean hasMoreItems;
 
     public ActivitySummariesAdapter(Context context, GBDevice device, int activityKindFilter, long dateFromFilter, long dateToFilter, String nameContainsFilter, long deviceFilter, List itemsFilter) {
         super(context);
@@ -79,55 +77,70 @@ public class ActivitySummariesAdapter extends AbstractActivityListingAdapter<Bas
     @Override
     public void loadItems() {
         try (DBHandler handler = GBApplication.acquireDB()) {
-            BaseActivitySummaryDao summaryDao = handler.getDaoSession().getBaseActivitySummaryDao();
-            Device dbDevice = DBHelper.findDevice(device, handler.getDaoSession());
-
-            QueryBuilder<BaseActivitySummary> qb = summaryDao.queryBuilder();
-
-            if (deviceFilter == ALL_DEVICES) {
-                qb.orderDesc(BaseActivitySummaryDao.Properties.StartTime);
-            } else if (deviceFilter != 0) {
-                qb.where(
-                        BaseActivitySummaryDao.Properties.DeviceId.eq(
-                                deviceFilter)).orderDesc(BaseActivitySummaryDao.Properties.StartTime);
-            } else {
-                qb.where(
-                        BaseActivitySummaryDao.Properties.DeviceId.eq(
-                                dbDevice.getId())).orderDesc(BaseActivitySummaryDao.Properties.StartTime);
-            }
-
-            if (activityKindFilter != 0) {
-                qb.where(
-                        BaseActivitySummaryDao.Properties.ActivityKind.eq(activityKindFilter));
-            }
-
-            if (dateFromFilter != 0) {
-                qb.where(
-                        BaseActivitySummaryDao.Properties.StartTime.gt(new Date(dateFromFilter)));
-            }
-            if (dateToFilter != 0) {
-                qb.where(
-                        BaseActivitySummaryDao.Properties.EndTime.lt(new Date(dateToFilter)));
-            }
-            if (nameContainsFilter != null && nameContainsFilter.length() > 0) {
-                qb.where(
-                        BaseActivitySummaryDao.Properties.Name.like("%" + nameContainsFilter + "%"));
-            }
-            if (itemsFilter != null) {
-                qb.where(
-                        BaseActivitySummaryDao.Properties.Id.in(itemsFilter));
-            }
+            DaoSession session = handler.getDaoSession();
+            query = new ActivitySummariesQuery(ActivitySummariesQuery.getDeviceId(session, device, deviceFilter),
+                    activityKindFilter, dateFromFilter, dateToFilter, nameContainsFilter, itemsFilter);
+            totalsByKindAndDevice = query.getTotalsByKindAndDevice(session);
+            totals = ActivitySummaryTotals.sumOf(totalsByKindAndDevice);
 
+            List<BaseActivitySummary> page = query.getPage(session, null, ActivitySummariesQuery.DEFAULT_PAGE_SIZE);
+            hasMoreItems = page.size() == ActivitySummariesQuery.DEFAULT_PAGE_SIZE;
 
             List<BaseActivitySummary> allSummaries = new ArrayList<>();
             allSummaries.add(new BaseActivitySummary());
-            allSummaries.addAll(qb.build().list());
+            allSummaries.addAll(page);
             setItems(allSummaries, true);
         } catch (Exception e) {
             GB.toast("Error loading activity summaries.", Toast.LENGTH_SHORT, GB.ERROR, e);
         }
     }
 
+    @Override
+    public boolean hasMoreItems() {
+        return hasMoreItems;
+    }
+
+    @Override
+    public void loadMoreItems() {
+        if (!hasMoreItems || query == null) {
+            return;
+        }
+        List<BaseActivitySummary> items = getItems();
+        BaseActivitySummary last = items.get(items.size() - 1);
+        try (DBHandler handler = GBApplication.acquireDB()) {
+            List<BaseActivitySummary> page = query.getPage(handler.getDaoSession(), last, ActivitySummariesQuery.DEFAULT_PAGE_SIZE);
+            hasMoreItems = page.size() == ActivitySummariesQuery.DEFAULT_PAGE_SIZE;
+            addItems(page, true);
+        } catch (Exception e) {
+            hasMoreItems = false;
+            GB.toast("Error loading activity summaries.", Toast.LENGTH_SHORT, GB.ERROR, e);
+        }
+    }
+
+    /**
+     * Returns the query of the summaries matching the current filter, or null if they could
+     * not be loaded.
+     */
+    public ActivitySummariesQuery getQuery() {
+        return query;
+    }
+
+    /**
+     * Returns the number of summaries matching the current filter, including those which are
+     * not loaded yet.
+     */
+    public int getTotalCount() {
+        return totals.getCount();
+    }
+
+    /**
+     * Returns the totals of all summaries matching the current filter, grouped by activity
+     * kind and device. Note that this includes summaries which are not loaded yet.
+     */
+    public List<ActivitySummaryTotals> getTotalsByKindAndDevice() {
+        return totalsByKindAndDevice;
+    }
+
     public void setActivityKindFilter(int filter) {
         this.activityKindFilter = filter;
     }
@@ -162,15 +175,7 @@ public class ActivitySummariesAdapter extends AbstractActivityListingAdapter<Bas
                 .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         view = inflater.inflate(R.layout.activity_summary_dashboard_item, parent, false);
 
-        double durationSum = 0;
-        double caloriesBurntSum = 0;
-        double distanceSum = 0;
-        double activeSecondsSum = 0;
-        double firstItemDate = 0;
-        double lastItemDate = 0;
-        int activitiesCount = getCount() - 1;
-        int activityIcon = 0;
-        boolean activitySame = true;
+        int activitiesCount = totals.getCount();
 
         TextView durationSumView = view.findViewById(R.id.summary_dashboard_layout_duration_label);
         TextView caloriesBurntSumView = view.findViewById(R.id.summary_dashboard_layout_calories_label);
@@ -183,41 +188,13 @@ public class ActivitySummariesAdapter extends AbstractActivityListingAdapter<Bas
         ImageView activityIconView = view.findViewById(R.id.summary_dashboard_layout_activity_icon);
         ImageView activityIconBigView = view.findViewById(R.id.summary_dashboard_layout_big_activity_icon);
 
-        for (BaseActivitySummary sportitem : getItems()) {
-            if (sportitem.getStartTime() == null) continue; //first item is empty, for dashboard
-
-            if (firstItemDate == 0) firstItemDate = sportitem.getStartTime().getTime();
-            lastItemDate = sportitem.getEndTime().getTime();
-            durationSum += sportitem.getEndTime().getTime() - sportitem.getStartTime().getTime();
+        double durationSum = totals.getDurationMillis();
+        double caloriesBurntSum = totals.getCaloriesBurnt();
+        double distanceSum = totals.getDistanceMeters();
+        double activeSecondsSum = totals.getActiveSeconds();
+        int activityIcon = totals.getActivityKind();
+        boolean activitySame = activityIcon != ActivityKind.TYPE_UNKNOWN;
 
-            if (activityIcon == 0) {
-                activityIcon = sportitem.getActivityKind();
-            } else {
-                if (activityIcon != sportitem.getActivityKind()) {
-                    activitySame = false;
-                }
-            }
-
-
-            ActivitySummaryJsonSummary activitySummaryJsonSummary = new ActivitySummaryJsonSummary(sportitem);
-            JSONObject summarySubdata = activitySummaryJsonSummary.getSummaryData();
-
-            if (summarySubdata != null) {
-                try {
-                    if (summarySubdata.has("caloriesBurnt")) {
-                        caloriesBurntSum += summarySubdata.getJSONObject("caloriesBurnt").getDouble("value");
-                    }
-                    if (summarySubdata.has("distanceMeters")) {
-                        distanceSum += summarySubdata.getJSONObject("distanceMeters").getDouble("value");
-                    }
-                    if (summarySubdata.has("activeSeconds")) {
-                        activeSecondsSum += summarySubdata.getJSONObject("activeSeconds").getDouble("value");
-                    }
-                } catch (JSONException e) {
-                    LOG.error("SportsActivity", e);
-                }
-            }
-        }
         DecimalFormat df = new DecimalFormat("#.##");
         durationSumView.setText(String.format("%s", DateTimeUtils.formatDurationHoursMinutes((long) durationSum, TimeUnit.MILLISECONDS)));
         caloriesBurntSumView.setText(String.format("%s %s", (long) caloriesBurntSum, context.getString(R.string.calories_unit)));
@@ -241,9 +218,8 @@ public class ActivitySummariesAdapter extends AbstractActivityListingAdapter<Bas
 
         activityKindView.setText(activityName);
 
-        //start and end are inverted when filer not applied, because items are sorted the other way
-        timeStartView.setText((dateFromFilter != 0) ? DateTimeUtils.formatDate(new Date(dateFromFilter)) : DateTimeUtils.formatDate(new Date((long) lastItemDate)));
-        timeEndView.setText((dateToFilter != 0) ? DateTimeUtils.formatDate(new Date(dateToFilter)) : DateTimeUtils.formatDate(new Date((long) firstItemDate)));
+        timeStartView.setText((dateFromFilter != 0) ? DateTimeUtils.formatDate(new Date(dateFromFilter)) : DateTimeUtils.formatDate(new Date(totals.getFirstStartTime())));
+        timeEndView.setText((dateToFilter != 0) ? DateTimeUtils.formatDate(new Date(dateToFilter)) : DateTimeUtils.formatDate(new Date(totals.getLastEndTime())));
         return view;
     }
 
@@ -99,6 +99,30 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
         return new ViewHolder(view);
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        // DeviceManager.FIELD_* flags of the changes since the last bind, see ControlCenterv2
+        int fields = 0;
+        for (Object payload : payloads) {
+            if (!(payload instanceof Integer)) {
+                fields = -1;
+                break;
+            }
+            fields |= (Integer) payload;
+        }
+        if (payloads.isEmpty() || (fields & ~(DeviceManager.FIELD_BATTERY | DeviceManager.FIELD_BUSY)) != 0) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        GBDevice device = deviceList.get(position);
+        if ((fields & DeviceManager.FIELD_BUSY) != 0) {
+            bindStatus(holder, device);
+        }
+        if ((fields & DeviceManager.FIELD_BATTERY) != 0) {
+            bindBattery(holder, device);
+        }
+    }
+
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, final int position) {
         final GBDevice device = deviceList.get(position);
@@ -131,47 +155,10 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
 
         holder.deviceNameLabel.setText(getUniqueDeviceName(device));
 
-        if (device.isBusy()) {
-            holder.deviceStatusLabel.setText(device.getBusyTask());
-            holder.busyIndicator.setVisibility(View.VISIBLE);
-        } else {
-            holder.deviceStatusLabel.setText(device.getStateString());
-            holder.busyIndicator.setVisibility(View.INVISIBLE);
-        }
+        bindStatus(holder, device);
 
         //begin of action row
-        //battery
-        holder.batteryStatusBox.setVisibility(View.VISIBLE);
-        short batteryLevel = device.getBatteryLevel();
-        float batteryVoltage = device.getBatteryVoltage();
-        BatteryState batteryState = device.getBatteryState();
-
-        if (batteryLevel != GBDevice.BATTERY_UNKNOWN) {
-            holder.batteryStatusBox.setVisibility(View.VISIBLE);
-            holder.batteryStatusLabel.setText(device.getBatteryLevel() + "%");
-            if (BatteryState.BATTERY_CHARGING.equals(batteryState) ||
-                    BatteryState.BATTERY_CHARGING_FULL.equals(batteryState)) {
-                holder.batteryIcon.setImageLevel(device.getBatteryLevel() + 100);
-            } else {
-                holder.batteryIcon.setImageLevel(device.getBatteryLevel());
-            }
-        } else if (BatteryState.NO_BATTERY.equals(batteryState) && batteryVoltage != GBDevice.BATTERY_UNKNOWN) {
-            holder.batteryStatusBox.setVisibility(View.VISIBLE);
-            holder.batteryStatusLabel.setText(String.format(Locale.getDefault(), "%.2f", batteryVoltage));
-            holder.batteryIcon.setImageLevel(200);
-        }
-        holder.batteryStatusBox.setOnClickListener(new View.OnClickListener()
-
-                                                   {
-                                                       @Override
-                                                       public void onClick(View v) {
-                                                           Intent startIntent;
-                                                           startIntent = new Intent(context, BatteryInfoActivity.class);
-                                                           startIntent.putExtra(GBDevice.EXTRA_DEVICE, device);
-                                                           context.startActivity(startIntent);
-                                                       }
-                                                   }
-        );
+        bindBattery(holder, device);
 
 
         //device specific settings
@@ -630,6 +617,50 @@ public class GBDeviceAdapterv2 extends RecyclerView.Adapter<GBDeviceAdapterv2.Vi
 
     }
 
+    private void bindStatus(ViewHolder holder, GBDevice device) {
+        if (device.isBusy()) {
+            holder.deviceStatusLabel.setText(device.getBusyTask());
+            holder.busyIndicator.setVisibility(View.VISIBLE);
+        } else {
+            holder.deviceStatusLabel.setText(device.getStateString());
+            holder.busyIndicator.setVisibility(View.INVISIBLE);
+        }
+    }
+
+    private void bindBattery(ViewHolder holder, final GBDevice device) {
+        holder.batteryStatusBox.setVisibility(View.VISIBLE);
+        short batteryLevel = device.getBatteryLevel();
+        float batteryVoltage = device.getBatteryVoltage();
+        BatteryState batteryState = device.getBatteryState();
+
+        if (batteryLevel != GBDevice.BATTERY_UNKNOWN) {
+            holder.batteryStatusBox.setVisibility(View.VISIBLE);
+            holder.batteryStatusLabel.setText(device.getBatteryLevel() + "%");
+            if (BatteryState.BATTERY_CHARGING.equals(batteryState) ||
+                    BatteryState.BATTERY_CHARGING_FULL.equals(batteryState)) {
+                holder.batteryIcon.setImageLevel(device.getBatteryLevel() + 100);
+            } else {
+                holder.batteryIcon.setImageLevel(device.getBatteryLevel());
+            }
+        } else if (BatteryState.NO_BATTERY.equals(batteryState) && batteryVoltage != GBDevice.BATTERY_UNKNOWN) {
+            holder.batteryStatusBox.setVisibility(View.VISIBLE);
+            holder.batteryStatusLabel.setText(String.format(Locale.getDefault(), "%.2f", batteryVoltage));
+            holder.batteryIcon.setImageLevel(200);
+        }
+        holder.batteryStatusBox.setOnClickListener(new View.OnClickListener()
+
+                                                   {
+                                                       @Override
+                                                       public void onClick(View v) {
+                                                           Intent startIntent;
+                                                           startIntent = new Intent(context, BatteryInfoActivity.class);
+                                                           startIntent.putExtra(GBDevice.EXTRA_DEVICE, device);
+                                                           context.startActivity(startIntent);
+                                                       }
+                                                   }
+        );
+    }
+
     private void justifyListViewHeightBasedOnChildren(ListView listView) {
         ArrayAdapter adapter = (ArrayAdapter) listView.getAdapter();
 
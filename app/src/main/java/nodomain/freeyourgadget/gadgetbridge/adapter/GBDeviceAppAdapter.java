@@ -32,6 +32,7 @@ import androidx.recyclerview.widget.RecyclerView;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.appmanager.AbstractAppManagerFragment;
+import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PBWIconLoader;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceApp;
 
 /**
@@ -75,7 +76,6 @@ public class GBDeviceAppAdapter extends RecyclerView.Adapter<GBDeviceAppAdapter.
         final GBDeviceApp deviceApp = appList.get(position);
 
         holder.mDeviceAppVersionAuthorLabel.setText(GBApplication.getContext().getString(R.string.appversion_by_creator, deviceApp.getVersion(), deviceApp.getCreator()));
-        // FIXME: replace with small icons
         String appNameLabelText = deviceApp.getName();
         holder.mDeviceAppNameLabel.setText(appNameLabelText);
 
@@ -95,6 +95,7 @@ public class GBDeviceAppAdapter extends RecyclerView.Adapter<GBDeviceAppAdapter.
             default:
                 holder.mDeviceImageView.setImageResource(R.drawable.ic_watchapp);
         }
+        PBWIconLoader.getInstance().loadIcon(holder.mDeviceImageView, deviceApp, mParentFragment.getPlatformName());
 
         holder.itemView.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -0,0 +1,477 @@
+package nodomain.freeyourgadget.gadgetbridge.contentprovider;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.CrossProcessCursorWrapper;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import androidx.annotation.NonNull;
+import de.greenrobot.dao.Property;
+import nodomain.freeyourgadget.gadgetbridge.BuildConfig;
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.GBException;
+import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleNormalizer;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummaryDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.DeviceDao;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+
+/**
+ * Read-only access to the health data in the database for other apps, which need the
+ * READ_HEALTH_DATA permission of Gadgetbridge.
+ * <p/>
+ * The content URIs are content://AUTHORITY/path with the paths
+ * <ul>
+ * <li>devices: _id, address, name, alias, type, model</li>
+ * <li>samples: _id, timestamp, kind, intensity, steps, heart_rate, raw_kind, raw_intensity</li>
+ * <li>heartrate: _id, timestamp, heart_rate, for the samples with a valid heart rate</li>
+ * <li>daily: _id, day, steps, heart_rate_min, heart_rate_avg, heart_rate_max, samples</li>
+ * <li>summaries: _id, start_time, end_time, kind, name, summary_data</li>
+ * </ul>
+ * All paths but devices need the query parameter device with the address of the device,
+ * and take the optional parameters from and to, inclusive, in seconds since the epoch.
+ * Days start at midnight for the offset to UTC given in seconds by utc_offset, by default
+ * the current one. All paths take the optional parameters limit and offset for paging, and
+ * sort orders of the form "column [ASC|DESC]". Timestamps are in seconds, kinds and
+ * intensities are normalized like in Gadgetbridge.
+ * <p/>
+ * Only the requested columns are computed, and the cursors are SQLite cursors that read
+ * the rows window by window, so large ranges are not loaded at once. The first window is
+ * read before the cursor is returned, the following ones with the database locked again;
+ * if the database has been replaced or deleted in the meantime, moving the cursor fails
+ * with an IllegalStateException and the query has to be repeated. The samples of devices
+ * whose sample providers post-process them, e.g. HPlus, cannot be read like this, and
+ * queries for them fail with an UnsupportedOperationException.
+ */
+public class HealthContentProvider extends ContentProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(HealthContentProvider.class);
+
+    public static final String AUTHORITY = BuildConfig.APPLICATION_ID + ".health";
+    public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY);
+
+    public static final String PATH_DEVICES = "devices";
+    public static final String PATH_SAMPLES = "samples";
+    public static final String PATH_HEART_RATE = "heartrate";
+    public static final String PATH_DAILY = "daily";
+    public static final String PATH_SUMMARIES = "summaries";
+
+    public static final String PARAM_DEVICE = "device";
+    public static final String PARAM_FROM = "from";
+    public static final String PARAM_TO = "to";
+    public static final String PARAM_UTC_OFFSET = "utc_offset";
+    public static final String PARAM_LIMIT = "limit";
+    public static final String PARAM_OFFSET = "offset";
+
+    private static final int DEVICES = 1;
+    private static final int SAMPLES = 2;
+    private static final int HEART_RATE = 3;
+    private static final int DAILY = 4;
+    private static final int SUMMARIES = 5;
+
+    private static final int DAY = 24 * 60 * 60;
+
+    private static final UriMatcher uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        uriMatcher.addURI(AUTHORITY, PATH_DEVICES, DEVICES);
+        uriMatcher.addURI(AUTHORITY, PATH_SAMPLES, SAMPLES);
+        uriMatcher.addURI(AUTHORITY, PATH_HEART_RATE, HEART_RATE);
+        uriMatcher.addURI(AUTHORITY, PATH_DAILY, DAILY);
+        uriMatcher.addURI(AUTHORITY, PATH_SUMMARIES, SUMMARIES);
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        int match = uriMatcher.match(uri);
+        if (match == UriMatcher.NO_MATCH) {
+            throw new IllegalArgumentException("Unknown URI: " + uri);
+        }
+        if (selection != null) {
+            throw new IllegalArgumentException("Selections are not supported, use the query parameters");
+        }
+        try (DBHandler db = GBApplication.acquireDB()) {
+            if (match == DEVICES) {
+                return queryDevices(db, projection, sortOrder, uri);
+            }
+            Device device = findDevice(db, uri);
+            if (match == SUMMARIES) {
+                return querySummaries(db, device, projection, sortOrder, uri);
+            }
+            GBDevice gbDevice = DeviceHelper.getInstance().toGBDevice(device);
+            DeviceCoordinator coordinator = DeviceHelper.getInstance().getCoordinator(gbDevice);
+            SampleProvider<?> provider = coordinator.getSampleProvider(gbDevice, db.getDaoSession());
+            if (provider == null) {
+                throw new IllegalArgumentException("The device has no activity samples: " + device.getIdentifier());
+            }
+            SampleTable table = SampleTable.of(provider);
+            if (table == null) {
+                throw new UnsupportedOperationException("The samples of this device cannot be queried: " + device.getIdentifier());
+            }
+            if (match == DAILY) {
+                return queryDaily(db, device, table, projection, sortOrder, uri);
+            }
+            return querySamples(db, device, table, match == HEART_RATE, projection, sortOrder, uri);
+        } catch (GBException e) {
+            throw new IllegalStateException("Database not available", e);
+        }
+    }
+
+    private Cursor queryDevices(DBHandler db, String[] projection, String sortOrder, Uri uri) {
+        Map<String, String> columns = new LinkedHashMap<>();
+        columns.put("_id", DeviceDao.Properties.Id.columnName);
+        columns.put("address", DeviceDao.Properties.Identifier.columnName);
+        columns.put("name", DeviceDao.Properties.Name.columnName);
+        columns.put("alias", DeviceDao.Properties.Alias.columnName);
+        columns.put("type", DeviceDao.Properties.Type.columnName);
+        columns.put("model", DeviceDao.Properties.Model.columnName);
+        String sql = select(columns, projection) + " FROM " + DeviceDao.TABLENAME
+                + orderBy(columns, sortOrder, "_id") + limit(uri);
+        return withLock(db, db.getDatabase().rawQuery(sql, null));
+    }
+
+    private Cursor querySummaries(DBHandler db, Device device, String[] projection, String sortOrder, Uri uri) {
+        String startTime = BaseActivitySummaryDao.Properties.StartTime.columnName;
+        Map<String, String> columns = new LinkedHashMap<>();
+        columns.put("_id", BaseActivitySummaryDao.Properties.Id.columnName);
+        columns.put("start_time", startTime + " / 1000");
+        columns.put("end_time", BaseActivitySummaryDao.Properties.EndTime.columnName + " / 1000");
+        columns.put("kind", BaseActivitySummaryDao.Properties.ActivityKind.columnName);
+        columns.put("name", BaseActivitySummaryDao.Properties.Name.columnName);
+        columns.put("summary_data", BaseActivitySummaryDao.Properties.SummaryData.columnName);
+        String sql = select(columns, projection) + " FROM " + BaseActivitySummaryDao.TABLENAME
+                + " WHERE " + BaseActivitySummaryDao.Properties.DeviceId.columnName + " = ?"
+                + " AND " + startTime + " >= ? AND " + startTime + " <= ?"
+                + orderBy(columns, sortOrder, "start_time") + limit(uri);
+        return withLock(db, db.getDatabase().rawQuery(sql, new String[]{
+                String.valueOf(device.getId()),
+                String.valueOf(getFrom(uri) * 1000L),
+                String.valueOf(getTo(uri) * 1000L + 999)}));
+    }
+
+    private Cursor querySamples(DBHandler db, Device device, SampleTable table, boolean heartRateOnly,
+                                String[] projection, String sortOrder, Uri uri) {
+        Map<String, String> columns = new LinkedHashMap<>();
+        columns.put("_id", table.timestamp);
+        columns.put("timestamp", table.timestamp);
+        if (heartRateOnly) {
+            columns.put("heart_rate", table.heartRate);
+        } else {
+            columns.put("kind", table.normalizer.getKindSql(table.rawKind));
+            columns.put("intensity", table.normalizer.getIntensitySql(table.rawIntensity));
+            columns.put("steps", table.steps);
+            columns.put("heart_rate", table.heartRate);
+            columns.put("raw_kind", table.rawKind);
+            columns.put("raw_intensity", table.rawIntensity);
+        }
+        String sql = select(columns, projection) + table.where();
+        if (heartRateOnly) {
+            sql += " AND " + table.validHeartRate();
+        }
+        sql += orderBy(columns, sortOrder, "timestamp") + limit(uri);
+        return withLock(db, db.getDatabase().rawQuery(sql, table.whereArgs(device, uri)));
+    }
+
+    private Cursor queryDaily(DBHandler db, Device device, SampleTable table, String[] projection, String sortOrder, Uri uri) {
+        int utcOffset = getInt(uri, PARAM_UTC_OFFSET, TimeZone.getDefault().getOffset(System.currentTimeMillis()) / 1000);
+        String day = "((" + table.timestamp + " + " + utcOffset + ") / " + DAY + ")";
+        String heartRate = "CASE WHEN " + table.validHeartRate() + " THEN " + table.heartRate + " END";
+        Map<String, String> columns = new LinkedHashMap<>();
+        columns.put("_id", day);
+        columns.put("day", day + " * " + DAY + " - " + utcOffset);
+        columns.put("steps", "SUM(CASE WHEN " + table.steps + " > 0 THEN " + table.steps + " ELSE 0 END)");
+        columns.put("heart_rate_min", "MIN(" + heartRate + ")");
+        columns.put("heart_rate_avg", "AVG(" + heartRate + ")");
+        columns.put("heart_rate_max", "MAX(" + heartRate + ")");
+        columns.put("samples", "COUNT(*)");
+        String sql = select(columns, projection) + table.where() + " GROUP BY " + day
+                + orderBy(columns, sortOrder, "day") + limit(uri);
+        return withLock(db, db.getDatabase().rawQuery(sql, table.whereArgs(device, uri)));
+    }
+
+    /**
+     * Reads the first window of the given cursor while the database is still locked, and
+     * locks it again for the following ones.
+     */
+    private static Cursor withLock(DBHandler db, Cursor cursor) {
+        cursor.getCount();
+        return new LockedCursor(cursor, db.getDatabase());
+    }
+
+    private static Device findDevice(DBHandler db, Uri uri) {
+        String address = uri.getQueryParameter(PARAM_DEVICE);
+        if (address == null) {
+            throw new IllegalArgumentException("Missing query parameter " + PARAM_DEVICE + ": " + uri);
+        }
+        Device device = db.getDaoSession().getDeviceDao().queryBuilder()
+                .where(DeviceDao.Properties.Identifier.eq(address))
+                .unique();
+        if (device == null) {
+            throw new IllegalArgumentException("Unknown device: " + address);
+        }
+        return device;
+    }
+
+    /**
+     * Selects only the requested columns, so that SQLite computes nothing else.
+     */
+    private static String select(Map<String, String> columns, String[] projection) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        String[] names = projection != null && projection.length > 0
+                ? projection
+                : columns.keySet().toArray(new String[0]);
+        for (int i = 0; i < names.length; i++) {
+            String expression = columns.get(names[i]);
+            if (expression == null) {
+                throw new IllegalArgumentException("Unknown column: " + names[i]);
+            }
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(expression).append(" AS ").append(names[i]);
+        }
+        return sql.toString();
+    }
+
+    private static String orderBy(Map<String, String> columns, String sortOrder, String defaultColumn) {
+        String column = defaultColumn;
+        String direction = "ASC";
+        if (sortOrder != null && !sortOrder.trim().isEmpty()) {
+            String[] parts = sortOrder.trim().split("\\s+");
+            column = parts[0];
+            if (parts.length == 2) {
+                direction = parts[1].toUpperCase(Locale.ROOT);
+            }
+            if (parts.length > 2 || !columns.containsKey(column) || !(direction.equals("ASC") || direction.equals("DESC"))) {
+                throw new IllegalArgumentException("Unsupported sort order: " + sortOrder);
+            }
+        }
+        return " ORDER BY " + columns.get(column) + " " + direction;
+    }
+
+    private static String limit(Uri uri) {
+        int limit = getInt(uri, PARAM_LIMIT, -1);
+        int offset = getInt(uri, PARAM_OFFSET, 0);
+        if (limit < 0 && offset == 0) {
+            return "";
+        }
+        return " LIMIT " + limit + " OFFSET " + offset;
+    }
+
+    private static int getFrom(Uri uri) {
+        return getInt(uri, PARAM_FROM, 0);
+    }
+
+    private static int getTo(Uri uri) {
+        return getInt(uri, PARAM_TO, Integer.MAX_VALUE);
+    }
+
+    private static int getInt(Uri uri, String name, int defaultValue) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid query parameter " + name + ": " + value);
+        }
+    }
+
+    /**
+     * The columns of a sample table that can be queried directly.
+     */
+    private static class SampleTable {
+        final String table;
+        final String deviceId;
+        final String timestamp;
+        final String rawKind;
+        final String rawIntensity;
+        final String steps;
+        final String heartRate;
+        final SampleNormalizer normalizer;
+
+        private SampleTable(AbstractSampleProvider<?> provider, Map<String, String> columnNames) {
+            table = provider.getSampleDao().getTablename();
+            deviceId = columnNames.get("deviceId");
+            timestamp = columnNames.get("timestamp");
+            rawKind = columnNames.get("rawKind");
+            rawIntensity = columnNames.get("rawIntensity");
+            steps = columnNames.get("steps");
+            heartRate = columnNames.containsKey("heartRate") ? columnNames.get("heartRate") : "NULL";
+            normalizer = SampleNormalizer.forProvider(provider);
+        }
+
+        /**
+         * Returns null if the samples of the provider cannot be queried directly.
+         */
+        static SampleTable of(SampleProvider<?> provider) {
+            if (!(provider instanceof AbstractSampleProvider) || !((AbstractSampleProvider<?>) provider).isRangeCacheable()) {
+                // such providers post-process the samples of a range
+                return null;
+            }
+            AbstractSampleProvider<?> sampleProvider = (AbstractSampleProvider<?>) provider;
+            Map<String, String> columnNames = new LinkedHashMap<>();
+            for (Property property : sampleProvider.getSampleDao().getProperties()) {
+                columnNames.put(property.name, property.columnName);
+            }
+            for (String name : new String[]{"deviceId", "timestamp", "rawKind", "rawIntensity", "steps"}) {
+                if (!columnNames.containsKey(name)) {
+                    LOG.info("Sample table of " + provider.getClass().getSimpleName() + " has no column " + name);
+                    return null;
+                }
+            }
+            return new SampleTable(sampleProvider, columnNames);
+        }
+
+        String where() {
+            return " FROM " + table + " WHERE " + deviceId + " = ? AND " + timestamp + " >= ? AND " + timestamp + " <= ?";
+        }
+
+        String[] whereArgs(Device device, Uri uri) {
+            return new String[]{String.valueOf(device.getId()), String.valueOf(getFrom(uri)), String.valueOf(getTo(uri))};
+        }
+
+        String validHeartRate() {
+            HeartRateUtils heartRateUtils = HeartRateUtils.getInstance();
+            return heartRate + " BETWEEN " + heartRateUtils.getMinHeartRate() + " AND " + heartRateUtils.getMaxHeartRate();
+        }
+    }
+
+    /**
+     * Locks the database whenever the wrapped SQLite cursor may read another window of rows,
+     * within this process as well as when the rows are sent to another one. All moves go
+     * through moveToPosition, like in AbstractCursor.
+     */
+    private static class LockedCursor extends CrossProcessCursorWrapper {
+        private final SQLiteDatabase database;
+
+        LockedCursor(Cursor cursor, SQLiteDatabase database) {
+            super(cursor);
+            this.database = database;
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            lock();
+            try {
+                return super.moveToPosition(position);
+            } finally {
+                GBApplication.releaseDB();
+            }
+        }
+
+        @Override
+        public boolean move(int offset) {
+            return moveToPosition(getPosition() + offset);
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            return moveToPosition(0);
+        }
+
+        @Override
+        public boolean moveToLast() {
+            return moveToPosition(getCount() - 1);
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return moveToPosition(getPosition() + 1);
+        }
+
+        @Override
+        public boolean moveToPrevious() {
+            return moveToPosition(getPosition() - 1);
+        }
+
+        @Override
+        public void fillWindow(int position, CursorWindow window) {
+            lock();
+            try {
+                super.fillWindow(position, window);
+            } finally {
+                GBApplication.releaseDB();
+            }
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            lock();
+            try {
+                return super.onMove(oldPosition, newPosition);
+            } finally {
+                GBApplication.releaseDB();
+            }
+        }
+
+        /**
+         * Acquires the database lock, if the database of the query is still the current one.
+         */
+        private void lock() {
+            DBHandler db;
+            try {
+                db = GBApplication.acquireDB();
+            } catch (GBException e) {
+                throw new IllegalStateException("Database not available", e);
+            }
+            boolean current;
+            try {
+                current = database.isOpen() && db.getDatabase() == database;
+            } catch (IllegalStateException e) {
+                current = false; // no database is open at the moment
+            }
+            if (!current) {
+                GBApplication.releaseDB();
+                throw new IllegalStateException("The database has been replaced, the query must be repeated");
+            }
+        }
+    }
+
+    @Override
+    public String getType(@NonNull Uri uri) {
+        int match = uriMatcher.match(uri);
+        if (match == UriMatcher.NO_MATCH) {
+            return null;
+        }
+        return "vnd.android.cursor.dir/vnd." + AUTHORITY + "." + uri.getLastPathSegment();
+    }
+
+    @Override
+    public Uri insert(@NonNull Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Health data is read-only");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Health data is read-only");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Health data is read-only");
+    }
+}
@@ -0,0 +1,284 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.greenrobot.dao.query.LazyList;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummaryDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySummaryJsonSummary;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySummaryTotals;
+
+import static nodomain.freeyourgadget.gadgetbridge.activities.ActivitySummariesFilter.ALL_DEVICES;
+
+/**
+ * Filtered access to the stored activity summaries.
+ * <p/>
+ * The summaries are read page by page, newest first, using keyset pagination on
+ * (startTime, id), so that opening the list does not need to load every summary.
+ * Totals for the dashboard are aggregated by SQLite, grouped by activity kind and device.
+ */
+public class ActivitySummariesQuery {
+    private static final Logger LOG = LoggerFactory.getLogger(ActivitySummariesQuery.class);
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    // matches no summaries, for devices which are not stored in the database
+    private static final long NO_DEVICE = -1;
+
+    private static final String COL_ID = BaseActivitySummaryDao.Properties.Id.columnName;
+    private static final String COL_START_TIME = BaseActivitySummaryDao.Properties.StartTime.columnName;
+    private static final String COL_END_TIME = BaseActivitySummaryDao.Properties.EndTime.columnName;
+    private static final String COL_ACTIVITY_KIND = BaseActivitySummaryDao.Properties.ActivityKind.columnName;
+    private static final String COL_DEVICE_ID = BaseActivitySummaryDao.Properties.DeviceId.columnName;
+    private static final String COL_NAME = BaseActivitySummaryDao.Properties.Name.columnName;
+
+    private final Long deviceId;
+    private final int activityKind;
+    private final long dateFrom;
+    private final long dateTo;
+    private final String nameContains;
+    private final List<Long> itemIds;
+
+    /**
+     * @param deviceId     the database id of the device, or null for all devices
+     * @param activityKind the activity kind to filter for, or 0 for all kinds
+     * @param dateFrom     only summaries starting after this time (in ms), or 0
+     * @param dateTo       only summaries ending before this time (in ms), or 0
+     * @param nameContains only summaries with a name containing this string, or null
+     * @param itemIds      only summaries with one of these ids, or null
+     */
+    public ActivitySummariesQuery(@Nullable Long deviceId, int activityKind, long dateFrom, long dateTo, @Nullable String nameContains, @Nullable List<Long> itemIds) {
+        this.deviceId = deviceId;
+        this.activityKind = activityKind;
+        this.dateFrom = dateFrom;
+        this.dateTo = dateTo;
+        this.nameContains = nameContains;
+        this.itemIds = itemIds;
+    }
+
+    /**
+     * Returns the database id of the device whose summaries are shown for the given device
+     * filter of the summaries list, or null for all devices.
+     */
+    @Nullable
+    public static Long getDeviceId(DaoSession session, GBDevice device, long deviceFilter) {
+        if (deviceFilter == ALL_DEVICES) {
+            return null;
+        }
+        if (deviceFilter != 0) {
+            return deviceFilter;
+        }
+        Device dbDevice = DBHelper.findDevice(device, session);
+        // a device which has not been stored yet has no summaries either
+        return dbDevice != null ? dbDevice.getId() : NO_DEVICE;
+    }
+
+    /**
+     * Returns the next page of summaries, ordered by start time, newest first.
+     *
+     * @param session the session to use
+     * @param after   the last summary of the previous page, or null for the first page
+     * @param limit   the maximum number of summaries to return
+     */
+    @NonNull
+    public List<BaseActivitySummary> getPage(DaoSession session, @Nullable BaseActivitySummary after, int limit) {
+        List<String> args = new ArrayList<>();
+        StringBuilder where = buildWhere(args);
+        if (after != null && after.getStartTime() != null && after.getId() != null) {
+            appendKeyset(where, args, after, "<");
+        }
+        where.append(" ORDER BY T.").append(COL_START_TIME).append(" DESC, T.").append(COL_ID).append(" DESC")
+                .append(" LIMIT ").append(limit);
+
+        return session.getBaseActivitySummaryDao().queryRaw(where.toString(), args.toArray(new String[0]));
+    }
+
+    /**
+     * Returns the summary following the given one in the list, i.e. the next older one,
+     * or null if it is the last one.
+     */
+    @Nullable
+    public BaseActivitySummary getNext(DaoSession session, BaseActivitySummary summary) {
+        List<BaseActivitySummary> page = getPage(session, summary, 1);
+        return page.isEmpty() ? null : page.get(0);
+    }
+
+    /**
+     * Returns the summary preceding the given one in the list, i.e. the next newer one,
+     * or null if it is the first one.
+     */
+    @Nullable
+    public BaseActivitySummary getPrevious(DaoSession session, BaseActivitySummary summary) {
+        List<String> args = new ArrayList<>();
+        StringBuilder where = buildWhere(args);
+        appendKeyset(where, args, summary, ">");
+        where.append(" ORDER BY T.").append(COL_START_TIME).append(" ASC, T.").append(COL_ID).append(" ASC")
+                .append(" LIMIT 1");
+
+        List<BaseActivitySummary> page = session.getBaseActivitySummaryDao().queryRaw(where.toString(), args.toArray(new String[0]));
+        return page.isEmpty() ? null : page.get(0);
+    }
+
+    /**
+     * Returns the ids of all matching summaries, in the order of the list.
+     */
+    @NonNull
+    public List<Long> getIds(DaoSession session) {
+        List<String> args = new ArrayList<>();
+        String sql = "SELECT T." + COL_ID + " FROM " + BaseActivitySummaryDao.TABLENAME + " T " + buildWhere(args)
+                + " ORDER BY T." + COL_START_TIME + " DESC, T." + COL_ID + " DESC";
+        List<Long> ids = new ArrayList<>();
+        try (Cursor cursor = session.getDatabase().rawQuery(sql, args.toArray(new String[0]))) {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns all matching summaries in the order of the list, read from the database one by
+     * one while iterating. The returned list must be closed.
+     */
+    @NonNull
+    public LazyList<BaseActivitySummary> listLazy(DaoSession session) {
+        List<String> args = new ArrayList<>();
+        StringBuilder where = buildWhere(args);
+        where.append(" ORDER BY T.").append(COL_START_TIME).append(" DESC, T.").append(COL_ID).append(" DESC");
+        return session.getBaseActivitySummaryDao().queryRawCreate(where.toString(), args.toArray()).listLazyUncached();
+    }
+
+    /**
+     * Returns the totals of all matching summaries, grouped by activity kind and device.
+     * Count, duration and time range are computed by SQLite. Distance, calories and active
+     * time are only available inside the (possibly binary) summary data, so they are
+     * accumulated while streaming over the matching rows without keeping them in memory.
+     */
+    @NonNull
+    public List<ActivitySummaryTotals> getTotalsByKindAndDevice(DaoSession session) {
+        Map<String, ActivitySummaryTotals> totals = new LinkedHashMap<>();
+        List<String> args = new ArrayList<>();
+        String where = buildWhere(args).toString();
+        String[] selectionArgs = args.toArray(new String[0]);
+
+        String sql = "SELECT T." + COL_ACTIVITY_KIND + ", T." + COL_DEVICE_ID + ", COUNT(*), "
+                + "SUM(T." + COL_END_TIME + " - T." + COL_START_TIME + "), "
+                + "MIN(T." + COL_START_TIME + "), MAX(T." + COL_END_TIME + ") "
+                + "FROM " + BaseActivitySummaryDao.TABLENAME + " T " + where
+                + " GROUP BY T." + COL_ACTIVITY_KIND + ", T." + COL_DEVICE_ID;
+
+        try (Cursor cursor = session.getDatabase().rawQuery(sql, selectionArgs)) {
+            while (cursor.moveToNext()) {
+                ActivitySummaryTotals group = getGroup(totals, cursor.getInt(0), cursor.getLong(1));
+                group.add(cursor.getInt(2), cursor.getLong(3), cursor.getLong(4), cursor.getLong(5));
+            }
+        }
+
+        LazyList<BaseActivitySummary> summaries = session.getBaseActivitySummaryDao().queryRawCreate(where, (Object[]) selectionArgs).listLazyUncached();
+        try {
+            for (BaseActivitySummary summary : summaries) {
+                JSONObject summaryData = new ActivitySummaryJsonSummary(summary).getSummaryData();
+                if (summaryData == null) {
+                    continue;
+                }
+                ActivitySummaryTotals group = getGroup(totals, summary.getActivityKind(), summary.getDeviceId());
+                try {
+                    group.addSummaryData(
+                            getValue(summaryData, "distanceMeters"),
+                            getValue(summaryData, "caloriesBurnt"),
+                            getValue(summaryData, "activeSeconds"));
+                } catch (JSONException e) {
+                    LOG.error("Unable to read summary data of activity " + summary.getId(), e);
+                }
+            }
+        } finally {
+            summaries.close();
+        }
+
+        return new ArrayList<>(totals.values());
+    }
+
+    private StringBuilder buildWhere(List<String> args) {
+        List<String> conditions = new ArrayList<>();
+        if (deviceId != null) {
+            conditions.add("T." + COL_DEVICE_ID + " = ?");
+            args.add(String.valueOf(deviceId));
+        }
+        if (activityKind != 0) {
+            conditions.add("T." + COL_ACTIVITY_KIND + " = ?");
+            args.add(String.valueOf(activityKind));
+        }
+        if (dateFrom != 0) {
+            conditions.add("T." + COL_START_TIME + " > ?");
+            args.add(String.valueOf(dateFrom));
+        }
+        if (dateTo != 0) {
+            conditions.add("T." + COL_END_TIME + " < ?");
+            args.add(String.valueOf(dateTo));
+        }
+        if (nameContains != null && nameContains.length() > 0) {
+            conditions.add("T." + COL_NAME + " LIKE ?");
+            args.add("%" + nameContains + "%");
+        }
+        if (itemIds != null) {
+            // inlined, a filter made with "select all" can exceed the limit of bound arguments
+            StringBuilder in = new StringBuilder("T." + COL_ID + " IN (");
+            for (int i = 0; i < itemIds.size(); i++) {
+                in.append(i == 0 ? "" : ",").append(itemIds.get(i).longValue());
+            }
+            conditions.add(in.append(")").toString());
+        }
+
+        StringBuilder where = new StringBuilder();
+        for (String condition : conditions) {
+            where.append(where.length() == 0 ? "WHERE " : " AND ").append(condition);
+        }
+        return where;
+    }
+
+    /**
+     * Appends the condition for the summaries before ("<") or after (">") the given one in
+     * the order by start time and id.
+     */
+    private static void appendKeyset(StringBuilder where, List<String> args, BaseActivitySummary summary, String operator) {
+        String startTime = String.valueOf(summary.getStartTime().getTime());
+        where.append(where.length() == 0 ? "WHERE " : " AND ")
+                .append("(T.").append(COL_START_TIME).append(' ').append(operator).append(" ? OR (T.")
+                .append(COL_START_TIME).append(" = ? AND T.").append(COL_ID).append(' ').append(operator).append(" ?))");
+        args.add(startTime);
+        args.add(startTime);
+        args.add(String.valueOf(summary.getId()));
+    }
+
+    private static ActivitySummaryTotals getGroup(Map<String, ActivitySummaryTotals> totals, int activityKind, long deviceId) {
+        String key = activityKind + "/" + deviceId;
+        ActivitySummaryTotals group = totals.get(key);
+        if (group == null) {
+            group = new ActivitySummaryTotals(activityKind, deviceId);
+            totals.put(key, group);
+        }
+        return group;
+    }
+
+    private static double getValue(JSONObject summaryData, String key) throws JSONException {
+        if (summaryData.has(key)) {
+            return summaryData.getJSONObject(key).getDouble("value");
+        }
+        return 0;
+    }
+}
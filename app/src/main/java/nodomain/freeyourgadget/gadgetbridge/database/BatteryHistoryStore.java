@@ -0,0 +1,386 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import de.greenrobot.dao.query.LazyList;
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.entities.BatteryLevel;
+import nodomain.freeyourgadget.gadgetbridge.entities.BatteryLevelDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.BatteryLevelRollup;
+import nodomain.freeyourgadget.gadgetbridge.entities.BatteryLevelRollupDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+
+/**
+ * Stores the battery levels reported by devices and reads them back for charts.
+ * <p/>
+ * Levels are recorded in memory and written in batches, either when enough of them have
+ * been collected or a few minutes after the first one. A level that did not change is only
+ * recorded again once per hour. Besides the raw levels, the min, max, first and last level
+ * of every hour and day are kept in BatteryLevelRollup, so that charts over weeks or months
+ * read one or two points per hour or day instead of every single level. The rollups of the
+ * levels stored before the rollups were introduced are built in the background by
+ * GadgetbridgeUpdate_35, see #rebuildRollups.
+ * <p/>
+ * Hours and days are UTC aligned.
+ */
+public final class BatteryHistoryStore {
+    private static final Logger LOG = LoggerFactory.getLogger(BatteryHistoryStore.class);
+
+    public static final int HOUR = 60 * 60;
+    public static final int DAY = 24 * HOUR;
+    private static final int[] RESOLUTIONS = {HOUR, DAY};
+
+    private static final int MAX_UNCHANGED_INTERVAL = HOUR;
+    private static final int MAX_BATCH_SIZE = 32;
+    private static final long FLUSH_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    // ranges up to these lengths are read from the raw levels and the hourly rollups, respectively
+    private static final int MAX_RAW_RANGE = 2 * DAY;
+    private static final int MAX_HOURLY_RANGE = 31 * DAY;
+
+    private static final BatteryHistoryStore instance = new BatteryHistoryStore();
+
+    // held while writing, so that the same levels are never written twice
+    private final Object flushLock = new Object();
+    // guarded by this, only removed from by #flush
+    private final List<PendingLevel> pending = new ArrayList<>();
+    private final Map<String, PendingLevel> lastRecorded = new HashMap<>();
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> scheduledFlush;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            try (DBHandler db = GBApplication.acquireDB()) {
+                flush(db);
+            } catch (Exception e) {
+                LOG.error("Error storing battery levels", e);
+            }
+        }
+    };
+
+    public static BatteryHistoryStore getInstance() {
+        return instance;
+    }
+
+    /**
+     * Records the current battery level of the given device. The level is written to
+     * the database later on a background thread.
+     */
+    public void record(GBDevice device, int level) {
+        record(device, level, (int) (System.currentTimeMillis() / 1000));
+    }
+
+    synchronized void record(GBDevice device, int level, int timestamp) {
+        PendingLevel last = lastRecorded.get(device.getAddress());
+        if (last != null && last.level == level && timestamp - last.timestamp < MAX_UNCHANGED_INTERVAL) {
+            return;
+        }
+        PendingLevel current = new PendingLevel(device, timestamp, level);
+        lastRecorded.put(device.getAddress(), current);
+        pending.add(current);
+
+        if (pending.size() >= MAX_BATCH_SIZE) {
+            scheduleFlush(0);
+        } else if (scheduledFlush == null) {
+            scheduleFlush(FLUSH_DELAY_MILLIS);
+        }
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "BatteryHistoryStore");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        scheduledFlush = executor.schedule(flushTask, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the recorded levels on the background thread right away instead of waiting for
+     * the batch to fill up, e.g. when a device is disconnected.
+     */
+    public synchronized void flushSoon() {
+        if (!pending.isEmpty()) {
+            scheduleFlush(0);
+        }
+    }
+
+    /**
+     * Writes all recorded levels that have not been written yet. If writing fails, they are
+     * kept and written with the next flush.
+     */
+    public void flush(DBHandler db) {
+        synchronized (flushLock) {
+            final List<PendingLevel> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(pending);
+                if (scheduledFlush != null) {
+                    scheduledFlush.cancel(false);
+                    scheduledFlush = null;
+                }
+            }
+
+            final DaoSession session = db.getDaoSession();
+            try {
+                session.runInTx(new Runnable() {
+                    @Override
+                    public void run() {
+                        store(session, batch);
+                    }
+                });
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    if (scheduledFlush == null) {
+                        scheduleFlush(FLUSH_DELAY_MILLIS);
+                    }
+                }
+                throw e;
+            }
+            synchronized (this) {
+                // record() only appends, so the written levels are still the first ones
+                pending.subList(0, batch.size()).clear();
+            }
+        }
+    }
+
+    private void store(DaoSession session, List<PendingLevel> batch) {
+        BatteryLevelDao levelDao = session.getBatteryLevelDao();
+        BatteryLevelRollupDao rollupDao = session.getBatteryLevelRollupDao();
+        Map<String, Long> deviceIds = new HashMap<>();
+        Map<String, BatteryLevelRollup> rollups = new HashMap<>();
+
+        for (PendingLevel level : batch) {
+            Long deviceId = deviceIds.get(level.device.getAddress());
+            if (deviceId == null) {
+                deviceId = DBHelper.getDevice(level.device, session).getId();
+                deviceIds.put(level.device.getAddress(), deviceId);
+            }
+
+            BatteryLevel batteryLevel = new BatteryLevel();
+            batteryLevel.setTimestamp(level.timestamp);
+            batteryLevel.setDeviceId(deviceId);
+            batteryLevel.setLevel(level.level);
+            levelDao.insertOrReplace(batteryLevel);
+
+            for (int resolution : RESOLUTIONS) {
+                int bucket = getBucketStart(level.timestamp, resolution);
+                String key = deviceId + "/" + resolution + "/" + bucket;
+                BatteryLevelRollup rollup = rollups.get(key);
+                if (rollup == null) {
+                    rollup = rollupDao.queryBuilder().where(
+                            BatteryLevelRollupDao.Properties.DeviceId.eq(deviceId),
+                            BatteryLevelRollupDao.Properties.Resolution.eq(resolution),
+                            BatteryLevelRollupDao.Properties.Timestamp.eq(bucket)).unique();
+                    if (rollup == null) {
+                        rollup = newRollup(deviceId, resolution, bucket);
+                    }
+                    rollups.put(key, rollup);
+                }
+                addToRollup(rollup, level.level);
+            }
+        }
+        rollupDao.insertOrReplaceInTx(rollups.values());
+    }
+
+    /**
+     * Returns the battery levels of the given device in the given range, suitable for
+     * plotting them. Longer ranges are answered from the hourly or daily rollups, with
+     * the min and max level of every hour or day (in the order they were reached).
+     */
+    public List<BatteryLevel> getLevels(DBHandler db, GBDevice device, int timestampFrom, int timestampTo) {
+        flush(db);
+        DaoSession session = db.getDaoSession();
+        Device dbDevice = DBHelper.findDevice(device, session);
+        if (dbDevice == null) {
+            return Collections.emptyList();
+        }
+
+        int range = timestampTo - timestampFrom;
+        if (range <= MAX_RAW_RANGE) {
+            return session.getBatteryLevelDao().queryBuilder().where(
+                    BatteryLevelDao.Properties.DeviceId.eq(dbDevice.getId()),
+                    BatteryLevelDao.Properties.Timestamp.gt(timestampFrom),
+                    BatteryLevelDao.Properties.Timestamp.lt(timestampTo))
+                    .orderAsc(BatteryLevelDao.Properties.Timestamp).list();
+        }
+
+        int resolution = range <= MAX_HOURLY_RANGE ? HOUR : DAY;
+        List<BatteryLevelRollup> rollups = getRollups(session, dbDevice.getId(), resolution, timestampFrom, timestampTo);
+        List<BatteryLevel> levels = new ArrayList<>(rollups.size() * 2);
+        for (BatteryLevelRollup rollup : rollups) {
+            if (rollup.getMinLevel() == rollup.getMaxLevel()) {
+                levels.add(createLevel(rollup, rollup.getTimestamp(), rollup.getMinLevel()));
+            } else if (rollup.getFirstLevel() >= rollup.getLastLevel()) {
+                levels.add(createLevel(rollup, rollup.getTimestamp(), rollup.getMaxLevel()));
+                levels.add(createLevel(rollup, rollup.getTimestamp() + resolution / 2, rollup.getMinLevel()));
+            } else {
+                levels.add(createLevel(rollup, rollup.getTimestamp(), rollup.getMinLevel()));
+                levels.add(createLevel(rollup, rollup.getTimestamp() + resolution / 2, rollup.getMaxLevel()));
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Estimates how many percent the battery of the given device loses per day, based on
+     * the hours in the given range in which it was not charged.
+     *
+     * @return the discharge rate in percent per day, or -1 if there is not enough data
+     */
+    public float getDischargeRatePerDay(DBHandler db, GBDevice device, int timestampFrom, int timestampTo) {
+        flush(db);
+        DaoSession session = db.getDaoSession();
+        Device dbDevice = DBHelper.findDevice(device, session);
+        if (dbDevice == null) {
+            return -1;
+        }
+
+        int discharged = 0;
+        int dischargingSeconds = 0;
+        BatteryLevelRollup previous = null;
+        for (BatteryLevelRollup rollup : getRollups(session, dbDevice.getId(), HOUR, timestampFrom, timestampTo)) {
+            // skip the hours in which the level went up
+            if (previous != null && rollup.getMaxLevel() <= previous.getLastLevel()) {
+                discharged += previous.getLastLevel() - rollup.getLastLevel();
+                dischargingSeconds += rollup.getTimestamp() - previous.getTimestamp();
+            }
+            previous = rollup;
+        }
+        if (dischargingSeconds < HOUR) {
+            return -1;
+        }
+        return discharged * (float) DAY / dischargingSeconds;
+    }
+
+    private List<BatteryLevelRollup> getRollups(DaoSession session, long deviceId, int resolution, int timestampFrom, int timestampTo) {
+        return session.getBatteryLevelRollupDao().queryBuilder().where(
+                BatteryLevelRollupDao.Properties.DeviceId.eq(deviceId),
+                BatteryLevelRollupDao.Properties.Resolution.eq(resolution),
+                BatteryLevelRollupDao.Properties.Timestamp.ge(getBucketStart(timestampFrom, resolution)),
+                BatteryLevelRollupDao.Properties.Timestamp.lt(timestampTo))
+                .orderAsc(BatteryLevelRollupDao.Properties.Timestamp).list();
+    }
+
+    /**
+     * Replaces the rollups of the given device with ones computed from its raw levels. This
+     * reads all levels of the device, so it is only done in the background, by
+     * GadgetbridgeUpdate_35 for the levels stored before the rollups were introduced. The
+     * caller must hold the database and run this in a transaction.
+     */
+    public void rebuildRollups(DaoSession session, long deviceId) {
+        session.getBatteryLevelRollupDao().queryBuilder()
+                .where(BatteryLevelRollupDao.Properties.DeviceId.eq(deviceId))
+                .buildDelete().executeDeleteWithoutDetachingEntities();
+        computeRollups(session, deviceId);
+    }
+
+    private void computeRollups(DaoSession session, long deviceId) {
+        LOG.info("Computing battery level rollups of device " + deviceId);
+        BatteryLevelRollupDao rollupDao = session.getBatteryLevelRollupDao();
+        BatteryLevelRollup[] current = new BatteryLevelRollup[RESOLUTIONS.length];
+        LazyList<BatteryLevel> levels = session.getBatteryLevelDao().queryBuilder()
+                .where(BatteryLevelDao.Properties.DeviceId.eq(deviceId))
+                .orderAsc(BatteryLevelDao.Properties.Timestamp)
+                .listLazyUncached();
+        try {
+            for (BatteryLevel level : levels) {
+                for (int i = 0; i < RESOLUTIONS.length; i++) {
+                    int bucket = getBucketStart(level.getTimestamp(), RESOLUTIONS[i]);
+                    if (current[i] == null || current[i].getTimestamp() != bucket) {
+                        if (current[i] != null) {
+                            rollupDao.insert(current[i]);
+                        }
+                        current[i] = newRollup(deviceId, RESOLUTIONS[i], bucket);
+                    }
+                    addToRollup(current[i], level.getLevel());
+                }
+            }
+        } finally {
+            levels.close();
+        }
+        for (BatteryLevelRollup rollup : current) {
+            if (rollup != null) {
+                rollupDao.insert(rollup);
+            }
+        }
+    }
+
+    /**
+     * Forgets the last recorded levels, so that the next level of every device is recorded
+     * even if it did not change, e.g. after the database has been replaced.
+     */
+    public synchronized void invalidateAll() {
+        lastRecorded.clear();
+    }
+
+    static int getBucketStart(int timestamp, int resolution) {
+        return timestamp - timestamp % resolution;
+    }
+
+    private static BatteryLevelRollup newRollup(long deviceId, int resolution, int bucket) {
+        BatteryLevelRollup rollup = new BatteryLevelRollup();
+        rollup.setDeviceId(deviceId);
+        rollup.setResolution(resolution);
+        rollup.setTimestamp(bucket);
+        return rollup;
+    }
+
+    private static void addToRollup(BatteryLevelRollup rollup, int level) {
+        if (rollup.getSampleCount() == 0) {
+            rollup.setMinLevel(level);
+            rollup.setMaxLevel(level);
+            rollup.setFirstLevel(level);
+        } else {
+            rollup.setMinLevel(Math.min(rollup.getMinLevel(), level));
+            rollup.setMaxLevel(Math.max(rollup.getMaxLevel(), level));
+        }
+        rollup.setLastLevel(level);
+        rollup.setSampleCount(rollup.getSampleCount() + 1);
+    }
+
+    private static BatteryLevel createLevel(BatteryLevelRollup rollup, int timestamp, int level) {
+        BatteryLevel batteryLevel = new BatteryLevel();
+        batteryLevel.setTimestamp(timestamp);
+        batteryLevel.setDeviceId(rollup.getDeviceId());
+        batteryLevel.setLevel(level);
+        return batteryLevel;
+    }
+
+    private static class PendingLevel {
+        final GBDevice device;
+        final int timestamp;
+        final int level;
+
+        PendingLevel(GBDevice device, int timestamp, int level) {
+            this.device = device;
+            this.timestamp = timestamp;
+            this.level = level;
+        }
+    }
+}
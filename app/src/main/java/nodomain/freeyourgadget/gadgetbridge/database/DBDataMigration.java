@@ -0,0 +1,34 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Interface for migrating the data of a database in the background, e.g. rewriting the
+ * rows of a large table or creating an index on it, which would block the application
+ * for too long if it was done by a DBUpdateScript while the database is opened.
+ * <p/>
+ * A migration is run in batches, each in its own transaction, by DataMigrations. The
+ * position reached is stored with every batch, so the migration continues there after
+ * the process died. The application must keep working while the migration has not
+ * finished yet.
+ * <p/>
+ * A DBUpdateScript may implement this interface as well, its migration is then started
+ * after its schema upgrade. Implementations must be listed in DataMigrations#createMigration.
+ */
+public interface DBDataMigration {
+    long DONE = -1;
+
+    /**
+     * Returns the position at which the migration will be done. This is only used to
+     * report the progress.
+     */
+    long getEndPosition(SQLiteDatabase database);
+
+    /**
+     * Migrates a bounded amount of data, e.g. a few thousand rows, starting at the given
+     * position, which is 0 for the first batch.
+     *
+     * @return the position to continue at, or #DONE
+     */
+    long migrateBatch(SQLiteDatabase database, long position);
+}
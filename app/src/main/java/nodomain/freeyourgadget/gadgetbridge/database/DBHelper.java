@@ -44,8 +44,11 @@ import de.greenrobot.dao.query.Query;
 import de.greenrobot.dao.query.QueryBuilder;
 import de.greenrobot.dao.query.WhereCondition;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivitySessionIndex;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.HeartRateHistogramIndex;
 import nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleRangeCache;
 import nodomain.freeyourgadget.gadgetbridge.entities.ActivityDescription;
 import nodomain.freeyourgadget.gadgetbridge.entities.ActivityDescriptionDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.Alarm;
@@ -62,6 +65,7 @@ import nodomain.freeyourgadget.gadgetbridge.entities.UserAttributes;
 import nodomain.freeyourgadget.gadgetbridge.entities.UserDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceSummaryCache;
 import nodomain.freeyourgadget.gadgetbridge.model.ValidByDate;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
@@ -146,6 +150,11 @@ public class DBHelper {
             FileUtils.copyFile(fromFile, toFile);
         } finally {
             dbHandler.openDb();
+            BatteryHistoryStore.getInstance().invalidateAll();
+            ActivitySessionIndex.getInstance().invalidateAll();
+            HeartRateHistogramIndex.getInstance().invalidateAll();
+            DeviceSummaryCache.getInstance().invalidateAll();
+            SampleRangeCache.getInstance().invalidateAll();
         }
     }
 
@@ -167,6 +176,16 @@ public class DBHelper {
         return path != null && path.exists();
     }
 
+    public static boolean existsTable(String tableName, SQLiteDatabase db) {
+        return existsSchemaObject("table", tableName, db);
+    }
+
+    private static boolean existsSchemaObject(String type, String name, SQLiteDatabase db) {
+        try (Cursor res = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type = ? AND name = ?", new String[]{type, name})) {
+            return res.moveToFirst();
+        }
+    }
+
     public static boolean existsColumn(String tableName, String columnName, SQLiteDatabase db) {
         try (Cursor res = db.rawQuery("PRAGMA table_info('" + tableName + "')", null)) {
             int index = res.getColumnIndex("name");
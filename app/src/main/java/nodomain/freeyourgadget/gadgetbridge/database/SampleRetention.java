@@ -0,0 +1,541 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.SystemClock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import de.greenrobot.dao.Property;
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.GBException;
+import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.HeartRateHistogramIndex;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleRangeCache;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivitySampleRollup;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivitySampleRollupDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceSummaryCache;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
+
+/**
+ * Downsamples old activity samples, so that the database does not grow without bound.
+ * <p/>
+ * Retention is configured as a list of tiers "days:seconds", e.g. "90:300,365:3600": samples
+ * older than 90 days are combined into one sample per 5 minutes, and samples older than a
+ * year into one sample per hour. The combined sample takes the place of the originals in the
+ * same table, at the start of its bucket, with the sum of the steps, the raw kind of the
+ * majority of the originals, their mean raw intensity and the mean of their valid heart
+ * rates. Sample providers therefore return it like any other sample, and analyses that
+ * weight samples by the time until the next one, like ActivityAnalysis, still add up. The
+ * number of originals and their min and max heart rate are kept in ActivitySampleRollup.
+ * <p/>
+ * Optionally, the originals are archived to a gzipped CSV file in the external files
+ * directory before they are deleted. Only sample tables that consist of the common columns
+ * are downsampled; device specific columns could not be combined meaningfully.
+ * <p/>
+ * Runs once a day when enabled, see #scheduleAlarm.
+ */
+public class SampleRetention extends BroadcastReceiver {
+    private static final Logger LOG = LoggerFactory.getLogger(SampleRetention.class);
+
+    public static final String PREF_ENABLED = "retention_enabled";
+    public static final String PREF_TIERS = "retention_tiers";
+    public static final String PREF_ARCHIVE = "retention_archive";
+    public static final String DEFAULT_TIERS = "90:300,365:3600";
+    private static final String ARCHIVE_DIR = "retention";
+
+    static final int DAY = 24 * 60 * 60;
+    private static final int MIN_RESOLUTION = 120;
+    // the fraction of free pages from which the database is vacuumed
+    private static final int VACUUM_FREE_PAGES_DIVISOR = 10;
+
+    private static final List<String> COMMON_PROPERTIES = Arrays.asList(
+            "timestamp", "deviceId", "userId", "rawIntensity", "steps", "rawKind", "heartRate");
+
+    public static void enableRetention(Context context) {
+        scheduleAlarm(context, GBApplication.getPrefs().getBoolean(PREF_ENABLED, false));
+    }
+
+    public static void scheduleAlarm(Context context, boolean enabled) {
+        Intent i = new Intent(context, SampleRetention.class);
+        int flags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0;
+        PendingIntent pi = PendingIntent.getBroadcast(context, 0, i, flags);
+        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        am.cancel(pi);
+        if (!enabled) {
+            return;
+        }
+        LOG.info("Enabling daily sample retention");
+        am.setInexactRepeating(
+                AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_HOUR,
+                AlarmManager.INTERVAL_DAY,
+                pi
+        );
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!GBApplication.getPrefs().getBoolean(PREF_ENABLED, false)) {
+            return;
+        }
+        // keeps the process alive until the thread is done, even if nothing else runs
+        final PendingResult result = goAsync();
+        Thread thread = new Thread("SampleRetention") {
+            @Override
+            public void run() {
+                try {
+                    applyToAllDevices((int) (System.currentTimeMillis() / 1000));
+                } catch (Exception e) {
+                    LOG.error("Error applying sample retention", e);
+                } finally {
+                    result.finish();
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Applies the configured tiers to all devices, then gives the pages of the deleted
+     * samples back to the file system, see #reclaimSpace.
+     */
+    public static void applyToAllDevices(int now) throws IOException, GBException {
+        Prefs prefs = GBApplication.getPrefs();
+        boolean archive = prefs.getBoolean(PREF_ARCHIVE, true);
+        String tiers = prefs.getString(PREF_TIERS, DEFAULT_TIERS);
+        List<Tier> parsedTiers;
+        try {
+            parsedTiers = parseTiers(tiers);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Invalid retention tiers: " + tiers);
+            return;
+        }
+
+        List<GBDevice> devices = new ArrayList<>();
+        try (DBHandler db = GBApplication.acquireDB()) {
+            for (Device dbDevice : DBHelper.getActiveDevices(db.getDaoSession())) {
+                devices.add(DeviceHelper.getInstance().toGBDevice(dbDevice));
+            }
+        }
+        int removed = 0;
+        for (GBDevice device : devices) {
+            File archiveDir = archive ? new File(FileUtils.getExternalFilesDir(), ARCHIVE_DIR) : null;
+            removed += apply(device, parsedTiers, now, archiveDir);
+        }
+        if (removed > 0) {
+            LOG.info("Removed " + removed + " samples");
+            try (DBHandler db = GBApplication.acquireDB()) {
+                reclaimSpace(db.getDatabase());
+            }
+        }
+    }
+
+    /**
+     * Shrinks the database file by its free pages. Once the database uses incremental auto
+     * vacuum, this only truncates the free pages, which is cheap. Before that, the database
+     * is converted with a full VACUUM, which rewrites the whole file and therefore only runs
+     * when at least a tenth of the pages are free.
+     */
+    static void reclaimSpace(SQLiteDatabase db) {
+        if (queryLong(db, "PRAGMA auto_vacuum") == 2) {
+            // returns no rows, but every step frees pages, so step through it with a query
+            try (Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null)) {
+                cursor.getCount();
+            }
+            return;
+        }
+        long freePages = queryLong(db, "PRAGMA freelist_count");
+        long pages = queryLong(db, "PRAGMA page_count");
+        if (freePages == 0 || freePages < pages / VACUUM_FREE_PAGES_DIVISOR) {
+            return;
+        }
+        LOG.info("Vacuuming the database, " + freePages + " of " + pages + " pages are free");
+        // takes effect with the following VACUUM
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        db.execSQL("VACUUM");
+    }
+
+    private static long queryLong(SQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.rawQuery(sql, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /**
+     * Downsamples the samples of the given device according to the given tiers. The database
+     * is acquired for one chunk of at most a day at a time, so that e.g. a synchronization
+     * does not have to wait until all samples of the device have been processed.
+     *
+     * @param archiveDir where to archive the original samples, or null
+     * @return the number of samples removed
+     */
+    public static int apply(GBDevice device, List<Tier> tiers, int now, File archiveDir) throws IOException, GBException {
+        int removed = 0;
+        Writer archive = null;
+        try {
+            for (Tier tier : tiers) {
+                int start;
+                try (DBHandler db = GBApplication.acquireDB()) {
+                    start = getStart(db.getDaoSession(), device, tier.resolution);
+                }
+                int end = floor(now - tier.days * DAY, tier.resolution);
+                int chunkEnd;
+                for (int chunkStart = start; chunkStart < end; chunkStart = chunkEnd) {
+                    chunkEnd = Math.min(floor(chunkStart, DAY) + DAY, end);
+                    try (DBHandler db = GBApplication.acquireDB()) {
+                        DaoSession session = db.getDaoSession();
+                        AbstractSampleProvider<AbstractActivitySample> provider = getSupportedProvider(session, device);
+                        Device dbDevice = provider != null ? DBHelper.findDevice(device, session) : null;
+                        if (dbDevice == null) {
+                            break; // the device or its settings have changed in the meantime
+                        }
+                        List<AbstractActivitySample> samples = provider.getAllActivitySamples(chunkStart, chunkEnd - 1);
+                        if (samples.isEmpty()) {
+                            continue;
+                        }
+                        if (archiveDir != null && archive == null) {
+                            archive = openArchive(archiveDir, device, provider, now);
+                        }
+                        int chunkRemoved = downsample(session, provider, dbDevice.getId(), samples, chunkStart, chunkEnd, tier.resolution, archive);
+                        if (chunkRemoved > 0) {
+                            HeartRateHistogramIndex.getInstance().onSamplesReplaced(session, provider, dbDevice.getId(), chunkStart, chunkEnd - 1);
+                            SampleRangeCache.getInstance().invalidate(device);
+                            DeviceSummaryCache.getInstance().invalidate(device);
+                        }
+                        removed += chunkRemoved;
+                    }
+                }
+            }
+        } finally {
+            if (archive != null) {
+                archive.close();
+            }
+        }
+        if (removed > 0) {
+            LOG.info("Downsampled old samples of " + device.getName() + ", removed " + removed);
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the rollups of the given device in the given range, by timestamp. Samples
+     * without a rollup have not been downsampled.
+     */
+    public static Map<Integer, ActivitySampleRollup> getRollups(DaoSession session, long deviceId, int timestampFrom, int timestampTo) {
+        List<ActivitySampleRollup> rollups = session.getActivitySampleRollupDao().queryBuilder()
+                .where(ActivitySampleRollupDao.Properties.DeviceId.eq(deviceId),
+                        ActivitySampleRollupDao.Properties.Timestamp.ge(timestampFrom),
+                        ActivitySampleRollupDao.Properties.Timestamp.le(timestampTo))
+                .list();
+        Map<Integer, ActivitySampleRollup> result = new HashMap<>();
+        for (ActivitySampleRollup rollup : rollups) {
+            result.put(rollup.getTimestamp(), rollup);
+        }
+        return result;
+    }
+
+    /**
+     * Parses tiers like "90:300,365:3600" and returns them ordered by age.
+     */
+    public static List<Tier> parseTiers(String tiers) {
+        List<Tier> result = new ArrayList<>();
+        if (tiers == null || tiers.trim().isEmpty()) {
+            return result;
+        }
+        for (String tier : tiers.split(",")) {
+            String[] parts = tier.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("invalid tier: " + tier);
+            }
+            int days = Integer.parseInt(parts[0].trim());
+            int resolution = Integer.parseInt(parts[1].trim());
+            if (days <= 0 || resolution < MIN_RESOLUTION || DAY % resolution != 0) {
+                throw new IllegalArgumentException("invalid tier: " + tier);
+            }
+            result.add(new Tier(days, resolution));
+        }
+        Collections.sort(result, new Comparator<Tier>() {
+            @Override
+            public int compare(Tier lhs, Tier rhs) {
+                return lhs.days - rhs.days;
+            }
+        });
+        for (int i = 1; i < result.size(); i++) {
+            if (result.get(i).resolution < result.get(i - 1).resolution) {
+                throw new IllegalArgumentException("older samples must not have a finer resolution: " + tiers);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the sample provider of the device if its samples can be downsampled, or null.
+     */
+    private static AbstractSampleProvider<AbstractActivitySample> getSupportedProvider(DaoSession session, GBDevice device) {
+        DeviceCoordinator coordinator = DeviceHelper.getInstance().getCoordinator(device);
+        SampleProvider<?> sampleProvider = coordinator.getSampleProvider(device, session);
+        if (!(sampleProvider instanceof AbstractSampleProvider) || !isSupported((AbstractSampleProvider<?>) sampleProvider)) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        AbstractSampleProvider<AbstractActivitySample> provider = (AbstractSampleProvider<AbstractActivitySample>) sampleProvider;
+        return provider;
+    }
+
+    /**
+     * Returns where to start downsampling into the given resolution, or Integer.MAX_VALUE if
+     * there is nothing to downsample.
+     */
+    private static int getStart(DaoSession session, GBDevice device, int resolution) {
+        AbstractSampleProvider<AbstractActivitySample> provider = getSupportedProvider(session, device);
+        Device dbDevice = provider != null ? DBHelper.findDevice(device, session) : null;
+        if (dbDevice == null) {
+            return Integer.MAX_VALUE;
+        }
+        int start = getResumePoint(session, dbDevice.getId(), resolution);
+        if (start < 0) {
+            AbstractActivitySample first = provider.getFirstActivitySample();
+            if (first == null) {
+                return Integer.MAX_VALUE;
+            }
+            start = floor(first.getTimestamp(), resolution);
+        }
+        return start;
+    }
+
+    private static boolean isSupported(AbstractSampleProvider<?> provider) {
+        if (!provider.isRangeCacheable()) {
+            // such providers post-process the samples of a range
+            return false;
+        }
+        for (Property property : provider.getSampleDao().getProperties()) {
+            if (!COMMON_PROPERTIES.contains(property.name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns where to continue downsampling into the given resolution: after the last
+     * sample that has been downsampled into it or a coarser one, or -1.
+     */
+    private static int getResumePoint(DaoSession session, long deviceId, int resolution) {
+        List<ActivitySampleRollup> last = session.getActivitySampleRollupDao().queryBuilder()
+                .where(ActivitySampleRollupDao.Properties.DeviceId.eq(deviceId),
+                        ActivitySampleRollupDao.Properties.Resolution.ge(resolution))
+                .orderDesc(ActivitySampleRollupDao.Properties.Timestamp)
+                .limit(1)
+                .list();
+        if (last.isEmpty()) {
+            return -1;
+        }
+        return floor(last.get(0).getTimestamp(), resolution) + resolution;
+    }
+
+    private static int downsample(DaoSession session, final AbstractSampleProvider<AbstractActivitySample> provider, final long deviceId,
+                                  List<AbstractActivitySample> samples, final int chunkStart, final int chunkEnd, int resolution,
+                                  Writer archive) throws IOException {
+        Map<Integer, ActivitySampleRollup> oldRollups = getRollups(session, deviceId, chunkStart, chunkEnd - 1);
+        Collections.sort(samples, new Comparator<AbstractActivitySample>() {
+            @Override
+            public int compare(AbstractActivitySample lhs, AbstractActivitySample rhs) {
+                return lhs.getTimestamp() - rhs.getTimestamp();
+            }
+        });
+
+        final List<AbstractActivitySample> downsampled = new ArrayList<>();
+        final List<ActivitySampleRollup> rollups = new ArrayList<>();
+        boolean changed = false;
+        Bucket bucket = null;
+        for (AbstractActivitySample sample : samples) {
+            int bucketStart = floor(sample.getTimestamp(), resolution);
+            if (bucket == null || bucket.start != bucketStart) {
+                if (bucket != null) {
+                    bucket.addTo(provider, deviceId, downsampled, rollups);
+                }
+                bucket = new Bucket(bucketStart, resolution);
+            }
+            ActivitySampleRollup oldRollup = oldRollups.get(sample.getTimestamp());
+            bucket.add(sample, oldRollup);
+            changed |= bucket.rowCount > 1 || sample.getTimestamp() != bucketStart
+                    || oldRollup == null || oldRollup.getResolution() < resolution;
+        }
+        bucket.addTo(provider, deviceId, downsampled, rollups);
+        if (!changed) {
+            // already downsampled into this resolution
+            return 0;
+        }
+
+        if (archive != null) {
+            for (AbstractActivitySample sample : samples) {
+                archive.write(sample.getTimestamp() + "," + sample.getRawKind() + "," + sample.getRawIntensity() + ","
+                        + sample.getSteps() + "," + sample.getHeartRate() + "\n");
+            }
+            archive.flush();
+        }
+
+        final ActivitySampleRollupDao rollupDao = session.getActivitySampleRollupDao();
+        session.runInTx(new Runnable() {
+            @Override
+            public void run() {
+                provider.replaceActivitySamples(chunkStart, chunkEnd - 1, downsampled);
+                rollupDao.queryBuilder()
+                        .where(ActivitySampleRollupDao.Properties.DeviceId.eq(deviceId),
+                                ActivitySampleRollupDao.Properties.Timestamp.ge(chunkStart),
+                                ActivitySampleRollupDao.Properties.Timestamp.lt(chunkEnd))
+                        .buildDelete().executeDeleteWithoutDetachingEntities();
+                rollupDao.insertInTx(rollups);
+                rollupDao.detachAll();
+            }
+        });
+        return samples.size() - downsampled.size();
+    }
+
+    private static Writer openArchive(File archiveDir, GBDevice device, AbstractSampleProvider<?> provider, int now) throws IOException {
+        if (!archiveDir.isDirectory() && !archiveDir.mkdirs()) {
+            throw new IOException("Could not create " + archiveDir);
+        }
+        String name = provider.getSampleDao().getTablename() + "_" + device.getAddress().replaceAll("[^A-Za-z0-9]", "") + "_" + now + ".csv.gz";
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(new File(archiveDir, name)), true), StandardCharsets.UTF_8));
+        writer.write("timestamp,rawKind,rawIntensity,steps,heartRate\n");
+        return writer;
+    }
+
+    private static int floor(int timestamp, int resolution) {
+        return timestamp - ((timestamp % resolution) + resolution) % resolution;
+    }
+
+    public static class Tier {
+        final int days;
+        final int resolution;
+
+        public Tier(int days, int resolution) {
+            this.days = days;
+            this.resolution = resolution;
+        }
+
+        @Override
+        public String toString() {
+            return days + ":" + resolution;
+        }
+    }
+
+    /**
+     * Combines the samples of one bucket, weighted by the number of original samples
+     * they stand for.
+     */
+    private static class Bucket {
+        final int start;
+        final int resolution;
+        long userId;
+        // the number of samples in the bucket, and the number of originals they stand for
+        int rowCount;
+        int sampleCount;
+        int steps;
+        long intensitySum;
+        // ordered by first occurrence, which decides ties
+        final Map<Integer, Integer> kindCounts = new LinkedHashMap<>();
+        long heartRateSum;
+        int heartRateCount;
+        int heartRateMin;
+        int heartRateMax;
+        int invalidHeartRate;
+
+        Bucket(int start, int resolution) {
+            this.start = start;
+            this.resolution = resolution;
+        }
+
+        void add(AbstractActivitySample sample, ActivitySampleRollup rollup) {
+            int weight = rollup != null ? rollup.getSampleCount() : 1;
+            if (sampleCount == 0) {
+                userId = sample.getUserId();
+                invalidHeartRate = sample.getHeartRate();
+            }
+            rowCount++;
+            sampleCount += weight;
+            steps += Math.max(0, sample.getSteps());
+            intensitySum += (long) sample.getRawIntensity() * weight;
+            Integer kindCount = kindCounts.get(sample.getRawKind());
+            kindCounts.put(sample.getRawKind(), (kindCount != null ? kindCount : 0) + weight);
+
+            int heartRate = sample.getHeartRate();
+            if (HeartRateUtils.getInstance().isValidHeartRateValue(heartRate)) {
+                int min = rollup != null && rollup.getHeartRateMin() > 0 ? rollup.getHeartRateMin() : heartRate;
+                int max = rollup != null && rollup.getHeartRateMax() > 0 ? rollup.getHeartRateMax() : heartRate;
+                heartRateMin = heartRateCount == 0 ? min : Math.min(heartRateMin, min);
+                heartRateMax = heartRateCount == 0 ? max : Math.max(heartRateMax, max);
+                heartRateSum += (long) heartRate * weight;
+                heartRateCount += weight;
+            }
+        }
+
+        void addTo(AbstractSampleProvider<AbstractActivitySample> provider, long deviceId,
+                   List<AbstractActivitySample> samples, List<ActivitySampleRollup> rollups) {
+            int kind = 0;
+            int kindCount = -1;
+            for (Map.Entry<Integer, Integer> entry : kindCounts.entrySet()) {
+                if (entry.getValue() > kindCount) {
+                    kind = entry.getKey();
+                    kindCount = entry.getValue();
+                }
+            }
+
+            AbstractActivitySample sample = provider.createActivitySample();
+            sample.setTimestamp(start);
+            sample.setDeviceId(deviceId);
+            sample.setUserId(userId);
+            sample.setRawKind(kind);
+            sample.setRawIntensity(Math.round((float) intensitySum / sampleCount));
+            sample.setSteps(steps);
+            sample.setHeartRate(heartRateCount > 0 ? Math.round((float) heartRateSum / heartRateCount) : invalidHeartRate);
+            samples.add(sample);
+
+            ActivitySampleRollup rollup = new ActivitySampleRollup();
+            rollup.setDeviceId(deviceId);
+            rollup.setTimestamp(start);
+            rollup.setResolution(resolution);
+            rollup.setSampleCount(sampleCount);
+            rollup.setHeartRateMin(heartRateCount > 0 ? heartRateMin : 0);
+            rollup.setHeartRateMax(heartRateCount > 0 ? heartRateMax : 0);
+            rollups.add(rollup);
+        }
+    }
+}
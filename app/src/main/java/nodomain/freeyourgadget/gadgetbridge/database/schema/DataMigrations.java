@@ -0,0 +1,211 @@
+package nodomain.freeyourgadget.gadgetbridge.database.schema;
+
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+
+import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivitySessionRebuild;
+import nodomain.freeyourgadget.gadgetbridge.database.DBDataMigration;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+
+/**
+ * Keeps track of the pending DBDataMigrations and runs them on a background thread.
+ * <p/>
+ * Migrations are scheduled while the database is upgraded, in the same transaction as
+ * the schema changes, and recorded in the DATA_MIGRATION table together with the position
+ * they have reached. Every batch acquires the database, so other threads can use it in
+ * between.
+ */
+public class DataMigrations {
+    private static final Logger LOG = LoggerFactory.getLogger(DataMigrations.class);
+
+    public static final String ACTION_PROGRESS = "nodomain.freeyourgadget.gadgetbridge.database.action.data_migration_progress";
+    public static final String EXTRA_MIGRATION = "migration";
+    public static final String EXTRA_PROGRESS = "progress";
+
+    private static final String TABLE = "DATA_MIGRATION";
+    // between batches, so that a waiting thread gets the database
+    private static final long PAUSE_MILLIS = 20;
+
+    private static final DataMigrations instance = new DataMigrations();
+
+    // guarded by this
+    private boolean running;
+    private boolean restart;
+
+    public static DataMigrations getInstance() {
+        return instance;
+    }
+
+    /**
+     * Records that the given migration has to be run, from the start. It must be listed in
+     * #createMigration.
+     */
+    public static void schedule(SQLiteDatabase db, Class<?> migration) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE + " (NAME TEXT PRIMARY KEY NOT NULL, POSITION INTEGER NOT NULL)");
+        db.execSQL("INSERT OR REPLACE INTO " + TABLE + " (NAME, POSITION) VALUES (?, 0)", new Object[]{migration.getName()});
+    }
+
+    /**
+     * Forgets all pending migrations, e.g. when the database is downgraded to a schema they
+     * do not know.
+     */
+    public static void cancelAll(SQLiteDatabase db) {
+        DBHelper.dropTable(TABLE, db);
+    }
+
+    /**
+     * Returns the class names of the pending migrations, in the order they were scheduled.
+     */
+    public static List<String> getPending(SQLiteDatabase db) {
+        List<String> pending = new ArrayList<>();
+        if (!DBHelper.existsTable(TABLE, db)) {
+            return pending;
+        }
+        try (Cursor cursor = db.rawQuery("SELECT NAME FROM " + TABLE + " ORDER BY ROWID", null)) {
+            while (cursor.moveToNext()) {
+                pending.add(cursor.getString(0));
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Runs the next batch of the given pending migration in a transaction.
+     *
+     * @return the position reached, or DBDataMigration#DONE
+     */
+    static long runBatch(SQLiteDatabase db, String name, DBDataMigration migration) {
+        db.beginTransaction();
+        try {
+            long position;
+            try (Cursor cursor = db.rawQuery("SELECT POSITION FROM " + TABLE + " WHERE NAME = ?", new String[]{name})) {
+                position = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+            }
+            long next = migration.migrateBatch(db, position);
+            if (next == DBDataMigration.DONE) {
+                db.execSQL("DELETE FROM " + TABLE + " WHERE NAME = ?", new Object[]{name});
+            } else {
+                db.execSQL("UPDATE " + TABLE + " SET POSITION = ? WHERE NAME = ?", new Object[]{next, name});
+            }
+            db.setTransactionSuccessful();
+            return next;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Runs the pending migrations on a background thread. If they are already running,
+     * the pending migrations are looked up again when they are done.
+     */
+    public synchronized void start() {
+        if (running) {
+            restart = true;
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                do {
+                    try {
+                        runPending();
+                    } catch (Exception e) {
+                        LOG.error("Error migrating the database, continuing on the next start", e);
+                    }
+                } while (checkRestart());
+            }
+        }, "DataMigrations");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private synchronized boolean checkRestart() {
+        if (restart) {
+            restart = false;
+            return true;
+        }
+        running = false;
+        return false;
+    }
+
+    private void runPending() throws Exception {
+        List<String> pending;
+        try (DBHandler handler = GBApplication.acquireDB()) {
+            pending = getPending(handler.getDatabase());
+        }
+        for (String name : pending) {
+            DBDataMigration migration;
+            long end;
+            try (DBHandler handler = GBApplication.acquireDB()) {
+                migration = createMigration(name);
+                if (migration == null) {
+                    LOG.warn("Dropping unknown data migration " + name);
+                    handler.getDatabase().execSQL("DELETE FROM " + TABLE + " WHERE NAME = ?", new Object[]{name});
+                    continue;
+                }
+                end = migration.getEndPosition(handler.getDatabase());
+            }
+
+            LOG.info("Running data migration " + name);
+            long start = SystemClock.elapsedRealtime();
+            int lastProgress = -1;
+            long position;
+            do {
+                try (DBHandler handler = GBApplication.acquireDB()) {
+                    position = runBatch(handler.getDatabase(), name, migration);
+                }
+                int progress = 100;
+                if (position != DBDataMigration.DONE) {
+                    progress = end > 0 ? (int) Math.min(99, position * 100 / end) : 0;
+                    Thread.sleep(PAUSE_MILLIS);
+                }
+                if (progress != lastProgress) {
+                    reportProgress(name, progress, lastProgress);
+                    lastProgress = progress;
+                }
+            } while (position != DBDataMigration.DONE);
+            LOG.info("Data migration " + name + " took " + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+    }
+
+    /**
+     * Returns a new instance of the migration with the given class name, or null if there is
+     * no such migration (anymore). Every migration that is scheduled must be listed here.
+     */
+    static DBDataMigration createMigration(String name) {
+        if (GadgetbridgeUpdate_35.class.getName().equals(name)) {
+            return new GadgetbridgeUpdate_35();
+        }
+        if (GadgetbridgeUpdate_39.class.getName().equals(name)) {
+            return new GadgetbridgeUpdate_39();
+        }
+        if (ActivitySessionRebuild.class.getName().equals(name)) {
+            return new ActivitySessionRebuild();
+        }
+        return null;
+    }
+
+    private void reportProgress(String name, int progress, int lastProgress) {
+        if (progress / 10 != lastProgress / 10) {
+            LOG.info("Data migration " + name + " at " + progress + "%");
+        }
+        Intent intent = new Intent(ACTION_PROGRESS)
+                .putExtra(EXTRA_MIGRATION, name)
+                .putExtra(EXTRA_PROGRESS, progress);
+        LocalBroadcastManager.getInstance(GBApplication.getContext()).sendBroadcast(intent);
+    }
+}
@@ -0,0 +1,51 @@
+package nodomain.freeyourgadget.gadgetbridge.database.schema;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.database.BatteryHistoryStore;
+import nodomain.freeyourgadget.gadgetbridge.database.DBDataMigration;
+import nodomain.freeyourgadget.gadgetbridge.database.DBUpdateScript;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.DeviceDao;
+
+/**
+ * Builds the hourly and daily rollups of the battery levels stored before the new
+ * BatteryLevelRollup table existed, in the background, so that the first battery chart does
+ * not have to read all levels. The table itself is created by DBOpenHelper. The rollups of
+ * one device are built per batch, the position is the number of devices done.
+ */
+public class GadgetbridgeUpdate_35 implements DBUpdateScript, DBDataMigration {
+    @Override
+    public void upgradeSchema(SQLiteDatabase db) {
+        // nothing to do while the database is opened, see #migrateBatch
+    }
+
+    @Override
+    public long getEndPosition(SQLiteDatabase db) {
+        return getDevices(new DaoMaster(db).newSession()).size();
+    }
+
+    @Override
+    public long migrateBatch(SQLiteDatabase db, long position) {
+        DaoSession session = new DaoMaster(db).newSession();
+        List<Device> devices = getDevices(session);
+        if (position >= devices.size()) {
+            return DONE;
+        }
+        BatteryHistoryStore.getInstance().rebuildRollups(session, devices.get((int) position).getId());
+        return position + 1;
+    }
+
+    private List<Device> getDevices(DaoSession session) {
+        // a stable order, so that a migration continued after a restart skips the right devices
+        return session.getDeviceDao().queryBuilder().orderAsc(DeviceDao.Properties.Id).list();
+    }
+
+    @Override
+    public void downgradeSchema(SQLiteDatabase db) {
+    }
+}
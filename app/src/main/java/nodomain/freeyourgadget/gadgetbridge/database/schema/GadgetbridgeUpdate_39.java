@@ -0,0 +1,66 @@
+package nodomain.freeyourgadget.gadgetbridge.database.schema;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.HeartRateHistogramIndex;
+import nodomain.freeyourgadget.gadgetbridge.database.DBDataMigration;
+import nodomain.freeyourgadget.gadgetbridge.database.DBUpdateScript;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.DeviceDao;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+
+/**
+ * Indexes the heart rates of the existing samples in the new HeartRateHistogramDay table in
+ * the background, so that the first lookup of a long range does not have to. The table itself
+ * is created by DBOpenHelper. Up to BATCH_DAYS days of one device are indexed per batch, the
+ * position is the number of devices done.
+ */
+public class GadgetbridgeUpdate_39 implements DBUpdateScript, DBDataMigration {
+    private static final int BATCH_DAYS = 31;
+
+    @Override
+    public void upgradeSchema(SQLiteDatabase db) {
+        // nothing to do while the database is opened, see #migrateBatch
+    }
+
+    @Override
+    public long getEndPosition(SQLiteDatabase db) {
+        return getDevices(new DaoMaster(db).newSession()).size();
+    }
+
+    @Override
+    public long migrateBatch(SQLiteDatabase db, long position) {
+        DaoSession session = new DaoMaster(db).newSession();
+        List<Device> devices = getDevices(session);
+        if (position >= devices.size()) {
+            return DONE;
+        }
+        Device device = devices.get((int) position);
+        GBDevice gbDevice = DeviceHelper.getInstance().toGBDevice(device);
+        DeviceCoordinator coordinator = DeviceHelper.getInstance().getCoordinator(gbDevice);
+        SampleProvider<?> provider = coordinator.getSampleProvider(gbDevice, session);
+        if (!(provider instanceof AbstractSampleProvider) || !((AbstractSampleProvider<?>) provider).isRangeCacheable()) {
+            return position + 1;
+        }
+        boolean complete = HeartRateHistogramIndex.getInstance().indexDays(session, (AbstractSampleProvider<?>) provider,
+                gbDevice, device.getId(), BATCH_DAYS);
+        return complete ? position + 1 : position;
+    }
+
+    private List<Device> getDevices(DaoSession session) {
+        // a stable order, so that a migration continued after a restart skips the right devices
+        return session.getDeviceDao().queryBuilder().orderAsc(DeviceDao.Properties.Id).list();
+    }
+
+    @Override
+    public void downgradeSchema(SQLiteDatabase db) {
+    }
+}
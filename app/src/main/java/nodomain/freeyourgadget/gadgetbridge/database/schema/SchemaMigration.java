@@ -22,25 +22,36 @@ import android.widget.Toast;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import nodomain.freeyourgadget.gadgetbridge.database.DBDataMigration;
 import nodomain.freeyourgadget.gadgetbridge.database.DBUpdateScript;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public class SchemaMigration {
     private static final Logger LOG = LoggerFactory.getLogger(SchemaMigration.class);
-    private final String classNamePrefix;
+    private static final String GADGETBRIDGE_PREFIX = "GadgetbridgeUpdate_";
 
+    /**
+     * @param updaterClassNamePrefix the prefix of the update scripts, which are listed in
+     *                               #getUpdateScript
+     */
     public SchemaMigration(String updaterClassNamePrefix) {
-        classNamePrefix = updaterClassNamePrefix;
+        if (!GADGETBRIDGE_PREFIX.equals(updaterClassNamePrefix)) {
+            throw new IllegalArgumentException("No update scripts with prefix " + updaterClassNamePrefix);
+        }
     }
 
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         LOG.info("ActivityDatabase: schema upgrade requested from " + oldVersion + " to " + newVersion);
         try {
             for (int i = oldVersion + 1; i <= newVersion; i++) {
-                DBUpdateScript updater = getUpdateScript(db, i);
+                DBUpdateScript updater = getUpdateScript(i);
                 if (updater != null) {
                     LOG.info("upgrading activity database to version " + i);
                     updater.upgradeSchema(db);
+                    if (updater instanceof DBDataMigration) {
+                        LOG.info("scheduling data migration of version " + i);
+                        DataMigrations.schedule(db, updater.getClass());
+                    }
                 }
             }
             LOG.info("activity database is now at version " + newVersion);
@@ -53,8 +64,9 @@ public class SchemaMigration {
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         LOG.info("ActivityDatabase: schema downgrade requested from " + oldVersion + " to " + newVersion);
         try {
+            DataMigrations.cancelAll(db);
             for (int i = oldVersion; i >= newVersion; i--) {
-                DBUpdateScript updater = getUpdateScript(db, i);
+                DBUpdateScript updater = getUpdateScript(i);
                 if (updater != null) {
                     LOG.info("downgrading activity database to version " + (i - 1));
                     updater.downgradeSchema(db);
@@ -67,14 +79,39 @@ public class SchemaMigration {
         }
     }
 
-    private DBUpdateScript getUpdateScript(SQLiteDatabase db, int version) {
-        try {
-            Class<?> updateClass = getClass().getClassLoader().loadClass(getClass().getPackage().getName() + "." + classNamePrefix + version);
-            return (DBUpdateScript) updateClass.newInstance();
-        } catch (ClassNotFoundException e) {
-            return null;
-        } catch (InstantiationException | IllegalAccessException e) {
-            throw new RuntimeException("Error instantiating DBUpdate class for version " + version, e);
+    /**
+     * Returns the script that upgrades the schema to the given version, or null if the
+     * generated tables of that version need no changes. Every GadgetbridgeUpdate_ script
+     * must be listed here.
+     */
+    static DBUpdateScript getUpdateScript(int version) {
+        switch (version) {
+            case 14:
+                return new GadgetbridgeUpdate_14();
+            case 15:
+                return new GadgetbridgeUpdate_15();
+            case 17:
+                return new GadgetbridgeUpdate_17();
+            case 22:
+                return new GadgetbridgeUpdate_22();
+            case 23:
+                return new GadgetbridgeUpdate_23();
+            case 24:
+                return new GadgetbridgeUpdate_24();
+            case 26:
+                return new GadgetbridgeUpdate_26();
+            case 27:
+                return new GadgetbridgeUpdate_27();
+            case 29:
+                return new GadgetbridgeUpdate_29();
+            case 30:
+                return new GadgetbridgeUpdate_30();
+            case 35:
+                return new GadgetbridgeUpdate_35();
+            case 39:
+                return new GadgetbridgeUpdate_39();
+            default:
+                return null;
         }
     }
 }
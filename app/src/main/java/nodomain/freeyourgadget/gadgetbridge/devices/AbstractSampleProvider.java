@@ -27,12 +27,15 @@ import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import de.greenrobot.dao.query.QueryBuilder;
 import de.greenrobot.dao.query.WhereCondition;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivitySessionIndex;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.HeartRateHistogramIndex;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceSummaryCache;
 
 /**
  * Base class for all sample providers. A Sample provider is device specific and provides
@@ -43,6 +46,7 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
     private static final WhereCondition[] NO_CONDITIONS = new WhereCondition[0];
     private final DaoSession mSession;
     private final GBDevice mDevice;
+    private SampleNormalizer mNormalizer;
 
     protected AbstractSampleProvider(GBDevice device, DaoSession session) {
         mDevice = device;
@@ -57,6 +61,46 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
         return mSession;
     }
 
+    private SampleNormalizer getNormalizer() {
+        if (mNormalizer == null) {
+            mNormalizer = SampleNormalizer.forProvider(this);
+        }
+        return mNormalizer;
+    }
+
+    /**
+     * Same as #normalizeType(int), but uses the precomputed lookup table of this provider.
+     */
+    public int getNormalizedType(int rawType) {
+        return getNormalizer().normalizeType(this, rawType);
+    }
+
+    /**
+     * Same as #normalizeIntensity(int), but uses the precomputed lookup table of this provider.
+     */
+    public float getNormalizedIntensity(int rawIntensity) {
+        return getNormalizer().normalizeIntensity(this, rawIntensity);
+    }
+
+    /**
+     * Returns the raw activity kinds stored in the database for the given activity types.
+     * The result is cached per provider and must not be modified.
+     * @see ActivityKind#mapToDBActivityTypes(int, SampleProvider)
+     */
+    public int[] getDBActivityTypes(int activityTypes) {
+        return getNormalizer().getDBActivityTypes(this, activityTypes);
+    }
+
+    /**
+     * Whether the samples returned by #getAllActivitySamples for a time range are the
+     * concatenation of the samples of its sub ranges, so that they may be cached per day
+     * by SampleRangeCache. Providers that post-process samples depending on the
+     * requested range must return false.
+     */
+    public boolean isRangeCacheable() {
+        return true;
+    }
+
     @Override
     public List<T> getAllActivitySamples(int timestamp_from, int timestamp_to) {
         return getGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ALL);
@@ -83,16 +127,62 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
     @Override
     public void addGBActivitySample(T activitySample) {
         getSampleDao().insertOrReplace(activitySample);
+        DeviceSummaryCache.getInstance().onSamplesAdded(this, activitySample);
+        SampleRangeCache.getInstance().onSamplesAdded(getDevice(), activitySample);
+        ActivitySessionIndex.getInstance().onSamplesAdded(getSession(), getDevice(), activitySample.getTimestamp());
+        HeartRateHistogramIndex.getInstance().onSamplesAdded(getSession(), getDevice(), activitySample.getTimestamp());
     }
 
     @Override
     public void addGBActivitySamples(T[] activitySamples) {
         getSampleDao().insertOrReplaceInTx(activitySamples);
+        DeviceSummaryCache.getInstance().onSamplesAdded(this, activitySamples);
+        SampleRangeCache.getInstance().onSamplesAdded(getDevice(), activitySamples);
+        if (activitySamples.length > 0) {
+            int firstTimestamp = Integer.MAX_VALUE;
+            for (T sample : activitySamples) {
+                firstTimestamp = Math.min(firstTimestamp, sample.getTimestamp());
+            }
+            ActivitySessionIndex.getInstance().onSamplesAdded(getSession(), getDevice(), firstTimestamp);
+            HeartRateHistogramIndex.getInstance().onSamplesAdded(getSession(), getDevice(), firstTimestamp);
+        }
+    }
+
+    /**
+     * Replaces all samples of the device in the given range with the given ones, e.g. with
+     * fewer samples of a coarser resolution, see SampleRetention. Callers should run this in
+     * a transaction and invalidate the caches of the device.
+     */
+    public void replaceActivitySamples(int timestamp_from, int timestamp_to, List<T> activitySamples) {
+        Device dbDevice = DBHelper.findDevice(getDevice(), getSession());
+        if (dbDevice == null) {
+            return;
+        }
+        Property timestampProperty = getTimestampSampleProperty();
+        getSampleDao().queryBuilder()
+                .where(getDeviceIdentifierSampleProperty().eq(dbDevice.getId()), timestampProperty.ge(timestamp_from))
+                .where(timestampProperty.le(timestamp_to))
+                .buildDelete().executeDeleteWithoutDetachingEntities();
+        getSampleDao().insertInTx(activitySamples);
+        detachFromSession();
     }
 
     @Nullable
     @Override
     public T getLatestActivitySample() {
+        return getBoundaryActivitySample(true);
+    }
+
+    /**
+     * Returns the oldest sample of the device, or null.
+     */
+    @Nullable
+    public T getFirstActivitySample() {
+        return getBoundaryActivitySample(false);
+    }
+
+    @Nullable
+    private T getBoundaryActivitySample(boolean latest) {
         QueryBuilder<T> qb = getSampleDao().queryBuilder();
         Device dbDevice = DBHelper.findDevice(getDevice(), getSession());
         if (dbDevice == null) {
@@ -100,7 +190,13 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
             return null;
         }
         Property deviceProperty = getDeviceIdentifierSampleProperty();
-        qb.where(deviceProperty.eq(dbDevice.getId())).orderDesc(getTimestampSampleProperty()).limit(1);
+        qb.where(deviceProperty.eq(dbDevice.getId()));
+        if (latest) {
+            qb.orderDesc(getTimestampSampleProperty());
+        } else {
+            qb.orderAsc(getTimestampSampleProperty());
+        }
+        qb.limit(1);
         List<T> samples = qb.build().list();
         if (samples.isEmpty()) {
             return null;
@@ -148,7 +244,7 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
             return NO_CONDITIONS;
         }
 
-        int[] dbActivityTypes = ActivityKind.mapToDBActivityTypes(activityTypes, this);
+        int[] dbActivityTypes = getDBActivityTypes(activityTypes);
         WhereCondition activityTypeCondition = getActivityTypeConditions(qb, dbActivityTypes);
         return new WhereCondition[] { activityTypeCondition };
     }
@@ -22,6 +22,9 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,8 +33,16 @@ import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import androidx.annotation.Nullable;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
@@ -39,13 +50,20 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.BatteryState;
+import nodomain.freeyourgadget.gadgetbridge.model.ItemWithDetails;
 import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 /**
  * Provides access to the list of devices managed by Gadgetbridge.
  * Changes to the devices (e.g. connection state) or the list of devices
- * are broadcasted via #ACTION_DEVICE_CHANGED
+ * are broadcasted via #ACTION_DEVICES_CHANGED
+ * <p/>
+ * The list is only changed on the main thread. Changes of the list itself are broadcasted
+ * right away. Changes of the fields of some devices are broadcasted at most every
+ * NOTIFY_INTERVAL_MS, telling which devices and fields changed in #EXTRA_CHANGED_DEVICES
+ * and #EXTRA_CHANGED_FIELDS. The database is read and written on a background thread.
  */
 public class DeviceManager {
     private static final Logger LOG = LoggerFactory.getLogger(DeviceManager.class);
@@ -61,6 +79,25 @@ public class DeviceManager {
      */
     public static final String ACTION_REFRESH_DEVICELIST
             = "nodomain.freeyourgadget.gadgetbridge.devices.devicemanager.action.set_version";
+    /**
+     * The addresses of the devices that changed, a String[]. If missing from an
+     * #ACTION_DEVICES_CHANGED broadcast, the list itself may have changed.
+     */
+    public static final String EXTRA_CHANGED_DEVICES = "changed_devices";
+    /**
+     * The changed fields of each device in #EXTRA_CHANGED_DEVICES, an int[] of FIELD_* flags.
+     */
+    public static final String EXTRA_CHANGED_FIELDS = "changed_fields";
+
+    public static final int FIELD_STATE = 1;
+    public static final int FIELD_NAME = 1 << 1;
+    public static final int FIELD_BATTERY = 1 << 2;
+    public static final int FIELD_BUSY = 1 << 3;
+    public static final int FIELD_INFO = 1 << 4;
+    private static final int ALL_FIELDS = FIELD_STATE | FIELD_NAME | FIELD_BATTERY | FIELD_BUSY | FIELD_INFO;
+
+    private static final long NOTIFY_INTERVAL_MS = 100;
+
     private final Context context;
     /**
      * This list is final, it will never be recreated. Only its contents change.
@@ -68,6 +105,36 @@ public class DeviceManager {
      */
     private final List<GBDevice> deviceList = new ArrayList<>();
     private GBDevice selectedDevice = null;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // guarded by this, the devices read at startup that have not been added to the list yet
+    private Set<GBDevice> initialDevices;
+    private boolean initialDevicesRequested;
+
+    private final ExecutorService dbExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "DeviceManager");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // guarded by this
+    private boolean refreshQueued;
+
+    // accessed on the main thread only: the changes not broadcasted yet
+    private final Map<String, Integer> pendingChanges = new LinkedHashMap<>();
+    // accessed on the main thread only: the shown fields of each device when they last changed.
+    // The devices themselves cannot be compared, the same instance is changed and sent again
+    private final Map<String, DeviceSnapshot> snapshots = new HashMap<>();
+    private boolean pendingListChange;
+    private boolean notifyScheduled;
+    private long lastNotifyTime;
+    private final Runnable notifyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sendPendingChanges();
+        }
+    };
 
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @Override
@@ -87,21 +154,9 @@ public class DeviceManager {
                 case GBDevice.ACTION_DEVICE_CHANGED:
                     GBDevice dev = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
                     if (dev.getAddress() != null) {
-                        int index = deviceList.indexOf(dev); // search by address
-                        if (index >= 0) {
-                            deviceList.set(index, dev);
-                        } else {
-                            deviceList.add(dev);
-                        }
-                        if (dev.isInitialized()) {
-                            try (DBHandler dbHandler = GBApplication.acquireDB()) {
-                                DBHelper.getDevice(dev, dbHandler.getDaoSession()); // implicitly creates the device in database if not present, and updates device attributes
-                            } catch (Exception ignore) {
-                            }
-                        }
+                        onDeviceChanged(dev);
                     }
                     updateSelectedDevice(dev);
-                    refreshPairedDevices();
                     break;
             }
         }
@@ -120,8 +175,119 @@ public class DeviceManager {
         filterGlobal.addAction(BLUETOOTH_DEVICE_ACTION_ALIAS_CHANGED);
         filterGlobal.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
         context.registerReceiver(mReceiver, filterGlobal);
+    }
+
+    /**
+     * Reads the known devices for the first time, unless that has been started already.
+     * GBApplication calls this in the background at startup, so that the database is not
+     * queried on the main thread. The devices are added to the list on the main thread
+     * afterwards, which is broadcasted like any other change of the list.
+     */
+    public void loadInitialDevices() {
+        synchronized (this) {
+            if (initialDevicesRequested) {
+                return;
+            }
+            initialDevicesRequested = true;
+        }
+        Set<GBDevice> devices = DeviceHelper.getInstance().getAvailableDevices(context);
+        synchronized (this) {
+            initialDevices = devices;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                applyInitialDevices();
+            }
+        });
+    }
 
-        refreshPairedDevices();
+    /**
+     * Adds the devices read at startup to the list, if they have been read in the meantime.
+     * If nobody has started to read them yet, they are read in the background.
+     */
+    private void applyInitialDevices() {
+        Set<GBDevice> devices;
+        synchronized (this) {
+            if (!initialDevicesRequested) {
+                dbExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        loadInitialDevices();
+                    }
+                });
+                return;
+            }
+            devices = initialDevices;
+            initialDevices = null;
+        }
+        if (devices != null) {
+            updateDeviceList(devices);
+        }
+    }
+
+    private void onDeviceChanged(GBDevice dev) {
+        applyInitialDevices();
+        int index = deviceList.indexOf(dev); // search by address
+        final boolean added = index < 0;
+        int changedFields = updateSnapshot(dev);
+        if (added) {
+            deviceList.add(dev);
+        } else {
+            deviceList.set(index, dev);
+        }
+
+        // battery, RSSI and busy updates do not need the database
+        if (dev.isInitialized() && (changedFields & (FIELD_STATE | FIELD_NAME | FIELD_INFO)) != 0) {
+            final GBDevice device = dev;
+            dbExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try (DBHandler dbHandler = GBApplication.acquireDB()) {
+                        DBHelper.getDevice(device, dbHandler.getDaoSession()); // implicitly creates the device in database if not present, and updates device attributes
+                    } catch (Exception ignore) {
+                    }
+                }
+            });
+        }
+        if (added) {
+            // the device may not be known yet, see whether it is after it has been stored
+            refreshPairedDevices();
+            notifyDevicesChanged();
+        } else if (changedFields != 0) {
+            if ((changedFields & (FIELD_STATE | FIELD_NAME)) != 0 && sortDeviceList()) {
+                notifyDevicesChanged();
+            } else {
+                notifyDeviceChanged(dev, changedFields);
+            }
+        }
+    }
+
+    /**
+     * Remembers the shown fields of the given device.
+     *
+     * @return the FIELD_* flags of the fields that changed since the device was last seen,
+     * all of them if it was not seen before
+     */
+    int updateSnapshot(GBDevice device) {
+        DeviceSnapshot before = snapshots.put(device.getAddress(), new DeviceSnapshot(device));
+        return before != null ? before.getChangedFields(device) : ALL_FIELDS;
+    }
+
+    /**
+     * Returns the FIELD_* flags of the fields the device list shows that differ between the
+     * two states of a device.
+     */
+    static int getChangedFields(GBDevice before, GBDevice after) {
+        return new DeviceSnapshot(before).getChangedFields(after);
+    }
+
+    private static List<String> getInfos(GBDevice device) {
+        List<String> infos = new ArrayList<>();
+        for (ItemWithDetails info : device.getDeviceInfos()) {
+            infos.add(info.getName() + "=" + info.getDetails());
+        }
+        return infos;
     }
 
     private void updateDeviceName(BluetoothDevice device, String newName) {
@@ -129,7 +295,12 @@ public class DeviceManager {
             if (device.getAddress().equals(dev.getAddress())) {
                 if (!dev.getName().equals(newName)) {
                     dev.setName(newName);
-                    notifyDevicesChanged();
+                    updateSnapshot(dev);
+                    if (sortDeviceList()) {
+                        notifyDevicesChanged();
+                    } else {
+                        notifyDeviceChanged(dev, FIELD_NAME);
+                    }
                     return;
                 }
             }
@@ -155,15 +326,71 @@ public class DeviceManager {
 
     }
 
+    /**
+     * Reads the available devices in the background and updates the list with them. Requests
+     * made while a refresh is queued are served by that refresh.
+     */
     private void refreshPairedDevices() {
-        Set<GBDevice> availableDevices = DeviceHelper.getInstance().getAvailableDevices(context);
-        deviceList.retainAll(availableDevices);
+        applyInitialDevices();
+        synchronized (this) {
+            if (refreshQueued) {
+                return;
+            }
+            refreshQueued = true;
+        }
+        dbExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DeviceManager.this) {
+                    refreshQueued = false;
+                }
+                final Set<GBDevice> availableDevices = DeviceHelper.getInstance().getAvailableDevices(context);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        updateDeviceList(availableDevices);
+                    }
+                });
+            }
+        });
+    }
+
+    private void updateDeviceList(Set<GBDevice> availableDevices) {
+        boolean changed = deviceList.retainAll(availableDevices);
         for (GBDevice availableDevice : availableDevices) {
             if (!deviceList.contains(availableDevice)) {
                 deviceList.add(availableDevice);
+                updateSnapshot(availableDevice);
+                changed = true;
+            }
+        }
+        for (Iterator<String> it = snapshots.keySet().iterator(); it.hasNext(); ) {
+            if (findDevice(it.next()) == null) {
+                it.remove();
+            }
+        }
+        if (sortDeviceList() || changed) {
+            notifyDevicesChanged();
+        }
+    }
+
+    @Nullable
+    private GBDevice findDevice(String address) {
+        for (GBDevice device : deviceList) {
+            if (device.getAddress().equals(address)) {
+                return device;
             }
         }
+        return null;
+    }
 
+    /**
+     * Sorts the list by state and name.
+     *
+     * @return whether the order changed
+     */
+    private boolean sortDeviceList() {
+        List<GBDevice> before = new ArrayList<>(deviceList);
         Collections.sort(deviceList, new Comparator<GBDevice>() {
             @Override
             public int compare(GBDevice lhs, GBDevice rhs) {
@@ -173,14 +400,24 @@ public class DeviceManager {
                 return (rhs.getStateOrdinal() - lhs.getStateOrdinal());
             }
         });
-        notifyDevicesChanged();
+        for (int i = 0; i < before.size(); i++) {
+            if (before.get(i) != deviceList.get(i)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * The returned list is final, it will never be recreated. Only its contents change.
      * This allows direct access to the list from ListAdapters.
+     * <p/>
+     * The devices are read from the database in the background at startup. Until then, the
+     * list contains only the devices that changed so far; #ACTION_DEVICES_CHANGED is
+     * broadcasted when the others have been added.
      */
     public List<GBDevice> getDevices() {
+        applyInitialDevices();
         return Collections.unmodifiableList(deviceList);
     }
 
@@ -190,6 +427,92 @@ public class DeviceManager {
     }
 
     private void notifyDevicesChanged() {
-        LocalBroadcastManager.getInstance(context).sendBroadcast(new Intent(ACTION_DEVICES_CHANGED));
+        // adapters access the list directly, so they must not wait for a changed size or order
+        handler.removeCallbacks(notifyRunnable);
+        pendingListChange = true;
+        sendPendingChanges();
+    }
+
+    private void notifyDeviceChanged(GBDevice device, int fields) {
+        Integer pending = pendingChanges.get(device.getAddress());
+        pendingChanges.put(device.getAddress(), pending != null ? pending | fields : fields);
+        scheduleNotify();
+    }
+
+    private void scheduleNotify() {
+        if (notifyScheduled) {
+            return;
+        }
+        notifyScheduled = true;
+        long delay = lastNotifyTime + NOTIFY_INTERVAL_MS - SystemClock.uptimeMillis();
+        handler.postDelayed(notifyRunnable, Math.max(0, delay));
+    }
+
+    private void sendPendingChanges() {
+        notifyScheduled = false;
+        lastNotifyTime = SystemClock.uptimeMillis();
+        Intent intent = new Intent(ACTION_DEVICES_CHANGED);
+        if (!pendingListChange) {
+            String[] addresses = new String[pendingChanges.size()];
+            int[] fields = new int[pendingChanges.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> change : pendingChanges.entrySet()) {
+                addresses[i] = change.getKey();
+                fields[i] = change.getValue();
+                i++;
+            }
+            intent.putExtra(EXTRA_CHANGED_DEVICES, addresses);
+            intent.putExtra(EXTRA_CHANGED_FIELDS, fields);
+        }
+        pendingListChange = false;
+        pendingChanges.clear();
+        LocalBroadcastManager.getInstance(context).sendBroadcast(intent);
+    }
+
+    /**
+     * The fields of a device that the device list shows.
+     */
+    private static class DeviceSnapshot {
+        private final GBDevice.State state;
+        private final String name;
+        private final String alias;
+        private final short batteryLevel;
+        private final float batteryVoltage;
+        private final BatteryState batteryState;
+        private final String busyTask;
+        private final List<String> infos;
+
+        DeviceSnapshot(GBDevice device) {
+            state = device.getState();
+            name = device.getName();
+            alias = device.getAlias();
+            batteryLevel = device.getBatteryLevel();
+            batteryVoltage = device.getBatteryVoltage();
+            batteryState = device.getBatteryState();
+            busyTask = device.getBusyTask();
+            infos = getInfos(device);
+        }
+
+        int getChangedFields(GBDevice device) {
+            int fields = 0;
+            if (state != device.getState()) {
+                fields |= FIELD_STATE;
+            }
+            if (!Objects.equals(name, device.getName()) || !Objects.equals(alias, device.getAlias())) {
+                fields |= FIELD_NAME;
+            }
+            if (batteryLevel != device.getBatteryLevel()
+                    || batteryVoltage != device.getBatteryVoltage()
+                    || batteryState != device.getBatteryState()) {
+                fields |= FIELD_BATTERY;
+            }
+            if (!Objects.equals(busyTask, device.getBusyTask())) {
+                fields |= FIELD_BUSY;
+            }
+            if (!infos.equals(getInfos(device))) {
+                fields |= FIELD_INFO;
+            }
+            return fields;
+        }
     }
 }
@@ -0,0 +1,181 @@
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * Precomputed lookup tables for the normalization of raw activity kinds and intensities.
+ * <p/>
+ * SampleProvider#normalizeType and SampleProvider#normalizeIntensity are pure functions of
+ * the raw value, but they are called several times per sample in the analysis and chart
+ * loops. The tables are computed once per sample provider class for the commonly used raw
+ * value ranges; values outside of these ranges are passed on to the provider.
+ */
+public final class SampleNormalizer {
+    private static final int MIN_RAW_VALUE = ActivitySample.NOT_MEASURED;
+    private static final int MAX_RAW_KIND = 255;
+    private static final int MAX_RAW_INTENSITY = 1023;
+    private static final int NOT_CACHED_KIND = Integer.MIN_VALUE;
+
+    private static final Map<Class<?>, SampleNormalizer> normalizers = new ConcurrentHashMap<>();
+
+    private final int[] kinds = new int[MAX_RAW_KIND - MIN_RAW_VALUE + 1];
+    private final float[] intensities = new float[MAX_RAW_INTENSITY - MIN_RAW_VALUE + 1];
+    private final Map<Integer, int[]> dbActivityTypes = new ConcurrentHashMap<>();
+
+    private SampleNormalizer(SampleProvider<?> provider) {
+        for (int i = 0; i < kinds.length; i++) {
+            try {
+                kinds[i] = provider.normalizeType(i + MIN_RAW_VALUE);
+            } catch (RuntimeException e) {
+                // not a valid raw kind for this provider, leave it to the provider
+                kinds[i] = NOT_CACHED_KIND;
+            }
+        }
+        for (int i = 0; i < intensities.length; i++) {
+            try {
+                intensities[i] = provider.normalizeIntensity(i + MIN_RAW_VALUE);
+            } catch (RuntimeException e) {
+                intensities[i] = Float.NaN;
+            }
+        }
+    }
+
+    /**
+     * Returns the lookup tables for the class of the given provider.
+     */
+    public static SampleNormalizer forProvider(SampleProvider<?> provider) {
+        Class<?> providerClass = provider.getClass();
+        SampleNormalizer normalizer = normalizers.get(providerClass);
+        if (normalizer == null) {
+            // a concurrent first access may compute the tables twice, which is harmless
+            normalizer = new SampleNormalizer(provider);
+            normalizers.put(providerClass, normalizer);
+        }
+        return normalizer;
+    }
+
+    public int normalizeType(SampleProvider<?> provider, int rawType) {
+        int index = rawType - MIN_RAW_VALUE;
+        if (index >= 0 && index < kinds.length) {
+            int kind = kinds[index];
+            if (kind != NOT_CACHED_KIND) {
+                return kind;
+            }
+        }
+        return provider.normalizeType(rawType);
+    }
+
+    public float normalizeIntensity(SampleProvider<?> provider, int rawIntensity) {
+        int index = rawIntensity - MIN_RAW_VALUE;
+        if (index >= 0 && index < intensities.length) {
+            float intensity = intensities[index];
+            if (!Float.isNaN(intensity)) {
+                return intensity;
+            }
+        }
+        return provider.normalizeIntensity(rawIntensity);
+    }
+
+    /**
+     * Returns an SQL expression that normalizes the raw kind in the given column like
+     * #normalizeType, for queries that do not load the samples. Raw kinds outside of the
+     * cached range are mapped to ActivityKind#TYPE_UNKNOWN.
+     */
+    public String getKindSql(String column) {
+        StringBuilder sql = new StringBuilder("CASE ").append(column);
+        boolean any = false;
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] != NOT_CACHED_KIND && kinds[i] != ActivityKind.TYPE_UNKNOWN) {
+                sql.append(" WHEN ").append(i + MIN_RAW_VALUE).append(" THEN ").append(kinds[i]);
+                any = true;
+            }
+        }
+        if (!any) {
+            return String.valueOf(ActivityKind.TYPE_UNKNOWN);
+        }
+        return sql.append(" ELSE ").append(ActivityKind.TYPE_UNKNOWN).append(" END").toString();
+    }
+
+    /**
+     * Returns an SQL expression that normalizes the raw intensity in the given column like
+     * #normalizeIntensity, for queries that do not load the samples. Most providers scale
+     * the raw intensity linearly, which becomes a multiplication; for the others, raw
+     * intensities outside of the cached range become NULL.
+     */
+    public String getIntensitySql(String column) {
+        int zero = -MIN_RAW_VALUE;
+        float factor = intensities[zero + 1];
+        boolean linear = !Float.isNaN(factor) && !Float.isInfinite(factor);
+        for (int i = zero; i < intensities.length && linear; i++) {
+            float expected = (i - zero) * factor;
+            linear = Math.abs(intensities[i] - expected) <= 1e-6f * Math.max(1f, Math.abs(expected));
+        }
+        if (linear) {
+            String scaled = "(" + column + " * " + factor + ")";
+            float notMeasured = intensities[0];
+            if (notMeasured == -factor) {
+                return scaled;
+            }
+            return "CASE WHEN " + column + " < 0 THEN " + toSql(notMeasured) + " ELSE " + scaled + " END";
+        }
+        StringBuilder sql = new StringBuilder("CASE ").append(column);
+        for (int i = 0; i < intensities.length; i++) {
+            sql.append(" WHEN ").append(i + MIN_RAW_VALUE).append(" THEN ").append(toSql(intensities[i]));
+        }
+        return sql.append(" ELSE NULL END").toString();
+    }
+
+    private static String toSql(float value) {
+        return Float.isNaN(value) || Float.isInfinite(value) ? "NULL" : Float.toString(value);
+    }
+
+    /**
+     * Returns the cached result of ActivityKind#mapToDBActivityTypes for the given provider.
+     * The returned array is shared and must not be modified.
+     */
+    public int[] getDBActivityTypes(SampleProvider<?> provider, int activityTypes) {
+        int[] result = dbActivityTypes.get(activityTypes);
+        if (result == null) {
+            result = ActivityKind.mapToDBActivityTypes(activityTypes, provider);
+            dbActivityTypes.put(activityTypes, result);
+        }
+        return result;
+    }
+
+    /**
+     * Normalizes the kind and intensity of all given samples at once, so that loops over
+     * the samples can work on primitive arrays.
+     *
+     * @param samples     the samples to normalize
+     * @param kinds       receives the normalized kinds, may be null. Must be at least as
+     *                    large as the list of samples.
+     * @param intensities receives the normalized intensities, may be null. Must be at least
+     *                    as large as the list of samples.
+     */
+    public static void normalize(List<? extends ActivitySample> samples, int[] kinds, float[] intensities) {
+        int i = 0;
+        for (ActivitySample sample : samples) {
+            if (kinds != null) {
+                kinds[i] = sample.getKind();
+            }
+            if (intensities != null) {
+                intensities[i] = sample.getIntensity();
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Returns the normalized kinds of all given samples.
+     */
+    public static int[] normalizeKinds(List<? extends ActivitySample> samples) {
+        int[] kinds = new int[samples.size()];
+        normalize(samples, kinds, null);
+        return kinds;
+    }
+}
@@ -0,0 +1,192 @@
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * Memory bounded cache of the samples returned by SampleProvider#getAllActivitySamples,
+ * so that switching between chart tabs and swiping days back and forth does not query
+ * the same samples again and again.
+ * <p/>
+ * Samples are cached per device in buckets of one (UTC aligned) day. A query is answered
+ * by concatenating the samples of all buckets touching the requested range; consecutive
+ * buckets that are not cached are loaded with a single query and split. Buckets are
+ * evicted in least recently used order once the total number of cached samples exceeds
+ * #MAX_CACHED_SAMPLES, and are invalidated when samples are added for that device and day.
+ * <p/>
+ * The cached samples are shared between all callers and must not be modified.
+ */
+public final class SampleRangeCache {
+    private static final int BUCKET_SECONDS = 24 * 60 * 60;
+    // about one month of per-minute samples
+    private static final int MAX_CACHED_SAMPLES = 50000;
+
+    private static final SampleRangeCache instance = new SampleRangeCache();
+
+    // guarded by this
+    private final LinkedHashMap<String, List<ActivitySample>> buckets = new LinkedHashMap<>(16, 0.75f, true);
+    private int cachedSampleCount;
+    private long generation;
+
+    public static SampleRangeCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns all samples of the given provider's device between the given timestamps
+     * (inclusive), loading missing days from the provider. The returned list may be
+     * modified by the caller.
+     */
+    public List<ActivitySample> getAllActivitySamples(SampleProvider<? extends ActivitySample> provider, GBDevice device, int timestampFrom, int timestampTo) {
+        if (!isCacheable(provider) || device == null || timestampFrom < 0 || timestampFrom > timestampTo) {
+            return new ArrayList<ActivitySample>(provider.getAllActivitySamples(timestampFrom, timestampTo));
+        }
+
+        List<ActivitySample> result = new ArrayList<>();
+        int lastBucket = getBucket(timestampTo);
+        for (int bucket = getBucket(timestampFrom); bucket <= lastBucket; ) {
+            List<ActivitySample> samples = getCachedBucket(device, bucket);
+            if (samples != null) {
+                addSamples(result, samples, timestampFrom, timestampTo);
+                bucket++;
+                continue;
+            }
+            int missingTo = bucket;
+            while (missingTo < lastBucket && getCachedBucket(device, missingTo + 1) == null) {
+                missingTo++;
+            }
+            for (List<ActivitySample> loaded : loadBuckets(provider, device, bucket, missingTo)) {
+                addSamples(result, loaded, timestampFrom, timestampTo);
+            }
+            bucket = missingTo + 1;
+        }
+        return result;
+    }
+
+    private static void addSamples(List<ActivitySample> result, List<ActivitySample> samples, int timestampFrom, int timestampTo) {
+        for (ActivitySample sample : samples) {
+            int timestamp = sample.getTimestamp();
+            if (timestamp >= timestampFrom && timestamp <= timestampTo) {
+                result.add(sample);
+            }
+        }
+    }
+
+    /**
+     * Invalidates the days of the given samples that have just been added for the device.
+     */
+    public synchronized void onSamplesAdded(GBDevice device, ActivitySample... samples) {
+        if (device == null) {
+            return;
+        }
+        generation++;
+        int lastBucket = -1;
+        for (ActivitySample sample : samples) {
+            int bucket = getBucket(sample.getTimestamp());
+            if (bucket != lastBucket) {
+                remove(getKey(device, bucket));
+                lastBucket = bucket;
+            }
+        }
+    }
+
+    /**
+     * Invalidates all cached samples of the given device.
+     */
+    public synchronized void invalidate(GBDevice device) {
+        generation++;
+        String prefix = device.getAddress() + "/";
+        for (Iterator<Map.Entry<String, List<ActivitySample>>> it = buckets.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, List<ActivitySample>> entry = it.next();
+            if (entry.getKey().startsWith(prefix)) {
+                cachedSampleCount -= entry.getValue().size();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Invalidates all cached samples, e.g. after samples have been written to the database
+     * without going through a sample provider.
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        buckets.clear();
+        cachedSampleCount = 0;
+    }
+
+    private synchronized List<ActivitySample> getCachedBucket(GBDevice device, int bucket) {
+        return buckets.get(getKey(device, bucket));
+    }
+
+    /**
+     * Loads the given buckets (inclusive) with one query and caches them.
+     */
+    private List<List<ActivitySample>> loadBuckets(SampleProvider<? extends ActivitySample> provider, GBDevice device, int firstBucket, int lastBucket) {
+        long loadGeneration;
+        synchronized (this) {
+            loadGeneration = generation;
+        }
+
+        List<List<ActivitySample>> loaded = new ArrayList<>(lastBucket - firstBucket + 1);
+        for (int bucket = firstBucket; bucket <= lastBucket; bucket++) {
+            loaded.add(new ArrayList<ActivitySample>());
+        }
+        for (ActivitySample sample : provider.getAllActivitySamples(firstBucket * BUCKET_SECONDS, (lastBucket + 1) * BUCKET_SECONDS - 1)) {
+            int index = getBucket(sample.getTimestamp()) - firstBucket;
+            if (index >= 0 && index < loaded.size()) {
+                loaded.get(index).add(sample);
+            }
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < loaded.size(); i++) {
+                List<ActivitySample> samples = Collections.unmodifiableList(loaded.get(i));
+                loaded.set(i, samples);
+                String key = getKey(device, firstBucket + i);
+                // do not cache samples which may have been loaded before an invalidation
+                if (loadGeneration == generation && !buckets.containsKey(key)) {
+                    buckets.put(key, samples);
+                    cachedSampleCount += samples.size();
+                }
+            }
+            trim();
+        }
+        return loaded;
+    }
+
+    private void trim() {
+        Iterator<List<ActivitySample>> it = buckets.values().iterator();
+        // always keep the most recently used bucket
+        while (cachedSampleCount > MAX_CACHED_SAMPLES && buckets.size() > 1 && it.hasNext()) {
+            cachedSampleCount -= it.next().size();
+            it.remove();
+        }
+    }
+
+    private void remove(String key) {
+        List<ActivitySample> removed = buckets.remove(key);
+        if (removed != null) {
+            cachedSampleCount -= removed.size();
+        }
+    }
+
+    private static boolean isCacheable(SampleProvider<?> provider) {
+        return provider instanceof AbstractSampleProvider && ((AbstractSampleProvider<?>) provider).isRangeCacheable();
+    }
+
+    private static int getBucket(int timestamp) {
+        return timestamp / BUCKET_SECONDS;
+    }
+
+    private static String getKey(GBDevice device, int bucket) {
+        return device.getAddress() + "/" + bucket;
+    }
+}
@@ -122,6 +122,12 @@ public class HPlusHealthSampleProvider extends AbstractSampleProvider<HPlusHealt
         return getAllActivitySamples(timestamp_from, timestamp_to);
     }
 
+    @Override
+    public boolean isRangeCacheable() {
+        // the overlays and step counters are applied relative to the requested range
+        return false;
+    }
+
     @NonNull
     @Override
     public List<HPlusHealthActivitySample> getAllActivitySamples(int timestamp_from, int timestamp_to) {
@@ -0,0 +1,256 @@
+package nodomain.freeyourgadget.gadgetbridge.devices.pebble;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceApp;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.PebbleUtils;
+
+/**
+ * A persistent index of the apps and watchfaces in the pbw cache, so that the app manager
+ * does not need to parse the metadata of every cached app each time it is shown.
+ * <p/>
+ * The index is updated incrementally: only apps whose .pbw or .json file has been added,
+ * changed or removed since the last refresh are read again. It also remembers where the
+ * menu icon of each app is stored for the last platform it was looked up for, see
+ * PBWIconLoader.
+ */
+public class PBWCacheIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(PBWCacheIndex.class);
+    private static final String INDEX_FILENAME = "pbwcacheindex.json";
+
+    private static PBWCacheIndex instance;
+
+    // key is the base name of the files, i.e. the uuid of the app
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean loaded;
+    // whether icon locations have been set since the index was last written
+    private boolean iconsChanged;
+
+    public static synchronized PBWCacheIndex getInstance() {
+        if (instance == null) {
+            instance = new PBWCacheIndex();
+        }
+        return instance;
+    }
+
+    /**
+     * Brings the index up to date with the files in the pbw cache and returns
+     * the entries by base name.
+     */
+    public synchronized Map<String, Entry> refresh() throws IOException {
+        load();
+        File cacheDir = PebbleUtils.getPbwCacheDir();
+        String[] fileNames = cacheDir.list();
+        Set<String> names = fileNames != null ? new HashSet<>(Arrays.asList(fileNames)) : new HashSet<String>();
+
+        Set<String> baseNames = new HashSet<>();
+        for (String name : names) {
+            if (name.endsWith(".pbw")) {
+                baseNames.add(name.substring(0, name.length() - 4));
+            } else if (name.endsWith(".json") && !name.endsWith("_preset.json")) {
+                baseNames.add(name.substring(0, name.length() - 5));
+            }
+        }
+
+        boolean changed = entries.keySet().retainAll(baseNames);
+        for (String baseName : baseNames) {
+            File pbwFile = new File(cacheDir, baseName + ".pbw");
+            long pbwModified = names.contains(pbwFile.getName()) ? pbwFile.lastModified() : 0;
+            long pbwLength = pbwModified != 0 ? pbwFile.length() : 0;
+            File jsonFile = new File(cacheDir, baseName + ".json");
+            long jsonModified = names.contains(jsonFile.getName()) ? jsonFile.lastModified() : 0;
+            boolean configurable = names.contains(baseName + "_config.js");
+
+            Entry entry = entries.get(baseName);
+            if (entry == null || entry.pbwModified != pbwModified || entry.pbwLength != pbwLength || entry.jsonModified != jsonModified) {
+                entry = new Entry(baseName, pbwModified, pbwLength, jsonModified, configurable);
+                if (jsonModified != 0) {
+                    try {
+                        JSONObject json = new JSONObject(FileUtils.getStringFromFile(jsonFile));
+                        // without the app keys etc.
+                        entry.appJson = new GBDeviceApp(json, configurable).getJSON();
+                    } catch (Exception e) {
+                        LOG.info("could not read json file for " + baseName);
+                    }
+                }
+                entries.put(baseName, entry);
+                changed = true;
+            } else if (entry.configurable != configurable) {
+                entry.configurable = configurable;
+                changed = true;
+            }
+        }
+
+        if (changed || iconsChanged) {
+            save();
+        }
+        return new HashMap<>(entries);
+    }
+
+    /**
+     * Returns the entry of the given app as of the last refresh.
+     */
+    synchronized Entry getEntry(String baseName) {
+        return entries.get(baseName);
+    }
+
+    /**
+     * Remembers where the icon of the app is stored for the given platform: in the given
+     * resource pack of the .pbw file, or nowhere if the file is null.
+     * <p/>
+     * The index is not written here, see saveIcons().
+     */
+    synchronized void setIcon(Entry entry, String platform, String file, long offset, int length) {
+        if (entries.get(entry.baseName) != entry) {
+            return; // changed in the meantime
+        }
+        entry.iconPlatform = platform;
+        entry.iconFile = file;
+        entry.iconOffset = offset;
+        entry.iconLength = length;
+        iconsChanged = true;
+    }
+
+    /**
+     * Writes the index if icon locations have been set since it was last written. Called
+     * once after a batch of icons has been loaded, instead of once per icon.
+     */
+    synchronized void saveIcons() {
+        if (iconsChanged) {
+            save();
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        try {
+            File indexFile = new File(FileUtils.getExternalFilesDir(), INDEX_FILENAME);
+            if (!indexFile.exists()) {
+                return;
+            }
+            JSONArray array = new JSONArray(FileUtils.getStringFromFile(indexFile));
+            for (int i = 0; i < array.length(); i++) {
+                Entry entry = Entry.fromJSON(array.getJSONObject(i));
+                entries.put(entry.baseName, entry);
+            }
+        } catch (Exception e) {
+            LOG.warn("could not read pbw cache index, rebuilding it", e);
+            entries.clear();
+        }
+    }
+
+    private void save() {
+        try {
+            JSONArray array = new JSONArray();
+            for (Entry entry : entries.values()) {
+                array.put(entry.toJSON());
+            }
+            File indexFile = new File(FileUtils.getExternalFilesDir(), INDEX_FILENAME);
+            File tempFile = new File(indexFile.getPath() + ".tmp");
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+                writer.write(array.toString());
+            }
+            if (!tempFile.renameTo(indexFile)) {
+                throw new IOException("could not rename " + tempFile + " to " + indexFile);
+            }
+            iconsChanged = false;
+        } catch (IOException | JSONException e) {
+            LOG.warn("could not write pbw cache index", e);
+        }
+    }
+
+    public static class Entry {
+        final String baseName;
+        final long pbwModified;
+        final long pbwLength;
+        final long jsonModified;
+        boolean configurable;
+        JSONObject appJson;
+        String iconPlatform;
+        String iconFile;
+        long iconOffset;
+        int iconLength;
+
+        private Entry(String baseName, long pbwModified, long pbwLength, long jsonModified, boolean configurable) {
+            this.baseName = baseName;
+            this.pbwModified = pbwModified;
+            this.pbwLength = pbwLength;
+            this.jsonModified = jsonModified;
+            this.configurable = configurable;
+        }
+
+        public String getBaseName() {
+            return baseName;
+        }
+
+        public boolean hasPbw() {
+            return pbwModified != 0;
+        }
+
+        /**
+         * Returns the app as described by its .json file, or null if that could not be read.
+         */
+        public GBDeviceApp getApp() {
+            return appJson != null ? new GBDeviceApp(appJson, configurable) : null;
+        }
+
+        /**
+         * Returns a key that changes when the app is replaced in the cache.
+         */
+        String getVersionKey() {
+            return baseName + "@" + pbwModified + "/" + pbwLength;
+        }
+
+        private JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("baseName", baseName);
+            json.put("pbwModified", pbwModified);
+            json.put("pbwLength", pbwLength);
+            json.put("jsonModified", jsonModified);
+            json.put("configurable", configurable);
+            if (appJson != null) {
+                json.put("app", appJson);
+            }
+            if (iconPlatform != null) {
+                json.put("iconPlatform", iconPlatform);
+                json.put("iconFile", iconFile);
+                json.put("iconOffset", iconOffset);
+                json.put("iconLength", iconLength);
+            }
+            return json;
+        }
+
+        private static Entry fromJSON(JSONObject json) throws JSONException {
+            Entry entry = new Entry(json.getString("baseName"), json.getLong("pbwModified"), json.getLong("pbwLength"),
+                    json.getLong("jsonModified"), json.getBoolean("configurable"));
+            entry.appJson = json.optJSONObject("app");
+            if (json.has("iconPlatform")) {
+                entry.iconPlatform = json.getString("iconPlatform");
+                entry.iconFile = json.optString("iconFile", null);
+                entry.iconOffset = json.getLong("iconOffset");
+                entry.iconLength = json.getInt("iconLength");
+            }
+            return entry;
+        }
+    }
+}
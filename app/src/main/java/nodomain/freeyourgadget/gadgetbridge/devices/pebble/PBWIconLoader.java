@@ -0,0 +1,300 @@
+package nodomain.freeyourgadget.gadgetbridge.devices.pebble;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceApp;
+import nodomain.freeyourgadget.gadgetbridge.util.PebbleUtils;
+
+/**
+ * Loads the menu icons of the apps in the pbw cache in the background and keeps the
+ * decoded bitmaps in a LRU cache. Where an icon is stored in its .pbw file is looked
+ * up only once and then kept in the PBWCacheIndex.
+ */
+public class PBWIconLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(PBWIconLoader.class);
+
+    private static final int CACHE_SIZE_BYTES = 2 * 1024 * 1024;
+    private static final int MAX_ICON_BYTES = 64 * 1024;
+    // offset of the icon resource id in the header of pebble-app.bin
+    private static final int APP_BIN_ICON_ID_OFFSET = 88;
+    // an app resource pack starts with the number of resources, a crc and a timestamp,
+    // followed by a table of 256 entries (id, offset, length, crc) and the resources
+    private static final int PBPACK_MANIFEST_SIZE = 12;
+    private static final int PBPACK_TABLE_ENTRIES = 256;
+    private static final int PBPACK_TABLE_ENTRY_SIZE = 16;
+    private static final int PBI_HEADER_SIZE = 12;
+
+    private static PBWIconLoader instance;
+
+    private final LruCache<String, Bitmap> cache = new LruCache<String, Bitmap>(CACHE_SIZE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getRowBytes() * value.getHeight();
+        }
+    };
+    private final Set<String> noIcon = Collections.synchronizedSet(new HashSet<String>());
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // the number of icons queued or being loaded, the index is written when it drops to 0
+    private final AtomicInteger pendingLoads = new AtomicInteger();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "PBWIconLoader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public static synchronized PBWIconLoader getInstance() {
+        if (instance == null) {
+            instance = new PBWIconLoader();
+        }
+        return instance;
+    }
+
+    /**
+     * Shows the icon of the given app in the given view, as soon as it has been loaded.
+     * Until then, or if the app has no icon, the view keeps showing what it showed before.
+     * Must be called on the main thread.
+     */
+    public void loadIcon(ImageView view, GBDeviceApp app, final String platform) {
+        final PBWCacheIndex.Entry entry = app.isInCache() ? PBWCacheIndex.getInstance().getEntry(app.getUUID().toString()) : null;
+        if (entry == null || !entry.hasPbw() || platform == null) {
+            view.setTag(null);
+            return;
+        }
+        final String key = entry.getVersionKey() + "/" + platform;
+        view.setTag(key);
+        Bitmap icon = cache.get(key);
+        if (icon != null) {
+            view.setImageBitmap(icon);
+            return;
+        }
+        if (noIcon.contains(key)) {
+            return;
+        }
+
+        final WeakReference<ImageView> viewReference = new WeakReference<>(view);
+        pendingLoads.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load();
+                } finally {
+                    if (pendingLoads.decrementAndGet() == 0) {
+                        PBWCacheIndex.getInstance().saveIcons();
+                    }
+                }
+            }
+
+            private void load() {
+                Bitmap icon = cache.get(key);
+                if (icon == null && !noIcon.contains(key)) {
+                    icon = readIcon(entry, platform);
+                    if (icon != null) {
+                        cache.put(key, icon);
+                    } else {
+                        noIcon.add(key);
+                    }
+                }
+                if (icon != null) {
+                    final Bitmap result = icon;
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            ImageView view = viewReference.get();
+                            // the view may have been recycled for another app meanwhile
+                            if (view != null && key.equals(view.getTag())) {
+                                view.setImageBitmap(result);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private Bitmap readIcon(PBWCacheIndex.Entry entry, String platform) {
+        try (ZipFile pbw = new ZipFile(new File(PebbleUtils.getPbwCacheDir(), entry.baseName + ".pbw"))) {
+            if (!platform.equals(entry.iconPlatform)) {
+                locateIcon(pbw, entry, platform);
+            }
+            if (entry.iconFile == null || entry.iconLength <= 0 || entry.iconLength > MAX_ICON_BYTES) {
+                return null;
+            }
+            ZipEntry resources = pbw.getEntry(entry.iconFile);
+            if (resources == null) {
+                return null;
+            }
+            byte[] data = new byte[entry.iconLength];
+            try (InputStream in = pbw.getInputStream(resources)) {
+                skipFully(in, entry.iconOffset);
+                new DataInputStream(in).readFully(data);
+            }
+            return decodeIcon(data);
+        } catch (IOException e) {
+            LOG.warn("could not read icon of " + entry.baseName + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void locateIcon(ZipFile pbw, PBWCacheIndex.Entry entry, String platform) throws IOException {
+        String platformDir = null;
+        for (String dir : PBWReader.getPlatformDirs(platform)) {
+            if (pbw.getEntry(dir + "pebble-app.bin") != null) {
+                platformDir = dir;
+                break;
+            }
+        }
+        if (platformDir == null && !platform.equals("chalk") && pbw.getEntry("pebble-app.bin") != null) {
+            platformDir = ""; // 2.x app
+        }
+
+        String iconFile = null;
+        long iconOffset = 0;
+        int iconLength = 0;
+        ZipEntry resources = platformDir != null ? pbw.getEntry(platformDir + "app_resources.pbpack") : null;
+        if (resources != null) {
+            int iconId;
+            try (InputStream in = pbw.getInputStream(pbw.getEntry(platformDir + "pebble-app.bin"))) {
+                byte[] header = new byte[APP_BIN_ICON_ID_OFFSET + 4];
+                new DataInputStream(in).readFully(header);
+                iconId = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt(APP_BIN_ICON_ID_OFFSET);
+            }
+            if (iconId > 0) {
+                try (InputStream in = pbw.getInputStream(resources)) {
+                    byte[] table = new byte[PBPACK_MANIFEST_SIZE + PBPACK_TABLE_ENTRIES * PBPACK_TABLE_ENTRY_SIZE];
+                    new DataInputStream(in).readFully(table);
+                    ByteBuffer buf = ByteBuffer.wrap(table).order(ByteOrder.LITTLE_ENDIAN);
+                    int count = Math.min(buf.getInt(), PBPACK_TABLE_ENTRIES);
+                    buf.position(PBPACK_MANIFEST_SIZE);
+                    for (int i = 0; i < count; i++) {
+                        int id = buf.getInt();
+                        int offset = buf.getInt();
+                        int length = buf.getInt();
+                        buf.getInt(); // crc
+                        if (id == iconId) {
+                            iconFile = resources.getName();
+                            iconOffset = table.length + (offset & 0xffffffffL);
+                            iconLength = length;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        PBWCacheIndex.getInstance().setIcon(entry, platform, iconFile, iconOffset, iconLength);
+    }
+
+    /**
+     * Decodes a png or a Pebble bitmap (1 bit, 8 bit or 1/2/4 bit palette).
+     */
+    static Bitmap decodeIcon(byte[] data) {
+        if (data.length > 4 && data[0] == (byte) 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G') {
+            return BitmapFactory.decodeByteArray(data, 0, data.length);
+        }
+        if (data.length < PBI_HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        int rowSize = buf.getShort() & 0xffff;
+        int format = (buf.getShort() >> 1) & 0x1f;
+        buf.getShort(); // origin x
+        buf.getShort(); // origin y
+        int width = buf.getShort();
+        int height = buf.getShort();
+
+        int bitsPerPixel;
+        switch (format) {
+            case 0: // 1 bit
+            case 2: // 1 bit palette
+                bitsPerPixel = 1;
+                break;
+            case 1: // 8 bit
+                bitsPerPixel = 8;
+                break;
+            case 3: // 2 bit palette
+                bitsPerPixel = 2;
+                break;
+            case 4: // 4 bit palette
+                bitsPerPixel = 4;
+                break;
+            default:
+                return null;
+        }
+        int paletteOffset = PBI_HEADER_SIZE + rowSize * height;
+        boolean hasPalette = format >= 2;
+        if (width <= 0 || height <= 0 || rowSize * 8 < width * bitsPerPixel
+                || paletteOffset + (hasPalette ? 1 << bitsPerPixel : 0) > data.length) {
+            return null;
+        }
+
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int bit = x * bitsPerPixel;
+                int value = data[PBI_HEADER_SIZE + y * rowSize + bit / 8] & 0xff;
+                int color;
+                if (format == 0) {
+                    // least significant bit first, set bits are white
+                    color = ((value >> (bit % 8)) & 1) != 0 ? Color.WHITE : Color.BLACK;
+                } else if (format == 1) {
+                    color = toColor(value);
+                } else {
+                    // most significant bits first
+                    int index = (value >> (8 - bitsPerPixel - bit % 8)) & ((1 << bitsPerPixel) - 1);
+                    color = toColor(data[paletteOffset + index] & 0xff);
+                }
+                pixels[y * width + x] = color;
+            }
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Converts a Pebble color with two bits per channel (argb) to an Android color.
+     */
+    private static int toColor(int argb) {
+        return Color.argb(((argb >> 6) & 3) * 85, ((argb >> 4) & 3) * 85, ((argb >> 2) & 3) * 85, (argb & 3) * 85);
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("unexpected end of resource pack");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
@@ -241,30 +241,7 @@ public class PBWReader {
     private String determinePlatformDir(UriHelper uriHelper, String platform) throws IOException {
         String platformDir = "";
 
-        /*
-         * for aplite and basalt it is possible to install 2.x apps which have no subfolder
-         * we still prefer the subfolders if present.
-         * chalk needs to be its subfolder
-         */
-        String[] platformDirs;
-        switch (platform) {
-            case "basalt":
-                platformDirs = new String[]{"basalt/"};
-                break;
-            case "chalk":
-                platformDirs = new String[]{"chalk/"};
-                break;
-            case "diorite":
-                platformDirs = new String[]{"diorite/", "aplite/"};
-                break;
-            case "emery":
-                platformDirs = new String[]{"emery/", "basalt/"};
-                break;
-            default:
-                platformDirs = new String[]{"aplite/"};
-        }
-
-        for (String dir : platformDirs) {
+        for (String dir : getPlatformDirs(platform)) {
             try (ZipInputStream zis = new ZipInputStream(uriHelper.openInputStream())) {
                 ZipEntry ze;
                 while ((ze = zis.getNextEntry()) != null) {
@@ -277,6 +254,26 @@ public class PBWReader {
         return platformDir;
     }
 
+    /**
+     * Returns the subfolders with the binaries for the given platform, in order of preference.
+     * For aplite and basalt it is possible to install 2.x apps which have no subfolder,
+     * we still prefer the subfolders if present. Chalk needs to be its subfolder.
+     */
+    static String[] getPlatformDirs(String platform) {
+        switch (platform) {
+            case "basalt":
+                return new String[]{"basalt/"};
+            case "chalk":
+                return new String[]{"chalk/"};
+            case "diorite":
+                return new String[]{"diorite/", "aplite/"};
+            case "emery":
+                return new String[]{"emery/", "basalt/"};
+            default:
+                return new String[]{"aplite/"};
+        }
+    }
+
     public boolean isFirmware() {
         return isFirmware;
     }
@@ -5,20 +5,41 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Bundle;
+import android.view.View;
+import android.widget.Button;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
+import com.github.mikephil.charting.charts.LineChart;
+import com.github.mikephil.charting.components.YAxis;
+import com.github.mikephil.charting.data.Entry;
+import com.github.mikephil.charting.data.LineData;
+import com.github.mikephil.charting.data.LineDataSet;
+
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.AbstractGBActivity;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.um25.Data.MeasurementData;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.um25.Data.MeasurementRecorder;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.um25.Support.UM25Support;
+import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public class DataActivity extends AbstractGBActivity {
     private HashMap<Integer, TextView> valueViews = new HashMap<>(ValueDisplay.values().length);
+    private Button recordButton;
+    private TextView recordingText;
+    private LineChart recordingChart;
 
     private enum ValueDisplay{
         VOLTAGE("voltage", "%.3fV", R.id.um25_text_voltage, 1000),
@@ -43,6 +64,99 @@ public class DataActivity extends AbstractGBActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_um25_data);
+
+        recordButton = findViewById(R.id.um25_button_record);
+        recordingText = findViewById(R.id.um25_text_recording);
+        recordingChart = findViewById(R.id.um25_chart_recording);
+        recordingChart.getDescription().setEnabled(false);
+        recordingChart.setNoDataText("");
+
+        recordButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                toggleRecording();
+            }
+        });
+        findViewById(R.id.um25_button_export).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                exportRecording();
+            }
+        });
+        displayRecording();
+    }
+
+    private void toggleRecording(){
+        MeasurementRecorder recorder = MeasurementRecorder.getInstance();
+        try {
+            if(recorder.isRecording()){
+                recorder.stop();
+            }else{
+                recorder.start(FileUtils.getExternalFile("um25"));
+            }
+        } catch (IOException e) {
+            GB.toast(this, getString(R.string.um25_error_recording, e.getMessage()), Toast.LENGTH_LONG, GB.ERROR, e);
+        }
+        displayRecording();
+    }
+
+    private void exportRecording(){
+        final File recording = MeasurementRecorder.getInstance().getFile();
+        if(recording == null){
+            return;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                File csvFile = new File(recording.getPath().replaceAll("\\.bin$", "") + ".csv");
+                try {
+                    MeasurementRecorder.exportCsv(recording, csvFile);
+                    GB.toast(DataActivity.this, getString(R.string.um25_exported_to, csvFile.getPath()), Toast.LENGTH_LONG, GB.INFO);
+                } catch (IOException e) {
+                    GB.toast(DataActivity.this, getString(R.string.um25_error_recording, e.getMessage()), Toast.LENGTH_LONG, GB.ERROR, e);
+                }
+            }
+        }, "UM25 export").start();
+    }
+
+    private void displayRecording(){
+        MeasurementRecorder recorder = MeasurementRecorder.getInstance();
+        recordButton.setText(recorder.isRecording() ? R.string.um25_stop_recording : R.string.um25_start_recording);
+        if(recorder.getFile() == null){
+            recordingText.setText("");
+            return;
+        }
+
+        List<Entry> voltage = new ArrayList<>();
+        List<Entry> current = new ArrayList<>();
+        long durationMillis = 0;
+        for(MeasurementRecorder.Bucket bucket : recorder.getBuckets()){
+            if(bucket == null){
+                continue;
+            }
+            float minutes = bucket.getStartOffsetMillis() / 60000f;
+            voltage.add(new Entry(minutes, bucket.getMean(MeasurementRecorder.VOLTAGE) / ValueDisplay.VOLTAGE.divisor));
+            current.add(new Entry(minutes, bucket.getMean(MeasurementRecorder.CURRENT) / ValueDisplay.CURRENT.divisor));
+            durationMillis = bucket.getStartOffsetMillis();
+        }
+        recordingText.setText(getString(R.string.um25_recording_status, recorder.getCount(),
+                DateTimeUtils.formatDurationHoursMinutes(durationMillis, TimeUnit.MILLISECONDS)));
+        if(voltage.isEmpty()){
+            recordingChart.clear();
+            return;
+        }
+
+        LineDataSet voltageSet = new LineDataSet(voltage, "V");
+        voltageSet.setColor(getResources().getColor(android.R.color.holo_green_dark));
+        voltageSet.setDrawCircles(false);
+        voltageSet.setDrawValues(false);
+        LineDataSet currentSet = new LineDataSet(current, "A");
+        currentSet.setColor(getResources().getColor(android.R.color.holo_red_dark));
+        currentSet.setDrawCircles(false);
+        currentSet.setDrawValues(false);
+        currentSet.setAxisDependency(YAxis.AxisDependency.RIGHT);
+        recordingChart.setData(new LineData(voltageSet, currentSet));
+        recordingChart.invalidate();
     }
 
     @Override
@@ -88,6 +202,9 @@ public class DataActivity extends AbstractGBActivity {
         public void onReceive(Context context, Intent intent) {
             MeasurementData data = (MeasurementData) intent.getSerializableExtra(UM25Support.EXTRA_KEY_MEASUREMENT_DATA);
             displayMeasurementData(data);
+            if(MeasurementRecorder.getInstance().isRecording()){
+                displayRecording();
+            }
         }
     };
 }
@@ -0,0 +1,162 @@
+package nodomain.freeyourgadget.gadgetbridge.export;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes a table in a compact binary format, column by column in blocks of rows:
+ * <pre>
+ * file:   "GBCOL" version:u8 columnCount:varint (name:string type:u8)* block* 0:varint
+ * block:  rowCount:varint (the values of the first column, the second column, ...)
+ * INT:    zigzag varint of the difference to the previous value of the column in the block
+ * FLOAT:  IEEE 754 single precision, big endian
+ * STRING: varint 0 for null, 1 followed by a string, or the id of a string in the dictionary;
+ *         a string written with the next free id, starting at 2, is followed by that string
+ *         and added to the dictionary
+ * string: length:varint UTF-8 bytes
+ * </pre>
+ * Types are 0 for INT, 1 for FLOAT and 2 for STRING, varints are unsigned LEB128. Sorted
+ * timestamps and repeated values thus mostly take a single byte. Only the current block
+ * and the dictionary of short strings, which is limited in size, are kept in memory.
+ */
+public class ColumnarTableWriter extends TableWriter {
+    public static final byte[] MAGIC = {'G', 'B', 'C', 'O', 'L'};
+    public static final int VERSION = 1;
+
+    static final int BLOCK_ROWS = 4096;
+    private static final int MAX_DICTIONARY_SIZE = 4096;
+    private static final int MAX_DICTIONARY_STRING_LENGTH = 64;
+    private static final int NULL_STRING = 0;
+    private static final int LITERAL_STRING = 1;
+    private static final int FIRST_STRING_ID = 2;
+
+    private final DataOutputStream out;
+    private final long[][] ints;
+    private final float[][] floats;
+    private final String[][] strings;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private int rows;
+
+    public ColumnarTableWriter(OutputStream out, String[] names, Type[] types) throws IOException {
+        super(names, types);
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        ints = new long[types.length][];
+        floats = new float[types.length][];
+        strings = new String[types.length][];
+        this.out.write(MAGIC);
+        this.out.writeByte(VERSION);
+        writeVarint(types.length);
+        for (int i = 0; i < types.length; i++) {
+            writeString(names[i]);
+            this.out.writeByte(types[i].ordinal());
+            switch (types[i]) {
+                case INT:
+                    ints[i] = new long[BLOCK_ROWS];
+                    break;
+                case FLOAT:
+                    floats[i] = new float[BLOCK_ROWS];
+                    break;
+                default:
+                    strings[i] = new String[BLOCK_ROWS];
+            }
+        }
+    }
+
+    @Override
+    public void writeRow(Object... values) throws IOException {
+        checkRow(values);
+        for (int i = 0; i < values.length; i++) {
+            switch (types[i]) {
+                case INT:
+                    ints[i][rows] = values[i] != null ? ((Number) values[i]).longValue() : 0;
+                    break;
+                case FLOAT:
+                    floats[i][rows] = values[i] != null ? ((Number) values[i]).floatValue() : 0;
+                    break;
+                default:
+                    strings[i][rows] = (String) values[i];
+            }
+        }
+        if (++rows == BLOCK_ROWS) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (rows == 0) {
+            return;
+        }
+        writeVarint(rows);
+        for (int i = 0; i < types.length; i++) {
+            switch (types[i]) {
+                case INT:
+                    long previous = 0;
+                    for (int row = 0; row < rows; row++) {
+                        long delta = ints[i][row] - previous;
+                        writeVarint((delta << 1) ^ (delta >> 63));
+                        previous = ints[i][row];
+                    }
+                    break;
+                case FLOAT:
+                    for (int row = 0; row < rows; row++) {
+                        out.writeFloat(floats[i][row]);
+                    }
+                    break;
+                default:
+                    for (int row = 0; row < rows; row++) {
+                        writeDictionaryString(strings[i][row]);
+                        strings[i][row] = null;
+                    }
+            }
+        }
+        rows = 0;
+    }
+
+    private void writeDictionaryString(String value) throws IOException {
+        if (value == null) {
+            writeVarint(NULL_STRING);
+            return;
+        }
+        Integer id = dictionary.get(value);
+        if (id != null) {
+            writeVarint(id);
+        } else if (value.length() <= MAX_DICTIONARY_STRING_LENGTH && dictionary.size() < MAX_DICTIONARY_SIZE) {
+            id = FIRST_STRING_ID + dictionary.size();
+            dictionary.put(value, id);
+            writeVarint(id);
+            writeString(value);
+        } else {
+            writeVarint(LITERAL_STRING);
+            writeString(value);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+            writeVarint(0);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package nodomain.freeyourgadget.gadgetbridge.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a table as CSV with a header line. Strings are quoted if needed, null is written
+ * as an empty field.
+ */
+public class CsvTableWriter extends TableWriter {
+    private final Writer writer;
+
+    public CsvTableWriter(OutputStream out, String[] names, Type[] types) throws IOException {
+        super(names, types);
+        writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeString(names[i]);
+        }
+        writer.write('\n');
+    }
+
+    @Override
+    public void writeRow(Object... values) throws IOException {
+        checkRow(values);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            Object value = values[i];
+            if (value == null) {
+                continue;
+            }
+            switch (types[i]) {
+                case INT:
+                    writer.write(Long.toString(((Number) value).longValue()));
+                    break;
+                case FLOAT:
+                    writer.write(Float.toString(((Number) value).floatValue()));
+                    break;
+                default:
+                    writeString((String) value);
+            }
+        }
+        writer.write('\n');
+    }
+
+    private void writeString(String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
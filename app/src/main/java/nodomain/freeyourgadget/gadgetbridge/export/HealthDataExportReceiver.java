@@ -0,0 +1,34 @@
+package nodomain.freeyourgadget.gadgetbridge.export;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+
+/**
+ * Starts a HealthDataExporter export on HealthDataExporter#ACTION_EXPORT, if the user
+ * allowed this. The optional extras are EXTRA_FORMAT, "csv" or "binary", and EXTRA_GZIP.
+ * Only apps that hold the READ_HEALTH_DATA permission of the HealthContentProvider may
+ * send the action, see the manifest.
+ */
+public class HealthDataExportReceiver extends BroadcastReceiver {
+    private static final Logger LOG = LoggerFactory.getLogger(HealthDataExportReceiver.class);
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!HealthDataExporter.ACTION_EXPORT.equals(intent.getAction())) {
+            return;
+        }
+        if (!GBApplication.getPrefs().getBoolean(HealthDataExporter.PREF_ALLOW_INTENT, false)) {
+            LOG.warn("Ignoring health data export request, not allowed in the settings");
+            return;
+        }
+        HealthDataExporter.Format format = HealthDataExporter.Format.fromValue(intent.getStringExtra(HealthDataExporter.EXTRA_FORMAT));
+        boolean gzip = intent.getBooleanExtra(HealthDataExporter.EXTRA_GZIP, false);
+        HealthDataExporter.exportInBackground(context.getApplicationContext(), format, gzip);
+    }
+}
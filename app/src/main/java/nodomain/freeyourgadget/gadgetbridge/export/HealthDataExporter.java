@@ -0,0 +1,314 @@
+package nodomain.freeyourgadget.gadgetbridge.export;
+
+import android.content.Context;
+import android.widget.Toast;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+import de.greenrobot.dao.query.QueryBuilder;
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.GBException;
+import nodomain.freeyourgadget.gadgetbridge.R;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummaryDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.BatteryLevel;
+import nodomain.freeyourgadget.gadgetbridge.entities.BatteryLevelDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.GB;
+
+/**
+ * Exports the normalized activity samples, battery levels and activity summaries of all
+ * devices, one file each, as CSV or in the format of ColumnarTableWriter.
+ * <p/>
+ * The data is read in chunks of a time range, and the database is only acquired while
+ * reading a chunk, so neither memory use nor the time other threads have to wait for the
+ * database grow with the amount of data.
+ */
+public class HealthDataExporter {
+    private static final Logger LOG = LoggerFactory.getLogger(HealthDataExporter.class);
+
+    public static final String ACTION_EXPORT = "nodomain.freeyourgadget.gadgetbridge.command.EXPORT_HEALTH_DATA";
+    public static final String EXTRA_FORMAT = "format";
+    public static final String EXTRA_GZIP = "gzip";
+    public static final String PREF_ALLOW_INTENT = "intent_api_allow_health_export";
+
+    private static final int DAY = 24 * 60 * 60;
+    private static final int SAMPLE_CHUNK = 7 * DAY;
+    private static final int BATTERY_CHUNK = 90 * DAY;
+    private static final int SUMMARY_PAGE_SIZE = 100;
+
+    private static final String[] SAMPLE_COLUMNS = {"timestamp", "device", "kind", "intensity", "steps", "heart_rate"};
+    private static final TableWriter.Type[] SAMPLE_TYPES = {
+            TableWriter.Type.INT, TableWriter.Type.STRING, TableWriter.Type.INT,
+            TableWriter.Type.FLOAT, TableWriter.Type.INT, TableWriter.Type.INT};
+    private static final String[] BATTERY_COLUMNS = {"timestamp", "device", "level"};
+    private static final TableWriter.Type[] BATTERY_TYPES = {
+            TableWriter.Type.INT, TableWriter.Type.STRING, TableWriter.Type.INT};
+    private static final String[] SUMMARY_COLUMNS = {"start_time", "end_time", "device", "kind", "name", "summary_data"};
+    private static final TableWriter.Type[] SUMMARY_TYPES = {
+            TableWriter.Type.INT, TableWriter.Type.INT, TableWriter.Type.STRING,
+            TableWriter.Type.INT, TableWriter.Type.STRING, TableWriter.Type.STRING};
+
+    private static final AtomicBoolean running = new AtomicBoolean();
+
+    public enum Format {
+        CSV("csv"),
+        BINARY("gbcol");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * Returns the format with the given value, "csv" or "binary", or CSV for any other.
+         */
+        public static Format fromValue(String value) {
+            return "binary".equals(value) ? BINARY : CSV;
+        }
+
+        TableWriter createWriter(OutputStream out, String[] names, TableWriter.Type[] types) throws IOException {
+            if (this == CSV) {
+                return new CsvTableWriter(out, names, types);
+            }
+            return new ColumnarTableWriter(out, names, types);
+        }
+    }
+
+    private final Format format;
+    private final boolean gzip;
+
+    public HealthDataExporter(Format format, boolean gzip) {
+        this.format = format;
+        this.gzip = gzip;
+    }
+
+    /**
+     * Exports on a background thread into the export directory, and reports the result
+     * as a toast. Does nothing if an export is already running.
+     */
+    public static void exportInBackground(final Context context, final Format format, final boolean gzip) {
+        if (!running.compareAndSet(false, true)) {
+            GB.toast(context, context.getString(R.string.health_export_running), Toast.LENGTH_SHORT, GB.WARN);
+            return;
+        }
+        Thread thread = new Thread("HealthDataExporter") {
+            @Override
+            public void run() {
+                try {
+                    File dir = new HealthDataExporter(format, gzip).export(FileUtils.getExternalFilesDir());
+                    GB.toast(context, context.getString(R.string.dbmanagementactivity_exported_to, dir.getAbsolutePath()), Toast.LENGTH_LONG, GB.INFO);
+                } catch (Exception e) {
+                    GB.toast(context, context.getString(R.string.health_export_failed, e.getMessage()), Toast.LENGTH_LONG, GB.ERROR, e);
+                } finally {
+                    running.set(false);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Exports into a new directory in the given one.
+     *
+     * @return the new directory
+     */
+    public File export(File parentDir) throws IOException, GBException {
+        File dir = new File(parentDir, "health_" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()));
+        if (!dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        LOG.info("Exporting health data to " + dir);
+
+        List<GBDevice> devices = new ArrayList<>();
+        try (DBHandler db = GBApplication.acquireDB()) {
+            for (Device dbDevice : DBHelper.getActiveDevices(db.getDaoSession())) {
+                devices.add(DeviceHelper.getInstance().toGBDevice(dbDevice));
+            }
+        }
+        try (TableWriter writer = createWriter(dir, "samples", SAMPLE_COLUMNS, SAMPLE_TYPES)) {
+            for (GBDevice device : devices) {
+                exportSamples(device, writer);
+            }
+        }
+        try (TableWriter writer = createWriter(dir, "battery", BATTERY_COLUMNS, BATTERY_TYPES)) {
+            for (GBDevice device : devices) {
+                exportBatteryLevels(device, writer);
+            }
+        }
+        try (TableWriter writer = createWriter(dir, "summaries", SUMMARY_COLUMNS, SUMMARY_TYPES)) {
+            for (GBDevice device : devices) {
+                exportSummaries(device, writer);
+            }
+        }
+        return dir;
+    }
+
+    private TableWriter createWriter(File dir, String name, String[] names, TableWriter.Type[] types) throws IOException {
+        String fileName = name + "." + format.extension + (gzip ? ".gz" : "");
+        OutputStream out = new FileOutputStream(new File(dir, fileName));
+        try {
+            if (gzip) {
+                out = new GZIPOutputStream(out, 8192);
+            }
+            return format.createWriter(out, names, types);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    private void exportSamples(GBDevice device, TableWriter writer) throws IOException, GBException {
+        AbstractSampleProvider<? extends AbstractActivitySample> provider;
+        int first;
+        int last;
+        try (DBHandler db = GBApplication.acquireDB()) {
+            DeviceCoordinator coordinator = DeviceHelper.getInstance().getCoordinator(device);
+            SampleProvider<?> sampleProvider = coordinator.getSampleProvider(device, db.getDaoSession());
+            if (!(sampleProvider instanceof AbstractSampleProvider)) {
+                return;
+            }
+            provider = (AbstractSampleProvider<? extends AbstractActivitySample>) sampleProvider;
+            AbstractActivitySample firstSample = provider.getFirstActivitySample();
+            AbstractActivitySample lastSample = provider.getLatestActivitySample();
+            if (firstSample == null || lastSample == null) {
+                return;
+            }
+            first = firstSample.getTimestamp();
+            last = lastSample.getTimestamp();
+        }
+
+        String address = device.getAddress();
+        int count = 0;
+        for (long chunkStart = first; chunkStart <= last; chunkStart += SAMPLE_CHUNK) {
+            List<AbstractActivitySample> samples;
+            try (DBHandler db = GBApplication.acquireDB()) {
+                samples = new ArrayList<AbstractActivitySample>(provider.getAllActivitySamples((int) chunkStart, (int) Math.min(chunkStart + SAMPLE_CHUNK - 1, last)));
+            }
+            Collections.sort(samples, new Comparator<AbstractActivitySample>() {
+                @Override
+                public int compare(AbstractActivitySample lhs, AbstractActivitySample rhs) {
+                    return lhs.getTimestamp() - rhs.getTimestamp();
+                }
+            });
+            for (AbstractActivitySample sample : samples) {
+                writer.writeRow(sample.getTimestamp(), address, sample.getKind(), sample.getIntensity(), sample.getSteps(), sample.getHeartRate());
+            }
+            count += samples.size();
+        }
+        LOG.info("Exported " + count + " samples of " + device.getName());
+    }
+
+    private void exportBatteryLevels(GBDevice device, TableWriter writer) throws IOException, GBException {
+        long deviceId;
+        int first;
+        int last;
+        try (DBHandler db = GBApplication.acquireDB()) {
+            Device dbDevice = DBHelper.findDevice(device, db.getDaoSession());
+            if (dbDevice == null) {
+                return;
+            }
+            deviceId = dbDevice.getId();
+            BatteryLevel firstLevel = getBoundaryBatteryLevel(db.getDaoSession(), deviceId, false);
+            BatteryLevel lastLevel = getBoundaryBatteryLevel(db.getDaoSession(), deviceId, true);
+            if (firstLevel == null || lastLevel == null) {
+                return;
+            }
+            first = firstLevel.getTimestamp();
+            last = lastLevel.getTimestamp();
+        }
+
+        String address = device.getAddress();
+        for (long chunkStart = first; chunkStart <= last; chunkStart += BATTERY_CHUNK) {
+            List<BatteryLevel> levels;
+            try (DBHandler db = GBApplication.acquireDB()) {
+                BatteryLevelDao dao = db.getDaoSession().getBatteryLevelDao();
+                levels = dao.queryBuilder()
+                        .where(BatteryLevelDao.Properties.DeviceId.eq(deviceId),
+                                BatteryLevelDao.Properties.Timestamp.ge(chunkStart),
+                                BatteryLevelDao.Properties.Timestamp.lt(chunkStart + BATTERY_CHUNK))
+                        .orderAsc(BatteryLevelDao.Properties.Timestamp)
+                        .list();
+                dao.detachAll();
+            }
+            for (BatteryLevel level : levels) {
+                writer.writeRow(level.getTimestamp(), address, level.getLevel());
+            }
+        }
+    }
+
+    private BatteryLevel getBoundaryBatteryLevel(DaoSession session, long deviceId, boolean latest) {
+        BatteryLevelDao dao = session.getBatteryLevelDao();
+        List<BatteryLevel> levels = dao.queryBuilder()
+                .where(BatteryLevelDao.Properties.DeviceId.eq(deviceId))
+                .orderCustom(BatteryLevelDao.Properties.Timestamp, latest ? "DESC" : "ASC")
+                .limit(1)
+                .list();
+        return levels.isEmpty() ? null : levels.get(0);
+    }
+
+    private void exportSummaries(GBDevice device, TableWriter writer) throws IOException, GBException {
+        String address = device.getAddress();
+        // each page continues after the last summary of the previous one, by (start time, id)
+        BaseActivitySummary last = null;
+        while (true) {
+            List<BaseActivitySummary> summaries;
+            try (DBHandler db = GBApplication.acquireDB()) {
+                Device dbDevice = DBHelper.findDevice(device, db.getDaoSession());
+                if (dbDevice == null) {
+                    return;
+                }
+                BaseActivitySummaryDao dao = db.getDaoSession().getBaseActivitySummaryDao();
+                QueryBuilder<BaseActivitySummary> qb = dao.queryBuilder();
+                qb.where(BaseActivitySummaryDao.Properties.DeviceId.eq(dbDevice.getId()));
+                if (last != null) {
+                    qb.whereOr(BaseActivitySummaryDao.Properties.StartTime.gt(last.getStartTime()),
+                            qb.and(BaseActivitySummaryDao.Properties.StartTime.eq(last.getStartTime()),
+                                    BaseActivitySummaryDao.Properties.Id.gt(last.getId())));
+                }
+                summaries = qb
+                        .orderAsc(BaseActivitySummaryDao.Properties.StartTime, BaseActivitySummaryDao.Properties.Id)
+                        .limit(SUMMARY_PAGE_SIZE)
+                        .list();
+                dao.detachAll();
+            }
+            if (!summaries.isEmpty()) {
+                last = summaries.get(summaries.size() - 1);
+            }
+            for (BaseActivitySummary summary : summaries) {
+                writer.writeRow(summary.getStartTime().getTime() / 1000, summary.getEndTime().getTime() / 1000, address,
+                        summary.getActivityKind(), summary.getName(), summary.getSummaryData());
+            }
+            if (summaries.size() < SUMMARY_PAGE_SIZE) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package nodomain.freeyourgadget.gadgetbridge.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes the rows of a table with fixed columns to a stream, one row at a time.
+ */
+public abstract class TableWriter implements Closeable {
+    public enum Type {
+        INT,
+        FLOAT,
+        STRING
+    }
+
+    protected final String[] names;
+    protected final Type[] types;
+
+    protected TableWriter(String[] names, Type[] types) {
+        if (names.length != types.length) {
+            throw new IllegalArgumentException("a type is needed for every column");
+        }
+        this.names = names;
+        this.types = types;
+    }
+
+    /**
+     * Writes a row. The values must match the column types: a Number for INT and FLOAT
+     * columns, a String or null for STRING columns.
+     */
+    public abstract void writeRow(Object... values) throws IOException;
+
+    protected void checkRow(Object[] values) {
+        if (values.length != types.length) {
+            throw new IllegalArgumentException("expected " + types.length + " values, got " + values.length);
+        }
+    }
+}
@@ -24,6 +24,7 @@ import android.util.Log;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.database.PeriodicExporter;
+import nodomain.freeyourgadget.gadgetbridge.database.SampleRetention;
 
 public class AutoStartReceiver extends BroadcastReceiver {
     private static final String TAG = AutoStartReceiver.class.getName();
@@ -40,6 +41,7 @@ public class AutoStartReceiver extends BroadcastReceiver {
             }
 
             PeriodicExporter.enablePeriodicExport(context);
+            SampleRetention.enableRetention(context);
         }
     }
 }
@@ -0,0 +1,294 @@
+package nodomain.freeyourgadget.gadgetbridge.externalevents;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
+
+/**
+ * Sits between the NotificationListener and the device service, so that apps which post
+ * or update the same notification several times in a row do not cause a transfer to the
+ * device each time.
+ * <p/>
+ * Notifications are identified by the key of their StatusBarNotification. An update of a
+ * notification that is still waiting replaces it, and an update arriving within the
+ * coalescing window after the notification was delivered is held back until the window
+ * has passed, so that only its last version is delivered. Updates that do not change
+ * the content of a delivered notification are dropped.
+ * <p/>
+ * Deliveries are at least the minimum interval apart, except for alarms and phone
+ * notifications, which are delivered immediately and before all waiting ones. The limit is
+ * global: the device service sends every notification to all connected devices, so this
+ * spaces the notifications each of them receives as well. Incoming calls do not go through
+ * the scheduler at all.
+ * <p/>
+ * Must only be used on the thread of the given handler.
+ */
+public class NotificationDeliveryScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationDeliveryScheduler.class);
+
+    public static final String PREF_COALESCE_WINDOW = "notification_coalesce_window";
+    public static final String PREF_MIN_INTERVAL = "notification_min_interval";
+    static final int DEFAULT_COALESCE_WINDOW_MILLIS = 2000;
+    static final int DEFAULT_MIN_INTERVAL_MILLIS = 500;
+    // the oldest waiting notification is dropped when more are waiting
+    static final int MAX_PENDING = 32;
+    private static final int MAX_DELIVERED = 128;
+
+    public interface Sender {
+        void onNotification(NotificationSpec notificationSpec);
+
+        /**
+         * Called for notifications that will not be delivered, because they were replaced
+         * by an update, dropped or cancelled.
+         */
+        void onDiscarded(NotificationSpec notificationSpec);
+    }
+
+    private final Handler handler;
+    private final Sender sender;
+
+    private final Map<String, Pending> pending = new HashMap<>();
+    // the content and time of the last delivery by key, in access order
+    private final Map<String, Delivered> delivered = new LinkedHashMap<String, Delivered>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Delivered> eldest) {
+            return size() > MAX_DELIVERED;
+        }
+    };
+    // the earliest time of the next delivery that is not urgent
+    private long nextDelivery;
+    private long sequence;
+
+    private int deliveredCount;
+    private int mergedCount;
+    private int droppedCount;
+    private int cancelledCount;
+
+    private final Runnable processRunnable = new Runnable() {
+        @Override
+        public void run() {
+            process();
+        }
+    };
+
+    public NotificationDeliveryScheduler(Handler handler, Sender sender) {
+        this.handler = handler;
+        this.sender = sender;
+    }
+
+    public void schedule(String key, NotificationSpec notificationSpec) {
+        long now = SystemClock.uptimeMillis();
+        String content = getContent(notificationSpec);
+        boolean urgent = isUrgent(notificationSpec);
+
+        Pending waiting = pending.get(key);
+        if (waiting != null) {
+            NotificationSpec replaced = waiting.notificationSpec;
+            waiting.notificationSpec = notificationSpec;
+            waiting.content = content;
+            if (urgent) {
+                waiting.urgent = true;
+                waiting.dueAt = now;
+            }
+            mergedCount++;
+            LOG.info("Merged update of notification " + key + " into the waiting one, " + getStatistics());
+            sender.onDiscarded(replaced);
+            process();
+            return;
+        }
+
+        Delivered last = delivered.get(key);
+        if (last != null && last.content.equals(content)) {
+            droppedCount++;
+            LOG.info("Dropped unchanged update of notification " + key + ", " + getStatistics());
+            sender.onDiscarded(notificationSpec);
+            return;
+        }
+
+        long dueAt = now;
+        if (last != null && !urgent) {
+            dueAt = Math.max(now, last.deliveredAt + getCoalesceWindow());
+        }
+        pending.put(key, new Pending(key, notificationSpec, content, urgent, dueAt, sequence++));
+        if (pending.size() > MAX_PENDING) {
+            dropOldest();
+        }
+        process();
+    }
+
+    /**
+     * Forgets the notification with the given key; if it was still waiting, it will not
+     * be delivered anymore.
+     */
+    public void cancel(String key) {
+        delivered.remove(key);
+        Pending waiting = pending.remove(key);
+        if (waiting != null) {
+            cancelledCount++;
+            LOG.info("Cancelled waiting notification " + key + ", " + getStatistics());
+            sender.onDiscarded(waiting.notificationSpec);
+            process();
+        }
+    }
+
+    public void clear() {
+        handler.removeCallbacks(processRunnable);
+        pending.clear();
+        delivered.clear();
+        nextDelivery = 0;
+    }
+
+    public String getStatistics() {
+        return "delivered: " + deliveredCount + ", merged: " + mergedCount + ", dropped: " + droppedCount
+                + ", cancelled: " + cancelledCount + ", waiting: " + pending.size();
+    }
+
+    int getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    int getMergedCount() {
+        return mergedCount;
+    }
+
+    int getDroppedCount() {
+        return droppedCount;
+    }
+
+    private void process() {
+        handler.removeCallbacks(processRunnable);
+        long now = SystemClock.uptimeMillis();
+
+        Pending ready;
+        while ((ready = getNextReady(now, nextDelivery)) != null) {
+            pending.remove(ready.key);
+            delivered.put(ready.key, new Delivered(ready.content, now));
+            nextDelivery = now + getMinInterval();
+            deliveredCount++;
+            sender.onNotification(ready.notificationSpec);
+        }
+
+        long wakeUp = Long.MAX_VALUE;
+        for (Pending waiting : pending.values()) {
+            wakeUp = Math.min(wakeUp, waiting.urgent ? waiting.dueAt : Math.max(waiting.dueAt, nextDelivery));
+        }
+        if (wakeUp != Long.MAX_VALUE) {
+            handler.postAtTime(processRunnable, Math.max(wakeUp, now));
+        }
+    }
+
+    /**
+     * Returns the waiting notification to deliver now: urgent ones first, then the ones
+     * that have been due for the longest time, or null if none may be delivered yet.
+     */
+    private Pending getNextReady(long now, long nextAllowed) {
+        Pending result = null;
+        for (Pending waiting : pending.values()) {
+            if (waiting.dueAt > now || (!waiting.urgent && nextAllowed > now)) {
+                continue;
+            }
+            if (result == null || waiting.compareTo(result) < 0) {
+                result = waiting;
+            }
+        }
+        return result;
+    }
+
+    private void dropOldest() {
+        Pending oldest = null;
+        for (Pending waiting : pending.values()) {
+            if (!waiting.urgent && (oldest == null || waiting.sequence < oldest.sequence)) {
+                oldest = waiting;
+            }
+        }
+        if (oldest != null) {
+            pending.remove(oldest.key);
+            droppedCount++;
+            LOG.warn("Too many waiting notifications, dropped " + oldest.key + ", " + getStatistics());
+            sender.onDiscarded(oldest.notificationSpec);
+        }
+    }
+
+    private static boolean isUrgent(NotificationSpec notificationSpec) {
+        return notificationSpec.type == NotificationType.GENERIC_ALARM_CLOCK
+                || notificationSpec.type == NotificationType.GENERIC_PHONE;
+    }
+
+    /**
+     * Returns what the device gets to see of a notification, to detect updates that do
+     * not change anything.
+     */
+    private static String getContent(NotificationSpec notificationSpec) {
+        StringBuilder content = new StringBuilder();
+        content.append(notificationSpec.type).append('\0')
+                .append(notificationSpec.sourceAppId).append('\0')
+                .append(notificationSpec.sender).append('\0')
+                .append(notificationSpec.phoneNumber).append('\0')
+                .append(notificationSpec.title).append('\0')
+                .append(notificationSpec.subject).append('\0')
+                .append(notificationSpec.body);
+        if (notificationSpec.attachedActions != null) {
+            for (NotificationSpec.Action action : notificationSpec.attachedActions) {
+                content.append('\0').append(action.type).append(action.title);
+            }
+        }
+        return content.toString();
+    }
+
+    private static long getCoalesceWindow() {
+        return Math.max(0, GBApplication.getPrefs().getInt(PREF_COALESCE_WINDOW, DEFAULT_COALESCE_WINDOW_MILLIS));
+    }
+
+    private static long getMinInterval() {
+        return Math.max(0, GBApplication.getPrefs().getInt(PREF_MIN_INTERVAL, DEFAULT_MIN_INTERVAL_MILLIS));
+    }
+
+    private static class Pending implements Comparable<Pending> {
+        final String key;
+        NotificationSpec notificationSpec;
+        String content;
+        boolean urgent;
+        long dueAt;
+        final long sequence;
+
+        Pending(String key, NotificationSpec notificationSpec, String content, boolean urgent, long dueAt, long sequence) {
+            this.key = key;
+            this.notificationSpec = notificationSpec;
+            this.content = content;
+            this.urgent = urgent;
+            this.dueAt = dueAt;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Pending other) {
+            if (urgent != other.urgent) {
+                return urgent ? -1 : 1;
+            }
+            if (dueAt != other.dueAt) {
+                return dueAt < other.dueAt ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static class Delivered {
+        final String content;
+        final long deliveredAt;
+
+        Delivered(String content, long deliveredAt) {
+            this.content = content;
+            this.deliveredAt = deliveredAt;
+        }
+    }
+}
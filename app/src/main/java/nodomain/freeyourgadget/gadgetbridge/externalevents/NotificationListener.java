@@ -126,6 +126,19 @@ public class NotificationListener extends NotificationListenerService {
     private Runnable mSetMusicInfoRunnable = null;
     private Runnable mSetMusicStateRunnable = null;
 
+    private final NotificationDeliveryScheduler mDeliveryScheduler = new NotificationDeliveryScheduler(mHandler, new NotificationDeliveryScheduler.Sender() {
+        @Override
+        public void onNotification(NotificationSpec notificationSpec) {
+            GBApplication.deviceService().onNotification(notificationSpec);
+        }
+
+        @Override
+        public void onDiscarded(NotificationSpec notificationSpec) {
+            // it never reached the device, so it must not be deleted from there later
+            notificationsActive.remove(Integer.valueOf(notificationSpec.getId()));
+        }
+    });
+
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
 
         @Override
@@ -241,6 +254,8 @@ public class NotificationListener extends NotificationListenerService {
     @Override
     public void onDestroy() {
         LocalBroadcastManager.getInstance(this).unregisterReceiver(mReceiver);
+        LOG.info("Notification delivery " + mDeliveryScheduler.getStatistics());
+        mDeliveryScheduler.clear();
         notificationStack.clear();
         notificationsActive.clear();
         super.onDestroy();
@@ -428,7 +443,14 @@ public class NotificationListener extends NotificationListenerService {
             LOG.info("This app might show old/duplicate notifications. notification.when is 0 for " + source);
         }
         notificationsActive.add(notificationSpec.getId());
-        GBApplication.deviceService().onNotification(notificationSpec);
+        mDeliveryScheduler.schedule(getNotificationKey(sbn), notificationSpec);
+    }
+
+    private String getNotificationKey(StatusBarNotification sbn) {
+        if (GBApplication.isRunningLollipopOrLater()) {
+            return sbn.getKey();
+        }
+        return sbn.getPackageName() + "|" + sbn.getId() + "|" + sbn.getTag();
     }
 
     private boolean checkNotificationContentForWhiteAndBlackList(String packageName, String body) {
@@ -728,6 +750,8 @@ public class NotificationListener extends NotificationListenerService {
 
         if (shouldIgnoreNotification(sbn, true)) return;
 
+        mDeliveryScheduler.cancel(getNotificationKey(sbn));
+
         // Build list of all currently active notifications
         ArrayList<Integer> activeNotificationsIds = new ArrayList<Integer>();
         for (StatusBarNotification notification : getActiveNotifications()) {
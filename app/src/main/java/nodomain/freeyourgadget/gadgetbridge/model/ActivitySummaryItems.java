@@ -1,45 +1,77 @@
 package nodomain.freeyourgadget.gadgetbridge.model;
 
-import android.content.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.List;
 
-import nodomain.freeyourgadget.gadgetbridge.adapter.ActivitySummariesAdapter;
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.ActivitySummariesQuery;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 
+/**
+ * Browses the summaries matching a filter one by one. The neighbours of the current summary
+ * are looked up through the query, so the summaries before it are never loaded.
+ */
 public class ActivitySummaryItems {
-    ActivitySummariesAdapter itemsAdapter;
-    private int current_position = 0;
+    private static final Logger LOG = LoggerFactory.getLogger(ActivitySummaryItems.class);
 
-    public ActivitySummaryItems(Context context, GBDevice device, int activityKindFilter, long dateFromFilter, long dateToFilter, String nameContainsFilter, long deviceFilter, List itemsFilter) {
+    private ActivitySummariesQuery query;
+    private BaseActivitySummary current;
 
-        this.itemsAdapter = new ActivitySummariesAdapter(context, device, activityKindFilter, dateFromFilter, dateToFilter, nameContainsFilter, deviceFilter, itemsFilter);
-    }
-
-    public BaseActivitySummary getItem(int position) {
-        if (position == 0) return null;
-        current_position = position;
-        return itemsAdapter.getItem(position);
+    public ActivitySummaryItems(GBDevice device, int activityKindFilter, long dateFromFilter, long dateToFilter, String nameContainsFilter, long deviceFilter, List itemsFilter) {
+        try (DBHandler handler = GBApplication.acquireDB()) {
+            Long deviceId = ActivitySummariesQuery.getDeviceId(handler.getDaoSession(), device, deviceFilter);
+            query = new ActivitySummariesQuery(deviceId, activityKindFilter, dateFromFilter, dateToFilter, nameContainsFilter, itemsFilter);
+        } catch (Exception e) {
+            LOG.error("Unable to query activity summaries", e);
+        }
     }
 
-    public int getPosition(BaseActivitySummary item) {
-        return itemsAdapter.getPosition(item);
+    public BaseActivitySummary getItem(long id) {
+        try (DBHandler handler = GBApplication.acquireDB()) {
+            BaseActivitySummary item = handler.getDaoSession().getBaseActivitySummaryDao().load(id);
+            if (item != null) {
+                current = item;
+            }
+            return item;
+        } catch (Exception e) {
+            LOG.error("Unable to load activity summary " + id, e);
+            return null;
+        }
     }
 
     public BaseActivitySummary getNextItem() {
-        if (current_position + 1 < itemsAdapter.getCount()) {
-            current_position += 1;
-            return itemsAdapter.getItem(current_position);
+        if (query == null || current == null) {
+            return null;
+        }
+        try (DBHandler handler = GBApplication.acquireDB()) {
+            BaseActivitySummary item = query.getNext(handler.getDaoSession(), current);
+            if (item != null) {
+                current = item;
+            }
+            return item;
+        } catch (Exception e) {
+            LOG.error("Unable to load the next activity summary", e);
+            return null;
         }
-        return null;
     }
 
     public BaseActivitySummary getPrevItem() {
-        if (current_position - 1 >= 1) { //0 is empty item for summary dashboard
-            current_position -= 1;
-            return itemsAdapter.getItem(current_position);
+        if (query == null || current == null) {
+            return null;
+        }
+        try (DBHandler handler = GBApplication.acquireDB()) {
+            BaseActivitySummary item = query.getPrevious(handler.getDaoSession(), current);
+            if (item != null) {
+                current = item;
+            }
+            return item;
+        } catch (Exception e) {
+            LOG.error("Unable to load the previous activity summary", e);
+            return null;
         }
-        return null;
     }
 }
@@ -0,0 +1,109 @@
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+import java.util.List;
+
+/**
+ * Aggregated values of a number of activity summaries, usually of one activity kind
+ * of one device.
+ */
+public class ActivitySummaryTotals {
+    private final int activityKind;
+    private final long deviceId;
+    private int count;
+    private long durationMillis;
+    private long firstStartTime;
+    private long lastEndTime;
+    private double distanceMeters;
+    private double caloriesBurnt;
+    private double activeSeconds;
+
+    public ActivitySummaryTotals(int activityKind, long deviceId) {
+        this.activityKind = activityKind;
+        this.deviceId = deviceId;
+    }
+
+    /**
+     * Sums up the given totals, e.g. of several activity kinds or devices. The activity
+     * kind of the result is only set if all given totals share the same kind.
+     */
+    public static ActivitySummaryTotals sumOf(List<ActivitySummaryTotals> totals) {
+        int activityKind = ActivityKind.TYPE_UNKNOWN;
+        long deviceId = 0;
+        for (int i = 0; i < totals.size(); i++) {
+            ActivitySummaryTotals item = totals.get(i);
+            activityKind = (i == 0 || activityKind == item.activityKind) ? item.activityKind : ActivityKind.TYPE_UNKNOWN;
+            deviceId = (i == 0 || deviceId == item.deviceId) ? item.deviceId : 0;
+        }
+        ActivitySummaryTotals result = new ActivitySummaryTotals(activityKind, deviceId);
+        for (ActivitySummaryTotals item : totals) {
+            result.add(item);
+        }
+        return result;
+    }
+
+    public void add(int count, long durationMillis, long firstStartTime, long lastEndTime) {
+        this.count += count;
+        this.durationMillis += durationMillis;
+        if (this.firstStartTime == 0 || (firstStartTime != 0 && firstStartTime < this.firstStartTime)) {
+            this.firstStartTime = firstStartTime;
+        }
+        if (lastEndTime > this.lastEndTime) {
+            this.lastEndTime = lastEndTime;
+        }
+    }
+
+    public void addSummaryData(double distanceMeters, double caloriesBurnt, double activeSeconds) {
+        this.distanceMeters += distanceMeters;
+        this.caloriesBurnt += caloriesBurnt;
+        this.activeSeconds += activeSeconds;
+    }
+
+    public void add(ActivitySummaryTotals other) {
+        add(other.count, other.durationMillis, other.firstStartTime, other.lastEndTime);
+        addSummaryData(other.distanceMeters, other.caloriesBurnt, other.activeSeconds);
+    }
+
+    /**
+     * The activity kind of all aggregated summaries, or {@link ActivityKind#TYPE_UNKNOWN}
+     * if summaries of several kinds have been aggregated.
+     */
+    public int getActivityKind() {
+        return activityKind;
+    }
+
+    /**
+     * The database id of the device of all aggregated summaries, or 0 if summaries of
+     * several devices have been aggregated.
+     */
+    public long getDeviceId() {
+        return deviceId;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public long getFirstStartTime() {
+        return firstStartTime;
+    }
+
+    public long getLastEndTime() {
+        return lastEndTime;
+    }
+
+    public double getDistanceMeters() {
+        return distanceMeters;
+    }
+
+    public double getCaloriesBurnt() {
+        return caloriesBurnt;
+    }
+
+    public double getActiveSeconds() {
+        return activeSeconds;
+    }
+}
@@ -38,9 +38,10 @@ import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public class DailyTotals {
     private static final Logger LOG = LoggerFactory.getLogger(DailyTotals.class);
+    private static final int DAY_SECONDS = 24 * 60 * 60;
 
 
-    public long[] getDailyTotalsForAllDevices(Calendar day) {
+    public long[] getDailyTotalsForAllDevices(final Calendar day) {
         Context context = GBApplication.getContext();
         //get today's steps for all devices in GB
         long all_steps = 0;
@@ -49,14 +50,22 @@ public class DailyTotals {
         if (context instanceof GBApplication) {
             GBApplication gbApp = (GBApplication) context;
             List<? extends GBDevice> devices = gbApp.getDeviceManager().getDevices();
-            for (GBDevice device : devices) {
-                DeviceCoordinator coordinator = DeviceHelper.getInstance().getCoordinator(device);
-                if (!coordinator.supportsActivityDataFetching() && !coordinator.supportsActivityTracking()) {
-                    continue;
+            try (DBHandler handler = GBApplication.acquireDB()) {
+                for (GBDevice device : devices) {
+                    DeviceCoordinator coordinator = DeviceHelper.getInstance().getCoordinator(device);
+                    if (!coordinator.supportsActivityDataFetching() && !coordinator.supportsActivityTracking()) {
+                        continue;
+                    }
+                    try {
+                        long[] all_daily = getDailyTotalsForDevice(handler, device, day);
+                        all_steps += all_daily[0];
+                        all_sleep += all_daily[1];
+                    } catch (Exception e) {
+                        LOG.warn("Error loading daily totals of device " + device, e);
+                    }
                 }
-                long[] all_daily = getDailyTotalsForDevice(device, day);
-                all_steps += all_daily[0];
-                all_sleep += all_daily[1];
+            } catch (Exception e) {
+                LOG.warn("Error loading daily totals of all devices", e);
             }
         }
         //LOG.debug("gbwidget daily totals, all steps:" + all_steps);
@@ -68,24 +77,35 @@ public class DailyTotals {
     public long[] getDailyTotalsForDevice(GBDevice device, Calendar day) {
 
         try (DBHandler handler = GBApplication.acquireDB()) {
-            ActivityAnalysis analysis = new ActivityAnalysis();
-            ActivityAmounts amountsSteps;
-            ActivityAmounts amountsSleep;
-
-            amountsSteps = analysis.calculateActivityAmounts(getSamplesOfDay(handler, day, 0, device));
-            amountsSleep = analysis.calculateActivityAmounts(getSamplesOfDay(handler, day, -12, device));
-
-            long[] sleep = getTotalsSleepForActivityAmounts(amountsSleep);
-            long steps = getTotalsStepsForActivityAmounts(amountsSteps);
-
-            return new long[]{steps, sleep[0] + sleep[1]};
-
+            return getDailyTotalsForDevice(handler, device, day);
         } catch (Exception e) {
             //GB.toast("Error loading sleep/steps widget data for device: " + device, Toast.LENGTH_SHORT, GB.ERROR, e);
             return new long[]{0, 0};
         }
     }
 
+    /**
+     * Returns the steps and sleep minutes of the given device and day, read with the given
+     * handler. The steps are counted from midnight and the sleep from noon of the day before;
+     * both are read with one range query.
+     */
+    public long[] getDailyTotalsForDevice(DBHandler handler, GBDevice device, Calendar day) {
+        ActivityAnalysis analysis = new ActivityAnalysis();
+        ActivityAmounts amountsSteps;
+        ActivityAmounts amountsSleep;
+
+        int[] dayStarts = new int[]{getDayStart(day, 0), getDayStart(day, -12)};
+        List<? extends ActivitySample> samples = getSamples(handler, device, dayStarts[1], dayStarts[0] + DAY_SECONDS - 1);
+        List<List<ActivitySample>> daySamples = DaySamples.split(samples, dayStarts, DAY_SECONDS);
+        amountsSteps = analysis.calculateActivityAmounts(daySamples.get(0));
+        amountsSleep = analysis.calculateActivityAmounts(daySamples.get(1));
+
+        long[] sleep = getTotalsSleepForActivityAmounts(amountsSleep);
+        long steps = getTotalsStepsForActivityAmounts(amountsSteps);
+
+        return new long[]{steps, sleep[0] + sleep[1]};
+    }
+
     private long[] getTotalsSleepForActivityAmounts(ActivityAmounts activityAmounts) {
         long totalSecondsDeepSleep = 0;
         long totalSecondsLightSleep = 0;
@@ -112,20 +132,14 @@ public class DailyTotals {
     }
 
 
-    private List<? extends ActivitySample> getSamplesOfDay(DBHandler db, Calendar day, int offsetHours, GBDevice device) {
-        int startTs;
-        int endTs;
-
+    private int getDayStart(Calendar day, int offsetHours) {
         day = (Calendar) day.clone(); // do not modify the caller's argument
         day.set(Calendar.HOUR_OF_DAY, 0);
         day.set(Calendar.MINUTE, 0);
         day.set(Calendar.SECOND, 0);
         day.add(Calendar.HOUR, offsetHours);
 
-        startTs = (int) (day.getTimeInMillis() / 1000);
-        endTs = startTs + 24 * 60 * 60 - 1;
-
-        return getSamples(db, device, startTs, endTs);
+        return (int) (day.getTimeInMillis() / 1000);
     }
 
 
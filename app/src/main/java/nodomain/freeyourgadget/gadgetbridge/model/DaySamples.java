@@ -0,0 +1,52 @@
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Splits the samples of a range, read with one query, into the samples of the days in that
+ * range, so that values per day do not need one query per day.
+ */
+public class DaySamples {
+    private static final Comparator<ActivitySample> TIMESTAMP_ORDER = new Comparator<ActivitySample>() {
+        @Override
+        public int compare(ActivitySample lhs, ActivitySample rhs) {
+            return lhs.getTimestamp() < rhs.getTimestamp() ? -1 : lhs.getTimestamp() == rhs.getTimestamp() ? 0 : 1;
+        }
+    };
+
+    /**
+     * Returns, for each of the given day starts, the samples from the day start to
+     * dayStart + dayLength - 1 (inclusive). The days may overlap, and the samples do not
+     * need to be ordered.
+     */
+    public static List<List<ActivitySample>> split(List<? extends ActivitySample> samples, int[] dayStarts, int dayLength) {
+        List<ActivitySample> sorted = new ArrayList<ActivitySample>(samples);
+        // samples read from the database are ordered already, which makes this linear
+        Collections.sort(sorted, TIMESTAMP_ORDER);
+        List<List<ActivitySample>> days = new ArrayList<>(dayStarts.length);
+        for (int dayStart : dayStarts) {
+            days.add(sorted.subList(indexOf(sorted, dayStart), indexOf(sorted, dayStart + dayLength)));
+        }
+        return days;
+    }
+
+    /**
+     * Returns the index of the first sample at or after the given timestamp.
+     */
+    private static int indexOf(List<ActivitySample> sorted, int timestamp) {
+        int low = 0;
+        int high = sorted.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted.get(middle).getTimestamp() < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,59 @@
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+/**
+ * Snapshot of the values shown for a device in the device list and the widgets.
+ */
+public class DeviceSummary {
+    private final long steps;
+    private final long sleepMinutes;
+    private final int lastHeartRate;
+    private final int lastHeartRateTimestamp;
+    private final int batteryLevel;
+
+    public DeviceSummary(long steps, long sleepMinutes, int lastHeartRate, int lastHeartRateTimestamp, int batteryLevel) {
+        this.steps = steps;
+        this.sleepMinutes = sleepMinutes;
+        this.lastHeartRate = lastHeartRate;
+        this.lastHeartRateTimestamp = lastHeartRateTimestamp;
+        this.batteryLevel = batteryLevel;
+    }
+
+    /**
+     * The number of steps of today.
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * The minutes of deep and light sleep between yesterday noon and today noon.
+     */
+    public long getSleepMinutes() {
+        return sleepMinutes;
+    }
+
+    /**
+     * The last valid heart rate measured today, or {@link ActivitySample#NOT_MEASURED}.
+     */
+    public int getLastHeartRate() {
+        return lastHeartRate;
+    }
+
+    /**
+     * The unix timestamp of the last heart rate, or 0.
+     */
+    public int getLastHeartRateTimestamp() {
+        return lastHeartRateTimestamp;
+    }
+
+    public int getBatteryLevel() {
+        return batteryLevel;
+    }
+
+    /**
+     * The totals in the format of DailyTotals#getDailyTotalsForDevice.
+     */
+    public long[] getDailyTotals() {
+        return new long[]{steps, sleepMinutes};
+    }
+}
@@ -0,0 +1,263 @@
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+
+/**
+ * Caches today's totals of every device, so that the device list and the widgets do not
+ * have to scan the samples of two days whenever a device changes its state.
+ * <p/>
+ * The totals are computed from the database on first access and on every new day. Samples
+ * added through AbstractSampleProvider afterwards are accumulated incrementally, the same
+ * way ActivityAnalysis#calculateActivityAmounts does. Samples that are older than the
+ * already accumulated ones cause a recomputation on the next access.
+ */
+public class DeviceSummaryCache {
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceSummaryCache.class);
+
+    private static final int DAY_SECONDS = 24 * 60 * 60;
+    private static final int SLEEP_OFFSET_SECONDS = 12 * 60 * 60;
+
+    private static final DeviceSummaryCache instance = new DeviceSummaryCache();
+
+    private static final Comparator<ActivitySample> TIMESTAMP_COMPARATOR = new Comparator<ActivitySample>() {
+        @Override
+        public int compare(ActivitySample lhs, ActivitySample rhs) {
+            return lhs.getTimestamp() < rhs.getTimestamp() ? -1 : (lhs.getTimestamp() == rhs.getTimestamp() ? 0 : 1);
+        }
+    };
+
+    // guarded by this
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long generation;
+
+    public static DeviceSummaryCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the summary of today for the given device, computing it if necessary.
+     * May access the database, so avoid calling it from the main thread where possible.
+     */
+    @NonNull
+    public DeviceSummary getSummary(@Nullable GBDevice device) {
+        if (device == null) {
+            return new DeviceSummary(0, 0, ActivitySample.NOT_MEASURED, 0, ActivitySample.NOT_MEASURED);
+        }
+        int dayStart = getDayStart(Calendar.getInstance());
+        long computeGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(device.getAddress());
+            if (entry != null && entry.dayStart == dayStart && !entry.stale) {
+                return entry.toSummary(device);
+            }
+            computeGeneration = generation;
+        }
+
+        Entry computed = compute(device, dayStart);
+        if (computed == null) {
+            return new DeviceSummary(0, 0, ActivitySample.NOT_MEASURED, 0, device.getBatteryLevel());
+        }
+        synchronized (this) {
+            // samples added in the meantime may or may not be contained in the result
+            if (computeGeneration == generation) {
+                entries.put(device.getAddress(), computed);
+            }
+        }
+        return computed.toSummary(device);
+    }
+
+    /**
+     * Accumulates samples that have just been stored for the device of the given provider.
+     */
+    public void onSamplesAdded(AbstractSampleProvider<?> provider, AbstractActivitySample... samples) {
+        GBDevice device = provider.getDevice();
+        if (device == null || samples.length == 0) {
+            return;
+        }
+        synchronized (this) {
+            generation++;
+            Entry entry = entries.get(device.getAddress());
+            if (entry == null || entry.stale) {
+                return;
+            }
+            for (AbstractActivitySample sample : samples) {
+                if (sample.getProvider() == null) {
+                    sample.setProvider(provider);
+                }
+                if (!entry.add(sample)) {
+                    entry.stale = true;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces a recomputation of the summary of the given device on the next access.
+     */
+    public synchronized void invalidate(GBDevice device) {
+        generation++;
+        Entry entry = entries.get(device.getAddress());
+        if (entry != null) {
+            entry.stale = true;
+        }
+    }
+
+    /**
+     * Forces a recomputation of all summaries on the next access, e.g. after samples have
+     * been written to the database without going through a sample provider.
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        for (Entry entry : entries.values()) {
+            entry.stale = true;
+        }
+    }
+
+    @Nullable
+    private Entry compute(GBDevice device, int dayStart) {
+        try (DBHandler handler = GBApplication.acquireDB()) {
+            DeviceCoordinator coordinator = DeviceHelper.getInstance().getCoordinator(device);
+            SampleProvider<? extends ActivitySample> provider = coordinator.getSampleProvider(device, handler.getDaoSession());
+
+            Entry entry = new Entry(dayStart);
+            int sleepStart = dayStart - SLEEP_OFFSET_SECONDS;
+            List<ActivitySample> samples = new ArrayList<>(provider.getAllActivitySamples(sleepStart, dayStart + DAY_SECONDS - 1));
+            Collections.sort(samples, TIMESTAMP_COMPARATOR);
+            for (ActivitySample sample : samples) {
+                entry.add(sample);
+            }
+            return entry;
+        } catch (Exception e) {
+            LOG.warn("Unable to compute the daily summary of " + device, e);
+            return null;
+        }
+    }
+
+    private static int getDayStart(Calendar day) {
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        return (int) (day.getTimeInMillis() / 1000);
+    }
+
+    private static class Entry {
+        private final int dayStart;
+        private final Totals stepTotals;
+        private final Totals sleepTotals;
+        private int lastHeartRate = ActivitySample.NOT_MEASURED;
+        private int lastHeartRateTimestamp;
+        private boolean stale;
+
+        Entry(int dayStart) {
+            this.dayStart = dayStart;
+            stepTotals = new Totals(dayStart, dayStart + DAY_SECONDS - 1);
+            sleepTotals = new Totals(dayStart - SLEEP_OFFSET_SECONDS, dayStart - SLEEP_OFFSET_SECONDS + DAY_SECONDS - 1);
+        }
+
+        /**
+         * Returns false if the sample cannot be accumulated, because it is not newer than
+         * the already accumulated samples.
+         */
+        boolean add(ActivitySample sample) {
+            int timestamp = sample.getTimestamp();
+            if (!stepTotals.add(sample) || !sleepTotals.add(sample)) {
+                return false;
+            }
+            int heartRate = sample.getHeartRate();
+            if (timestamp >= dayStart && timestamp > lastHeartRateTimestamp
+                    && HeartRateUtils.getInstance().isValidHeartRateValue(heartRate)) {
+                lastHeartRate = heartRate;
+                lastHeartRateTimestamp = timestamp;
+            }
+            return true;
+        }
+
+        DeviceSummary toSummary(GBDevice device) {
+            return new DeviceSummary(stepTotals.steps, sleepTotals.getSleepMinutes(), lastHeartRate, lastHeartRateTimestamp, device.getBatteryLevel());
+        }
+    }
+
+    /**
+     * Accumulates steps and sleep of the samples within one time range, like
+     * ActivityAnalysis#calculateActivityAmounts does for a list of samples.
+     */
+    private static class Totals {
+        private final int from;
+        private final int to;
+        private int lastTimestamp = -1;
+        private int lastRawKind;
+        private int lastKind;
+        private long steps;
+        private long deepSleepSeconds;
+        private long lightSleepSeconds;
+
+        Totals(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        boolean add(ActivitySample sample) {
+            int timestamp = sample.getTimestamp();
+            if (timestamp < from || timestamp > to) {
+                return true;
+            }
+            if (timestamp <= lastTimestamp) {
+                return false;
+            }
+            int kind = sample.getKind();
+            int rawKind = sample.getRawKind();
+            if (sample.getSteps() > 0) {
+                steps += sample.getSteps();
+            }
+            if (lastTimestamp >= 0) {
+                long timeDifference = timestamp - lastTimestamp;
+                if (lastRawKind == rawKind) {
+                    addSeconds(kind, timeDifference);
+                } else {
+                    long sharedTimeDifference = (long) (timeDifference / 2.0f);
+                    addSeconds(lastKind, sharedTimeDifference);
+                    addSeconds(kind, sharedTimeDifference);
+                }
+            }
+            lastTimestamp = timestamp;
+            lastRawKind = rawKind;
+            lastKind = kind;
+            return true;
+        }
+
+        private void addSeconds(int kind, long seconds) {
+            if (kind == ActivityKind.TYPE_DEEP_SLEEP) {
+                deepSleepSeconds += seconds;
+            } else if (kind == ActivityKind.TYPE_LIGHT_SLEEP) {
+                lightSleepSeconds += seconds;
+            }
+        }
+
+        long getSleepMinutes() {
+            return deepSleepSeconds / 60 + lightSleepSeconds / 60;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * The time spent at each heart rate, in buckets of one bpm, so that the time in zones with
+ * any limits can be summed up exactly. See HeartRateHistogramIndex.
+ */
+public class HeartRateHistogram {
+    public static final int MAX_HEART_RATE = 255;
+
+    private final long[] seconds = new long[MAX_HEART_RATE + 1];
+
+    public void add(int heartRate, long seconds) {
+        if (heartRate >= 0 && heartRate <= MAX_HEART_RATE) {
+            this.seconds[heartRate] += seconds;
+        }
+    }
+
+    public void add(HeartRateHistogram other) {
+        for (int i = 0; i <= MAX_HEART_RATE; i++) {
+            seconds[i] += other.seconds[i];
+        }
+    }
+
+    public long getSeconds(int heartRate) {
+        return heartRate >= 0 && heartRate <= MAX_HEART_RATE ? seconds[heartRate] : 0;
+    }
+
+    /**
+     * Returns the seconds spent at heart rates from the first one, inclusive, to the last
+     * one, exclusive.
+     */
+    public long getSeconds(int fromHeartRate, int toHeartRate) {
+        long result = 0;
+        for (int i = Math.max(fromHeartRate, 0); i < Math.min(toHeartRate, MAX_HEART_RATE + 1); i++) {
+            result += seconds[i];
+        }
+        return result;
+    }
+
+    public long getTotalSeconds() {
+        return getSeconds(0, MAX_HEART_RATE + 1);
+    }
+
+    /**
+     * Returns the seconds spent in each zone. Zone i starts at zoneStarts[i], inclusive, and
+     * ends where the next one starts; the first zone starts at 0 and the last one includes all
+     * heart rates above the last start.
+     *
+     * @param zoneStarts the heart rates the zones start at, in ascending order
+     * @return the seconds of each zone, zoneStarts.length + 1 values
+     */
+    public long[] getSecondsInZones(int... zoneStarts) {
+        long[] result = new long[zoneStarts.length + 1];
+        int from = 0;
+        for (int i = 0; i < zoneStarts.length; i++) {
+            result[i] = getSeconds(from, zoneStarts[i]);
+            from = zoneStarts[i];
+        }
+        result[zoneStarts.length] = getSeconds(from, MAX_HEART_RATE + 1);
+        return result;
+    }
+
+    /**
+     * Returns the lowest heart rate that was measured, or ActivitySample#NOT_MEASURED.
+     */
+    public int getMin() {
+        for (int i = 0; i <= MAX_HEART_RATE; i++) {
+            if (seconds[i] > 0) {
+                return i;
+            }
+        }
+        return ActivitySample.NOT_MEASURED;
+    }
+
+    /**
+     * Returns the highest heart rate that was measured, or ActivitySample#NOT_MEASURED.
+     */
+    public int getMax() {
+        for (int i = MAX_HEART_RATE; i >= 0; i--) {
+            if (seconds[i] > 0) {
+                return i;
+            }
+        }
+        return ActivitySample.NOT_MEASURED;
+    }
+
+    /**
+     * Returns the heart rate below which the given fraction of the time was spent, or
+     * ActivitySample#NOT_MEASURED if nothing was measured.
+     */
+    public int getPercentile(float fraction) {
+        long total = getTotalSeconds();
+        if (total == 0) {
+            return ActivitySample.NOT_MEASURED;
+        }
+        long sum = 0;
+        for (int i = 0; i <= MAX_HEART_RATE; i++) {
+            sum += seconds[i];
+            if (sum > 0 && sum >= fraction * total) {
+                return i;
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Encodes the seconds from the lowest to the highest measured heart rate as varints,
+     * preceded by the lowest heart rate and the number of values.
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int min = getMin();
+        if (min == ActivitySample.NOT_MEASURED) {
+            return new byte[0];
+        }
+        int max = getMax();
+        writeVarint(out, min);
+        writeVarint(out, max - min + 1);
+        for (int i = min; i <= max; i++) {
+            writeVarint(out, seconds[i]);
+        }
+        return out.toByteArray();
+    }
+
+    public static HeartRateHistogram decode(byte[] data) {
+        HeartRateHistogram histogram = new HeartRateHistogram();
+        if (data.length == 0) {
+            return histogram;
+        }
+        int[] position = new int[1];
+        int min = (int) readVarint(data, position);
+        int count = (int) readVarint(data, position);
+        for (int i = 0; i < count; i++) {
+            histogram.add(min + i, readVarint(data, position));
+        }
+        return histogram;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] data, int[] position) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[position[0]++] & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
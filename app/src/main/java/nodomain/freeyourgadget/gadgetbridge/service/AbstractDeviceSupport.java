@@ -52,9 +52,7 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.FindPhoneActivity;
 import nodomain.freeyourgadget.gadgetbridge.activities.appmanager.AbstractAppManagerFragment;
-import nodomain.freeyourgadget.gadgetbridge.database.DBAccess;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.BatteryHistoryStore;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventAppInfo;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventBatteryInfo;
@@ -68,9 +66,6 @@ import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventMusicContr
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventNotificationControl;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventScreenshot;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventVersionInfo;
-import nodomain.freeyourgadget.gadgetbridge.entities.BatteryLevel;
-import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
-import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.externalevents.NotificationListener;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.BatteryState;
@@ -420,7 +415,7 @@ public abstract class AbstractDeviceSupport implements DeviceSupport {
                 GB.removeBatteryNotification(context);
             }
         } else {
-            createStoreTask("Storing battery data", context, deviceEvent).execute();
+            BatteryHistoryStore.getInstance().record(gbDevice, deviceEvent.level);
 
             //show the notification if the battery level is below threshold and only if not connected to charger
             if (deviceEvent.level <= gbDevice.getBatteryThresholdPercent() &&
@@ -443,31 +438,6 @@ public abstract class AbstractDeviceSupport implements DeviceSupport {
     }
 
 
-    private StoreDataTask createStoreTask(String task, Context context, GBDeviceEventBatteryInfo deviceEvent) {
-        return new StoreDataTask(task, context, deviceEvent);
-    }
-
-    public class StoreDataTask extends DBAccess {
-        GBDeviceEventBatteryInfo deviceEvent;
-
-        public StoreDataTask(String task, Context context, GBDeviceEventBatteryInfo deviceEvent) {
-            super(task, context);
-            this.deviceEvent = deviceEvent;
-        }
-
-        @Override
-        protected void doInBackground(DBHandler handler) {
-            DaoSession daoSession = handler.getDaoSession();
-            Device device = DBHelper.getDevice(gbDevice, daoSession);
-            int ts = (int) (System.currentTimeMillis() / 1000);
-            BatteryLevel batteryLevel = new BatteryLevel();
-            batteryLevel.setTimestamp(ts);
-            batteryLevel.setDevice(device);
-            batteryLevel.setLevel(deviceEvent.level);
-            handler.getDaoSession().getBatteryLevelDao().insert(batteryLevel);
-        }
-    }
-
     public void handleGBDeviceEvent(GBDeviceEventDisplayMessage message) {
         GB.log(message.message, message.severity, null);
 
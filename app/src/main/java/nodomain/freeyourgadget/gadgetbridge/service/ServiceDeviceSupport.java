@@ -29,6 +29,7 @@ import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.UUID;
 
+import nodomain.freeyourgadget.gadgetbridge.database.BatteryHistoryStore;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.Alarm;
 import nodomain.freeyourgadget.gadgetbridge.model.CalendarEventSpec;
@@ -96,6 +97,8 @@ public class ServiceDeviceSupport implements DeviceSupport {
     @Override
     public void dispose() {
         delegate.dispose();
+        // the levels would otherwise wait for the next batch, or be lost with the process
+        BatteryHistoryStore.getInstance().flushSoon();
     }
 
     @Override
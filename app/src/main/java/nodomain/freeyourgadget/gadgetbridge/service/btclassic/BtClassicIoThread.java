@@ -36,12 +36,15 @@ import java.util.UUID;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.AbstractSerialDeviceSupport;
+import nodomain.freeyourgadget.gadgetbridge.service.serial.CoalescingFrameWriter;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.GBDeviceIoThread;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.GBDeviceProtocol;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public abstract class BtClassicIoThread extends GBDeviceIoThread {
     private static final Logger LOG = LoggerFactory.getLogger(BtClassicIoThread.class);
+    private static final long WRITER_QUIT_TIMEOUT_MILLIS = 200;
+    private static final long WRITER_COALESCE_WINDOW_MILLIS = 5;
 
     private final GBDeviceProtocol mProtocol;
     private final AbstractSerialDeviceSupport mDeviceSupport;
@@ -50,11 +53,18 @@ public abstract class BtClassicIoThread extends GBDeviceIoThread {
     private BluetoothSocket mBtSocket = null;
     private InputStream mInStream = null;
     private OutputStream mOutStream = null;
+    private volatile CoalescingFrameWriter mWriter = null;
     private boolean mQuit = false;
 
     @Override
     public void quit() {
         mQuit = true;
+        // let the queued frames go out before the socket is closed
+        CoalescingFrameWriter writer = mWriter;
+        mWriter = null;
+        if (writer != null) {
+            writer.quitAndWait(WRITER_QUIT_TIMEOUT_MILLIS);
+        }
         if (mBtSocket != null) {
             try {
                 mBtSocket.close();
@@ -74,20 +84,30 @@ public abstract class BtClassicIoThread extends GBDeviceIoThread {
         mBtAdapter = btAdapter;
     }
 
+    /**
+     * Queues the given bytes for writing. Frames written in quick succession are
+     * coalesced into one write to the socket.
+     */
     @Override
-    public synchronized void write(byte[] bytes) {
+    public void write(byte[] bytes) {
         if (null == bytes)
             return;
-        if (mOutStream == null) {
-            LOG.error("mOutStream is null");
+        CoalescingFrameWriter writer = mWriter;
+        if (writer == null) {
+            LOG.error("not connected, dropping frame");
             return;
         }
-        LOG.debug("writing:" + GB.hexdump(bytes, 0, bytes.length));
-        try {
-            mOutStream.write(bytes);
-            mOutStream.flush();
-        } catch (IOException e) {
-            LOG.error("Error writing.", e);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("writing:" + GB.hexdump(bytes, 0, bytes.length));
+        }
+        writer.write(bytes);
+    }
+
+    private void stopWriter() {
+        CoalescingFrameWriter writer = mWriter;
+        if (writer != null) {
+            writer.quit();
+            mWriter = null;
         }
     }
 
@@ -120,6 +140,7 @@ public abstract class BtClassicIoThread extends GBDeviceIoThread {
             } catch (IOException e) {
                 LOG.info(e.getMessage());
                 mIsConnected = false;
+                stopWriter();
                 mBtSocket = null;
                 mInStream = null;
                 mOutStream = null;
@@ -129,6 +150,7 @@ public abstract class BtClassicIoThread extends GBDeviceIoThread {
         }
 
         mIsConnected = false;
+        stopWriter();
         if (mBtSocket != null) {
             try {
                 mBtSocket.close();
@@ -159,6 +181,8 @@ public abstract class BtClassicIoThread extends GBDeviceIoThread {
             mBtSocket.connect();
             mInStream = mBtSocket.getInputStream();
             mOutStream = mBtSocket.getOutputStream();
+            mWriter = new CoalescingFrameWriter("BtClassic writer " + gbDevice.getAddress(), mOutStream, WRITER_COALESCE_WINDOW_MILLIS);
+            mWriter.start();
             setUpdateState(GBDevice.State.CONNECTED);
         } catch (IOException e) {
             LOG.error("Server socket cannot be started.");
@@ -24,6 +24,7 @@ import java.util.Locale;
 public abstract class AbstractTransaction {
     private final String mName;
     private final long creationTimestamp = System.currentTimeMillis();
+    private long enqueueNanos;
 
     public AbstractTransaction(String taskName) {
         this.mName = taskName;
@@ -39,6 +40,17 @@ public abstract class AbstractTransaction {
 
     public abstract int getActionCount();
 
+    void setEnqueued() {
+        enqueueNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the System#nanoTime() when this transaction has been added to the queue.
+     */
+    long getEnqueueNanos() {
+        return enqueueNanos;
+    }
+
     @Override
     public String toString() {
         return String.format(Locale.US, "%s: Transaction task: %s with %d actions", getCreationTime(), getTaskName(), getActionCount());
@@ -66,6 +66,14 @@ public abstract class BtLEAction {
         return characteristic;
     }
 
+    /**
+     * Returns the number of bytes this action has written or read, once it has been run
+     * and its result has been received.
+     */
+    public int getPayloadLength() {
+        return 0;
+    }
+
     protected String getCreationTime() {
         return DateTimeUtils.formatDateTime(new Date(creationTimestamp));
     }
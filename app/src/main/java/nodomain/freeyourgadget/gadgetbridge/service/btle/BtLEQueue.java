@@ -79,6 +79,7 @@ public final class BtLEQueue {
     private final InternalGattCallback internalGattCallback;
     private final InternalGattServerCallback internalGattServerCallback;
     private boolean mAutoReconnect;
+    private final GattMetrics mMetrics;
 
     private Thread dispatchThread = new Thread("Gadgetbridge GATT Dispatcher") {
 
@@ -89,6 +90,8 @@ public final class BtLEQueue {
             while (!mDisposed && !mCrashed) {
                 try {
                     AbstractTransaction qTransaction = mTransactions.take();
+                    long transactionStart = System.nanoTime();
+                    mMetrics.recordQueueWait(transactionStart - qTransaction.getEnqueueNanos());
 
                     if (!isConnected()) {
                         LOG.debug("not connected, waiting for connection...");
@@ -103,6 +106,9 @@ public final class BtLEQueue {
                         mConnectionLatch = new CountDownLatch(1);
                         mConnectionLatch.await();
                         mConnectionLatch = null;
+                        long connected = System.nanoTime();
+                        mMetrics.recordConnectionWait(connected - transactionStart);
+                        transactionStart = connected;
                     }
 
                     if(qTransaction instanceof ServerTransaction) {
@@ -155,12 +161,14 @@ public final class BtLEQueue {
                                 // always be the last action in the transaction
                                 internalGattCallback.setTransactionGattCallback(((GattListenerAction) action).getGattCallback());
                             }
+                            long actionStart = System.nanoTime();
                             if (action.run(mBluetoothGatt)) {
                                 // check again, maybe due to some condition, action did not need to write, so we can't wait
                                 boolean waitForResult = action.expectsResult();
                                 if (waitForResult) {
                                     mWaitForActionResultLatch.await();
                                     mWaitForActionResultLatch = null;
+                                    mMetrics.recordAction(action, System.nanoTime() - actionStart);
                                     if (mAbortTransaction) {
                                         break;
                                     }
@@ -171,6 +179,7 @@ public final class BtLEQueue {
                             }
                         }
                     }
+                    mMetrics.recordTransaction(qTransaction.getTaskName(), System.nanoTime() - transactionStart);
                 } catch (InterruptedException ignored) {
                     mConnectionLatch = null;
                     LOG.debug("Thread interrupted");
@@ -194,6 +203,7 @@ public final class BtLEQueue {
         internalGattServerCallback = new InternalGattServerCallback(externalGattServerCallback);
         mContext = context;
         mSupportedServerServices = supportedServerServices;
+        mMetrics = GattMetrics.forDevice(gbDevice);
 
         dispatchThread.start();
     }
@@ -227,6 +237,7 @@ public final class BtLEQueue {
             }
         }
         LOG.info("Attempting to connect to " + mGbDevice.getName());
+        mMetrics.onConnect();
         mBluetoothAdapter.cancelDiscovery();
         BluetoothDevice remoteDevice = mBluetoothAdapter.getRemoteDevice(mGbDevice.getAddress());
         if(!mSupportedServerServices.isEmpty()) {
@@ -355,6 +366,7 @@ public final class BtLEQueue {
     public void add(Transaction transaction) {
         LOG.debug("about to add: " + transaction);
         if (!transaction.isEmpty()) {
+            transaction.setEnqueued();
             mTransactions.add(transaction);
         }
     }
@@ -377,6 +389,7 @@ public final class BtLEQueue {
     public void add(ServerTransaction transaction) {
         LOG.debug("about to add: " + transaction);
         if(!transaction.isEmpty()) {
+            transaction.setEnqueued();
             mTransactions.add(transaction);
         }
     }
@@ -395,6 +408,7 @@ public final class BtLEQueue {
             //mTransactions.drainTo(tail);
             tail.addAll(mTransactions);
             mTransactions.clear();
+            transaction.setEnqueued();
             mTransactions.add(transaction);
             mTransactions.addAll(tail);
         }
@@ -614,6 +628,8 @@ public final class BtLEQueue {
             if (!checkCorrectGattInstance(gatt, "characteristic changed")) {
                 return;
             }
+            byte[] value = characteristic.getValue();
+            mMetrics.recordNotification(characteristic.getUuid(), value != null ? value.length : 0);
             if (getCallbackToUse() != null) {
                 try {
                     getCallbackToUse().onCharacteristicChanged(gatt, characteristic);
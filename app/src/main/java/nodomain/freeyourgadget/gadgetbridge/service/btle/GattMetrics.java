@@ -0,0 +1,205 @@
+package nodomain.freeyourgadget.gadgetbridge.service.btle;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.ReadAction;
+import nodomain.freeyourgadget.gadgetbridge.util.LatencyHistogram;
+
+/**
+ * Counters and latency histograms of the GATT operations of the current or last connection
+ * of a device, recorded by BtLEQueue: how long transactions wait in the queue, how long each
+ * action waits for its result, and how many bytes are written, read and notified per
+ * characteristic.
+ */
+public class GattMetrics {
+    private static final String QUEUE_WAIT = "Queue wait";
+    private static final String CONNECTION_WAIT = "Connection wait";
+    private static final String TRANSACTION = "Transaction";
+    private static final String NOTIFICATION = "Notification interval";
+    // transaction names may contain counters, so limit the number of series
+    private static final int MAX_SERIES = 200;
+    private static final String OTHER = "(other)";
+
+    // guarded by the class
+    private static final Map<String, GattMetrics> instances = new LinkedHashMap<>();
+
+    private final String address;
+    private final String name;
+
+    // guarded by this
+    private final Map<String, Series> series = new TreeMap<>();
+    private int connectionCount;
+    private long connectedAt;
+    private long bytesWritten;
+    private long bytesRead;
+    private long bytesNotified;
+
+    private GattMetrics(GBDevice device) {
+        address = device.getAddress();
+        name = device.getName();
+    }
+
+    public static synchronized GattMetrics forDevice(GBDevice device) {
+        GattMetrics metrics = instances.get(device.getAddress());
+        if (metrics == null) {
+            metrics = new GattMetrics(device);
+            instances.put(device.getAddress(), metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the report of all devices that have been connected since the start of the app.
+     */
+    public static String getReportOfAllDevices() {
+        List<GattMetrics> all;
+        synchronized (GattMetrics.class) {
+            all = new ArrayList<>(instances.values());
+        }
+        StringBuilder report = new StringBuilder();
+        for (GattMetrics metrics : all) {
+            report.append(metrics.getReport()).append('\n');
+        }
+        return report.length() == 0 ? "No GATT connections yet\n" : report.toString();
+    }
+
+    public static void resetAll() {
+        List<GattMetrics> all;
+        synchronized (GattMetrics.class) {
+            all = new ArrayList<>(instances.values());
+        }
+        for (GattMetrics metrics : all) {
+            metrics.reset();
+        }
+    }
+
+    /**
+     * Starts the metrics of a new connection.
+     */
+    public synchronized void onConnect() {
+        reset();
+        connectionCount++;
+    }
+
+    public synchronized void reset() {
+        series.clear();
+        connectedAt = System.currentTimeMillis();
+        bytesWritten = 0;
+        bytesRead = 0;
+        bytesNotified = 0;
+    }
+
+    synchronized void recordQueueWait(long nanos) {
+        getSeries(QUEUE_WAIT, null).record(nanos, 0);
+    }
+
+    synchronized void recordConnectionWait(long nanos) {
+        getSeries(CONNECTION_WAIT, null).record(nanos, 0);
+    }
+
+    synchronized void recordTransaction(String taskName, long nanos) {
+        getSeries(TRANSACTION + ": " + taskName, null).record(nanos, 0);
+    }
+
+    /**
+     * Records how long an action waited for its result and the bytes it transferred.
+     */
+    synchronized void recordAction(BtLEAction action, long nanos) {
+        int bytes = action.getPayloadLength();
+        if (action instanceof ReadAction) {
+            bytesRead += bytes;
+        } else {
+            bytesWritten += bytes;
+        }
+        UUID characteristic = action.getCharacteristic() != null ? action.getCharacteristic().getUuid() : null;
+        getSeries(getActionType(action), characteristic).record(nanos, bytes);
+    }
+
+    /**
+     * Records a notification; the histogram holds the time since the previous one.
+     */
+    synchronized void recordNotification(UUID characteristic, int bytes) {
+        bytesNotified += bytes;
+        Series notifications = getSeries(NOTIFICATION, characteristic);
+        long now = System.nanoTime();
+        if (notifications.lastEventNanos != 0) {
+            notifications.record(now - notifications.lastEventNanos, bytes);
+        } else {
+            notifications.count++;
+            notifications.bytes += bytes;
+            notifications.firstEventNanos = now;
+            notifications.lastEventNanos = now;
+        }
+    }
+
+    public synchronized String getReport() {
+        long connectedSeconds = Math.max(1, (System.currentTimeMillis() - connectedAt) / 1000);
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.US, "%s (%s), connection %d, %d s\n", name, address, connectionCount, connectedSeconds));
+        report.append(String.format(Locale.US, "written %d B (%d B/s), read %d B (%d B/s), notified %d B (%d B/s)\n",
+                bytesWritten, bytesWritten / connectedSeconds, bytesRead, bytesRead / connectedSeconds,
+                bytesNotified, bytesNotified / connectedSeconds));
+        report.append("operation: count, bytes, B/s while active, latency ms p50/p90/p99/max\n");
+        for (Map.Entry<String, Series> entry : series.entrySet()) {
+            Series s = entry.getValue();
+            LatencyHistogram histogram = s.histogram;
+            long activeNanos = s.lastEventNanos - s.firstEventNanos;
+            String rate = activeNanos > 0 ? String.valueOf(s.bytes * 1000000000L / activeNanos) : "-";
+            report.append(String.format(Locale.US, "%s: %d, %d B, %s B/s, %.1f/%.1f/%.1f/%.1f\n",
+                    entry.getKey(), s.count, s.bytes, rate,
+                    histogram.getValueAtPercentile(50) / 1000f, histogram.getValueAtPercentile(90) / 1000f,
+                    histogram.getValueAtPercentile(99) / 1000f, histogram.getMax() / 1000f));
+        }
+        return report.toString();
+    }
+
+    private Series getSeries(String type, UUID characteristic) {
+        String key = characteristic == null ? type : type + " " + characteristic;
+        Series result = series.get(key);
+        if (result == null) {
+            if (series.size() >= MAX_SERIES) {
+                key = OTHER;
+                result = series.get(key);
+            }
+            if (result == null) {
+                result = new Series();
+                series.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    private static String getActionType(BtLEAction action) {
+        Class<?> type = action.getClass();
+        while (type.isAnonymousClass()) {
+            type = type.getSuperclass();
+        }
+        return type.getSimpleName();
+    }
+
+    private static class Series {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        long count;
+        long bytes;
+        long firstEventNanos;
+        long lastEventNanos;
+
+        void record(long nanos, int bytes) {
+            long now = System.nanoTime();
+            if (count == 0) {
+                firstEventNanos = now - nanos;
+            }
+            lastEventNanos = now;
+            count++;
+            this.bytes += bytes;
+            histogram.record(nanos / 1000);
+        }
+    }
+}
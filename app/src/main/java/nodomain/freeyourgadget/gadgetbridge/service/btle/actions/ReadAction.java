@@ -47,4 +47,10 @@ public class ReadAction extends BtLEAction {
     public boolean expectsResult() {
         return true;
     }
+
+    @Override
+    public int getPayloadLength() {
+        byte[] value = getCharacteristic().getValue();
+        return value != null ? value.length : 0;
+    }
 }
@@ -36,6 +36,7 @@ public class WriteAction extends BtLEAction {
     private static final Logger LOG = LoggerFactory.getLogger(WriteAction.class);
 
     private final byte[] value;
+    private int writtenLength;
 
     public WriteAction(BluetoothGattCharacteristic characteristic, byte[] value) {
         super(characteristic);
@@ -58,6 +59,7 @@ public class WriteAction extends BtLEAction {
             LOG.debug("writing to characteristic: " + characteristic.getUuid() + ": " + Logging.formatBytes(value));
         }
         if (characteristic.setValue(value)) {
+            writtenLength = value.length;
             return gatt.writeCharacteristic(characteristic);
         }
         return false;
@@ -67,6 +69,11 @@ public class WriteAction extends BtLEAction {
         return value;
     }
 
+    @Override
+    public int getPayloadLength() {
+        return writtenLength;
+    }
+
     @Override
     public boolean expectsResult() {
         return true;
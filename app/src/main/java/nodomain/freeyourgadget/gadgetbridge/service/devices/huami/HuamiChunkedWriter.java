@@ -0,0 +1,135 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.huami;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nodomain.freeyourgadget.gadgetbridge.Logging;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEAction;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+
+/**
+ * Writes payloads to the chunked transfer characteristic. Every chunk is a 3 byte header
+ * (0, flags | type, counter) followed by up to MTU - 6 bytes of the payload.
+ * <p/>
+ * The chunks are not copied when they are queued: each write action refers to the payload
+ * and builds its chunk when it runs, in a buffer that is reused for all chunks of the same
+ * length. That is safe because the queue runs one write at a time and waits for its result.
+ * <p/>
+ * If allowed and the characteristic supports writes without response, the chunks in between
+ * are written without response and only every ACK_INTERVAL-th and the last chunk are
+ * acknowledged by the device, so that the transfer does not wait for a round trip per chunk.
+ * Not every firmware copes with that, so it has to be enabled per device.
+ */
+public class HuamiChunkedWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(HuamiChunkedWriter.class);
+
+    private static final int HEADER_LENGTH = 3;
+    private static final int ACK_INTERVAL = 8;
+
+    private final BluetoothGattCharacteristic characteristic;
+    private final boolean pipelined;
+    // indexed by chunk length, only accessed by the queue's dispatch thread
+    private byte[][] chunkBuffers = new byte[0][];
+
+    public HuamiChunkedWriter(BluetoothGattCharacteristic characteristic, boolean allowWriteWithoutResponse) {
+        this.characteristic = characteristic;
+        this.pipelined = allowWriteWithoutResponse
+                && (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0;
+    }
+
+    /**
+     * Adds the writes of the given payload to the transaction. The payload must not be
+     * modified until the transaction has been executed.
+     *
+     * @param mtu the MTU negotiated with the device, at least 23
+     */
+    public void write(TransactionBuilder builder, int type, byte[] data, int mtu) {
+        final int maxChunkLength = mtu - 6;
+        int chunkCount = (data.length + maxChunkLength - 1) / maxChunkLength;
+        for (int i = 0; i < chunkCount; i++) {
+            int offset = i * maxChunkLength;
+            int length = Math.min(data.length - offset, maxChunkLength);
+            boolean last = i == chunkCount - 1;
+
+            byte flags = 0;
+            if (last) {
+                flags |= 0x80; // last chunk
+                if (i == 0) {
+                    flags |= 0x40; // weird but true
+                }
+            } else if (i > 0) {
+                flags |= 0x40; // consecutive chunk
+            }
+
+            boolean acknowledged = !pipelined || last || (i + 1) % ACK_INTERVAL == 0;
+            builder.add(new ChunkWriteAction(data, offset, length, (byte) (flags | type), (byte) i, acknowledged));
+        }
+    }
+
+    private byte[] getChunkBuffer(int length) {
+        if (length >= chunkBuffers.length) {
+            byte[][] buffers = new byte[length + 1][];
+            System.arraycopy(chunkBuffers, 0, buffers, 0, chunkBuffers.length);
+            chunkBuffers = buffers;
+        }
+        if (chunkBuffers[length] == null) {
+            chunkBuffers[length] = new byte[length];
+        }
+        return chunkBuffers[length];
+    }
+
+    private class ChunkWriteAction extends BtLEAction {
+        private final byte[] data;
+        private final int offset;
+        private final int length;
+        private final byte flags;
+        private final byte counter;
+        private final boolean acknowledged;
+        private int writtenLength;
+
+        ChunkWriteAction(byte[] data, int offset, int length, byte flags, byte counter, boolean acknowledged) {
+            super(characteristic);
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.flags = flags;
+            this.counter = counter;
+            this.acknowledged = acknowledged;
+        }
+
+        @Override
+        public boolean run(BluetoothGatt gatt) {
+            BluetoothGattCharacteristic characteristic = getCharacteristic();
+            byte[] chunk = getChunkBuffer(HEADER_LENGTH + length);
+            chunk[0] = 0;
+            chunk[1] = flags;
+            chunk[2] = counter;
+            System.arraycopy(data, offset, chunk, HEADER_LENGTH, length);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("writing chunk to characteristic: " + characteristic.getUuid() + ": " + Logging.formatBytes(chunk));
+            }
+            // the write type is kept by the characteristic, so always set it
+            characteristic.setWriteType(acknowledged ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+            if (characteristic.setValue(chunk)) {
+                writtenLength = chunk.length;
+                return gatt.writeCharacteristic(characteristic);
+            }
+            return false;
+        }
+
+        @Override
+        public boolean expectsResult() {
+            // Android reports writes without response as well, once the stack has taken them;
+            // waiting for that keeps the next write from failing while the stack is busy
+            return true;
+        }
+
+        @Override
+        public int getPayloadLength() {
+            return writtenLength;
+        }
+    }
+}
@@ -143,6 +143,7 @@ import nodomain.freeyourgadget.gadgetbridge.util.StringUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.Version;
 
 import static nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst.PREF_ALLOW_HIGH_MTU;
+import static nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst.PREF_ALLOW_WRITE_WITHOUT_RESPONSE;
 import static nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst.PREF_BT_CONNECTED_ADVERTISEMENT;
 import static nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst.PREF_DATEFORMAT;
 import static nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst.PREF_LANGUAGE;
@@ -194,6 +195,7 @@ public class HuamiSupport extends AbstractBTLEDeviceSupport {
 
     private BluetoothGattCharacteristic characteristicHRControlPoint;
     private BluetoothGattCharacteristic characteristicChunked;
+    private HuamiChunkedWriter chunkedWriter;
 
     private boolean needsAuth;
     private volatile boolean telephoneRinging;
@@ -211,6 +213,8 @@ public class HuamiSupport extends AbstractBTLEDeviceSupport {
     protected MusicStateSpec bufferMusicStateSpec = null;
     private boolean heartRateNotifyEnabled;
     private int mMTU = 23;
+    // the MTU the firmware asked for, the chunks must not be larger even if more was negotiated
+    private int mFirmwareMTU = 23;
     protected int mActivitySampleSize = 4;
 
     public HuamiSupport() {
@@ -246,6 +250,12 @@ public class HuamiSupport extends AbstractBTLEDeviceSupport {
             new InitOperation(authenticate, authFlags, cryptFlags, this, builder).perform();
             characteristicHRControlPoint = getCharacteristic(GattCharacteristic.UUID_CHARACTERISTIC_HEART_RATE_CONTROL_POINT);
             characteristicChunked = getCharacteristic(HuamiService.UUID_CHARACTERISTIC_CHUNKEDTRANSFER);
+            if (characteristicChunked != null) {
+                Prefs prefs = new Prefs(GBApplication.getDeviceSpecificSharedPrefs(gbDevice.getAddress()));
+                chunkedWriter = new HuamiChunkedWriter(characteristicChunked, prefs.getBoolean(PREF_ALLOW_WRITE_WITHOUT_RESPONSE, false));
+            } else {
+                chunkedWriter = null;
+            }
         } catch (IOException e) {
             GB.toast(getContext(), "Initializing Huami device failed", Toast.LENGTH_SHORT, GB.ERROR, e);
         }
@@ -1372,6 +1382,7 @@ public class HuamiSupport extends AbstractBTLEDeviceSupport {
                     LOG.error("Device announced unreasonable low MTU of " + mtu + ", ignoring");
                     break;
                 }
+                mFirmwareMTU = mtu;
                 mMTU = mtu;
                 /*
                  * not really sure if this would make sense, is this event already a proof of a successful MTU
@@ -1388,6 +1399,15 @@ public class HuamiSupport extends AbstractBTLEDeviceSupport {
         }
     }
 
+    @Override
+    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        super.onMtuChanged(gatt, mtu, status);
+        if (status == BluetoothGatt.GATT_SUCCESS && mtu >= 23) {
+            LOG.info("MTU changed to " + mtu + ", firmware MTU is " + mFirmwareMTU);
+            mMTU = Math.min(mtu, mFirmwareMTU);
+        }
+    }
+
     private void requestMTU(int mtu) {
         if (GBApplication.isRunningLollipopOrLater()) {
             new TransactionBuilder("requestMtu")
@@ -2752,31 +2772,11 @@ public class HuamiSupport extends AbstractBTLEDeviceSupport {
     }
 
     protected void writeToChunked(TransactionBuilder builder, int type, byte[] data) {
-        final int MAX_CHUNKLENGTH = mMTU - 6;
-        int remaining = data.length;
-        byte count = 0;
-        while (remaining > 0) {
-            int copybytes = Math.min(remaining, MAX_CHUNKLENGTH);
-            byte[] chunk = new byte[copybytes + 3];
-
-            byte flags = 0;
-            if (remaining <= MAX_CHUNKLENGTH) {
-                flags |= 0x80; // last chunk
-                if (count == 0) {
-                    flags |= 0x40; // weird but true
-                }
-            } else if (count > 0) {
-                flags |= 0x40; // consecutive chunk
-            }
-
-            chunk[0] = 0;
-            chunk[1] = (byte) (flags | type);
-            chunk[2] = (byte) (count & 0xff);
-
-            System.arraycopy(data, count++ * MAX_CHUNKLENGTH, chunk, 3, copybytes);
-            builder.write(characteristicChunked, chunk);
-            remaining -= copybytes;
+        if (chunkedWriter == null) {
+            LOG.warn("Unable to write chunked: no chunked transfer characteristic");
+            return;
         }
+        chunkedWriter.write(builder, type, data, mMTU);
     }
 
 
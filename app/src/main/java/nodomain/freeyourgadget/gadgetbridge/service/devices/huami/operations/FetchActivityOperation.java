@@ -51,9 +51,17 @@ import nodomain.freeyourgadget.gadgetbridge.util.StringUtils;
  */
 public class FetchActivityOperation extends AbstractFetchOperation {
     private static final Logger LOG = LoggerFactory.getLogger(FetchActivityOperation.class);
+    // the samples received so far are saved every this many packets, so that a fetch
+    // interrupted by a disconnect resumes from there next time
+    private static final int PACKETS_PER_CHECKPOINT = 100;
+    // rounds go on as long as they make progress, this is only a safeguard
+    private static final int MAX_FETCH_ROUNDS = 20;
 
     private final int sampleSize;
     private List<MiBandActivitySample> samples = new ArrayList<>(60 * 24); // 1day per default
+    private int packetsSinceCheckpoint;
+    private long roundStartMillis;
+    private GregorianCalendar lastSyncTimestamp;
 
     public FetchActivityOperation(HuamiSupport support) {
         super(support);
@@ -64,6 +72,8 @@ public class FetchActivityOperation extends AbstractFetchOperation {
     @Override
     protected void startFetching() throws IOException {
         samples.clear();
+        packetsSinceCheckpoint = 0;
+        lastSyncTimestamp = null;
         super.startFetching();
     }
 
@@ -71,12 +81,13 @@ public class FetchActivityOperation extends AbstractFetchOperation {
     protected void startFetching(TransactionBuilder builder) {
         final String taskName = StringUtils.ensureNotNull(builder.getTaskName());
         GregorianCalendar sinceWhen = getLastSuccessfulSyncTime();
+        roundStartMillis = sinceWhen.getTimeInMillis();
         startFetching(builder, HuamiService.COMMAND_ACTIVITY_DATA_TYPE_ACTIVTY, sinceWhen);
     }
 
     protected void handleActivityFetchFinish(boolean success) {
         LOG.info(getName() + " has finished round " + fetchCount);
-        GregorianCalendar lastSyncTimestamp = saveSamples();
+        saveSamples();
         if (lastSyncTimestamp != null && needsAnotherFetch(lastSyncTimestamp)) {
             try {
                 startFetching();
@@ -91,8 +102,12 @@ public class FetchActivityOperation extends AbstractFetchOperation {
     }
 
     private boolean needsAnotherFetch(GregorianCalendar lastSyncTimestamp) {
-        if (fetchCount > 5) {
-            LOG.warn("Already have 5 fetch rounds, not doing another one.");
+        if (fetchCount >= MAX_FETCH_ROUNDS) {
+            LOG.warn("Already have " + fetchCount + " fetch rounds, not doing another one.");
+            return false;
+        }
+        if (lastSyncTimestamp.getTimeInMillis() <= roundStartMillis) {
+            LOG.warn("Not doing another fetch since the last round did not make progress.");
             return false;
         }
 
@@ -108,7 +123,11 @@ public class FetchActivityOperation extends AbstractFetchOperation {
         return true;
     }
 
-    private GregorianCalendar saveSamples() {
+    /**
+     * Saves the samples received so far and advances the last sync time after them.
+     * Called at the end of each round and every PACKETS_PER_CHECKPOINT packets.
+     */
+    private void saveSamples() {
         if (samples.size() > 0) {
             // save all the samples that we got
             try (DBHandler handler = GBApplication.acquireDB()) {
@@ -134,15 +153,15 @@ public class FetchActivityOperation extends AbstractFetchOperation {
 
                 saveLastSyncTimestamp(timestamp);
                 LOG.info("Mi2 activity data: last sample timestamp: " + DateTimeUtils.formatDateTime(timestamp.getTime()));
-                return timestamp;
-
-            } catch (Exception ex) {
-                GB.toast(getContext(), "Error saving activity samples", Toast.LENGTH_LONG, GB.ERROR);
-            } finally {
+                // the following samples of this round continue after the saved ones
+                startTimestamp = (GregorianCalendar) timestamp.clone();
+                lastSyncTimestamp = timestamp;
                 samples.clear();
+            } catch (Exception ex) {
+                // keep the samples for the next checkpoint, a new round starts from scratch anyway
+                GB.toast(getContext(), "Error saving activity samples", Toast.LENGTH_LONG, GB.ERROR, ex);
             }
         }
-        return null;
     }
 
     /**
@@ -166,6 +185,10 @@ public class FetchActivityOperation extends AbstractFetchOperation {
             if ((byte) (lastPacketCounter + 1) == value[0]) {
                 lastPacketCounter++;
                 bufferActivityData(value);
+                if (++packetsSinceCheckpoint >= PACKETS_PER_CHECKPOINT) {
+                    packetsSinceCheckpoint = 0;
+                    saveSamples();
+                }
             } else {
                 GB.toast("Error " + getName() + ", invalid package counter: " + value[0], Toast.LENGTH_LONG, GB.ERROR);
                 handleActivityFetchFinish(false);
@@ -35,6 +35,7 @@ import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiActivitySummaryParser;
 import nodomain.freeyourgadget.gadgetbridge.devices.huami.amazfitbip.AmazfitBipService;
 import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummaryDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.User;
@@ -92,7 +93,7 @@ public class FetchSportsSummaryOperation extends AbstractFetchOperation {
                     summary.setDevice(device);
                     summary.setUser(user);
                     summary.setRawSummaryData(buffer.toByteArray());
-                    session.getBaseActivitySummaryDao().insertOrReplace(summary);
+                    saveSummary(session, summary);
                 } catch (Exception ex) {
                     GB.toast(getContext(), "Error saving activity summary", Toast.LENGTH_LONG, GB.ERROR, ex);
                 }
@@ -112,6 +113,22 @@ public class FetchSportsSummaryOperation extends AbstractFetchOperation {
 
     }
 
+    /**
+     * Stores the given summary. The summary is fetched again until its details have been
+     * fetched, so it replaces the one stored by an earlier, interrupted sync.
+     */
+    static void saveSummary(DaoSession session, BaseActivitySummary summary) {
+        BaseActivitySummary existing = session.getBaseActivitySummaryDao().queryBuilder()
+                .where(BaseActivitySummaryDao.Properties.DeviceId.eq(summary.getDeviceId()),
+                        BaseActivitySummaryDao.Properties.StartTime.eq(summary.getStartTime()))
+                .limit(1).unique();
+        if (existing != null) {
+            summary.setId(existing.getId());
+            summary.setGpxTrack(existing.getGpxTrack());
+        }
+        session.getBaseActivitySummaryDao().insertOrReplace(summary);
+    }
+
     @Override
     public boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         LOG.warn("characteristic read: " + characteristic.getUuid() + ": " + Logging.formatBytes(characteristic.getValue()));
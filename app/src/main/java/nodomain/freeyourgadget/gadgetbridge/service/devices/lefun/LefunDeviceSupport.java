@@ -43,6 +43,8 @@ import de.greenrobot.dao.query.Query;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.SettingsActivity;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivitySessionIndex;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.HeartRateHistogramIndex;
 import nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
@@ -989,6 +991,8 @@ public class LefunDeviceSupport extends AbstractBTLEDeviceSupport {
             sample.setRawIntensity(LefunConstants.INTENSITY_AWAKE);
 
             session.getLefunActivitySampleDao().insertOrReplace(sample);
+            ActivitySessionIndex.getInstance().onSamplesAdded(session, getDevice(), timestamp);
+            HeartRateHistogramIndex.getInstance().onSamplesAdded(session, getDevice(), timestamp);
         } catch (Exception e) {
             LOG.error("Error handling activity data", e);
         }
@@ -1020,6 +1024,8 @@ public class LefunDeviceSupport extends AbstractBTLEDeviceSupport {
                 sample.setHeartRate(ppgData0);
 
                 session.getLefunActivitySampleDao().insertOrReplace(sample);
+                ActivitySessionIndex.getInstance().onSamplesAdded(session, getDevice(), timestamp);
+                HeartRateHistogramIndex.getInstance().onSamplesAdded(session, getDevice(), timestamp);
             }
 
             LefunBiometricSample bioSample = new LefunBiometricSample(timestamp,
@@ -1102,6 +1108,8 @@ public class LefunDeviceSupport extends AbstractBTLEDeviceSupport {
             sample.setRawIntensity(intensity);
 
             session.getLefunActivitySampleDao().insertOrReplace(sample);
+            ActivitySessionIndex.getInstance().onSamplesAdded(session, getDevice(), timestamp);
+            HeartRateHistogramIndex.getInstance().onSamplesAdded(session, getDevice(), timestamp);
 
             LefunSleepSample sleepSample = new LefunSleepSample(timestamp,
                     DBHelper.getDevice(getDevice(), session).getId());
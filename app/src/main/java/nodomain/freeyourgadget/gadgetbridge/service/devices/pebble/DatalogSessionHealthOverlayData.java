@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivitySessionIndex;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
@@ -85,10 +86,15 @@ class DatalogSessionHealthOverlayData extends DatalogSessionPebbleHealth {
             PebbleHealthActivityOverlayDao overlayDao = session.getPebbleHealthActivityOverlayDao();
 
             List<PebbleHealthActivityOverlay> overlayList = new ArrayList<>();
+            int firstTimestamp = Integer.MAX_VALUE;
             for (OverlayRecord overlayRecord : overlayRecords) {
+                firstTimestamp = Math.min(firstTimestamp, overlayRecord.timestampStart);
                 overlayList.add(new PebbleHealthActivityOverlay(overlayRecord.timestampStart, overlayRecord.timestampStart + overlayRecord.durationSeconds, overlayRecord.type, deviceId, userId, overlayRecord.getRawData()));
             }
             overlayDao.insertOrReplaceInTx(overlayList);
+            if (!overlayList.isEmpty()) {
+                ActivitySessionIndex.getInstance().onSamplesAdded(session, getDevice(), firstTimestamp);
+            }
         } catch (Exception ex) {
             LOG.debug(ex.getMessage());
         }
@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivitySessionIndex;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
@@ -85,11 +86,16 @@ class DatalogSessionHealthSleep extends DatalogSessionPebbleHealth {
             PebbleHealthActivityOverlayDao overlayDao = session.getPebbleHealthActivityOverlayDao();
 
             List<PebbleHealthActivityOverlay> overlayList = new ArrayList<>();
+            int firstTimestamp = Integer.MAX_VALUE;
             for (SleepRecord sleepRecord : sleepRecords) {
+                firstTimestamp = Math.min(firstTimestamp, sleepRecord.bedTimeStart);
                 //TODO: check the firmware version and don't use the sleep record if overlay is available?
                 overlayList.add(new PebbleHealthActivityOverlay(sleepRecord.bedTimeStart, sleepRecord.bedTimeEnd, sleepRecord.type, deviceId, userId, sleepRecord.getRawData()));
             }
             overlayDao.insertOrReplaceInTx(overlayList);
+            if (!overlayList.isEmpty()) {
+                ActivitySessionIndex.getInstance().onSamplesAdded(session, getDevice(), firstTimestamp);
+            }
         } catch (Exception ex) {
             LOG.debug(ex.getMessage());
         }
@@ -38,8 +38,6 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
@@ -187,9 +185,9 @@ class PebbleIoThread extends GBDeviceIoThread {
                 BluetoothDevice btDevice = mBtAdapter.getRemoteDevice(deviceAddress);
                 if (btDevice.getType() == BluetoothDevice.DEVICE_TYPE_LE) {
                     LOG.info("This is a Pebble 2 or Pebble-LE/Pebble Time LE, will use BLE");
-                    mInStream = new PipedInputStream();
-                    mOutStream = new PipedOutputStream();
-                    mPebbleLESupport = new PebbleLESupport(this.getContext(), btDevice, (PipedInputStream) mInStream, (PipedOutputStream) mOutStream);
+                    mPebbleLESupport = new PebbleLESupport(this.getContext(), btDevice);
+                    mInStream = mPebbleLESupport.getInputStream();
+                    mOutStream = mPebbleLESupport.getOutputStream();
                 } else {
                     ParcelUuid[] uuids = btDevice.getUuids();
                     if (uuids == null) {
@@ -598,6 +598,25 @@ public class PebbleProtocol extends GBDeviceProtocol {
     }
 
     private byte[] encodeBlobdb(Object key, byte command, byte db, byte[] blob) {
+        ByteBuffer buf = createBlobdbFrame(key, command, db, blob != null ? blob.length : -1);
+        if (buf == null) {
+            return null;
+        }
+        if (blob != null) {
+            buf.put(blob);
+        }
+        return buf.array();
+    }
+
+    /**
+     * Allocates a blobdb frame for a blob of the given length, or without a blob if the length
+     * is negative, and writes everything but the blob. Callers write the blob into the frame
+     * directly instead of building it in a buffer of its own and copying it.
+     *
+     * @return the frame, positioned at the blob and in big endian order, or null if the key
+     * is invalid
+     */
+    private ByteBuffer createBlobdbFrame(Object key, byte command, byte db, int blobLength) {
 
         int length = 5;
 
@@ -616,8 +635,8 @@ public class PebbleProtocol extends GBDeviceProtocol {
         }
         length += key_length;
 
-        if (blob != null) {
-            length += blob.length + 2;
+        if (blobLength >= 0) {
+            length += blobLength + 2;
         }
 
         ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + length);
@@ -642,12 +661,12 @@ public class PebbleProtocol extends GBDeviceProtocol {
             buf.put(((String) key).getBytes());
         }
 
-        if (blob != null) {
-            buf.putShort((short) blob.length);
-            buf.put(blob);
+        if (blobLength >= 0) {
+            buf.putShort((short) blobLength);
         }
 
-        return buf.array();
+        buf.order(ByteOrder.BIG_ENDIAN);
+        return buf;
     }
 
     byte[] encodeActivateHealth(boolean activate) {
@@ -692,14 +711,14 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     byte[] encodeActivateWeather(boolean activate) {
         if (activate) {
-            ByteBuffer buf = ByteBuffer.allocate(0x61);
+            ByteBuffer buf = createBlobdbFrame("weatherApp", BLOBDB_INSERT, BLOBDB_APPSETTINGS, 0x61);
             buf.put((byte) 1);
             buf.order(ByteOrder.BIG_ENDIAN);
             buf.putLong(UUID_LOCATION.getMostSignificantBits());
             buf.putLong(UUID_LOCATION.getLeastSignificantBits());
             // disable remaining 5 possible location
             buf.put(new byte[60 - LENGTH_UUID]);
-            return encodeBlobdb("weatherApp", BLOBDB_INSERT, BLOBDB_APPSETTINGS, buf.array());
+            return buf.array();
         } else {
             return encodeBlobdb("weatherApp", BLOBDB_DELETE, BLOBDB_APPSETTINGS, null);
         }
@@ -756,7 +775,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
         }
 
         int pin_length = TIMELINE_PIN_LENGTH + attributes_length;
-        ByteBuffer buf = ByteBuffer.allocate(pin_length);
+        ByteBuffer buf = createBlobdbFrame(uuid, BLOBDB_INSERT, BLOBDB_PIN, pin_length);
 
         // pin - 46 bytes
         buf.order(ByteOrder.BIG_ENDIAN);
@@ -797,7 +816,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
             }
         }
 
-        return encodeBlobdb(uuid, BLOBDB_INSERT, BLOBDB_PIN, buf.array());
+        return buf.array();
     }
 
     private byte[] encodeNotification(int id, int timestamp, String title, String subtitle, String body,
@@ -861,7 +880,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
             length = (short) (NOTIFICATION_PIN_LENGTH + attributes_length);
             max_partlength = 512;
             dismiss_action_type = 0x02; // generic action, dismiss did not do anything
-            buf = ByteBuffer.allocate(length);
+            buf = createBlobdbFrame(UUID.randomUUID(), BLOBDB_INSERT, BLOBDB_NOTIFICATION, length);
         } else {
             length = (short) (21 + attributes_length);
             max_partlength = 256;
@@ -976,11 +995,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
                 }
             }
         }
-        if (mFwMajor >= 3) {
-            return encodeBlobdb(UUID.randomUUID(), BLOBDB_INSERT, BLOBDB_NOTIFICATION, buf.array());
-        } else {
-            return buf.array();
-        }
+        return buf.array();
     }
 
     private byte[] encodeActionResponse2x(int id, byte actionId, int iconId, String caption) {
@@ -1030,7 +1045,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
         short pin_length = (short) (NOTIFICATION_PIN_LENGTH + attributes_length);
 
-        ByteBuffer buf = ByteBuffer.allocate(pin_length);
+        ByteBuffer buf = createBlobdbFrame(uuid, BLOBDB_INSERT, BLOBDB_PIN, pin_length);
 
         // pin (46 bytes)
         buf.order(ByteOrder.BIG_ENDIAN);
@@ -1091,7 +1106,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
         buf.putShort((short) remove_string.getBytes().length);
         buf.put(remove_string.getBytes());
 
-        return encodeBlobdb(uuid, BLOBDB_INSERT, BLOBDB_PIN, buf.array());
+        return buf.array();
     }
 
 
@@ -1161,7 +1176,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
         short pin_length = (short) (WEATHER_FORECAST_LENGTH + attributes_length);
 
-        ByteBuffer buf = ByteBuffer.allocate(pin_length);
+        ByteBuffer buf = createBlobdbFrame(UUID_LOCATION, BLOBDB_INSERT, BLOBDB_WEATHER, pin_length);
         buf.order(ByteOrder.LITTLE_ENDIAN);
         buf.put((byte) 3); // unknown, always 3?
         buf.putShort(currentTemp);
@@ -1187,7 +1202,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
             buf.put(s.getBytes(), 0, partlength);
         }
 
-        return encodeBlobdb(UUID_LOCATION, BLOBDB_INSERT, BLOBDB_WEATHER, buf.array());
+        return buf.array();
     }
 
     private byte[] encodeActionResponse(UUID uuid, int iconId, String caption) {
@@ -1216,7 +1231,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
         byte[] name_buf = new byte[96];
         System.arraycopy(appName.getBytes(), 0, name_buf, 0, appName.getBytes().length);
-        ByteBuffer buf = ByteBuffer.allocate(METADATA_LENGTH);
+        ByteBuffer buf = createBlobdbFrame(uuid, BLOBDB_INSERT, BLOBDB_APP, METADATA_LENGTH);
 
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putLong(uuid.getMostSignificantBits()); // watchapp uuid
@@ -1230,7 +1245,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
         buf.put((byte) 0); // app_face_template_id
         buf.put(name_buf); // 96 bytes
 
-        return encodeBlobdb(uuid, BLOBDB_INSERT, BLOBDB_APP, buf.array());
+        return buf.array();
     }
 
     byte[] encodeAppFetchAck() {
@@ -1526,7 +1541,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
             replies_length += reply.getBytes().length + 1;
         }
 
-        ByteBuffer buf = ByteBuffer.allocate(12 + replies_length);
+        ByteBuffer buf = createBlobdbFrame(blobDBKey, BLOBDB_INSERT, BLOBDB_CANNED_MESSAGES, 12 + replies_length);
         buf.order(ByteOrder.LITTLE_ENDIAN);
         buf.putInt(0x00000000); // unknown
         buf.put((byte) 0x00); // attributes count?
@@ -1545,7 +1560,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
         // last one must not be zero terminated, else we get an additional empty reply
         buf.put(cannedMessagesSpec.cannedMessages[cannedMessagesSpec.cannedMessages.length - 1].getBytes());
 
-        return encodeBlobdb(blobDBKey, BLOBDB_INSERT, BLOBDB_CANNED_MESSAGES, buf.array());
+        return buf.array();
     }
 
     /* pebble specific install methods */
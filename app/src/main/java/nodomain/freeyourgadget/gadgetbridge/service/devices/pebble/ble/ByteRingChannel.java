@@ -0,0 +1,192 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble.ble;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A byte channel between two threads, backed by a ring buffer.
+ * <p/>
+ * There must be only one reading thread. Writes are serialized among the writing threads,
+ * but readers and writers do not share a lock: the read and write positions are only
+ * advanced by their respective side, and a blocked side is woken up directly by the other
+ * one instead of polling like PipedInputStream does.
+ * <p/>
+ * The channel is therefore lock-free on the reading side only. Writers take
+ * a lock because the channel may have several of them: the GATT callbacks writing received
+ * data are not guaranteed to arrive on one binder thread, and PebbleIoThread writes frames
+ * from the service thread as well as from its own. A write must not interleave with another
+ * one, or frames would be mixed up, and a write larger than the free space spans several
+ * rounds of waiting for the reader. The lock is uncontended with a single writer.
+ */
+public final class ByteRingChannel {
+    private final byte[] buffer;
+    private final int mask;
+
+    // total number of bytes read and written, only advanced by the reader and writer respectively
+    private final AtomicLong readPosition = new AtomicLong();
+    private final AtomicLong writePosition = new AtomicLong();
+    // serializes the writers, see the class comment; never taken by the reader
+    private final Object writeLock = new Object();
+
+    private volatile Thread waitingReader;
+    // a single slot suffices as only the writer holding writeLock can wait for space
+    private volatile Thread waitingWriter;
+    private volatile boolean closed;
+
+    private final InputStream inputStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return ByteRingChannel.this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return ByteRingChannel.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return ByteRingChannel.this.available();
+        }
+
+        @Override
+        public void close() {
+            ByteRingChannel.this.close();
+        }
+    };
+
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            ByteRingChannel.this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteRingChannel.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            ByteRingChannel.this.close();
+        }
+    };
+
+    /**
+     * @param capacity the size of the ring buffer, must be a power of two
+     */
+    public ByteRingChannel(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        buffer = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    public int available() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    /**
+     * Reads at least one byte, blocking until data is available.
+     *
+     * @return the number of bytes read, or -1 if the channel has been closed and is empty
+     * @throws InterruptedIOException if the reading thread has been interrupted while waiting
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            long position = readPosition.get();
+            int available = (int) (writePosition.get() - position);
+            if (available > 0) {
+                int count = Math.min(len, available);
+                int index = (int) (position & mask);
+                int firstPart = Math.min(count, buffer.length - index);
+                System.arraycopy(buffer, index, b, off, firstPart);
+                System.arraycopy(buffer, 0, b, off + firstPart, count - firstPart);
+                readPosition.set(position + count);
+                wakeUp(waitingWriter);
+                return count;
+            }
+            if (closed) {
+                return -1;
+            }
+            waitingReader = Thread.currentThread();
+            // re-check after announcing ourselves, the writer may have missed us
+            if (writePosition.get() == position && !closed) {
+                LockSupport.park(this);
+            }
+            waitingReader = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("interrupted while reading");
+            }
+        }
+    }
+
+    /**
+     * Writes all given bytes, blocking while the buffer is full.
+     *
+     * @throws IOException if the channel has been closed
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        synchronized (writeLock) {
+            while (len > 0) {
+                if (closed) {
+                    throw new IOException("broken pipe");
+                }
+                long position = writePosition.get();
+                int free = buffer.length - (int) (position - readPosition.get());
+                if (free == 0) {
+                    waitingWriter = Thread.currentThread();
+                    if (buffer.length - (int) (position - readPosition.get()) == 0 && !closed) {
+                        LockSupport.park(this);
+                    }
+                    waitingWriter = null;
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException("interrupted while writing");
+                    }
+                    continue;
+                }
+                int count = Math.min(len, free);
+                int index = (int) (position & mask);
+                int firstPart = Math.min(count, buffer.length - index);
+                System.arraycopy(b, off, buffer, index, firstPart);
+                System.arraycopy(b, off + firstPart, buffer, 0, count - firstPart);
+                writePosition.set(position + count);
+                wakeUp(waitingReader);
+                off += count;
+                len -= count;
+            }
+        }
+    }
+
+    /**
+     * Closes the channel. Data already written can still be read.
+     */
+    public void close() {
+        closed = true;
+        wakeUp(waitingReader);
+        wakeUp(waitingWriter);
+    }
+
+    private static void wakeUp(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
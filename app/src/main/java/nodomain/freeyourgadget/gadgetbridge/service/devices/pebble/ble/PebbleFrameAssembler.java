@@ -0,0 +1,64 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble.ble;
+
+/**
+ * Reassembles Pebble protocol frames (2 bytes length, 2 bytes endpoint, payload) from
+ * arbitrarily split chunks of a byte stream.
+ */
+public class PebbleFrameAssembler {
+    private static final int HEADER_LENGTH = 4;
+
+    public interface FrameListener {
+        /**
+         * Called for every complete frame, including its header. The buffer is only valid
+         * during the call.
+         */
+        void onFrame(byte[] buffer, int offset, int length);
+    }
+
+    private final FrameListener listener;
+    private byte[] buffer = new byte[8192];
+    private int start;
+    private int end;
+
+    public PebbleFrameAssembler(FrameListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Appends the given bytes and reports all frames completed by them.
+     */
+    public void feed(byte[] data, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(data, offset, buffer, end, length);
+        end += length;
+
+        while (end - start >= HEADER_LENGTH) {
+            int frameLength = HEADER_LENGTH + ((buffer[start] & 0xff) << 8 | (buffer[start + 1] & 0xff));
+            if (end - start < frameLength) {
+                break;
+            }
+            listener.onFrame(buffer, start, frameLength);
+            start += frameLength;
+        }
+        if (start == end) {
+            start = 0;
+            end = 0;
+        }
+    }
+
+    private void ensureCapacity(int additional) {
+        if (end + additional <= buffer.length) {
+            return;
+        }
+        int pending = end - start;
+        if (pending + additional > buffer.length) {
+            byte[] newBuffer = new byte[Math.max(buffer.length * 2, pending + additional)];
+            System.arraycopy(buffer, start, newBuffer, 0, pending);
+            buffer = newBuffer;
+        } else {
+            System.arraycopy(buffer, start, buffer, 0, pending);
+        }
+        start = 0;
+        end = pending;
+    }
+}
@@ -25,19 +25,22 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 
 public class PebbleLESupport {
     private static final Logger LOG = LoggerFactory.getLogger(PebbleLESupport.class);
+    private static final int CHANNEL_CAPACITY = 64 * 1024;
     private final BluetoothDevice mBtDevice;
     private PipeReader mPipeReader;
     private PebbleGATTServer mPebbleGATTServer;
     private PebbleGATTClient mPebbleGATTClient;
-    private PipedInputStream mPipedInputStream;
-    private PipedOutputStream mPipedOutputStream;
+    // frames received from the Pebble, read by PebbleIoThread
+    private final ByteRingChannel mReceiveChannel = new ByteRingChannel(CHANNEL_CAPACITY);
+    // frames written by PebbleIoThread, to be sent to the Pebble
+    private final ByteRingChannel mSendChannel = new ByteRingChannel(CHANNEL_CAPACITY);
     private int mMTU = 20;
     private int mMTULimit = Integer.MAX_VALUE;
     public boolean clientOnly = false; // currently experimental, and only possible for Pebble 2
@@ -45,16 +48,8 @@ public class PebbleLESupport {
     private HandlerThread mWriteHandlerThread;
     private Handler mWriteHandler;
 
-    public PebbleLESupport(Context context, final BluetoothDevice btDevice, PipedInputStream pipedInputStream, PipedOutputStream pipedOutputStream) throws IOException {
+    public PebbleLESupport(Context context, final BluetoothDevice btDevice) throws IOException {
         mBtDevice = btDevice;
-        mPipedInputStream = new PipedInputStream();
-        mPipedOutputStream = new PipedOutputStream();
-        try {
-            pipedOutputStream.connect(mPipedInputStream);
-            pipedInputStream.connect(mPipedOutputStream);
-        } catch (IOException e) {
-            LOG.warn("could not connect input stream");
-        }
 
         mWriteHandlerThread = new HandlerThread("write handler thread");
         mWriteHandlerThread.start();
@@ -85,11 +80,25 @@ public class PebbleLESupport {
         throw new IOException("connection failed");
     }
 
-    private void writeToPipedOutputStream(byte[] value, int offset, int count) {
+    /**
+     * The stream of frames received from the Pebble.
+     */
+    public InputStream getInputStream() {
+        return mReceiveChannel.getInputStream();
+    }
+
+    /**
+     * The stream of frames to be sent to the Pebble.
+     */
+    public OutputStream getOutputStream() {
+        return mSendChannel.getOutputStream();
+    }
+
+    private void writeToReceiveChannel(byte[] value, int offset, int count) {
         try {
-            mPipedOutputStream.write(value, offset, count);
+            mReceiveChannel.write(value, offset, count);
         } catch (IOException e) {
-            LOG.warn("error writing to output stream", e);
+            LOG.warn("error writing to receive channel", e);
         }
     }
 
@@ -103,14 +112,8 @@ public class PebbleLESupport {
             mPebbleGATTClient.close();
             mPebbleGATTClient = null;
         }
-        try {
-            mPipedInputStream.close();
-        } catch (IOException ignore) {
-        }
-        try {
-            mPipedOutputStream.close();
-        } catch (IOException ignore) {
-        }
+        mReceiveChannel.close();
+        mSendChannel.close();
         if (mWriteHandlerThread != null) {
             mWriteHandlerThread.quit();
         }
@@ -168,7 +171,7 @@ public class PebbleLESupport {
 
             sendAckToPebble(serial);
 
-            writeToPipedOutputStream(value, 1, value.length - 1);
+            writeToReceiveChannel(value, 1, value.length - 1);
         }
     }
 
@@ -195,42 +198,21 @@ public class PebbleLESupport {
         }
     }
 
-    private class PipeReader extends Thread {
+    private class PipeReader extends Thread implements PebbleFrameAssembler.FrameListener {
         int mmSequence = 0;
 
         @Override
         public void run() {
             byte[] buf = new byte[8192];
-            int bytesRead;
+            // PebbleIoThread writes whole frames, but they may be split or merged in the channel
+            PebbleFrameAssembler assembler = new PebbleFrameAssembler(this);
             while (true) {
                 try {
-                    // this code is very similar to iothread, that is bad
-                    // because we are the ones who prepared the buffer, there should be no
-                    // need to do crazy stuff just to find out the PP boundaries again.
-                    bytesRead = mPipedInputStream.read(buf, 0, 4);
-                    while (bytesRead < 4) {
-                        bytesRead += mPipedInputStream.read(buf, bytesRead, 4 - bytesRead);
-                    }
-
-                    int length = (buf[0] & 0xff) << 8 | (buf[1] & 0xff);
-                    bytesRead = mPipedInputStream.read(buf, 4, length);
-
-                    while (bytesRead < length) {
-                        bytesRead += mPipedInputStream.read(buf, bytesRead + 4, length - bytesRead);
-                    }
-
-
-                    int payloadToSend = bytesRead + 4;
-                    int srcPos = 0;
-                    while (payloadToSend > 0) {
-                        int chunkSize = (payloadToSend < (mMTU - 4)) ? payloadToSend : mMTU - 4;
-                        byte[] outBuf = new byte[chunkSize + 1];
-                        outBuf[0] = (byte) ((mmSequence++ << 3) & 0xff);
-                        System.arraycopy(buf, srcPos, outBuf, 1, chunkSize);
-                        sendDataToPebble(outBuf);
-                        srcPos += chunkSize;
-                        payloadToSend -= chunkSize;
+                    int bytesRead = mSendChannel.read(buf, 0, buf.length);
+                    if (bytesRead == -1) {
+                        break;
                     }
+                    assembler.feed(buf, 0, bytesRead);
                 } catch (IOException e) {
                     LOG.info(e.getMessage());
                     Thread.currentThread().interrupt();
@@ -241,12 +223,17 @@ public class PebbleLESupport {
         }
 
         @Override
-        public void interrupt() {
-            super.interrupt();
-            try {
-                LOG.info("closing piped inputstream");
-                mPipedInputStream.close();
-            } catch (IOException ignore) {
+        public void onFrame(byte[] buffer, int offset, int length) {
+            int payloadToSend = length;
+            int srcPos = offset;
+            while (payloadToSend > 0) {
+                int chunkSize = (payloadToSend < (mMTU - 4)) ? payloadToSend : mMTU - 4;
+                byte[] outBuf = new byte[chunkSize + 1];
+                outBuf[0] = (byte) ((mmSequence++ << 3) & 0xff);
+                System.arraycopy(buffer, srcPos, outBuf, 1, chunkSize);
+                sendDataToPebble(outBuf);
+                srcPos += chunkSize;
+                payloadToSend -= chunkSize;
             }
         }
     }
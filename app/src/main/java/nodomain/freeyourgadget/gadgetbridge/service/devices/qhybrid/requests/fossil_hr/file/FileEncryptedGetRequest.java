@@ -19,30 +19,24 @@ package nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fo
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.widget.Toast;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.security.GeneralSecurityException;
 import java.util.UUID;
 import java.util.zip.CRC32;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil.FossilWatchAdapter;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil_hr.FossilHRWatchAdapter;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.file.FileHandle;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil.FossilRequest;
-import nodomain.freeyourgadget.gadgetbridge.util.CRC32C;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
-import nodomain.freeyourgadget.gadgetbridge.util.StringUtils;
 
 public abstract class FileEncryptedGetRequest extends FossilRequest implements FileEncryptedInterface{
+    private static final Logger LOG = LoggerFactory.getLogger(FileEncryptedGetRequest.class);
+
     private short handle;
     private FossilHRWatchAdapter adapter;
 
@@ -52,9 +46,9 @@ public abstract class FileEncryptedGetRequest extends FossilRequest implements F
 
     private boolean finished = false;
 
-    private Cipher cipher;
-    private SecretKeySpec keySpec;
-    private byte[] originalIv;
+    private FileTransferCipher cipher;
+    private byte[] packetBuffer = new byte[0];
+    private final CRC32 crc = new CRC32();
 
     int fileSize;
 
@@ -79,27 +73,11 @@ public abstract class FileEncryptedGetRequest extends FossilRequest implements F
 
     private void initDecryption() {
         try {
-            cipher = Cipher.getInstance("AES/CTR/NoPadding");
-            try {
-                keySpec = new SecretKeySpec(this.adapter.getSecretKey(), "AES");
-            } catch (IllegalAccessException e) {
-                GB.toast("error getting key: " + e.getMessage(), Toast.LENGTH_LONG, GB.ERROR, e);
-                return;
-            }
-
-
-            originalIv = new byte[16];
-
-
-            byte[] phoneRandomNumber = adapter.getPhoneRandomNumber();
-            byte[] watchRandomNumber = adapter.getWatchRandomNumber();
-
-            System.arraycopy(phoneRandomNumber, 0, originalIv, 2, 6);
-            System.arraycopy(watchRandomNumber, 0, originalIv, 9, 7);
-
-            originalIv[7]++;
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-            e.printStackTrace();
+            cipher = new FileTransferCipher(this.adapter.getSecretKey(), FileTransferCipher.createFileIv(adapter));
+        } catch (IllegalAccessException e) {
+            GB.toast("error getting key: " + e.getMessage(), Toast.LENGTH_LONG, GB.ERROR, e);
+        } catch (GeneralSecurityException e) {
+            GB.toast("error initializing decryption: " + e.getMessage(), Toast.LENGTH_LONG, GB.ERROR, e);
         }
     }
 
@@ -107,17 +85,6 @@ public abstract class FileEncryptedGetRequest extends FossilRequest implements F
         return adapter;
     }
 
-    private byte[] incrementIV(byte[] iv, int amount){
-        byte[] incrementedIv = new byte[iv.length];
-        System.arraycopy(iv, 0, incrementedIv, 0, iv.length);
-        ByteBuffer buffer = ByteBuffer.wrap(incrementedIv);
-        int number = buffer.getInt(12);
-        number += amount;
-        buffer.position(12);
-        buffer.putInt(number);
-        return buffer.array();
-    }
-
     @Override
     public boolean isFinished() {
         return finished;
@@ -160,12 +127,6 @@ public abstract class FileEncryptedGetRequest extends FossilRequest implements F
                     throw new RuntimeException("handle: " + handle + "   expected: " + this.handle);
                 }
 
-                CRC32 crc = new CRC32();
-                crc.update(this.fileData);
-
-                CRC32C c = new CRC32C();
-                c.update(this.fileData, 0, fileData.length);
-
                 int crcExpected = buffer.getInt(8);
 
                 if ((int) crc.getValue() != crcExpected) {
@@ -176,41 +137,39 @@ public abstract class FileEncryptedGetRequest extends FossilRequest implements F
             }
         } else if (characteristic.getUuid().toString().equals("3dda0004-957f-7d4a-34a6-74696673696d")) {
             try {
-                byte[] result = null;
-                if(packetCount == 1) {
-                    for(int testIvSummand = 0x1e; testIvSummand < 0x30; testIvSummand++){
-                        byte[] iv = incrementIV(originalIv, testIvSummand);
-                        cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(iv));
-                        result = cipher.doFinal(value);
-
-                        int currentLength = fileBuffer.position() + result.length - 1;
-
-                        byte expectedByte = (currentLength == fileSize) ? (byte)0x81 : (byte)0x01; // 0x81 indicated the last payload
-
-                        if(result[0] == expectedByte){
+                if (packetBuffer.length < value.length) {
+                    packetBuffer = new byte[value.length];
+                }
+                if (packetCount == 1) {
+                    // the watch does not tell by how much it increments the IV per packet
+                    int currentLength = fileBuffer.position() + value.length - 1;
+                    byte expectedByte = (currentLength == fileSize) ? (byte) 0x81 : (byte) 0x01; // 0x81 indicated the last payload
+                    boolean found = false;
+                    for (int testIvSummand = 0x1e; testIvSummand < 0x30; testIvSummand++) {
+                        if (cipher.processFirstByte(testIvSummand, value[0]) == expectedByte) {
                             this.ivIncrementor = testIvSummand;
+                            found = true;
                             log("iv summand: " + testIvSummand);
                             break;
                         }
+                    }
+                    if (!found) {
                         log("no iv summand found");
                     }
-                }else{
-                    byte[] iv = incrementIV(originalIv, ivIncrementor * packetCount);
-
-                    cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(iv));
-                    result = cipher.doFinal(value);
                 }
-
-                log("decryption result: " + StringUtils.bytesToHex(result));
+                cipher.process(ivIncrementor * packetCount, value, 0, value.length, packetBuffer, 0);
                 packetCount++;
 
-                fileBuffer.put(result, 1, result.length - 1);
-                if ((result[0] & 0x80) == 0x80) {
+                fileBuffer.put(packetBuffer, 1, value.length - 1);
+                crc.update(packetBuffer, 1, value.length - 1);
+                if ((packetBuffer[0] & 0x80) == 0x80) {
                     this.fileData = fileBuffer.array();
                 }
-            } catch (BadPaddingException | IllegalBlockSizeException | InvalidAlgorithmParameterException | InvalidKeyException e) {
-                e.printStackTrace();
-                throw new RuntimeException(e);
+            } catch (GeneralSecurityException e) {
+                LOG.error("error decrypting file " + handle + " at packet " + packetCount, e);
+                // the watch adapter reports the failed request and moves on to the next one
+                this.finished = true;
+                throw new RuntimeException("FileGet decryption error", e);
             }
         }
     }
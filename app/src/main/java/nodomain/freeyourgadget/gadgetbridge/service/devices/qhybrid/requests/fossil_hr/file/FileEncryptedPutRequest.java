@@ -25,10 +25,6 @@ import java.util.ArrayList;
 import java.util.UUID;
 import java.util.zip.CRC32;
 
-import javax.crypto.Cipher;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil.FossilWatchAdapter;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil_hr.FossilHRWatchAdapter;
@@ -91,34 +87,17 @@ public class FileEncryptedPutRequest extends FossilRequest implements FileEncryp
 
                     this.prepareFilePackets(this.file);
 
-                    SecretKeySpec keySpec = null;
                     try {
-                        keySpec = new SecretKeySpec(this.adapter.getSecretKey(), "AES");
+                        // every packet is encrypted with the unmodified file IV
+                        FileTransferCipher cipher = new FileTransferCipher(this.adapter.getSecretKey(), FileTransferCipher.createFileIv(adapter));
+                        for (byte[] packet : packets) {
+                            cipher.process(0, packet, 0, packet.length, packet, 0);
+                            transactionBuilder.write(uploadCharacteristic, packet);
+                        }
                     } catch (IllegalAccessException e) {
                         GB.toast("error getting key: " + e.getMessage(), Toast.LENGTH_LONG, GB.ERROR, e);
                         return;
-                    }
-                    try {
-                        Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
-
-                        byte[] fileIV = new byte[16];
-
-
-                        byte[] phoneRandomNumber = adapter.getPhoneRandomNumber();
-                        byte[] watchRandomNumber = adapter.getWatchRandomNumber();
-
-                        System.arraycopy(phoneRandomNumber, 0, fileIV, 2, 6);
-                        System.arraycopy(watchRandomNumber, 0, fileIV, 9, 7);
-
-                        fileIV[7]++;
-
-                        cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(fileIV));
-
-                        for (byte[] packet : packets) {
-                            byte[] result = cipher.doFinal(packet);
-                            transactionBuilder.write(uploadCharacteristic, result);
-                        }
-                    }catch (Exception e){
+                    } catch (Exception e) {
                         GB.toast("error encrypting file", Toast.LENGTH_LONG, GB.ERROR, e);
                     }
 
@@ -0,0 +1,100 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.file;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil_hr.FossilHRWatchAdapter;
+
+/**
+ * AES-CTR keystream of an encrypted file transfer with the Fossil Hybrid HR.
+ * <p/>
+ * Every packet is encrypted with the file IV, whose last 32 bits are incremented by a
+ * packet specific summand. Instead of initializing an AES/CTR Cipher for every packet,
+ * the counter blocks are computed here and encrypted with a single AES/ECB Cipher that
+ * is initialized once per transfer. The keystream of the last summand is kept, so that
+ * packets sharing the same IV are encrypted without any further AES operation.
+ */
+public class FileTransferCipher {
+    private static final int BLOCK_SIZE = 16;
+
+    private final Cipher blockCipher;
+    private final byte[] fileIv;
+    private final byte[] packetIv = new byte[BLOCK_SIZE];
+
+    private byte[] counterBlocks = new byte[0];
+    private byte[] keystream = new byte[0];
+    private int keystreamLength;
+    private int keystreamSummand;
+
+    public FileTransferCipher(byte[] key, byte[] fileIv) throws GeneralSecurityException {
+        this.fileIv = fileIv.clone();
+        blockCipher = Cipher.getInstance("AES/ECB/NoPadding");
+        blockCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+    }
+
+    /**
+     * Creates the IV of file transfers from the random numbers exchanged during authentication.
+     */
+    public static byte[] createFileIv(FossilHRWatchAdapter adapter) {
+        byte[] fileIv = new byte[BLOCK_SIZE];
+        System.arraycopy(adapter.getPhoneRandomNumber(), 0, fileIv, 2, 6);
+        System.arraycopy(adapter.getWatchRandomNumber(), 0, fileIv, 9, 7);
+        fileIv[7]++;
+        return fileIv;
+    }
+
+    /**
+     * Encrypts or decrypts the given bytes with the keystream of the file IV incremented
+     * by the given summand. The output may be the same array as the input.
+     */
+    public void process(int ivSummand, byte[] input, int inputOffset, int length, byte[] output, int outputOffset) throws GeneralSecurityException {
+        ensureKeystream(ivSummand, length);
+        for (int i = 0; i < length; i++) {
+            output[outputOffset + i] = (byte) (input[inputOffset + i] ^ keystream[i]);
+        }
+    }
+
+    /**
+     * Decrypts only the first byte of a packet, e.g. to probe for the summand.
+     */
+    public byte processFirstByte(int ivSummand, byte input) throws GeneralSecurityException {
+        ensureKeystream(ivSummand, 1);
+        return (byte) (input ^ keystream[0]);
+    }
+
+    private void ensureKeystream(int ivSummand, int length) throws GeneralSecurityException {
+        if (ivSummand == keystreamSummand && length <= keystreamLength) {
+            return;
+        }
+        int blockCount = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int byteCount = blockCount * BLOCK_SIZE;
+        if (counterBlocks.length < byteCount) {
+            counterBlocks = new byte[byteCount];
+            keystream = new byte[byteCount];
+        }
+
+        // the summand is added to the last 32 bits only, like the watch does
+        System.arraycopy(fileIv, 0, packetIv, 0, BLOCK_SIZE);
+        int counter = ((packetIv[12] & 0xff) << 24) | ((packetIv[13] & 0xff) << 16) | ((packetIv[14] & 0xff) << 8) | (packetIv[15] & 0xff);
+        counter += ivSummand;
+        packetIv[12] = (byte) (counter >>> 24);
+        packetIv[13] = (byte) (counter >>> 16);
+        packetIv[14] = (byte) (counter >>> 8);
+        packetIv[15] = (byte) counter;
+
+        // within a packet, the whole 128 bit block is the counter
+        for (int block = 0; block < blockCount; block++) {
+            System.arraycopy(packetIv, 0, counterBlocks, block * BLOCK_SIZE, BLOCK_SIZE);
+            for (int i = BLOCK_SIZE - 1; i >= 0; i--) {
+                if (++packetIv[i] != 0) {
+                    break;
+                }
+            }
+        }
+        blockCipher.doFinal(counterBlocks, 0, byteCount, keystream, 0);
+        keystreamSummand = ivSummand;
+        keystreamLength = byteCount;
+    }
+}
@@ -0,0 +1,288 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.um25.Data;
+
+import android.os.SystemClock;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Records the measurements of a UM25 meter at full rate into an append-only file of
+ * fixed-width records, which is memory-mapped so that a measurement costs a few stores.
+ * <p/>
+ * The file starts with a header (magic, version, record size, start time, record count),
+ * followed by one record per measurement: the milliseconds since the start, then voltage,
+ * current, wattage and temperature, as little-endian ints. The record count in the header
+ * is updated with every record, so an interrupted recording can still be read.
+ * <p/>
+ * While recording, the measurements are also downsampled into at most MAX_BUCKETS buckets
+ * with the min, max and mean of each value, for displaying the whole recording.
+ */
+public class MeasurementRecorder {
+    public static final int VOLTAGE = 0;
+    public static final int CURRENT = 1;
+    public static final int WATTAGE = 2;
+    public static final int TEMPERATURE = 3;
+    static final int VALUES = 4;
+
+    private static final int MAGIC = 0x35324d55; // "UM25"
+    private static final short VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    private static final int COUNT_OFFSET = 16;
+    static final int RECORD_SIZE = 4 + VALUES * 4;
+    // the mapped region grows by this many records
+    private static final int MAP_RECORDS = 16384;
+    private static final int MAX_BUCKETS = 512;
+    private static final int INITIAL_BUCKET_MILLIS = 1000;
+
+    private static MeasurementRecorder instance;
+
+    private File file;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private int count;
+    private long startMillis;
+    private long startElapsed;
+
+    private Bucket[] buckets = new Bucket[MAX_BUCKETS];
+    private int bucketCount;
+    private long bucketMillis;
+
+    public static synchronized MeasurementRecorder getInstance() {
+        if (instance == null) {
+            instance = new MeasurementRecorder();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts a new recording into a new file in the given directory.
+     */
+    public synchronized File start(File dir) throws IOException {
+        if (isRecording()) {
+            stop();
+        }
+        dir.mkdirs();
+        startMillis = System.currentTimeMillis();
+        startElapsed = SystemClock.elapsedRealtime();
+        file = new File(dir, "um25-" + startMillis + ".bin");
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        count = 0;
+        map(MAP_RECORDS);
+        map.putInt(MAGIC);
+        map.putShort(VERSION);
+        map.putShort((short) RECORD_SIZE);
+        map.putLong(startMillis);
+        map.putInt(0); // count
+        map.putInt(0); // reserved
+
+        buckets = new Bucket[MAX_BUCKETS];
+        bucketCount = 0;
+        bucketMillis = INITIAL_BUCKET_MILLIS;
+        return file;
+    }
+
+    public synchronized boolean isRecording() {
+        return map != null;
+    }
+
+    public synchronized File getFile() {
+        return file;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized long getStartMillis() {
+        return startMillis;
+    }
+
+    public synchronized void record(MeasurementData data) throws IOException {
+        if (!isRecording()) {
+            return;
+        }
+        int offsetMillis = (int) (SystemClock.elapsedRealtime() - startElapsed);
+        int[] values = new int[]{data.getVoltage(), data.getCurrent(), data.getWattage(), data.getTemperatureCelcius()};
+
+        if (map.remaining() < RECORD_SIZE) {
+            map(count + MAP_RECORDS);
+        }
+        map.putInt(offsetMillis);
+        for (int value : values) {
+            map.putInt(value);
+        }
+        count++;
+        map.putInt(COUNT_OFFSET, count);
+
+        addToBucket(offsetMillis, values);
+    }
+
+    /**
+     * Stops the recording and returns its file.
+     */
+    public synchronized File stop() throws IOException {
+        if (!isRecording()) {
+            return file;
+        }
+        map.force();
+        map = null;
+        try {
+            channel.truncate(HEADER_SIZE + (long) count * RECORD_SIZE);
+        } finally {
+            randomAccessFile.close();
+            randomAccessFile = null;
+            channel = null;
+        }
+        return file;
+    }
+
+    /**
+     * Returns the downsampled measurements of the current or last recording.
+     */
+    public synchronized Bucket[] getBuckets() {
+        Bucket[] result = new Bucket[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            result[i] = buckets[i] != null ? new Bucket(buckets[i]) : null;
+        }
+        return result;
+    }
+
+    /**
+     * Writes the given recording as CSV with one line per measurement.
+     */
+    public static void exportCsv(File recording, File csvFile) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(recording, "r");
+             Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csvFile), StandardCharsets.UTF_8))) {
+            MappedByteBuffer buf = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.limit() < HEADER_SIZE || buf.getInt() != MAGIC) {
+                throw new IOException("not a UM25 recording: " + recording);
+            }
+            buf.getShort(); // version
+            int recordSize = buf.getShort();
+            long startMillis = buf.getLong();
+            int count = Math.min(buf.getInt(), (buf.limit() - HEADER_SIZE) / recordSize);
+
+            out.write("timestamp_millis,voltage_mV,current_0.1mA,wattage_mW,temperature_C\n");
+            StringBuilder line = new StringBuilder(64);
+            for (int i = 0; i < count; i++) {
+                int position = HEADER_SIZE + i * recordSize;
+                line.setLength(0);
+                line.append(startMillis + buf.getInt(position));
+                for (int value = 0; value < VALUES; value++) {
+                    line.append(',').append(buf.getInt(position + 4 + value * 4));
+                }
+                line.append('\n');
+                out.write(line.toString());
+            }
+        }
+    }
+
+    private void map(int records) throws IOException {
+        int position = map != null ? map.position() : 0;
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) records * RECORD_SIZE);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        map.position(position);
+    }
+
+    private void addToBucket(int offsetMillis, int[] values) {
+        int index = (int) (offsetMillis / bucketMillis);
+        while (index >= MAX_BUCKETS) {
+            // halve the resolution by merging pairs of buckets
+            for (int i = 0; i < MAX_BUCKETS / 2; i++) {
+                Bucket merged = buckets[2 * i];
+                if (merged == null) {
+                    merged = buckets[2 * i + 1];
+                } else if (buckets[2 * i + 1] != null) {
+                    merged.add(buckets[2 * i + 1]);
+                }
+                buckets[i] = merged;
+            }
+            for (int i = MAX_BUCKETS / 2; i < MAX_BUCKETS; i++) {
+                buckets[i] = null;
+            }
+            bucketCount = (bucketCount + 1) / 2;
+            bucketMillis *= 2;
+            index = (int) (offsetMillis / bucketMillis);
+        }
+        if (buckets[index] == null) {
+            buckets[index] = new Bucket(index * bucketMillis, bucketMillis);
+        }
+        buckets[index].add(values);
+        bucketCount = Math.max(bucketCount, index + 1);
+    }
+
+    /**
+     * The min, max and mean of the values measured in a time span of a recording.
+     * Buckets without measurements are null.
+     */
+    public static class Bucket {
+        private long startOffsetMillis;
+        private long durationMillis;
+        private int count;
+        private final int[] min = new int[VALUES];
+        private final int[] max = new int[VALUES];
+        private final long[] sum = new long[VALUES];
+
+        Bucket(long startOffsetMillis, long durationMillis) {
+            this.startOffsetMillis = startOffsetMillis;
+            this.durationMillis = durationMillis;
+        }
+
+        Bucket(Bucket other) {
+            this(other.startOffsetMillis, other.durationMillis);
+            add(other);
+        }
+
+        void add(int[] values) {
+            for (int i = 0; i < VALUES; i++) {
+                min[i] = count == 0 ? values[i] : Math.min(min[i], values[i]);
+                max[i] = count == 0 ? values[i] : Math.max(max[i], values[i]);
+                sum[i] += values[i];
+            }
+            count++;
+        }
+
+        void add(Bucket other) {
+            for (int i = 0; i < VALUES; i++) {
+                min[i] = count == 0 ? other.min[i] : Math.min(min[i], other.min[i]);
+                max[i] = count == 0 ? other.max[i] : Math.max(max[i], other.max[i]);
+                sum[i] += other.sum[i];
+            }
+            count += other.count;
+            startOffsetMillis = Math.min(startOffsetMillis, other.startOffsetMillis);
+            durationMillis = Math.max(durationMillis, other.startOffsetMillis + other.durationMillis - startOffsetMillis);
+        }
+
+        public long getStartOffsetMillis() {
+            return startOffsetMillis;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getMin(int value) {
+            return min[value];
+        }
+
+        public int getMax(int value) {
+            return max[value];
+        }
+
+        public float getMean(int value) {
+            return count == 0 ? 0 : (float) sum[value] / count;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -16,13 +17,14 @@ import java.util.UUID;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import nodomain.freeyourgadget.gadgetbridge.Logging;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.SetDeviceStateAction;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.um25.Data.CaptureGroup;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.um25.Data.MeasurementData;
-import nodomain.freeyourgadget.gadgetbridge.util.StringUtils;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.um25.Data.MeasurementRecorder;
 
 public class UM25Support extends UM25BaseSupport {
     public static final String UUID_SERVICE = "0000ffe0-0000-1000-8000-00805f9b34fb";
@@ -36,6 +38,7 @@ public class UM25Support extends UM25BaseSupport {
     private final int PAYLOAD_LENGTH = 130;
 
     private ByteBuffer buffer = ByteBuffer.allocate(PAYLOAD_LENGTH);
+    private ScheduledThreadPoolExecutor executor;
 
     private static final  Logger logger = LoggerFactory.getLogger(UM25Support.class);
 
@@ -68,7 +71,8 @@ public class UM25Support extends UM25BaseSupport {
     }
 
     private void startLoop(){
-        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        stopLoop();
+        executor = new ScheduledThreadPoolExecutor(1);
         executor.scheduleWithFixedDelay(new Runnable() {
             @Override
             public void run() {
@@ -77,13 +81,24 @@ public class UM25Support extends UM25BaseSupport {
         }, 0, LOOP_DELAY, TimeUnit.MILLISECONDS);
     }
 
+    private void stopLoop(){
+        if(executor != null){
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Override
+    public void dispose() {
+        stopLoop();
+        super.dispose();
+    }
+
     private void sendReadCommand(){
-        logger.debug("sending read command");
         buffer.reset();
         new TransactionBuilder("send read command")
                 .write(getCharacteristic(UUID.fromString(UUID_CHAR)), COMMAND_UPDATE)
                 .queue(getQueue());
-        logger.debug("sent command");
     }
 
     @Override
@@ -104,9 +119,9 @@ public class UM25Support extends UM25BaseSupport {
     }
 
     private void handlePayload(ByteBuffer payload){
-        String payloadString = StringUtils.bytesToHex(payload.array());
-        payloadString = payloadString.replaceAll("(..)", "$1 ");
-        logger.debug("payload: " + payloadString);
+        if(logger.isTraceEnabled()){
+            logger.trace("payload: " + Logging.formatBytes(payload.array()));
+        }
         payload.order(ByteOrder.BIG_ENDIAN);
         int voltage = payload.getShort(2);
         int current = payload.getShort(4);
@@ -134,8 +149,6 @@ public class UM25Support extends UM25BaseSupport {
         int chargingSeconds = payload.getInt(112);
         int cableResistance = payload.getInt(122);
 
-        logger.debug("variable: " + chargedCurrent);
-
         MeasurementData data = new MeasurementData(
                 voltage,
                 current,
@@ -152,6 +165,15 @@ public class UM25Support extends UM25BaseSupport {
                 cableResistance
         );
 
+        MeasurementRecorder recorder = MeasurementRecorder.getInstance();
+        if(recorder.isRecording()){
+            try{
+                recorder.record(data);
+            }catch (IOException e){
+                logger.error("error recording measurement", e);
+            }
+        }
+
         Intent measurementIntent = new Intent(ACTION_MEASUREMENT_TAKEN);
 
         measurementIntent.putExtra(EXTRA_KEY_MEASUREMENT_DATA, data);
@@ -0,0 +1,136 @@
+package nodomain.freeyourgadget.gadgetbridge.service.serial;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes frames to a stream on a dedicated thread. Frames that have been queued while the
+ * previous write was in progress, e.g. during a burst of notifications, are written with a
+ * single write and flush instead of one per frame. Within a burst, i.e. when the previous
+ * write happened less than the coalescing window ago, the writer also waits up to that
+ * window for more frames. A frame arriving after a quiet period is written right away.
+ */
+public class CoalescingFrameWriter extends Thread {
+    private static final Logger LOG = LoggerFactory.getLogger(CoalescingFrameWriter.class);
+
+    private static final int MAX_BATCH_SIZE = 4096;
+    private static final byte[] POISON = new byte[0];
+
+    private final OutputStream mOutStream;
+    private final BlockingQueue<byte[]> mQueue = new LinkedBlockingQueue<>();
+    private final byte[] mBatch = new byte[MAX_BATCH_SIZE];
+    private final long mWindowNanos;
+    private long mLastWriteNanos;
+    private volatile boolean mQuit = false;
+
+    /**
+     * @param windowMillis how long to wait for more frames during a burst, 0 to only combine
+     *                     the frames that are already queued
+     */
+    public CoalescingFrameWriter(String name, OutputStream outStream, long windowMillis) {
+        super(name);
+        mOutStream = outStream;
+        mWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        mLastWriteNanos = System.nanoTime() - mWindowNanos - 1;
+    }
+
+    /**
+     * Queues the given frame for writing.
+     */
+    public void write(byte[] frame) {
+        if (!mQuit) {
+            mQueue.add(frame);
+        }
+    }
+
+    /**
+     * Stops the writer after the already queued frames have been written.
+     */
+    public void quit() {
+        mQuit = true;
+        mQueue.add(POISON);
+    }
+
+    /**
+     * Stops the writer and waits up to the given time until the already queued frames have
+     * been written, e.g. before the stream is closed.
+     */
+    public void quitAndWait(long timeoutMillis) {
+        quit();
+        try {
+            join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (isAlive()) {
+            LOG.warn("frame writer did not finish within " + timeoutMillis + "ms, frames may be lost");
+        }
+    }
+
+    @Override
+    public void run() {
+        byte[] pending = null;
+        try {
+            while (true) {
+                byte[] frame = pending != null ? pending : mQueue.take();
+                pending = null;
+                if (frame == POISON) {
+                    break;
+                }
+                if (frame.length >= MAX_BATCH_SIZE) {
+                    writeAndFlush(frame, frame.length);
+                    continue;
+                }
+
+                long now = System.nanoTime();
+                long deadline = now - mLastWriteNanos < mWindowNanos ? now + mWindowNanos : now;
+                int batchLength = 0;
+                boolean quit = false;
+                while (frame != null) {
+                    if (frame == POISON) {
+                        quit = true;
+                        break;
+                    }
+                    if (batchLength + frame.length > MAX_BATCH_SIZE) {
+                        pending = frame;
+                        break;
+                    }
+                    System.arraycopy(frame, 0, mBatch, batchLength, frame.length);
+                    batchLength += frame.length;
+                    frame = nextFrame(deadline);
+                }
+                writeAndFlush(mBatch, batchLength);
+                if (quit) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.info("frame writer interrupted");
+        }
+        mQueue.clear();
+    }
+
+    /**
+     * Returns the next queued frame, waiting for one until the given deadline at most.
+     */
+    private byte[] nextFrame(long deadline) throws InterruptedException {
+        long remaining = deadline - System.nanoTime();
+        return remaining > 0 ? mQueue.poll(remaining, TimeUnit.NANOSECONDS) : mQueue.poll();
+    }
+
+    private void writeAndFlush(byte[] bytes, int length) {
+        try {
+            mOutStream.write(bytes, 0, length);
+            mOutStream.flush();
+        } catch (IOException e) {
+            LOG.error("Error writing.", e);
+        }
+        mLastWriteNanos = System.nanoTime();
+    }
+}
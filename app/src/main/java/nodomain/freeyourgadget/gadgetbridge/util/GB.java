@@ -51,9 +51,11 @@ import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.ControlCenterv2;
 import nodomain.freeyourgadget.gadgetbridge.activities.SettingsActivity;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventScreenshot;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleRangeCache;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceSummaryCache;
 import nodomain.freeyourgadget.gadgetbridge.service.DeviceCommunicationService;
 
 import static nodomain.freeyourgadget.gadgetbridge.GBApplication.isRunningOreoOrLater;
@@ -523,6 +525,9 @@ public class GB {
     }
 
     public static void signalActivityDataFinish() {
+        // some devices store their samples without going through the sample provider
+        DeviceSummaryCache.getInstance().invalidateAll();
+        SampleRangeCache.getInstance().invalidateAll();
         Intent intent = new Intent(GBApplication.ACTION_NEW_DATA);
         LocalBroadcastManager.getInstance(GBApplication.getContext()).sendBroadcast(intent);
     }
@@ -0,0 +1,144 @@
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import android.os.SystemClock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the steps of the application startup in dependency order and logs how long each
+ * of them took.
+ * <p/>
+ * Steps that must be done before the application can do anything are done on the calling
+ * thread and only marked as finished, in the order they are done. All other steps are run on background threads as
+ * soon as the steps they depend on have finished; until then, whoever needs their result
+ * must initialize it lazily or wait for it.
+ * <p/>
+ * The timings are only logged by #finish, because logging is itself set up by one of
+ * the steps.
+ */
+public class StartupTasks {
+    private static final int THREADS = 2;
+
+    private final long startedAt = SystemClock.elapsedRealtime();
+    private final boolean runInline;
+    private final Map<String, Future<?>> backgroundTasks = new HashMap<>();
+    // guarded by this
+    private final List<String> timings = new ArrayList<>();
+    private boolean finished;
+    private ExecutorService executor;
+    private long lastMark = startedAt;
+
+    /**
+     * @param runInline whether to run background steps on the calling thread as well,
+     *                  e.g. in tests, which set up the database themselves
+     */
+    public StartupTasks(boolean runInline) {
+        this.runInline = runInline;
+    }
+
+    /**
+     * Marks the step with the given name, i.e. everything done on the calling thread since
+     * the previous mark, as finished.
+     */
+    public void mark(String name) {
+        long start = lastMark;
+        record(name, "main", start);
+        lastMark = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Runs the given step on a background thread, after the given background steps.
+     */
+    public void runInBackground(final String name, final Runnable step, String... dependencies) {
+        final List<Future<?>> waitFor = new ArrayList<>();
+        for (String dependency : dependencies) {
+            Future<?> future = backgroundTasks.get(dependency);
+            if (future == null) {
+                throw new IllegalArgumentException("unknown startup step " + dependency + ", or added after " + name);
+            }
+            waitFor.add(future);
+        }
+        if (runInline) {
+            lastMark = SystemClock.elapsedRealtime();
+            step.run();
+            mark(name);
+            return;
+        }
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                private int count;
+
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Startup-" + ++count);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        // dependencies are always submitted before their dependents, so the pool cannot
+        // be blocked entirely by steps waiting for steps that have not started yet
+        backgroundTasks.put(name, executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (Future<?> dependency : waitFor) {
+                    try {
+                        dependency.get();
+                    } catch (ExecutionException | InterruptedException e) {
+                        getLogger().warn("Startup step " + name + " runs although a step it depends on failed", e);
+                    }
+                }
+                long start = SystemClock.elapsedRealtime();
+                try {
+                    step.run();
+                } catch (RuntimeException e) {
+                    getLogger().error("Startup step " + name + " failed", e);
+                    throw e;
+                } finally {
+                    record(name, Thread.currentThread().getName(), start);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Logs the timings of the steps finished so far; steps finishing later are logged
+     * when they finish. No more steps may be added.
+     */
+    public synchronized void finish() {
+        finished = true;
+        getLogger().info(String.format(Locale.US, "Application startup took %d ms on the main thread: %s",
+                SystemClock.elapsedRealtime() - startedAt, timings));
+        timings.clear();
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private synchronized void record(String name, String thread, long start) {
+        long end = SystemClock.elapsedRealtime();
+        String timing = String.format(Locale.US, "%s %d ms (%s, at %d ms)", name, end - start, thread, start - startedAt);
+        if (finished) {
+            getLogger().info("Application startup: " + timing);
+        } else {
+            timings.add(timing);
+        }
+    }
+
+    private static Logger getLogger() {
+        // not a constant, this class is used before logging is set up
+        return LoggerFactory.getLogger(StartupTasks.class);
+    }
+}
@@ -0,0 +1,93 @@
+package nodomain.freeyourgadget.gadgetbridge;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.GBPrefs;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GBApplicationTest extends TestBase {
+    @Test
+    public void testBlackListsAreReadOnFirstUse() {
+        GBApplication.getPrefs().getPreferences().edit()
+                .putStringSet(GBPrefs.PACKAGE_BLACKLIST, new HashSet<>(Collections.singleton("com.example.notif")))
+                .putStringSet(GBPrefs.PACKAGE_PEBBLEMSG_BLACKLIST, new HashSet<>(Collections.singleton("com.example.pebble")))
+                .putStringSet(GBPrefs.CALENDAR_BLACKLIST, new HashSet<>(Collections.singleton("Holidays")))
+                .commit();
+        GBApplication.forgetBlackLists();
+
+        assertTrue(GBApplication.appIsNotifBlacklisted("com.example.notif"));
+        assertFalse(GBApplication.appIsNotifBlacklisted("com.example.pebble"));
+        assertTrue(GBApplication.appIsPebbleBlacklisted("com.example.pebble"));
+        assertTrue(GBApplication.calendarIsBlacklisted("Holidays"));
+
+        // changes before the first use are made to the stored lists
+        GBApplication.forgetBlackLists();
+        GBApplication.addAppToNotifBlacklist("com.example.other");
+        GBApplication.removeFromCalendarBlacklist("Holidays");
+        GBApplication.forgetBlackLists();
+        assertTrue(GBApplication.appIsNotifBlacklisted("com.example.notif"));
+        assertTrue(GBApplication.appIsNotifBlacklisted("com.example.other"));
+        assertFalse(GBApplication.calendarIsBlacklisted("Holidays"));
+    }
+
+    @Test
+    public void testBlackListsReadWhileInUse() throws Exception {
+        GBApplication.setAppsNotifBlackList(null);
+        GBApplication.forgetBlackLists();
+
+        // the startup step reads the lists while they are first used and changed
+        final int count = 50;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread() {
+            @Override
+            public void run() {
+                awaitQuietly(start);
+                GBApplication.loadBlackLists();
+            }
+        });
+        for (int i = 0; i < count; i++) {
+            final String packageName = "com.example.app" + i;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    awaitQuietly(start);
+                    GBApplication.addAppToNotifBlacklist(packageName);
+                    GBApplication.appIsPebbleBlacklisted(packageName);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int i = 0; i < count; i++) {
+            assertTrue(GBApplication.appIsNotifBlacklisted("com.example.app" + i));
+        }
+        GBApplication.forgetBlackLists();
+        for (int i = 0; i < count; i++) {
+            assertTrue(GBApplication.appIsNotifBlacklisted("com.example.app" + i));
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
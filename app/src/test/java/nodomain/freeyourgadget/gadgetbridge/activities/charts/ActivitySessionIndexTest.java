@@ -0,0 +1,118 @@
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.SleepAnalysis.SleepSession;
+import nodomain.freeyourgadget.gadgetbridge.database.DBDataMigration;
+import nodomain.freeyourgadget.gadgetbridge.database.schema.DataMigrations;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySession;
+import nodomain.freeyourgadget.gadgetbridge.test.SyntheticDataGenerator;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static nodomain.freeyourgadget.gadgetbridge.test.SyntheticDataGenerator.DAY;
+import static nodomain.freeyourgadget.gadgetbridge.test.SyntheticDataGenerator.END;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ActivitySessionIndexTest extends TestBase {
+    private ActivitySessionIndex index;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        index = ActivitySessionIndex.getInstance();
+        index.invalidateAll();
+    }
+
+    @Test
+    public void testSessionsMatchFullDetection() {
+        GBDevice device = new SyntheticDataGenerator(daoSession, 1).generate(1, 40, END).get(0);
+        MiBandSampleProvider provider = new MiBandSampleProvider(device, daoSession);
+
+        // detected in the samples of the range until the rebuild has run
+        assertSameSessions(provider, device);
+        assertEquals(0, daoSession.getDetectedStepSessionDao().count());
+        assertEquals(Collections.singletonList(ActivitySessionRebuild.class.getName()), DataMigrations.getPending(daoSession.getDatabase()));
+        assertTrue(runRebuild() > 1);
+        assertTrue(daoSession.getDetectedStepSessionDao().count() > 0);
+        assertTrue(daoSession.getDetectedSleepSessionDao().count() > 0);
+        // now looked up from the stored sessions
+        assertSameSessions(provider, device);
+
+        // a walk in the middle of the data
+        List<MiBandActivitySample> walk = provider.getAllActivitySamples(END - 3 * DAY + 3600, END - 3 * DAY + 2 * 3600);
+        for (MiBandActivitySample sample : walk) {
+            sample.setRawKind(MiBandSampleProvider.TYPE_ACTIVITY);
+            sample.setSteps(100);
+        }
+        provider.addGBActivitySamples(walk.toArray(new MiBandActivitySample[0]));
+        assertSameSessions(provider, device);
+
+        // changed thresholds
+        GBApplication.getPrefs().getPreferences().edit().putString("chart_list_min_session_length", "20").commit();
+        try {
+            assertSameSessions(provider, device);
+            runRebuild();
+            assertSameSessions(provider, device);
+        } finally {
+            GBApplication.getPrefs().getPreferences().edit().remove("chart_list_min_session_length").commit();
+        }
+
+        // requested rebuild
+        index.rebuild(daoSession);
+        assertEquals(0, daoSession.getActivitySessionCheckpointDao().count());
+        assertSameSessions(provider, device);
+        runRebuild();
+        assertTrue(daoSession.getActivitySessionCheckpointDao().count() > 0);
+        assertSameSessions(provider, device);
+    }
+
+    /**
+     * Runs the scheduled ActivitySessionRebuild, which is not started in tests.
+     *
+     * @return the number of batches
+     */
+    private int runRebuild() {
+        ActivitySessionRebuild rebuild = new ActivitySessionRebuild();
+        int batches = 0;
+        long position = 0;
+        while (position != DBDataMigration.DONE) {
+            position = rebuild.migrateBatch(daoSession.getDatabase(), position);
+            batches++;
+        }
+        DataMigrations.cancelAll(daoSession.getDatabase());
+        return batches;
+    }
+
+    private void assertSameSessions(MiBandSampleProvider provider, GBDevice device) {
+        List<ActivitySession> expectedSteps = new StepAnalysis().calculateStepSessions(provider.getAllActivitySamples(0, END));
+        List<ActivitySession> steps = index.getStepSessions(dbHandler, provider, device, 0, END);
+        assertTrue(expectedSteps.size() > 5);
+        assertEquals(expectedSteps.size(), steps.size());
+        for (int i = 0; i < steps.size(); i++) {
+            assertEquals(expectedSteps.get(i).getStartTime(), steps.get(i).getStartTime());
+            assertEquals(expectedSteps.get(i).getEndTime(), steps.get(i).getEndTime());
+            assertEquals(expectedSteps.get(i).getActiveSteps(), steps.get(i).getActiveSteps());
+            assertEquals(expectedSteps.get(i).getActivityKind(), steps.get(i).getActivityKind());
+            assertEquals(expectedSteps.get(i).getSessionType(), steps.get(i).getSessionType());
+        }
+
+        List<SleepSession> expectedSleep = new SleepAnalysis().calculateSleepSessions(provider.getAllActivitySamples(0, END));
+        List<SleepSession> sleep = index.getSleepSessions(dbHandler, provider, device, 0, END);
+        assertTrue(expectedSleep.size() >= 4);
+        assertEquals(expectedSleep.size(), sleep.size());
+        for (int i = 0; i < sleep.size(); i++) {
+            assertEquals(expectedSleep.get(i).getSleepStart(), sleep.get(i).getSleepStart());
+            assertEquals(expectedSleep.get(i).getSleepEnd(), sleep.get(i).getSleepEnd());
+            assertEquals(expectedSleep.get(i).getLightSleepDuration(), sleep.get(i).getLightSleepDuration());
+            assertEquals(expectedSleep.get(i).getDeepSleepDuration(), sleep.get(i).getDeepSleepDuration());
+        }
+    }
+}
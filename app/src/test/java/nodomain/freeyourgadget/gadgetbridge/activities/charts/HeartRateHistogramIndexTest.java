@@ -0,0 +1,102 @@
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.HeartRateHistogramDay;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.HeartRateHistogram;
+import nodomain.freeyourgadget.gadgetbridge.test.SyntheticDataGenerator;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static nodomain.freeyourgadget.gadgetbridge.test.SyntheticDataGenerator.DAY;
+import static nodomain.freeyourgadget.gadgetbridge.test.SyntheticDataGenerator.END;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HeartRateHistogramIndexTest extends TestBase {
+    private static final int[] ZONES = {100, 120, 140};
+
+    private HeartRateHistogramIndex index;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        index = HeartRateHistogramIndex.getInstance();
+        index.invalidateAll();
+    }
+
+    @Test
+    public void testHistogramMatchesSamples() {
+        GBDevice device = new SyntheticDataGenerator(daoSession, 1).generate(1, 6, END).get(0);
+        MiBandSampleProvider provider = new MiBandSampleProvider(device, daoSession);
+        int from = END - 5 * DAY + 5000;
+        int to = END - 1000;
+
+        assertSameHistogram(provider, device, from, to);
+        assertTrue(daoSession.getHeartRateHistogramDayDao().count() >= 4);
+        // now looked up from the indexed days
+        assertSameHistogram(provider, device, from, to);
+
+        // higher heart rates in the middle of the data
+        List<MiBandActivitySample> run = provider.getAllActivitySamples(END - 3 * DAY + 3600, END - 3 * DAY + 2 * 3600);
+        for (MiBandActivitySample sample : run) {
+            sample.setHeartRate(150);
+        }
+        provider.addGBActivitySamples(run.toArray(new MiBandActivitySample[0]));
+        assertSameHistogram(provider, device, from, to);
+
+        List<HeartRateHistogramDay> days = index.getDays(dbHandler, provider, device, from, to);
+        assertTrue(days.size() >= 5);
+        for (int i = 1; i < days.size(); i++) {
+            assertEquals(days.get(i - 1).getDayEnd(), days.get(i).getDayStart());
+        }
+        assertTrue(days.get(0).getDayStart() <= from);
+        assertTrue(days.get(days.size() - 1).getDayEnd() > to);
+    }
+
+    @Test
+    public void testEncoding() {
+        HeartRateHistogram histogram = new HeartRateHistogram();
+        histogram.add(60, 300);
+        histogram.add(61, 100000);
+        histogram.add(180, 1);
+        HeartRateHistogram decoded = HeartRateHistogram.decode(histogram.encode());
+        assertEquals(60, decoded.getMin());
+        assertEquals(180, decoded.getMax());
+        assertEquals(100000, decoded.getSeconds(61));
+        assertArrayEquals(new long[]{100300, 0, 0, 1}, decoded.getSecondsInZones(ZONES));
+        assertEquals(0, HeartRateHistogram.decode(new HeartRateHistogram().encode()).getTotalSeconds());
+    }
+
+    private void assertSameHistogram(MiBandSampleProvider provider, GBDevice device, int from, int to) {
+        HeartRateHistogram expected = calculate(device, from, to);
+        HeartRateHistogram histogram = index.getHistogram(dbHandler, provider, device, from, to);
+        assertTrue(expected.getTotalSeconds() > 0);
+        for (int heartRate = 0; heartRate <= HeartRateHistogram.MAX_HEART_RATE; heartRate++) {
+            assertEquals("bpm " + heartRate, expected.getSeconds(heartRate), histogram.getSeconds(heartRate));
+        }
+        assertArrayEquals(expected.getSecondsInZones(ZONES), index.getSecondsInZones(dbHandler, provider, device, from, to, ZONES));
+    }
+
+    private HeartRateHistogram calculate(GBDevice device, int from, int to) {
+        List<MiBandActivitySample> samples = SyntheticDataGenerator.getMiBandSamples(daoSession, device, from, to + HeartRateHistogramIndex.MAX_GAP_SECONDS);
+        HeartRateHistogram histogram = new HeartRateHistogram();
+        for (int i = 0; i < samples.size(); i++) {
+            MiBandActivitySample sample = samples.get(i);
+            if (sample.getTimestamp() <= to && HeartRateUtils.getInstance().isValidHeartRateValue(sample.getHeartRate())) {
+                int seconds = 60;
+                if (i + 1 < samples.size() && samples.get(i + 1).getTimestamp() - sample.getTimestamp() <= HeartRateHistogramIndex.MAX_GAP_SECONDS) {
+                    seconds = samples.get(i + 1).getTimestamp() - sample.getTimestamp();
+                }
+                histogram.add(sample.getHeartRate(), seconds);
+            }
+        }
+        return histogram;
+    }
+}
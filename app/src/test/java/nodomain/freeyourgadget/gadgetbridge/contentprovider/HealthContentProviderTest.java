@@ -0,0 +1,88 @@
+package nodomain.freeyourgadget.gadgetbridge.contentprovider;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+import nodomain.freeyourgadget.gadgetbridge.test.SyntheticDataGenerator;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static nodomain.freeyourgadget.gadgetbridge.test.SyntheticDataGenerator.END;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HealthContentProviderTest extends TestBase {
+    @Test
+    public void testSamplesAndDailyTotals() {
+        GBDevice device = new SyntheticDataGenerator(daoSession, 1).generate(1, 3, END).get(0);
+        List<MiBandActivitySample> samples = SyntheticDataGenerator.getMiBandSamples(daoSession, device, 0, END);
+        HealthContentProvider provider = new HealthContentProvider();
+
+        Uri page = uri(HealthContentProvider.PATH_SAMPLES, device)
+                .appendQueryParameter(HealthContentProvider.PARAM_OFFSET, "10")
+                .appendQueryParameter(HealthContentProvider.PARAM_LIMIT, "100")
+                .build();
+        try (Cursor cursor = provider.query(page, new String[]{"timestamp", "kind", "intensity"}, null, null, null)) {
+            assertEquals(3, cursor.getColumnCount());
+            assertEquals(100, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                MiBandActivitySample sample = samples.get(10 + i);
+                assertEquals(sample.getTimestamp(), cursor.getInt(0));
+                assertEquals(sample.getKind(), cursor.getInt(1));
+                assertEquals(sample.getIntensity(), cursor.getFloat(2), 1e-5f);
+            }
+        }
+
+        int utcOffset = 3600;
+        Uri daily = uri(HealthContentProvider.PATH_DAILY, device)
+                .appendQueryParameter(HealthContentProvider.PARAM_UTC_OFFSET, String.valueOf(utcOffset))
+                .build();
+        try (Cursor cursor = provider.query(daily, new String[]{"day", "steps", "samples"}, null, null, "day DESC")) {
+            assertTrue(cursor.getCount() > 0);
+            long totalSamples = 0;
+            int previousDay = Integer.MAX_VALUE;
+            while (cursor.moveToNext()) {
+                int day = cursor.getInt(0);
+                assertTrue(day < previousDay);
+                assertEquals(0, (day + utcOffset) % (24 * 60 * 60));
+                long steps = 0;
+                for (MiBandActivitySample sample : samples) {
+                    if (sample.getTimestamp() >= day && sample.getTimestamp() < day + 24 * 60 * 60) {
+                        steps += Math.max(sample.getSteps(), 0);
+                    }
+                }
+                assertEquals(steps, cursor.getLong(1));
+                totalSamples += cursor.getLong(2);
+                previousDay = day;
+            }
+            assertEquals(samples.size(), totalSamples);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownColumn() {
+        GBDevice device = new SyntheticDataGenerator(daoSession, 1).generate(1, 1, END).get(0);
+        new HealthContentProvider().query(uri(HealthContentProvider.PATH_SAMPLES, device).build(),
+                new String[]{"timestamp", "(SELECT 1)"}, null, null, null);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPostProcessedSamplesAreRejected() {
+        GBDevice device = new GBDevice("12:34:56:78:9A:05", "HPlus", null, DeviceType.HPLUS);
+        DBHelper.getDevice(device, daoSession);
+        new HealthContentProvider().query(uri(HealthContentProvider.PATH_SAMPLES, device).build(), null, null, null, null);
+    }
+
+    private static Uri.Builder uri(String path, GBDevice device) {
+        return HealthContentProvider.CONTENT_URI.buildUpon()
+                .appendPath(path)
+                .appendQueryParameter(HealthContentProvider.PARAM_DEVICE, device.getAddress());
+    }
+}
@@ -0,0 +1,150 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySummaryTotals;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static nodomain.freeyourgadget.gadgetbridge.activities.ActivitySummariesFilter.ALL_DEVICES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ActivitySummariesQueryTest extends TestBase {
+    private static final long START = 1600000000000L;
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private long deviceId1;
+    private long deviceId2;
+    private long userId;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        deviceId1 = DBHelper.getDevice(createDummyGDevice("AA:BB:CC:DD:EE:01"), daoSession).getId();
+        deviceId2 = DBHelper.getDevice(createDummyGDevice("AA:BB:CC:DD:EE:02"), daoSession).getId();
+        userId = DBHelper.getUser(daoSession).getId();
+    }
+
+    @Test
+    public void testPaging() {
+        List<BaseActivitySummary> expected = new ArrayList<>();
+        for (int i = 0; i < 23; i++) {
+            // every third summary starts at the same time as the one before
+            long start = START + (i - i / 3) * HOUR;
+            expected.add(insert(deviceId1, ActivityKind.TYPE_RUNNING, start, start + HOUR / 2, null));
+        }
+        insert(deviceId2, ActivityKind.TYPE_RUNNING, START, START + HOUR, null);
+        Collections.sort(expected, new Comparator<BaseActivitySummary>() {
+            @Override
+            public int compare(BaseActivitySummary lhs, BaseActivitySummary rhs) {
+                int result = rhs.getStartTime().compareTo(lhs.getStartTime());
+                return result != 0 ? result : rhs.getId().compareTo(lhs.getId());
+            }
+        });
+
+        ActivitySummariesQuery query = new ActivitySummariesQuery(deviceId1, 0, 0, 0, null, null);
+        List<BaseActivitySummary> pages = new ArrayList<>();
+        BaseActivitySummary last = null;
+        List<BaseActivitySummary> page;
+        do {
+            page = query.getPage(daoSession, last, 5);
+            pages.addAll(page);
+            last = page.isEmpty() ? null : page.get(page.size() - 1);
+        } while (page.size() == 5);
+        assertEquals(getIds(expected), getIds(pages));
+        assertEquals(getIds(expected), query.getIds(daoSession));
+
+        for (int i = 0; i < expected.size(); i++) {
+            BaseActivitySummary next = query.getNext(daoSession, expected.get(i));
+            BaseActivitySummary previous = query.getPrevious(daoSession, expected.get(i));
+            assertEquals(i + 1 < expected.size() ? expected.get(i + 1).getId() : null, next != null ? next.getId() : null);
+            assertEquals(i > 0 ? expected.get(i - 1).getId() : null, previous != null ? previous.getId() : null);
+        }
+
+        List<Long> filter = Arrays.asList(expected.get(3).getId(), expected.get(10).getId());
+        assertEquals(filter, new ActivitySummariesQuery(null, 0, 0, 0, null, filter).getIds(daoSession));
+    }
+
+    @Test
+    public void testTotals() {
+        insert(deviceId1, ActivityKind.TYPE_RUNNING, START, START + HOUR, distance(1000));
+        insert(deviceId1, ActivityKind.TYPE_RUNNING, START + 2 * HOUR, START + 4 * HOUR, distance(2500));
+        insert(deviceId1, ActivityKind.TYPE_CYCLING, START + 5 * HOUR, START + 6 * HOUR, null);
+        insert(deviceId2, ActivityKind.TYPE_RUNNING, START + 8 * HOUR, START + 9 * HOUR, distance(500));
+
+        List<ActivitySummaryTotals> totals = new ActivitySummariesQuery(null, 0, 0, 0, null, null).getTotalsByKindAndDevice(daoSession);
+        assertEquals(3, totals.size());
+        ActivitySummaryTotals running1 = find(totals, ActivityKind.TYPE_RUNNING, deviceId1);
+        assertEquals(2, running1.getCount());
+        assertEquals(3 * HOUR, running1.getDurationMillis());
+        assertEquals(START, running1.getFirstStartTime());
+        assertEquals(START + 4 * HOUR, running1.getLastEndTime());
+        assertEquals(3500, running1.getDistanceMeters(), 0.01);
+        assertEquals(1, find(totals, ActivityKind.TYPE_CYCLING, deviceId1).getCount());
+        assertEquals(500, find(totals, ActivityKind.TYPE_RUNNING, deviceId2).getDistanceMeters(), 0.01);
+
+        ActivitySummaryTotals sum = ActivitySummaryTotals.sumOf(totals);
+        assertEquals(4, sum.getCount());
+        assertEquals(5 * HOUR, sum.getDurationMillis());
+        assertEquals(4000, sum.getDistanceMeters(), 0.01);
+
+        // filtered by device, kind and time
+        totals = new ActivitySummariesQuery(deviceId1, ActivityKind.TYPE_RUNNING, START + HOUR, 0, null, null).getTotalsByKindAndDevice(daoSession);
+        assertEquals(1, totals.size());
+        assertEquals(1, totals.get(0).getCount());
+        assertEquals(2500, totals.get(0).getDistanceMeters(), 0.01);
+    }
+
+    @Test
+    public void testUnknownDevice() {
+        insert(deviceId1, ActivityKind.TYPE_RUNNING, START, START + HOUR, null);
+        GBDevice unknown = createDummyGDevice("AA:BB:CC:DD:EE:FF");
+        Long deviceId = ActivitySummariesQuery.getDeviceId(daoSession, unknown, 0);
+        ActivitySummariesQuery query = new ActivitySummariesQuery(deviceId, 0, 0, 0, null, null);
+        assertEquals(0, query.getPage(daoSession, null, 5).size());
+        assertNull(ActivitySummariesQuery.getDeviceId(daoSession, unknown, ALL_DEVICES));
+    }
+
+    private BaseActivitySummary insert(long deviceId, int kind, long start, long end, String summaryData) {
+        BaseActivitySummary summary = new BaseActivitySummary();
+        summary.setStartTime(new Date(start));
+        summary.setEndTime(new Date(end));
+        summary.setActivityKind(kind);
+        summary.setDeviceId(deviceId);
+        summary.setUserId(userId);
+        summary.setSummaryData(summaryData);
+        daoSession.getBaseActivitySummaryDao().insert(summary);
+        return summary;
+    }
+
+    private static String distance(int meters) {
+        return "{\"distanceMeters\":{\"value\":" + meters + ",\"unit\":\"meters\"}}";
+    }
+
+    private static ActivitySummaryTotals find(List<ActivitySummaryTotals> totals, int kind, long deviceId) {
+        for (ActivitySummaryTotals group : totals) {
+            if (group.getActivityKind() == kind && group.getDeviceId() == deviceId) {
+                return group;
+            }
+        }
+        throw new AssertionError("no totals for " + kind + "/" + deviceId);
+    }
+
+    private static List<Long> getIds(List<BaseActivitySummary> summaries) {
+        List<Long> ids = new ArrayList<>();
+        for (BaseActivitySummary summary : summaries) {
+            ids.add(summary.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,96 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.database.schema.GadgetbridgeUpdate_35;
+import nodomain.freeyourgadget.gadgetbridge.entities.BatteryLevel;
+import nodomain.freeyourgadget.gadgetbridge.entities.BatteryLevelRollupDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static nodomain.freeyourgadget.gadgetbridge.database.BatteryHistoryStore.DAY;
+import static nodomain.freeyourgadget.gadgetbridge.database.BatteryHistoryStore.HOUR;
+import static org.junit.Assert.assertEquals;
+
+public class BatteryHistoryStoreTest extends TestBase {
+    private static final int START = 1600000000 - 1600000000 % DAY;
+
+    private BatteryHistoryStore store;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        store = BatteryHistoryStore.getInstance();
+        store.invalidateAll();
+    }
+
+    @Test
+    public void testRecordAndRollups() {
+        GBDevice device = createDummyGDevice("AA:BB:CC:DD:EE:01");
+
+        // one level every 5 minutes, discharging by 1% per hour over 3 days
+        for (int ts = START; ts < START + 3 * DAY; ts += 5 * 60) {
+            store.record(device, 100 - (ts - START) / HOUR, ts);
+            if ((ts - START) % DAY == 0) {
+                // stay below the batch size, the background flush could not get the database
+                store.flush(dbHandler);
+            }
+        }
+        store.flush(dbHandler);
+
+        // unchanged levels are only stored once per hour
+        assertEquals(3 * 24, daoSession.getBatteryLevelDao().count());
+
+        List<BatteryLevel> raw = store.getLevels(dbHandler, device, START + DAY, START + 2 * DAY);
+        assertEquals(23, raw.size());
+
+        List<BatteryLevel> hourly = store.getLevels(dbHandler, device, START, START + 7 * DAY);
+        assertEquals(3 * 24, hourly.size());
+        assertEquals(100, hourly.get(0).getLevel());
+        assertEquals(29, hourly.get(hourly.size() - 1).getLevel());
+
+        List<BatteryLevel> daily = store.getLevels(dbHandler, device, START, START + 60 * DAY);
+        assertEquals(3 * 2, daily.size());
+        assertEquals(100, daily.get(0).getLevel());
+        assertEquals(77, daily.get(1).getLevel());
+        assertEquals(START + DAY / 2, daily.get(1).getTimestamp());
+
+        assertEquals(24f, store.getDischargeRatePerDay(dbHandler, device, START, START + 3 * DAY), 0.01f);
+    }
+
+    @Test
+    public void testRollupsOfExistingLevels() {
+        GBDevice device = createDummyGDevice("AA:BB:CC:DD:EE:02");
+        Device dbDevice = DBHelper.getDevice(device, daoSession);
+        for (int hour = 0; hour < 48; hour++) {
+            BatteryLevel level = new BatteryLevel();
+            level.setTimestamp(START + hour * HOUR);
+            level.setDeviceId(dbDevice.getId());
+            level.setLevel(hour < 24 ? 50 + hour : 50);
+            daoSession.getBatteryLevelDao().insert(level);
+        }
+        // the levels stored before the rollups existed are rolled up by the migration
+        assertEquals(0, store.getLevels(dbHandler, device, START, START + 60 * DAY).size());
+        GadgetbridgeUpdate_35 update = new GadgetbridgeUpdate_35();
+        long position = 0;
+        while (position != DBDataMigration.DONE) {
+            position = update.migrateBatch(daoSession.getDatabase(), position);
+        }
+
+        List<BatteryLevel> daily = store.getLevels(dbHandler, device, START, START + 60 * DAY);
+        assertEquals(3, daily.size());
+        // the first day was charging, so its min comes first
+        assertEquals(50, daily.get(0).getLevel());
+        assertEquals(73, daily.get(1).getLevel());
+        assertEquals(50, daily.get(2).getLevel());
+
+        // new levels are added to the computed rollups
+        store.record(device, 40, START + 48 * HOUR);
+        store.flush(dbHandler);
+        assertEquals(48 + 2 + 2, daoSession.getBatteryLevelRollupDao().queryBuilder()
+                .where(BatteryLevelRollupDao.Properties.DeviceId.eq(dbDevice.getId())).count());
+    }
+}
@@ -0,0 +1,265 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivityAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.SleepAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.StepAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PebbleHealthSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.DailyTotals;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+import nodomain.freeyourgadget.gadgetbridge.test.SyntheticDataGenerator;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+import static nodomain.freeyourgadget.gadgetbridge.test.SyntheticDataGenerator.DAY;
+import static nodomain.freeyourgadget.gadgetbridge.test.SyntheticDataGenerator.END;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times the sample queries, analyses and the database export on a generated database
+ * with years of data. Only runs when the number of days to generate is given, e.g.
+ * ./gradlew :app:testDebugUnitTest --tests '*DatabaseBenchmarkTest' -DGBBenchmarkDays=730
+ * <p/>
+ * The results are logged, one line per operation.
+ */
+public class DatabaseBenchmarkTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(DatabaseBenchmarkTest.class);
+
+    private static final int DEVICES = 2;
+    private static final int RUNS = 5;
+
+    private interface Operation {
+        Object run() throws Exception;
+    }
+
+    @Test
+    public void testGenerator() {
+        List<GBDevice> devices = new SyntheticDataGenerator(daoSession, 1).generate(2, 3, END);
+        assertEquals(DeviceType.MIBAND, devices.get(0).getType());
+        assertEquals(DeviceType.PEBBLE, devices.get(1).getType());
+
+        int samplesPerDevice = 2 * 24 * 60 + (END % DAY + 59) / 60;
+        assertEquals(samplesPerDevice, daoSession.getMiBandActivitySampleDao().count());
+        assertEquals(samplesPerDevice, daoSession.getPebbleHealthActivitySampleDao().count());
+        assertTrue(daoSession.getPebbleHealthActivityOverlayDao().count() > 0);
+        assertTrue(daoSession.getBatteryLevelDao().count() > 0);
+
+        List<? extends ActivitySample> sleep = new MiBandSampleProvider(devices.get(0), daoSession).getSleepSamples(END - DAY, END);
+        assertTrue(!new SleepAnalysis().calculateSleepSessions(sleep).isEmpty());
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        String daysProperty = System.getProperty("GBBenchmarkDays");
+        Assume.assumeTrue("run with -DGBBenchmarkDays=<days> to benchmark", daysProperty != null && !daysProperty.isEmpty());
+        int days = Integer.parseInt(daysProperty);
+
+        File dbFile = new File(FileUtils.createTempDir("benchmark"), "benchmark.db");
+        try (FileDBHandler db = new FileDBHandler(dbFile)) {
+            final FileDBHandler handler = db;
+            long start = System.nanoTime();
+            final List<GBDevice> devices = new SyntheticDataGenerator(db.getDaoSession(), 1).generate(DEVICES, days, END);
+            report("generate " + DEVICES + " devices x " + days + " days", System.nanoTime() - start, 0);
+
+            for (GBDevice device : devices) {
+                final SampleProvider<? extends ActivitySample> provider = device.getType() == DeviceType.PEBBLE
+                        ? new PebbleHealthSampleProvider(device, db.getDaoSession())
+                        : new MiBandSampleProvider(device, db.getDaoSession());
+                String name = device.getType().name();
+
+                for (final int range : new int[]{DAY, 7 * DAY, 30 * DAY}) {
+                    String suffix = " " + range / DAY + "d";
+                    time(name + " getAllActivitySamples" + suffix, new Operation() {
+                        @Override
+                        public Object run() {
+                            return provider.getAllActivitySamples(END - range, END);
+                        }
+                    });
+                    time(name + " getActivitySamples" + suffix, new Operation() {
+                        @Override
+                        public Object run() {
+                            return provider.getActivitySamples(END - range, END);
+                        }
+                    });
+                    time(name + " getSleepSamples" + suffix, new Operation() {
+                        @Override
+                        public Object run() {
+                            return provider.getSleepSamples(END - range, END);
+                        }
+                    });
+                }
+                final GBDevice gbDevice = device;
+                final Calendar day = Calendar.getInstance();
+                day.setTimeInMillis(END * 1000L);
+                time(name + " DailyTotals", new Operation() {
+                    @Override
+                    public Object run() {
+                        return new DailyTotals().getDailyTotalsForDevice(handler, gbDevice, day);
+                    }
+                });
+                time(name + " getLatestActivitySample", new Operation() {
+                    @Override
+                    public Object run() {
+                        return provider.getLatestActivitySample();
+                    }
+                });
+
+                final List<? extends ActivitySample> samples = provider.getAllActivitySamples(END - 30 * DAY, END);
+                time(name + " ActivityAnalysis 30d", new Operation() {
+                    @Override
+                    public Object run() {
+                        return new ActivityAnalysis().calculateActivityAmounts(samples);
+                    }
+                });
+                time(name + " SleepAnalysis 30d", new Operation() {
+                    @Override
+                    public Object run() {
+                        return new SleepAnalysis().calculateSleepSessions(samples);
+                    }
+                });
+                time(name + " StepAnalysis 30d", new Operation() {
+                    @Override
+                    public Object run() {
+                        return new StepAnalysis().calculateStepSessions(samples);
+                    }
+                });
+            }
+
+            final GBDevice device = devices.get(0);
+            time("battery levels 365d", new Operation() {
+                @Override
+                public Object run() {
+                    return BatteryHistoryStore.getInstance().getLevels(handler, device, END - 365 * DAY, END);
+                }
+            });
+            final ActivitySummariesQuery summariesQuery = new ActivitySummariesQuery(null, 0, 0, 0, null, null);
+            time("activity summaries first page", new Operation() {
+                @Override
+                public Object run() {
+                    return summariesQuery.getPage(handler.getDaoSession(), null, ActivitySummariesQuery.DEFAULT_PAGE_SIZE);
+                }
+            });
+            // the page after a summary in the middle of the history
+            List<BaseActivitySummary> firstPage = summariesQuery.getPage(handler.getDaoSession(), null, ActivitySummariesQuery.DEFAULT_PAGE_SIZE);
+            final BaseActivitySummary middle = firstPage.isEmpty() ? null : firstPage.get(firstPage.size() / 2);
+            time("activity summaries next page", new Operation() {
+                @Override
+                public Object run() {
+                    return summariesQuery.getPage(handler.getDaoSession(), middle, ActivitySummariesQuery.DEFAULT_PAGE_SIZE);
+                }
+            });
+            time("activity summaries totals", new Operation() {
+                @Override
+                public Object run() {
+                    return summariesQuery.getTotalsByKindAndDevice(handler.getDaoSession());
+                }
+            });
+
+            final File exportFile = new File(dbFile.getParentFile(), "export.db");
+            time("exportDB " + dbFile.length() / 1024 + " KiB", new Operation() {
+                @Override
+                public Object run() throws Exception {
+                    try (OutputStream out = new FileOutputStream(exportFile)) {
+                        new DBHelper(getContext()).exportDB(handler, out);
+                    }
+                    return exportFile;
+                }
+            });
+        }
+    }
+
+    private void time(String name, Operation operation) throws Exception {
+        long[] durations = new long[RUNS];
+        int resultSize = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            Object result = operation.run();
+            durations[i] = System.nanoTime() - start;
+            if (result instanceof List) {
+                resultSize = ((List<?>) result).size();
+            }
+        }
+        Arrays.sort(durations);
+        report(name, durations[RUNS / 2], resultSize);
+    }
+
+    private void report(String name, long nanos, int resultSize) {
+        LOG.info(String.format(Locale.US, "BENCHMARK %-45s %10.1f ms %8d rows", name, nanos / 1e6, resultSize));
+    }
+
+    /**
+     * A DBHandler for a database file, so that it can be exported like the real database.
+     */
+    private class FileDBHandler implements DBHandler {
+        private final File file;
+        private DaoMaster.DevOpenHelper helper;
+        private DaoMaster daoMaster;
+        private DaoSession session;
+
+        FileDBHandler(File file) {
+            this.file = file;
+            openDb();
+        }
+
+        @Override
+        public void closeDb() {
+            session.clear();
+            helper.close();
+        }
+
+        @Override
+        public void openDb() {
+            helper = new DaoMaster.DevOpenHelper(getContext(), file.getAbsolutePath(), null);
+            daoMaster = new DaoMaster(helper.getWritableDatabase());
+            session = daoMaster.newSession();
+        }
+
+        @Override
+        public SQLiteOpenHelper getHelper() {
+            return helper;
+        }
+
+        @Override
+        public void close() {
+            closeDb();
+        }
+
+        @Override
+        public SQLiteDatabase getDatabase() {
+            return daoMaster.getDatabase();
+        }
+
+        @Override
+        public DaoMaster getDaoMaster() {
+            return daoMaster;
+        }
+
+        @Override
+        public DaoSession getDaoSession() {
+            return session;
+        }
+    }
+}
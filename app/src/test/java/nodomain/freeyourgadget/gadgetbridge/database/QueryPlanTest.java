@@ -0,0 +1,87 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.Cursor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.greenrobot.dao.AbstractDao;
+import de.greenrobot.dao.Property;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Makes sure that the queries of the sample providers, the overlays and the battery chart
+ * use an index on the device, instead of scanning the rows of all devices.
+ */
+public class QueryPlanTest extends TestBase {
+
+    @Test
+    public void testDeviceTimeRangeQueries() {
+        int checked = 0;
+        for (AbstractDao<?, ?> dao : daoSession.getAllDaos()) {
+            String deviceId = getColumn(dao, "DEVICE_ID");
+            String timestamp = getColumn(dao, "TIMESTAMP");
+            String rawKind = getColumn(dao, "RAW_KIND");
+            String table = dao.getTablename();
+            if (deviceId == null) {
+                continue;
+            }
+
+            if (timestamp != null) {
+                // AbstractSampleProvider#getGBActivitySamples
+                assertUsesDeviceIndex(table, "SELECT * FROM " + table + " WHERE " + deviceId + " = 1 AND "
+                        + timestamp + " >= 1000 AND " + timestamp + " <= 2000");
+                if (rawKind != null) {
+                    assertUsesDeviceIndex(table, "SELECT * FROM " + table + " WHERE " + deviceId + " = 1 AND "
+                            + timestamp + " >= 1000 AND " + timestamp + " <= 2000 AND (" + rawKind + " = 1 OR " + rawKind + " = 2)");
+                }
+                // AbstractSampleProvider#getLatestActivitySample
+                assertUsesDeviceIndex(table, "SELECT * FROM " + table + " WHERE " + deviceId + " = 1 ORDER BY "
+                        + timestamp + " DESC LIMIT 1");
+                checked++;
+            }
+
+            String timestampFrom = getColumn(dao, "TIMESTAMP_FROM");
+            String timestampTo = getColumn(dao, "TIMESTAMP_TO");
+            if (timestampFrom != null && timestampTo != null) {
+                // PebbleHealthSampleProvider#getGBActivitySamples
+                assertUsesDeviceIndex(table, "SELECT * FROM " + table + " WHERE " + deviceId + " = 1 AND "
+                        + timestampTo + " >= 1000 AND " + timestampFrom + " <= 2000");
+                checked++;
+            }
+        }
+        assertTrue("no sample tables found", checked > 20);
+    }
+
+    private void assertUsesDeviceIndex(String table, String query) {
+        List<String> plan = new ArrayList<>();
+        try (Cursor cursor = daoSession.getDatabase().rawQuery("EXPLAIN QUERY PLAN " + query, null)) {
+            int detail = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        }
+        boolean usesDeviceIndex = false;
+        for (String step : plan) {
+            assertFalse("full table scan of " + table + ": " + plan, step.startsWith("SCAN"));
+            if (step.contains("DEVICE_ID=?")) {
+                usesDeviceIndex = true;
+            }
+        }
+        assertTrue("no device index used for " + table + ": " + plan, usesDeviceIndex);
+    }
+
+    private static String getColumn(AbstractDao<?, ?> dao, String columnName) {
+        for (Property property : dao.getProperties()) {
+            if (columnName.equals(property.columnName)) {
+                return property.columnName;
+            }
+        }
+        return null;
+    }
+}
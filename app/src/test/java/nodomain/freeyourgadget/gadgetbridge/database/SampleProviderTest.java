@@ -2,9 +2,11 @@ package nodomain.freeyourgadget.gadgetbridge.database;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleRangeCache;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
@@ -12,6 +14,7 @@ import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.User;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
 
 import static org.junit.Assert.assertEquals;
@@ -57,6 +60,19 @@ public class SampleProviderTest extends TestBase {
         assertEquals(ActivityKind.TYPE_NOT_WORN, type);
     }
 
+    @Test
+    public void testCachedNormalization() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        for (int raw = -1; raw < 2000; raw++) {
+            assertEquals(sampleProvider.normalizeType(raw), sampleProvider.getNormalizedType(raw));
+            assertEquals(sampleProvider.normalizeIntensity(raw), sampleProvider.getNormalizedIntensity(raw), 0f);
+        }
+
+        int[] sleepTypes = sampleProvider.getDBActivityTypes(ActivityKind.TYPE_SLEEP);
+        assertEquals(2, sleepTypes.length);
+        assertSame(sleepTypes, sampleProvider.getDBActivityTypes(ActivityKind.TYPE_SLEEP));
+    }
+
     @Test
     public void testNoSamples() {
         MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
@@ -170,4 +186,69 @@ public class SampleProviderTest extends TestBase {
         sleepSamples = sampleProvider.getSleepSamples(1500, 2500);
         assertEquals(1, sleepSamples.size());
     }
+
+    @Test
+    public void testSampleRangeCache() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+        SampleRangeCache cache = SampleRangeCache.getInstance();
+        cache.invalidateAll();
+
+        int day = 24 * 60 * 60;
+        sampleProvider.addGBActivitySamples(new MiBandActivitySample[] {
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 10 * day + 100, 10, 70, 100, user, device),
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 10 * day + 200, 10, 70, 100, user, device),
+                createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 11 * day + 100, 10, 70, 100, user, device),
+        });
+
+        List<ActivitySample> samples = cache.getAllActivitySamples(sampleProvider, dummyGBDevice, 10 * day + 150, 11 * day + 150);
+        assertEquals(2, samples.size());
+        assertEquals(10 * day + 200, samples.get(0).getTimestamp());
+        assertEquals(11 * day + 100, samples.get(1).getTimestamp());
+        assertEquals(3, cache.getAllActivitySamples(sampleProvider, dummyGBDevice, 10 * day, 12 * day).size());
+
+        // adding a sample must invalidate the cached day
+        sampleProvider.addGBActivitySample(createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, 11 * day + 300, 10, 70, 100, user, device));
+        assertEquals(4, cache.getAllActivitySamples(sampleProvider, dummyGBDevice, 10 * day, 12 * day).size());
+    }
+
+    @Test
+    public void testSampleRangeCacheLoadsMissingDaysAtOnce() {
+        final List<int[]> queries = new ArrayList<>();
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession) {
+            @Override
+            public List<MiBandActivitySample> getAllActivitySamples(int timestamp_from, int timestamp_to) {
+                queries.add(new int[]{timestamp_from, timestamp_to});
+                return super.getAllActivitySamples(timestamp_from, timestamp_to);
+            }
+        };
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+        SampleRangeCache cache = SampleRangeCache.getInstance();
+        cache.invalidateAll();
+
+        int day = 24 * 60 * 60;
+        MiBandActivitySample[] samples = new MiBandActivitySample[30];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = createSample(sampleProvider, MiBandSampleProvider.TYPE_ACTIVITY, (10 + i) * day + 100, 10, 70, 100, user, device);
+        }
+        sampleProvider.addGBActivitySamples(samples);
+
+        assertEquals(1, cache.getAllActivitySamples(sampleProvider, dummyGBDevice, 20 * day, 21 * day - 1).size());
+        assertEquals(1, queries.size());
+
+        // the days before and after the cached one are each read with one query
+        queries.clear();
+        assertEquals(30, cache.getAllActivitySamples(sampleProvider, dummyGBDevice, 10 * day, 40 * day - 1).size());
+        assertEquals(2, queries.size());
+        assertEquals(10 * day, queries.get(0)[0]);
+        assertEquals(20 * day - 1, queries.get(0)[1]);
+        assertEquals(21 * day, queries.get(1)[0]);
+        assertEquals(40 * day - 1, queries.get(1)[1]);
+
+        queries.clear();
+        assertEquals(30, cache.getAllActivitySamples(sampleProvider, dummyGBDevice, 10 * day, 40 * day - 1).size());
+        assertEquals(0, queries.size());
+    }
 }
@@ -0,0 +1,122 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivitySampleRollup;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.SyntheticDataGenerator;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+import static nodomain.freeyourgadget.gadgetbridge.test.SyntheticDataGenerator.DAY;
+import static nodomain.freeyourgadget.gadgetbridge.test.SyntheticDataGenerator.END;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SampleRetentionTest extends TestBase {
+    @Test
+    public void testDownsampleTiers() throws Exception {
+        GBDevice device = new SyntheticDataGenerator(daoSession, 1).generate(1, 10, END).get(0);
+        MiBandSampleProvider provider = new MiBandSampleProvider(device, daoSession);
+        List<MiBandActivitySample> before = provider.getAllActivitySamples(0, END);
+        int recentCount = provider.getAllActivitySamples(END - 3 * DAY, END).size();
+        int hourlyCount = provider.getAllActivitySamples(0, END - 6 * DAY - 1).size();
+
+        File archiveDir = FileUtils.createTempDir("retention");
+        int removed = SampleRetention.apply(device, SampleRetention.parseTiers("6:3600,3:300"), END, archiveDir);
+        assertTrue(removed > 0);
+
+        List<MiBandActivitySample> after = provider.getAllActivitySamples(0, END);
+        assertEquals(before.size() - removed, after.size());
+        assertEquals(sumSteps(before), sumSteps(after));
+        assertEquals(recentCount, provider.getAllActivitySamples(END - 3 * DAY, END).size());
+        for (MiBandActivitySample sample : after) {
+            if (sample.getTimestamp() < END - 6 * DAY) {
+                assertEquals(0, sample.getTimestamp() % 3600);
+            } else if (sample.getTimestamp() < END - 3 * DAY) {
+                assertEquals(0, sample.getTimestamp() % 300);
+            }
+        }
+
+        long deviceId = DBHelper.findDevice(device, daoSession).getId();
+        Map<Integer, ActivitySampleRollup> rollups = SampleRetention.getRollups(daoSession, deviceId, 0, END - 6 * DAY - 1);
+        int originals = 0;
+        for (MiBandActivitySample sample : provider.getAllActivitySamples(0, END - 6 * DAY - 1)) {
+            ActivitySampleRollup rollup = rollups.get(sample.getTimestamp());
+            assertEquals(3600, rollup.getResolution());
+            originals += rollup.getSampleCount();
+            if (rollup.getHeartRateMax() > 0) {
+                assertTrue(rollup.getHeartRateMin() <= sample.getHeartRate());
+                assertTrue(rollup.getHeartRateMax() >= sample.getHeartRate());
+            }
+        }
+        assertEquals(hourlyCount, originals);
+
+        // nothing left to do
+        assertEquals(0, SampleRetention.apply(device, SampleRetention.parseTiers("6:3600,3:300"), END, archiveDir));
+
+        File[] archives = archiveDir.listFiles();
+        assertEquals(1, archives.length);
+        assertTrue(archives[0].getName().endsWith(".csv.gz"));
+    }
+
+    @Test
+    public void testReclaimSpace() throws Exception {
+        GBDevice device = new SyntheticDataGenerator(daoSession, 1).generate(1, 10, END).get(0);
+        SampleRetention.apply(device, SampleRetention.parseTiers("3:3600"), END, null);
+        SQLiteDatabase db = daoSession.getDatabase();
+        assertTrue(queryLong(db, "PRAGMA freelist_count") > 0);
+
+        // converted to incremental auto vacuum
+        SampleRetention.reclaimSpace(db);
+        assertEquals(2, queryLong(db, "PRAGMA auto_vacuum"));
+        assertEquals(0, queryLong(db, "PRAGMA freelist_count"));
+
+        // from then on, the free pages are truncated right away
+        db.execSQL("DELETE FROM " + MiBandActivitySampleDao.TABLENAME);
+        assertTrue(queryLong(db, "PRAGMA freelist_count") > 0);
+        SampleRetention.reclaimSpace(db);
+        assertEquals(0, queryLong(db, "PRAGMA freelist_count"));
+    }
+
+    @Test
+    public void testParseTiers() {
+        List<SampleRetention.Tier> tiers = SampleRetention.parseTiers(" 365:3600, 90:300 ");
+        assertEquals("90:300", tiers.get(0).toString());
+        assertEquals("365:3600", tiers.get(1).toString());
+        assertTrue(SampleRetention.parseTiers("").isEmpty());
+        for (String invalid : new String[]{"90", "90:7", "90:301", "0:300", "90:3600,365:300", "a:b"}) {
+            try {
+                SampleRetention.parseTiers(invalid);
+                fail("accepted " + invalid);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    private static long queryLong(SQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.rawQuery(sql, null)) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        }
+    }
+
+    private static long sumSteps(List<MiBandActivitySample> samples) {
+        long steps = 0;
+        for (MiBandActivitySample sample : samples) {
+            steps += Math.max(0, sample.getSteps());
+        }
+        return steps;
+    }
+}
@@ -0,0 +1,136 @@
+package nodomain.freeyourgadget.gadgetbridge.database.schema;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivitySessionRebuild;
+import nodomain.freeyourgadget.gadgetbridge.database.DBDataMigration;
+import nodomain.freeyourgadget.gadgetbridge.database.DBUpdateScript;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DataMigrationsTest extends TestBase {
+    private static final String NAME = CopyIds.class.getName();
+
+    @Test
+    public void testBatchesContinueAtStoredPosition() {
+        SQLiteDatabase db = createTestTable(25);
+        DataMigrations.schedule(db, CopyIds.class);
+        assertEquals(Collections.singletonList(NAME), DataMigrations.getPending(db));
+
+        assertEquals(10, DataMigrations.runBatch(db, NAME, new CopyIds()));
+        // a new instance, as after a restart
+        assertEquals(20, DataMigrations.runBatch(db, NAME, new CopyIds()));
+        assertEquals(DBDataMigration.DONE, DataMigrations.runBatch(db, NAME, new CopyIds()));
+
+        assertTrue(DataMigrations.getPending(db).isEmpty());
+        assertEquals(25, countCopied(db));
+    }
+
+    @Test
+    public void testFailedBatchIsRolledBack() {
+        SQLiteDatabase db = createTestTable(25);
+        DataMigrations.schedule(db, CopyIds.class);
+        assertEquals(10, DataMigrations.runBatch(db, NAME, new CopyIds()));
+        try {
+            DataMigrations.runBatch(db, NAME, new CopyIds() {
+                @Override
+                public long migrateBatch(SQLiteDatabase db, long position) {
+                    super.migrateBatch(db, position);
+                    throw new IllegalStateException("test");
+                }
+            });
+            fail("batch did not fail");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(10, countCopied(db));
+        assertEquals(20, DataMigrations.runBatch(db, NAME, new CopyIds()));
+
+        DataMigrations.cancelAll(db);
+        assertTrue(DataMigrations.getPending(db).isEmpty());
+    }
+
+    @Test
+    public void testUpgradeSchedulesOnlyTheRequiredMigrations() {
+        SQLiteDatabase db = daoSession.getDatabase();
+        SchemaMigration migration = new SchemaMigration("GadgetbridgeUpdate_");
+
+        migration.onUpgrade(db, 38, 39);
+        assertEquals(Collections.singletonList(GadgetbridgeUpdate_39.class.getName()), DataMigrations.getPending(db));
+
+        DataMigrations.cancelAll(db);
+        migration.onUpgrade(db, 39, 39);
+        assertTrue(DataMigrations.getPending(db).isEmpty());
+
+        migration.onUpgrade(db, 34, 39);
+        assertEquals(Arrays.asList(GadgetbridgeUpdate_35.class.getName(), GadgetbridgeUpdate_39.class.getName()),
+                DataMigrations.getPending(db));
+        DataMigrations.cancelAll(db);
+    }
+
+    @Test
+    public void testAllScriptsAndMigrationsAreListed() {
+        for (int version = 1; version <= DaoMaster.SCHEMA_VERSION; version++) {
+            DBUpdateScript script = SchemaMigration.getUpdateScript(version);
+            Class<?> scriptClass;
+            try {
+                scriptClass = Class.forName(SchemaMigration.class.getPackage().getName() + ".GadgetbridgeUpdate_" + version);
+            } catch (ClassNotFoundException e) {
+                assertNull("script for version " + version, script);
+                continue;
+            }
+            assertEquals(scriptClass, script.getClass());
+            if (script instanceof DBDataMigration) {
+                assertNotNull(scriptClass.getName(), DataMigrations.createMigration(scriptClass.getName()));
+            }
+        }
+        assertTrue(DataMigrations.createMigration(ActivitySessionRebuild.class.getName()) instanceof ActivitySessionRebuild);
+        assertNull(DataMigrations.createMigration(NAME));
+    }
+
+    private SQLiteDatabase createTestTable(int rows) {
+        SQLiteDatabase db = daoSession.getDatabase();
+        db.execSQL("CREATE TABLE TEST_DATA (ID INTEGER PRIMARY KEY, COPY INTEGER NOT NULL)");
+        for (int i = 1; i <= rows; i++) {
+            db.execSQL("INSERT INTO TEST_DATA (ID, COPY) VALUES (?, 0)", new Object[]{i});
+        }
+        return db;
+    }
+
+    private static int countCopied(SQLiteDatabase db) {
+        try (Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM TEST_DATA WHERE COPY = ID", null)) {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        }
+    }
+
+    public static class CopyIds implements DBDataMigration {
+        private static final int BATCH_SIZE = 10;
+
+        @Override
+        public long getEndPosition(SQLiteDatabase db) {
+            try (Cursor cursor = db.rawQuery("SELECT MAX(ID) FROM TEST_DATA", null)) {
+                cursor.moveToFirst();
+                return cursor.getLong(0);
+            }
+        }
+
+        @Override
+        public long migrateBatch(SQLiteDatabase db, long position) {
+            long end = position + BATCH_SIZE;
+            db.execSQL("UPDATE TEST_DATA SET COPY = ID WHERE ID > ? AND ID <= ?", new Object[]{position, end});
+            return end < getEndPosition(db) ? end : DONE;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+import org.junit.Test;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+import nodomain.freeyourgadget.gadgetbridge.model.GenericItem;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class DeviceManagerTest extends TestBase {
+
+    @Test
+    public void testChangedFields() {
+        GBDevice before = createDevice();
+        GBDevice after = createDevice();
+        assertEquals(0, DeviceManager.getChangedFields(before, after));
+
+        after.setRssi((short) -60);
+        assertEquals(0, DeviceManager.getChangedFields(before, after));
+
+        after.setBatteryLevel((short) 42);
+        after.setBusyTask("syncing");
+        assertEquals(DeviceManager.FIELD_BATTERY | DeviceManager.FIELD_BUSY, DeviceManager.getChangedFields(before, after));
+
+        after = createDevice();
+        after.setState(GBDevice.State.INITIALIZED);
+        after.setName("Renamed");
+        assertEquals(DeviceManager.FIELD_STATE | DeviceManager.FIELD_NAME, DeviceManager.getChangedFields(before, after));
+
+        // device infos are equal by name, the details must be compared as well
+        before.addDeviceInfo(new GenericItem("Serial", "1"));
+        after = createDevice();
+        after.addDeviceInfo(new GenericItem("Serial", "2"));
+        assertEquals(DeviceManager.FIELD_INFO, DeviceManager.getChangedFields(before, after));
+    }
+
+    @Test
+    public void testSameInstanceChangedTwice() {
+        DeviceManager manager = app.getDeviceManager();
+        GBDevice device = createDevice();
+        assertEquals(DeviceManager.FIELD_STATE | DeviceManager.FIELD_NAME | DeviceManager.FIELD_BATTERY
+                | DeviceManager.FIELD_BUSY | DeviceManager.FIELD_INFO, manager.updateSnapshot(device));
+        assertEquals(0, manager.updateSnapshot(device));
+
+        // the services change the device they sent before and send it again
+        device.setState(GBDevice.State.INITIALIZED);
+        assertEquals(DeviceManager.FIELD_STATE, manager.updateSnapshot(device));
+        device.setBatteryLevel((short) 79);
+        device.addDeviceInfo(new GenericItem("Serial", "1"));
+        assertEquals(DeviceManager.FIELD_BATTERY | DeviceManager.FIELD_INFO, manager.updateSnapshot(device));
+        assertEquals(0, manager.updateSnapshot(device));
+    }
+
+    @Test
+    public void testInitialDevicesAreBroadcasted() {
+        GBDevice stored = createDevice();
+        DBHelper.getDevice(stored, daoSession);
+        final List<Intent> broadcasts = new ArrayList<>();
+        LocalBroadcastManager.getInstance(getContext()).registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                broadcasts.add(intent);
+            }
+        }, new IntentFilter(DeviceManager.ACTION_DEVICES_CHANGED));
+
+        DeviceManager manager = new DeviceManager(getContext());
+        // as the startup step does in the background
+        manager.loadInitialDevices();
+        ShadowLooper.idleMainLooper();
+        assertEquals(Collections.singletonList(stored), manager.getDevices());
+        assertEquals(1, broadcasts.size());
+        assertFalse(broadcasts.get(0).hasExtra(DeviceManager.EXTRA_CHANGED_DEVICES));
+
+        // read only once
+        manager.loadInitialDevices();
+        ShadowLooper.idleMainLooper();
+        assertEquals(1, broadcasts.size());
+    }
+
+    private static GBDevice createDevice() {
+        GBDevice device = new GBDevice("00:11:22:33:44:55", "Test Band", null, DeviceType.MIBAND);
+        device.setBatteryLevel((short) 80);
+        return device;
+    }
+}
@@ -0,0 +1,153 @@
+package nodomain.freeyourgadget.gadgetbridge.devices.pebble;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceApp;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.PebbleUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PBWCacheIndexTest extends TestBase {
+    private static final String UUID1 = "11111111-1111-1111-1111-111111111111";
+    private static final String UUID2 = "22222222-2222-2222-2222-222222222222";
+
+    private File cacheDir;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        cacheDir = PebbleUtils.getPbwCacheDir();
+        deleteRecursively(cacheDir);
+        assertTrue(cacheDir.mkdirs());
+        new File(FileUtils.getExternalFilesDir(), "pbwcacheindex.json").delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        write(UUID1 + ".pbw", "pbw");
+        write(UUID1 + ".json", createAppJson(UUID1, "App 1"));
+        write(UUID1 + "_config.js", "");
+        write(UUID2 + ".json", createAppJson(UUID2, "App 2"));
+        write(UUID2 + "_preset.json", "{}");
+
+        PBWCacheIndex index = new PBWCacheIndex();
+        Map<String, PBWCacheIndex.Entry> entries = index.refresh();
+        assertEquals(2, entries.size());
+        PBWCacheIndex.Entry entry = entries.get(UUID1);
+        index.setIcon(entry, "basalt", "basalt/app_resources.pbpack", 1234, 56);
+        index.saveIcons();
+
+        // a new instance reads the index instead of the unchanged json files
+        File json2 = new File(cacheDir, UUID2 + ".json");
+        long lastModified = json2.lastModified();
+        try (FileOutputStream out = new FileOutputStream(json2)) {
+            out.write("not read".getBytes(StandardCharsets.UTF_8));
+        }
+        assertTrue(json2.setLastModified(lastModified));
+        entries = new PBWCacheIndex().refresh();
+        assertEquals(2, entries.size());
+        entry = entries.get(UUID1);
+        assertTrue(entry.hasPbw());
+        assertTrue(entry.configurable);
+        GBDeviceApp app = entry.getApp();
+        assertEquals("App 1", app.getName());
+        assertEquals(GBDeviceApp.Type.APP_GENERIC, app.getType());
+        assertEquals("basalt", entry.iconPlatform);
+        assertEquals("basalt/app_resources.pbpack", entry.iconFile);
+        assertEquals(1234, entry.iconOffset);
+        assertEquals(56, entry.iconLength);
+        assertFalse(entries.get(UUID2).hasPbw());
+        assertEquals("App 2", entries.get(UUID2).getApp().getName());
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        File pbw = write(UUID1 + ".pbw", "pbw");
+        write(UUID1 + ".json", createAppJson(UUID1, "App 1"));
+        PBWCacheIndex index = new PBWCacheIndex();
+        PBWCacheIndex.Entry entry = index.refresh().get(UUID1);
+        String versionKey = entry.getVersionKey();
+        index.setIcon(entry, "basalt", "basalt/app_resources.pbpack", 1234, 56);
+
+        // the app is replaced
+        write(UUID1 + ".pbw", "another pbw");
+        write(UUID1 + ".json", createAppJson(UUID1, "App 1.1"));
+        PBWCacheIndex.Entry replaced = index.refresh().get(UUID1);
+        assertNotEquals(versionKey, replaced.getVersionKey());
+        assertEquals("App 1.1", replaced.getApp().getName());
+        assertNull(replaced.iconPlatform);
+        // the icon of the old entry is not stored for the new one
+        index.setIcon(entry, "basalt", "basalt/app_resources.pbpack", 1234, 56);
+        assertNull(index.getEntry(UUID1).iconPlatform);
+
+        // configurable only
+        write(UUID1 + "_config.js", "");
+        assertTrue(index.refresh().get(UUID1).configurable);
+
+        // removed
+        assertTrue(pbw.delete());
+        assertTrue(new File(cacheDir, UUID1 + ".json").delete());
+        assertTrue(index.refresh().isEmpty());
+        assertTrue(new PBWCacheIndex().refresh().isEmpty());
+    }
+
+    @Test
+    public void testUnreadableIndex() throws Exception {
+        write(UUID1 + ".json", createAppJson(UUID1, "App 1"));
+        File indexFile = new File(FileUtils.getExternalFilesDir(), "pbwcacheindex.json");
+        try (FileOutputStream out = new FileOutputStream(indexFile)) {
+            out.write("[{\"baseName\"".getBytes(StandardCharsets.UTF_8));
+        }
+
+        // rebuilt from the files
+        assertEquals("App 1", new PBWCacheIndex().refresh().get(UUID1).getApp().getName());
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(cacheDir, name);
+        boolean existed = file.exists();
+        long lastModified = file.lastModified();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        if (existed) {
+            // a change within the resolution of the file system timestamps
+            file.setLastModified(lastModified + 2000);
+        }
+        return file;
+    }
+
+    private static String createAppJson(String uuid, String name) throws Exception {
+        JSONObject json = new JSONObject();
+        json.put("uuid", uuid);
+        json.put("name", name);
+        json.put("creator", "Creator");
+        json.put("version", "1.0");
+        json.put("type", GBDeviceApp.Type.APP_GENERIC.name());
+        json.put("appKeys", new JSONObject());
+        return json.toString();
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
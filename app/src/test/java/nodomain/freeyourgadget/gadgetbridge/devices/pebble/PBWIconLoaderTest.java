@@ -0,0 +1,92 @@
+package nodomain.freeyourgadget.gadgetbridge.devices.pebble;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PBWIconLoaderTest extends TestBase {
+    private static final int BLACK = 0xc0;
+    private static final int WHITE = 0xff;
+    private static final int RED = 0xf0;
+    private static final int TRANSPARENT = 0x00;
+
+    @Test
+    public void testOneBit() {
+        // least significant bit first, rows padded to 4 bytes
+        Bitmap bitmap = PBWIconLoader.decodeIcon(createPbi(0, 4, 3, 2, new byte[]{0x05, 0, 0, 0, 0x02, 0, 0, 0}, null));
+        assertEquals(3, bitmap.getWidth());
+        assertEquals(2, bitmap.getHeight());
+        assertPixels(bitmap, Color.WHITE, Color.BLACK, Color.WHITE, Color.BLACK, Color.WHITE, Color.BLACK);
+    }
+
+    @Test
+    public void testEightBit() {
+        Bitmap bitmap = PBWIconLoader.decodeIcon(createPbi(1, 2, 2, 2, new byte[]{(byte) BLACK, (byte) WHITE, (byte) RED, TRANSPARENT}, null));
+        assertPixels(bitmap, Color.BLACK, Color.WHITE, Color.RED, Color.TRANSPARENT);
+    }
+
+    @Test
+    public void testPalettes() {
+        // 1 bit palette, most significant bit first
+        Bitmap bitmap = PBWIconLoader.decodeIcon(createPbi(2, 1, 3, 1, new byte[]{(byte) 0xa0}, new int[]{RED, WHITE}));
+        assertPixels(bitmap, Color.WHITE, Color.RED, Color.WHITE);
+        // 2 bit palette
+        bitmap = PBWIconLoader.decodeIcon(createPbi(3, 1, 4, 1, new byte[]{0x1b}, new int[]{BLACK, WHITE, RED, TRANSPARENT}));
+        assertPixels(bitmap, Color.BLACK, Color.WHITE, Color.RED, Color.TRANSPARENT);
+        // 4 bit palette
+        int[] palette = new int[16];
+        palette[1] = RED;
+        palette[15] = WHITE;
+        bitmap = PBWIconLoader.decodeIcon(createPbi(4, 1, 2, 1, new byte[]{(byte) 0xf1}, palette));
+        assertPixels(bitmap, Color.WHITE, Color.RED);
+    }
+
+    @Test
+    public void testInvalid() {
+        assertNull(PBWIconLoader.decodeIcon(new byte[4]));
+        // unknown format
+        assertNull(PBWIconLoader.decodeIcon(createPbi(5, 1, 1, 1, new byte[1], null)));
+        // rows too short for the width
+        assertNull(PBWIconLoader.decodeIcon(createPbi(1, 2, 3, 1, new byte[2], null)));
+        // truncated data and palette
+        byte[] pbi = createPbi(1, 2, 2, 2, new byte[4], null);
+        assertNull(PBWIconLoader.decodeIcon(Arrays.copyOf(pbi, pbi.length - 1)));
+        pbi = createPbi(4, 1, 2, 1, new byte[1], new int[16]);
+        assertNull(PBWIconLoader.decodeIcon(Arrays.copyOf(pbi, pbi.length - 1)));
+    }
+
+    private static byte[] createPbi(int format, int rowSize, int width, int height, byte[] rows, int[] palette) {
+        int paletteSize = palette != null ? palette.length : 0;
+        ByteBuffer buf = ByteBuffer.allocate(12 + rows.length + paletteSize).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putShort((short) rowSize);
+        // the version is in bit 12..15 of the info flags, the format in bit 1..5
+        buf.putShort((short) (1 << 12 | format << 1));
+        buf.putShort((short) 0);
+        buf.putShort((short) 0);
+        buf.putShort((short) width);
+        buf.putShort((short) height);
+        buf.put(rows);
+        for (int i = 0; i < paletteSize; i++) {
+            buf.put((byte) palette[i]);
+        }
+        return buf.array();
+    }
+
+    private static void assertPixels(Bitmap bitmap, int... expected) {
+        for (int i = 0; i < expected.length; i++) {
+            int x = i % bitmap.getWidth();
+            int y = i / bitmap.getWidth();
+            assertEquals("pixel " + x + "/" + y, expected[i], bitmap.getPixel(x, y));
+        }
+    }
+}
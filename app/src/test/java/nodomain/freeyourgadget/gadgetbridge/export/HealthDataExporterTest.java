@@ -0,0 +1,233 @@
+package nodomain.freeyourgadget.gadgetbridge.export;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.test.SyntheticDataGenerator;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+import static nodomain.freeyourgadget.gadgetbridge.test.SyntheticDataGenerator.END;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HealthDataExporterTest extends TestBase {
+    @Test
+    public void testCsvAndBinaryContainTheSameRows() throws Exception {
+        GBDevice device = new SyntheticDataGenerator(daoSession, 1).generate(2, 10, END).get(0);
+        List<MiBandActivitySample> samples = SyntheticDataGenerator.getMiBandSamples(daoSession, device, 0, END);
+
+        File csvDir = new HealthDataExporter(HealthDataExporter.Format.CSV, false).export(FileUtils.createTempDir("export"));
+        File binaryDir = new HealthDataExporter(HealthDataExporter.Format.BINARY, true).export(FileUtils.createTempDir("export"));
+
+        for (String table : new String[]{"samples", "battery", "summaries"}) {
+            List<String[]> csv = readCsv(new File(csvDir, table + ".csv"));
+            List<String[]> binary = readBinary(new File(binaryDir, table + ".gbcol.gz"));
+            assertTrue(table, csv.size() > 1);
+            assertEquals(table, csv.size(), binary.size());
+            for (int i = 0; i < csv.size(); i++) {
+                assertArrayEquals(table + " row " + i, csv.get(i), binary.get(i));
+            }
+        }
+
+        // the rows of the Mi Band come first, in order of time
+        List<String[]> rows = readCsv(new File(csvDir, "samples.csv"));
+        assertEquals("timestamp", rows.get(0)[0]);
+        for (int i = 0; i < samples.size(); i++) {
+            MiBandActivitySample sample = samples.get(i);
+            String[] row = rows.get(i + 1);
+            assertEquals(String.valueOf(sample.getTimestamp()), row[0]);
+            assertEquals(device.getAddress(), row[1]);
+            assertEquals(String.valueOf(sample.getSteps()), row[4]);
+        }
+    }
+
+    @Test
+    public void testSummariesAreExportedOnce() throws Exception {
+        GBDevice device = new SyntheticDataGenerator(daoSession, 1).generate(1, 1, END).get(0);
+        Device dbDevice = DBHelper.getDevice(device, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        // more than a page, with summaries that start at the same time on page boundaries
+        for (int i = 0; i < 250; i++) {
+            BaseActivitySummary summary = new BaseActivitySummary();
+            summary.setStartTime(new Date((END - (i / 2) * 3600) * 1000L));
+            summary.setEndTime(new Date((END - (i / 2) * 3600 + 600) * 1000L));
+            summary.setActivityKind(ActivityKind.TYPE_RUNNING);
+            summary.setName("test " + i);
+            summary.setDevice(dbDevice);
+            summary.setUser(user);
+            daoSession.getBaseActivitySummaryDao().insert(summary);
+        }
+
+        File dir = new HealthDataExporter(HealthDataExporter.Format.CSV, false).export(FileUtils.createTempDir("export"));
+        List<String[]> rows = readCsv(new File(dir, "summaries.csv"));
+        assertEquals(daoSession.getBaseActivitySummaryDao().count() + 1, rows.size());
+        Set<String> names = new HashSet<>();
+        for (String[] row : rows.subList(1, rows.size())) {
+            if (row[4] != null && row[4].startsWith("test ")) {
+                assertTrue(row[4], names.add(row[4]));
+            }
+        }
+        assertEquals(250, names.size());
+    }
+
+    @Test
+    public void testColumnarBlocksAndStrings() throws Exception {
+        File file = new File(FileUtils.createTempDir("export"), "test.gbcol");
+        int rows = ColumnarTableWriter.BLOCK_ROWS * 2 + 10;
+        try (TableWriter writer = new ColumnarTableWriter(new FileOutputStream(file),
+                new String[]{"n", "f", "s"}, new TableWriter.Type[]{TableWriter.Type.INT, TableWriter.Type.FLOAT, TableWriter.Type.STRING})) {
+            for (int i = 0; i < rows; i++) {
+                String s = i % 3 == 0 ? null : i % 3 == 1 ? "short, \"quoted\"" : "long " + new String(new char[100]).replace('\0', 'x') + i;
+                writer.writeRow(i % 2 == 0 ? -i : i, i / 4f, s);
+            }
+        }
+        List<String[]> read = readBinary(file);
+        assertEquals(rows + 1, read.size());
+        assertArrayEquals(new String[]{"n", "f", "s"}, read.get(0));
+        assertArrayEquals(new String[]{"-4", "1.0", "short, \"quoted\""}, read.get(5));
+        assertEquals("long ", read.get(rows)[2].substring(0, 5));
+        assertEquals(null, read.get(rows - 2)[2]);
+    }
+
+    private static List<String[]> readCsv(File file) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                rows.add(parseCsvLine(line));
+            }
+        }
+        return rows;
+    }
+
+    private static String[] parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+                wasQuoted = true;
+            } else if (c == ',') {
+                fields.add(field.length() > 0 || wasQuoted ? field.toString() : null);
+                field.setLength(0);
+                wasQuoted = false;
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.length() > 0 || wasQuoted ? field.toString() : null);
+        return fields.toArray(new String[0]);
+    }
+
+    /**
+     * Decodes the format described in ColumnarTableWriter, with the values as CSV would show them.
+     */
+    private static List<String[]> readBinary(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+        }
+        List<String[]> rows = new ArrayList<>();
+        try (DataInputStream data = new DataInputStream(in)) {
+            byte[] magic = new byte[ColumnarTableWriter.MAGIC.length];
+            data.readFully(magic);
+            assertTrue(Arrays.equals(ColumnarTableWriter.MAGIC, magic));
+            assertEquals(ColumnarTableWriter.VERSION, data.readUnsignedByte());
+            int columns = (int) readVarint(data);
+            String[] names = new String[columns];
+            int[] types = new int[columns];
+            for (int i = 0; i < columns; i++) {
+                names[i] = readString(data);
+                types[i] = data.readUnsignedByte();
+            }
+            rows.add(names);
+
+            List<String> dictionary = new ArrayList<>();
+            int blockRows;
+            while ((blockRows = (int) readVarint(data)) > 0) {
+                String[][] block = new String[blockRows][columns];
+                for (int column = 0; column < columns; column++) {
+                    long previous = 0;
+                    for (int row = 0; row < blockRows; row++) {
+                        if (types[column] == 0) {
+                            long zigzag = readVarint(data);
+                            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+                            block[row][column] = Long.toString(previous);
+                        } else if (types[column] == 1) {
+                            block[row][column] = Float.toString(data.readFloat());
+                        } else {
+                            int id = (int) readVarint(data);
+                            if (id == 1) {
+                                block[row][column] = readString(data);
+                            } else if (id == dictionary.size() + 2) {
+                                dictionary.add(readString(data));
+                                block[row][column] = dictionary.get(id - 2);
+                            } else if (id > 1) {
+                                block[row][column] = dictionary.get(id - 2);
+                            }
+                        }
+                    }
+                }
+                rows.addAll(Arrays.asList(block));
+            }
+            assertEquals(-1, data.read());
+        }
+        return rows;
+    }
+
+    private static long readVarint(DataInputStream data) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        byte[] bytes = new byte[(int) readVarint(data)];
+        data.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
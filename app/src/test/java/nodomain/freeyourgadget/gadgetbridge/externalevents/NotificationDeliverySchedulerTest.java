@@ -0,0 +1,110 @@
+package nodomain.freeyourgadget.gadgetbridge.externalevents;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Test;
+import org.robolectric.Robolectric;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class NotificationDeliverySchedulerTest extends TestBase {
+    private final List<NotificationSpec> sent = new ArrayList<>();
+    private final List<NotificationSpec> discarded = new ArrayList<>();
+    private NotificationDeliveryScheduler scheduler;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        GBApplication.getPrefs().getPreferences().edit()
+                .putString(NotificationDeliveryScheduler.PREF_COALESCE_WINDOW, "2000")
+                .putString(NotificationDeliveryScheduler.PREF_MIN_INTERVAL, "500")
+                .commit();
+        scheduler = new NotificationDeliveryScheduler(new Handler(Looper.getMainLooper()), new NotificationDeliveryScheduler.Sender() {
+            @Override
+            public void onNotification(NotificationSpec notificationSpec) {
+                sent.add(notificationSpec);
+            }
+
+            @Override
+            public void onDiscarded(NotificationSpec notificationSpec) {
+                discarded.add(notificationSpec);
+            }
+        });
+    }
+
+    @Test
+    public void testCoalesceUpdates() {
+        scheduler.schedule("chat", createSpec(NotificationType.TELEGRAM, "1"));
+        assertEquals(1, sent.size());
+
+        // updates within the window are merged, only the last one is sent after the window
+        scheduler.schedule("chat", createSpec(NotificationType.TELEGRAM, "2"));
+        NotificationSpec last = createSpec(NotificationType.TELEGRAM, "3");
+        scheduler.schedule("chat", last);
+        advance(1000);
+        assertEquals(1, sent.size());
+        advance(1000);
+        assertEquals(2, sent.size());
+        assertSame(last, sent.get(1));
+        assertEquals(1, scheduler.getMergedCount());
+        assertEquals(1, discarded.size());
+
+        // an unchanged update is dropped
+        scheduler.schedule("chat", createSpec(NotificationType.TELEGRAM, "3"));
+        assertEquals(1, scheduler.getDroppedCount());
+
+        // a cancelled notification is not sent
+        scheduler.schedule("chat", createSpec(NotificationType.TELEGRAM, "4"));
+        advance(1000);
+        scheduler.cancel("chat");
+        advance(5000);
+        assertEquals(2, sent.size());
+        assertEquals(3, discarded.size());
+    }
+
+    @Test
+    public void testRateLimitAndPriority() {
+        scheduler.schedule("a", createSpec(NotificationType.TELEGRAM, "a"));
+        scheduler.schedule("b", createSpec(NotificationType.TELEGRAM, "b"));
+        scheduler.schedule("c", createSpec(NotificationType.TELEGRAM, "c"));
+        NotificationSpec alarm = createSpec(NotificationType.GENERIC_ALARM_CLOCK, "alarm");
+        scheduler.schedule("alarm", alarm);
+        // the alarm is not held back by the rate limit
+        assertEquals(2, sent.size());
+        assertSame(alarm, sent.get(1));
+
+        advance(400);
+        assertEquals(2, sent.size());
+        advance(100);
+        assertEquals(3, sent.size());
+        assertEquals("b", sent.get(2).body);
+        advance(500);
+        assertEquals(4, sent.size());
+        assertEquals("c", sent.get(3).body);
+        assertEquals(4, scheduler.getDeliveredCount());
+    }
+
+    private static NotificationSpec createSpec(NotificationType type, String body) {
+        NotificationSpec notificationSpec = new NotificationSpec();
+        notificationSpec.type = type;
+        notificationSpec.sourceAppId = "org.example.chat";
+        notificationSpec.title = "Chat";
+        notificationSpec.body = body;
+        return notificationSpec;
+    }
+
+    private static void advance(long millis) {
+        Robolectric.getForegroundThreadScheduler().advanceBy(millis, TimeUnit.MILLISECONDS);
+    }
+}
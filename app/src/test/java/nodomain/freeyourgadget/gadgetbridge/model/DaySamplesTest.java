@@ -0,0 +1,55 @@
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+
+import static org.junit.Assert.assertEquals;
+
+public class DaySamplesTest {
+    private static final int DAY = 24 * 60 * 60;
+
+    @Test
+    public void testSplit() {
+        List<ActivitySample> samples = createSamples(DAY - 1, DAY, DAY + 100, 2 * DAY - 1, 2 * DAY, 3 * DAY + 5);
+        List<List<ActivitySample>> days = DaySamples.split(samples, new int[]{DAY, 2 * DAY, 3 * DAY, 4 * DAY}, DAY);
+
+        assertEquals(4, days.size());
+        assertEquals(Arrays.asList(DAY, DAY + 100, 2 * DAY - 1), getTimestamps(days.get(0)));
+        assertEquals(Arrays.asList(2 * DAY), getTimestamps(days.get(1)));
+        assertEquals(Arrays.asList(3 * DAY + 5), getTimestamps(days.get(2)));
+        assertEquals(0, days.get(3).size());
+    }
+
+    @Test
+    public void testSplitOverlappingAndUnordered() {
+        List<ActivitySample> samples = createSamples(2 * DAY + 10, DAY / 2 + 10, DAY + 10, 10);
+        // the second window starts half a day earlier, like the sleep totals of a day
+        List<List<ActivitySample>> days = DaySamples.split(samples, new int[]{DAY, DAY / 2}, DAY);
+
+        assertEquals(Arrays.asList(DAY + 10), getTimestamps(days.get(0)));
+        assertEquals(Arrays.asList(DAY / 2 + 10, DAY + 10), getTimestamps(days.get(1)));
+    }
+
+    private static List<ActivitySample> createSamples(int... timestamps) {
+        List<ActivitySample> samples = new ArrayList<>();
+        for (int timestamp : timestamps) {
+            MiBandActivitySample sample = new MiBandActivitySample();
+            sample.setTimestamp(timestamp);
+            samples.add(sample);
+        }
+        return samples;
+    }
+
+    private static List<Integer> getTimestamps(List<ActivitySample> samples) {
+        List<Integer> timestamps = new ArrayList<>();
+        for (ActivitySample sample : samples) {
+            timestamps.add(sample.getTimestamp());
+        }
+        return timestamps;
+    }
+}
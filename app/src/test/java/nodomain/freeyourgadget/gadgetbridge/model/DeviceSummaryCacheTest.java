@@ -0,0 +1,80 @@
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeviceSummaryCacheTest extends TestBase {
+    private GBDevice device;
+    private MiBandSampleProvider provider;
+    private long deviceId;
+    private long userId;
+    private int dayStart;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        device = new GBDevice("00:00:00:00:20", "Mi Band", null, DeviceType.MIBAND);
+        deviceId = DBHelper.getDevice(device, daoSession).getId();
+        userId = DBHelper.getUser(daoSession).getId();
+        provider = new MiBandSampleProvider(device, daoSession);
+        Calendar day = Calendar.getInstance();
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        dayStart = (int) (day.getTimeInMillis() / 1000);
+        DeviceSummaryCache.getInstance().invalidateAll();
+    }
+
+    @Test
+    public void testSamplesAddedAndInvalidation() {
+        DeviceSummaryCache cache = DeviceSummaryCache.getInstance();
+        provider.addGBActivitySample(createSample(dayStart + 600, 100, 70));
+        assertEquals(100, cache.getSummary(device).getSteps());
+
+        // accumulated without reading the database again
+        provider.addGBActivitySamples(new MiBandActivitySample[]{
+                createSample(dayStart + 660, 20, 75),
+                createSample(dayStart + 720, 30, 80)
+        });
+        DeviceSummary summary = cache.getSummary(device);
+        assertEquals(150, summary.getSteps());
+        assertEquals(80, summary.getLastHeartRate());
+        assertEquals(dayStart + 720, summary.getLastHeartRateTimestamp());
+
+        // samples stored without a sample provider are only seen after an invalidation
+        daoSession.getMiBandActivitySampleDao().insert(createSample(dayStart + 780, 50, 90));
+        assertEquals(150, cache.getSummary(device).getSteps());
+        cache.invalidateAll();
+        assertEquals(200, cache.getSummary(device).getSteps());
+
+        // an older sample cannot be accumulated and causes a recomputation
+        provider.addGBActivitySample(createSample(dayStart + 60, 5, 60));
+        summary = cache.getSummary(device);
+        assertEquals(205, summary.getSteps());
+        assertEquals(90, summary.getLastHeartRate());
+
+        daoSession.getMiBandActivitySampleDao().deleteAll();
+        cache.invalidate(device);
+        assertEquals(0, cache.getSummary(device).getSteps());
+    }
+
+    private MiBandActivitySample createSample(int timestamp, int steps, int heartRate) {
+        MiBandActivitySample sample = new MiBandActivitySample();
+        sample.setTimestamp(timestamp);
+        sample.setDeviceId(deviceId);
+        sample.setUserId(userId);
+        sample.setRawKind(MiBandSampleProvider.TYPE_ACTIVITY);
+        sample.setSteps(steps);
+        sample.setHeartRate(heartRate);
+        return sample;
+    }
+}
@@ -0,0 +1,76 @@
+package nodomain.freeyourgadget.gadgetbridge.service.btle;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.UUID;
+
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.ReadAction;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.WriteAction;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GattMetricsTest extends TestBase {
+    private static final UUID CHARACTERISTIC = UUID.fromString("00000001-0000-3512-2118-0009af100700");
+    private static final long MILLIS = 1000 * 1000;
+
+    @Test
+    public void testCounters() {
+        GattMetrics metrics = GattMetrics.forDevice(createDummyGDevice("12:34:56:78:9A:01"));
+        metrics.onConnect();
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(CHARACTERISTIC,
+                BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_READ, 0);
+        BluetoothGatt gatt = Mockito.mock(BluetoothGatt.class);
+        Mockito.when(gatt.writeCharacteristic(characteristic)).thenReturn(true);
+
+        WriteAction write = new WriteAction(characteristic, new byte[]{1, 2, 3});
+        assertTrue(write.run(gatt));
+        metrics.recordAction(write, 2 * MILLIS);
+        metrics.recordAction(write, 4 * MILLIS);
+        characteristic.setValue(new byte[5]);
+        metrics.recordAction(new ReadAction(characteristic), MILLIS);
+        metrics.recordNotification(CHARACTERISTIC, 8);
+        metrics.recordNotification(CHARACTERISTIC, 8);
+        metrics.recordQueueWait(MILLIS);
+        metrics.recordQueueWait(3 * MILLIS);
+
+        String report = metrics.getReport();
+        assertTrue(report, report.contains("connection 1,"));
+        assertTrue(report, report.contains("written 6 B"));
+        assertTrue(report, report.contains("read 5 B"));
+        assertTrue(report, report.contains("notified 16 B"));
+        // 1 ms is in the bucket 992..1023 us, 3 ms in the bucket 2944..3071 us
+        assertTrue(report, report.contains("Queue wait: 2, 0 B, 0 B/s, 1.0/3.0/3.0/3.0\n"));
+        assertTrue(report, report.contains("WriteAction " + CHARACTERISTIC + ": 2, 6 B, "));
+        assertTrue(report, report.contains("ReadAction " + CHARACTERISTIC + ": 1, 5 B, "));
+        assertTrue(report, report.contains("Notification interval " + CHARACTERISTIC + ": 2, 16 B, "));
+
+        metrics.onConnect();
+        report = metrics.getReport();
+        assertTrue(report, report.contains("connection 2,"));
+        assertTrue(report, report.contains("written 0 B"));
+        assertFalse(report, report.contains("Queue wait"));
+    }
+
+    @Test
+    public void testSeriesLimit() {
+        GattMetrics metrics = GattMetrics.forDevice(createDummyGDevice("12:34:56:78:9A:02"));
+        metrics.onConnect();
+        for (int i = 0; i < 250; i++) {
+            metrics.recordTransaction("transaction " + i, MILLIS);
+        }
+        String report = metrics.getReport();
+        assertTrue(report, report.contains("Transaction: transaction 199: 1,"));
+        assertFalse(report, report.contains("Transaction: transaction 200:"));
+        assertTrue(report, report.contains("(other): 50, 0 B"));
+
+        assertTrue(GattMetrics.getReportOfAllDevices().contains("(12:34:56:78:9A:02)"));
+        GattMetrics.resetAll();
+        assertFalse(metrics.getReport().contains("(other)"));
+    }
+}
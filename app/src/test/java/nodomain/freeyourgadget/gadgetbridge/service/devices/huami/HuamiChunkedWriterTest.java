@@ -0,0 +1,110 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.huami;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiService;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEAction;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HuamiChunkedWriterTest extends TestBase {
+    private static final int TYPE = 0x03;
+    private static final int MTU = 23;
+    private static final int MAX_CHUNK_LENGTH = MTU - 6;
+
+    private final List<byte[]> chunks = new ArrayList<>();
+    private final List<Integer> writeTypes = new ArrayList<>();
+
+    @Test
+    public void testSingleChunk() {
+        byte[] data = createData(MAX_CHUNK_LENGTH);
+        write(new HuamiChunkedWriter(createCharacteristic(), true), data);
+
+        assertEquals(1, chunks.size());
+        assertChunk(0, 0xc0 | TYPE, data);
+        assertEquals(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, (int) writeTypes.get(0));
+    }
+
+    @Test
+    public void testChunks() {
+        byte[] data = createData(10 * MAX_CHUNK_LENGTH + 5);
+        write(new HuamiChunkedWriter(createCharacteristic(), true), data);
+
+        assertEquals(11, chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            int flags = i == 0 ? 0 : i == chunks.size() - 1 ? 0x80 : 0x40;
+            int end = Math.min(data.length, (i + 1) * MAX_CHUNK_LENGTH);
+            assertChunk(i, flags | TYPE, Arrays.copyOfRange(data, i * MAX_CHUNK_LENGTH, end));
+            // every 8th and the last chunk are acknowledged
+            boolean acknowledged = i == 7 || i == 10;
+            assertEquals("chunk " + i, acknowledged ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
+                    : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, (int) writeTypes.get(i));
+        }
+    }
+
+    @Test
+    public void testWithoutResponseNotAllowed() {
+        write(new HuamiChunkedWriter(createCharacteristic(), false), createData(3 * MAX_CHUNK_LENGTH));
+
+        assertEquals(3, chunks.size());
+        for (int writeType : writeTypes) {
+            assertEquals(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, writeType);
+        }
+    }
+
+    private void write(HuamiChunkedWriter writer, byte[] data) {
+        BluetoothGatt gatt = Mockito.mock(BluetoothGatt.class);
+        Mockito.when(gatt.writeCharacteristic(Mockito.any(BluetoothGattCharacteristic.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                // the writer reuses its buffers, so copy what has been written
+                BluetoothGattCharacteristic characteristic = (BluetoothGattCharacteristic) invocation.getArguments()[0];
+                chunks.add(characteristic.getValue().clone());
+                writeTypes.add(characteristic.getWriteType());
+                return true;
+            }
+        });
+
+        TransactionBuilder builder = new TransactionBuilder("test");
+        writer.write(builder, TYPE, data, MTU);
+        for (BtLEAction action : builder.getTransaction().getActions()) {
+            assertTrue(action.run(gatt));
+        }
+    }
+
+    private void assertChunk(int index, int flags, byte[] payload) {
+        byte[] chunk = chunks.get(index);
+        assertEquals(0, chunk[0]);
+        assertEquals("flags of chunk " + index, (byte) flags, chunk[1]);
+        assertEquals("counter of chunk " + index, (byte) index, chunk[2]);
+        assertArrayEquals(payload, Arrays.copyOfRange(chunk, 3, chunk.length));
+    }
+
+    private static BluetoothGattCharacteristic createCharacteristic() {
+        return new BluetoothGattCharacteristic(HuamiService.UUID_CHARACTERISTIC_CHUNKEDTRANSFER,
+                BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE,
+                BluetoothGattCharacteristic.PERMISSION_WRITE);
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,143 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.huami.operations;
+
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEQueue;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiSupport;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.miband.operations.OperationStatus;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FetchActivityOperationTest extends TestBase {
+    private static final long MINUTE = 60 * 1000;
+    private static final long DAY = 24 * 60 * MINUTE;
+    private static final int SAMPLES_PER_PACKET = 4;
+
+    private GBDevice device;
+    private HuamiSupport support;
+    private long start;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        device = createDummyGDevice("12:34:56:78:9A:03");
+        support = Mockito.mock(HuamiSupport.class);
+        Mockito.when(support.getDevice()).thenReturn(device);
+        Mockito.when(support.getContext()).thenReturn(getContext());
+        Mockito.when(support.getQueue()).thenReturn(Mockito.mock(BtLEQueue.class));
+        Mockito.when(support.getActivitySampleSize()).thenReturn(SAMPLES_PER_PACKET);
+        Mockito.when(support.getTimeBytes(Mockito.any(Calendar.class), Mockito.any(TimeUnit.class))).thenReturn(new byte[8]);
+        Mockito.when(support.performInitialized(Mockito.anyString())).thenAnswer(new Answer<TransactionBuilder>() {
+            @Override
+            public TransactionBuilder answer(InvocationOnMock invocation) {
+                return new TransactionBuilder((String) invocation.getArguments()[0]);
+            }
+        });
+
+        start = (System.currentTimeMillis() / DAY - 100) * DAY;
+        getPrefs().edit().putLong("lastSyncTimeMillis", start).commit();
+    }
+
+    @Test
+    public void testCheckpoints() throws Exception {
+        FetchActivityOperation operation = createOperation();
+        operation.startFetching();
+        operation.startTimestamp = createCalendar(start);
+        sendPackets(operation, 150);
+        // saved at the checkpoint after 100 packets
+        assertEquals(400, countSamples());
+        assertEquals(start + 400 * MINUTE, getPrefs().getLong("lastSyncTimeMillis", 0));
+
+        // a disconnect, the next fetch continues after the checkpoint
+        FetchActivityOperation next = createOperation();
+        next.startFetching();
+        ArgumentCaptor<Calendar> since = ArgumentCaptor.forClass(Calendar.class);
+        Mockito.verify(support, Mockito.times(2)).getTimeBytes(since.capture(), Mockito.eq(TimeUnit.MINUTES));
+        assertEquals(start + 400 * MINUTE, since.getValue().getTimeInMillis());
+    }
+
+    @Test
+    public void testRoundsWhileMakingProgress() throws Exception {
+        FetchActivityOperation operation = createOperation();
+        operation.startFetching();
+        operation.startTimestamp = createCalendar(start);
+        sendPackets(operation, 150);
+        operation.handleActivityFetchFinish(true);
+        assertEquals(600, countSamples());
+        assertEquals(start + 600 * MINUTE, getPrefs().getLong("lastSyncTimeMillis", 0));
+        assertEquals(2, operation.fetchCount);
+        assertTrue(operation.isOperationRunning());
+
+        // the device sends samples that end before the start of the round
+        operation.startTimestamp = createCalendar(start + 590 * MINUTE);
+        sendPackets(operation, 1);
+        operation.handleActivityFetchFinish(true);
+        assertEquals(2, operation.fetchCount);
+        assertTrue(operation.isOperationFinished());
+    }
+
+    @Test
+    public void testRoundLimit() throws Exception {
+        FetchActivityOperation operation = createOperation();
+        operation.startFetching();
+        operation.fetchCount = 20;
+        operation.startTimestamp = createCalendar(start);
+        sendPackets(operation, 10);
+        operation.handleActivityFetchFinish(true);
+        assertEquals(40, countSamples());
+        assertEquals(20, operation.fetchCount);
+        assertTrue(operation.isOperationFinished());
+    }
+
+    private FetchActivityOperation createOperation() {
+        return new FetchActivityOperation(support) {
+            {
+                // as if performed, without initializing the device
+                operationStatus = OperationStatus.RUNNING;
+            }
+        };
+    }
+
+    private void sendPackets(FetchActivityOperation operation, int count) {
+        for (int i = 0; i < count; i++) {
+            byte[] packet = new byte[1 + SAMPLES_PER_PACKET * 4];
+            packet[0] = (byte) i;
+            for (int sample = 0; sample < SAMPLES_PER_PACKET; sample++) {
+                packet[1 + sample * 4] = 1;
+                packet[1 + sample * 4 + 2] = 10;
+            }
+            operation.handleActivityNotif(packet);
+        }
+    }
+
+    private int countSamples() {
+        return new MiBandSampleProvider(device, daoSession).getAllActivitySamples(
+                (int) (start / 1000), (int) ((start + DAY) / 1000)).size();
+    }
+
+    private SharedPreferences getPrefs() {
+        return GBApplication.getDeviceSpecificSharedPrefs(device.getAddress());
+    }
+
+    private static GregorianCalendar createCalendar(long millis) {
+        GregorianCalendar calendar = new GregorianCalendar();
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+}
@@ -0,0 +1,50 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.huami.operations;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+
+public class FetchSportsSummaryOperationTest extends TestBase {
+    private static final long START = 1600000000000L;
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Test
+    public void testRefetchedSummaryReplacesStoredOne() {
+        Device device = DBHelper.getDevice(createDummyGDevice("12:34:56:78:9A:04"), daoSession);
+        User user = DBHelper.getUser(daoSession);
+        BaseActivitySummary first = createSummary(device, user, START);
+        FetchSportsSummaryOperation.saveSummary(daoSession, first);
+        first.setGpxTrack("track.gpx");
+        daoSession.getBaseActivitySummaryDao().update(first);
+
+        // fetched again after an interrupted sync
+        BaseActivitySummary again = createSummary(device, user, START);
+        FetchSportsSummaryOperation.saveSummary(daoSession, again);
+        assertEquals(1, daoSession.getBaseActivitySummaryDao().count());
+        assertEquals(first.getId(), again.getId());
+        daoSession.getBaseActivitySummaryDao().detachAll();
+        assertEquals("track.gpx", daoSession.getBaseActivitySummaryDao().load(first.getId()).getGpxTrack());
+
+        FetchSportsSummaryOperation.saveSummary(daoSession, createSummary(device, user, START + HOUR));
+        assertEquals(2, daoSession.getBaseActivitySummaryDao().count());
+    }
+
+    private static BaseActivitySummary createSummary(Device device, User user, long start) {
+        BaseActivitySummary summary = new BaseActivitySummary();
+        summary.setStartTime(new Date(start));
+        summary.setEndTime(new Date(start + HOUR / 2));
+        summary.setActivityKind(ActivityKind.TYPE_RUNNING);
+        summary.setDevice(device);
+        summary.setUser(user);
+        return summary;
+    }
+}
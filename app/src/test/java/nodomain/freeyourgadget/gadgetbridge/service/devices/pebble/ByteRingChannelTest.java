@@ -0,0 +1,145 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nodomain.freeyourgadget.gadgetbridge.service.devices.pebble.ble.ByteRingChannel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ByteRingChannelTest {
+    private static final int WRITERS = 4;
+    private static final int WRITES_PER_WRITER = 2000;
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        // much smaller than the data, so that both sides block and wrap around all the time
+        final ByteRingChannel channel = new ByteRingChannel(64);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(writer);
+                    OutputStream out = channel.getOutputStream();
+                    try {
+                        for (int i = 0; i < WRITES_PER_WRITER; i++) {
+                            out.write(createFrame(writer, i, 1 + random.nextInt(100)));
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            writers.add(thread);
+            thread.start();
+        }
+        // writes are atomic among writers, so the frames arrive whole and in order per writer
+        InputStream in = channel.getInputStream();
+        int[] nextIndex = new int[WRITERS];
+        int frames = 0;
+        while (frames < WRITERS * WRITES_PER_WRITER) {
+            int writer = readFully(in, 1)[0];
+            byte[] header = readFully(in, 3);
+            int index = ((header[0] & 0xff) << 8) | (header[1] & 0xff);
+            int length = header[2] & 0xff;
+            assertEquals(nextIndex[writer]++, index);
+            byte[] payload = readFully(in, length);
+            byte[] expected = createFrame(writer, index, length);
+            assertArrayEquals(Arrays.copyOfRange(expected, 4, expected.length), payload);
+            frames++;
+        }
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertEquals(0, channel.available());
+
+        channel.close();
+        assertEquals(-1, in.read());
+        try {
+            channel.getOutputStream().write(1);
+            fail("write to a closed channel");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testCloseWakesUpReader() throws Exception {
+        final ByteRingChannel channel = new ByteRingChannel(16);
+        final AtomicReference<Integer> result = new AtomicReference<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(channel.getInputStream().read(new byte[4], 0, 4));
+                } catch (IOException e) {
+                    result.set(-2);
+                }
+            }
+        });
+        reader.start();
+        Thread.sleep(50);
+        channel.getOutputStream().write(new byte[]{1, 2});
+        reader.join(5000);
+        assertEquals(Integer.valueOf(2), result.get());
+
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(channel.getInputStream().read());
+                } catch (IOException e) {
+                    result.set(-2);
+                }
+            }
+        });
+        reader.start();
+        Thread.sleep(50);
+        channel.close();
+        reader.join(5000);
+        assertEquals(Integer.valueOf(-1), result.get());
+    }
+
+    /**
+     * A frame of the writer, the index and the payload length, followed by the payload.
+     */
+    private static byte[] createFrame(int writer, int index, int length) {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(4 + length);
+        frame.write(writer);
+        frame.write(index >> 8);
+        frame.write(index);
+        frame.write(length);
+        for (int i = 0; i < length; i++) {
+            frame.write(writer * 31 + index * 7 + i);
+        }
+        return frame.toByteArray();
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] result = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = in.read(result, read, length - read);
+            if (count < 0) {
+                throw new IOException("unexpected end of channel");
+            }
+            read += count;
+        }
+        return result;
+    }
+}
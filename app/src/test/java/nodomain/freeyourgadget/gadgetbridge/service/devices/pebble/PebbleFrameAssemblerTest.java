@@ -0,0 +1,78 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.service.devices.pebble.ble.PebbleFrameAssembler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PebbleFrameAssemblerTest {
+    private final List<byte[]> frames = new ArrayList<>();
+    private final PebbleFrameAssembler assembler = new PebbleFrameAssembler(new PebbleFrameAssembler.FrameListener() {
+        @Override
+        public void onFrame(byte[] buffer, int offset, int length) {
+            frames.add(Arrays.copyOfRange(buffer, offset, offset + length));
+        }
+    });
+
+    @Test
+    public void testRandomlySplitFrames() {
+        Random random = new Random(42);
+        List<byte[]> expected = new ArrayList<>();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < 500; i++) {
+            // include empty payloads and frames larger than the initial buffer
+            int length = i % 50 == 0 ? 10000 + random.nextInt(10000) : random.nextInt(300);
+            byte[] frame = createFrame(i, length, random);
+            expected.add(frame);
+            stream.write(frame, 0, frame.length);
+        }
+        byte[] data = stream.toByteArray();
+
+        int offset = 0;
+        while (offset < data.length) {
+            int length = Math.min(data.length - offset, 1 + random.nextInt(random.nextBoolean() ? 5 : 600));
+            assembler.feed(data, offset, length);
+            offset += length;
+        }
+
+        assertEquals(expected.size(), frames.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals("frame " + i, expected.get(i), frames.get(i));
+        }
+    }
+
+    @Test
+    public void testIncompleteFrame() {
+        byte[] frame = createFrame(1, 20, new Random(1));
+        assembler.feed(frame, 0, 3);
+        assembler.feed(frame, 3, frame.length - 4);
+        assertEquals(0, frames.size());
+
+        assembler.feed(frame, frame.length - 1, 1);
+        assertEquals(1, frames.size());
+        assertArrayEquals(frame, frames.get(0));
+    }
+
+    /**
+     * A frame with 2 bytes payload length, 2 bytes endpoint and the payload.
+     */
+    private static byte[] createFrame(int endpoint, int length, Random random) {
+        byte[] frame = new byte[4 + length];
+        frame[0] = (byte) (length >> 8);
+        frame[1] = (byte) length;
+        frame[2] = (byte) (endpoint >> 8);
+        frame[3] = (byte) endpoint;
+        byte[] payload = new byte[length];
+        random.nextBytes(payload);
+        System.arraycopy(payload, 0, frame, 4, length);
+        return frame;
+    }
+}
@@ -0,0 +1,68 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.UUID;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+
+public class PebbleProtocolTest extends TestBase {
+    private static final UUID APP_UUID = UUID.fromString("01234567-89ab-cdef-0123-456789abcdef");
+
+    @Test
+    public void testBlobdbInsert() {
+        PebbleProtocol protocol = new PebbleProtocol(createDummyGDevice("00:00:00:00:10"));
+        byte[] frame = protocol.encodeInstallMetadata(APP_UUID, "App", (short) 0x0102, (short) 0x0304, 5, 6);
+
+        // frame header, blobdb header, key and blob length, blob
+        assertEquals(4 + 5 + 16 + 2 + 126, frame.length);
+        ByteBuffer buf = assertBlobdbHeader(frame, 1, 2);
+        assertEquals(126, buf.getShort());
+
+        buf.order(ByteOrder.BIG_ENDIAN);
+        assertEquals(APP_UUID, new UUID(buf.getLong(), buf.getLong()));
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(5, buf.getInt());
+        assertEquals(6, buf.getInt());
+        assertEquals(0x0102, buf.getShort());
+        assertEquals(0x0304, buf.getShort());
+        buf.getShort(); // face color and template
+        assertEquals('A', buf.get());
+        assertEquals('p', buf.get());
+        assertEquals('p', buf.get());
+        assertEquals(0, buf.get());
+    }
+
+    @Test
+    public void testBlobdbDelete() {
+        PebbleProtocol protocol = new PebbleProtocol(createDummyGDevice("00:00:00:00:10"));
+        byte[] frame = protocol.encodeAppDelete(APP_UUID);
+
+        assertEquals(4 + 5 + 16, frame.length);
+        ByteBuffer buf = assertBlobdbHeader(frame, 4, 2);
+        assertEquals(0, buf.remaining());
+    }
+
+    /**
+     * Checks the headers and key of the given blobdb frame and returns it positioned after
+     * the key.
+     */
+    private static ByteBuffer assertBlobdbHeader(byte[] frame, int command, int db) {
+        ByteBuffer buf = ByteBuffer.wrap(frame);
+        assertEquals(frame.length - 4, buf.getShort());
+        assertEquals((short) 0xb1db, buf.getShort());
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(command, buf.get());
+        buf.getShort(); // token
+        assertEquals(db, buf.get());
+        assertEquals(16, buf.get());
+        buf.order(ByteOrder.BIG_ENDIAN);
+        assertEquals(APP_UUID, new UUID(buf.getLong(), buf.getLong()));
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        return buf;
+    }
+}
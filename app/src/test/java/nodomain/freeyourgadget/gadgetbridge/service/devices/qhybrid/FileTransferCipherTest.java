@@ -0,0 +1,72 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.file.FileTransferCipher;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FileTransferCipherTest {
+    private final Random random = new Random(42);
+
+    @Test
+    public void testMatchesAesCtr() throws Exception {
+        byte[] key = randomBytes(16);
+        byte[] fileIv = randomBytes(16);
+        // a counter that overflows into the upper bytes within a packet and by the summand
+        fileIv[12] = 0x7f;
+        fileIv[13] = (byte) 0xff;
+        fileIv[14] = (byte) 0xff;
+        fileIv[15] = (byte) 0xf0;
+
+        FileTransferCipher cipher = new FileTransferCipher(key, fileIv);
+        Cipher reference = Cipher.getInstance("AES/CTR/NoPadding");
+        SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+
+        // the same summand again, a longer packet with the same summand, and packets that
+        // are not a multiple of the block size
+        int[] summands = {0, 0, 0, 0x1e, 0x1e * 2, 0x1e * 2, 0x2f * 100, -5};
+        int[] lengths = {20, 20, 300, 1, 17, 244, 244, 64};
+        for (int i = 0; i < summands.length; i++) {
+            byte[] packet = randomBytes(lengths[i]);
+            reference.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(incrementIv(fileIv, summands[i])));
+            byte[] expected = reference.doFinal(packet);
+
+            byte[] output = new byte[packet.length + 3];
+            cipher.process(summands[i], packet, 0, packet.length, output, 3);
+            assertArrayEquals("packet " + i, expected, Arrays.copyOfRange(output, 3, output.length));
+            assertEquals(expected[0], cipher.processFirstByte(summands[i], packet[0]));
+
+            // in place, and decrypting again yields the plain text
+            byte[] inPlace = packet.clone();
+            cipher.process(summands[i], inPlace, 0, inPlace.length, inPlace, 0);
+            assertArrayEquals(expected, inPlace);
+            cipher.process(summands[i], inPlace, 0, inPlace.length, inPlace, 0);
+            assertArrayEquals(packet, inPlace);
+        }
+    }
+
+    /**
+     * Adds the summand to the last 32 bits of the IV, like the file requests did before.
+     */
+    private static byte[] incrementIv(byte[] iv, int summand) {
+        ByteBuffer buffer = ByteBuffer.wrap(iv.clone());
+        buffer.putInt(12, buffer.getInt(12) + summand);
+        return buffer.array();
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,57 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.um25.Data;
+
+import android.os.SystemClock;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MeasurementRecorderTest extends TestBase {
+    private static final int MEASUREMENTS = 2000;
+
+    @Test
+    public void testRecordAndExport() throws Exception {
+        File dir = FileUtils.createTempDir("um25");
+        MeasurementRecorder recorder = MeasurementRecorder.getInstance();
+        File recording = recorder.start(dir);
+        for (int i = 0; i < MEASUREMENTS; i++) {
+            recorder.record(new MeasurementData(5000 + i, 10000 + i, 500 + i, 30, 86, new CaptureGroup[0], 0, 0, 0, 0, 0, 0, 0));
+            SystemClock.setCurrentTimeMillis(SystemClock.uptimeMillis() + 1000);
+        }
+        assertEquals(recording, recorder.stop());
+        assertFalse(recorder.isRecording());
+        assertEquals(MeasurementRecorder.HEADER_SIZE + MEASUREMENTS * MeasurementRecorder.RECORD_SIZE, recording.length());
+
+        // downsampled to at most 512 buckets
+        MeasurementRecorder.Bucket[] buckets = recorder.getBuckets();
+        assertTrue(buckets.length <= 512);
+        assertTrue(buckets.length >= MEASUREMENTS / 8);
+        int count = 0;
+        for (MeasurementRecorder.Bucket bucket : buckets) {
+            count += bucket.getCount();
+        }
+        assertEquals(MEASUREMENTS, count);
+        assertEquals(5000, buckets[0].getMin(MeasurementRecorder.VOLTAGE));
+        assertEquals(5000 + buckets[0].getCount() - 1, buckets[0].getMax(MeasurementRecorder.VOLTAGE));
+        assertEquals(30, buckets[buckets.length - 1].getMean(MeasurementRecorder.TEMPERATURE), 0.001);
+
+        File csv = new File(dir, "recording.csv");
+        MeasurementRecorder.exportCsv(recording, csv);
+        String[] lines = FileUtils.getStringFromFile(csv).split("\n");
+        assertEquals(MEASUREMENTS + 1, lines.length);
+        String[] first = lines[1].split(",");
+        assertEquals(recorder.getStartMillis(), Long.parseLong(first[0]), 1);
+        assertEquals("5000", first[1]);
+        assertEquals("10000", first[2]);
+        String[] last = lines[MEASUREMENTS].split(",");
+        assertEquals(String.valueOf(500 + MEASUREMENTS - 1), last[3]);
+        assertEquals("30", last[4]);
+    }
+}
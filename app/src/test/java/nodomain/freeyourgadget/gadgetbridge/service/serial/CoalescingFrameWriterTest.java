@@ -0,0 +1,106 @@
+package nodomain.freeyourgadget.gadgetbridge.service.serial;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CoalescingFrameWriterTest {
+    private final RecordingStream stream = new RecordingStream();
+    private CoalescingFrameWriter writer;
+
+    @After
+    public void tearDown() {
+        if (writer != null) {
+            writer.quitAndWait(1000);
+        }
+    }
+
+    @Test
+    public void testLoneFrameIsWrittenAtOnce() throws Exception {
+        writer = new CoalescingFrameWriter("test", stream, 10000);
+        writer.start();
+
+        // written long before the coalescing window would end
+        writer.write(new byte[]{1, 2});
+        stream.awaitWrites(1, 5000);
+        assertArrayEquals(new byte[]{1, 2}, stream.getWrite(0));
+    }
+
+    @Test
+    public void testBurstIsCoalesced() throws Exception {
+        writer = new CoalescingFrameWriter("test", stream, 500);
+        writer.start();
+
+        writer.write(new byte[]{1});
+        stream.awaitWrites(1, 5000);
+        // the frames following shortly after the first write are collected within the window
+        writer.write(new byte[]{2});
+        writer.write(new byte[]{3, 4});
+        writer.write(new byte[]{5});
+        stream.awaitWrites(2, 5000);
+        Thread.sleep(600);
+
+        assertEquals(2, stream.getWriteCount());
+        assertArrayEquals(new byte[]{1}, stream.getWrite(0));
+        assertArrayEquals(new byte[]{2, 3, 4, 5}, stream.getWrite(1));
+    }
+
+    @Test
+    public void testQuitWritesQueuedFrames() throws Exception {
+        writer = new CoalescingFrameWriter("test", stream, 0);
+        byte[] large = new byte[5000];
+        Arrays.fill(large, (byte) 7);
+        // queued before the writer runs, so all of them are pending at once
+        writer.write(new byte[]{1});
+        writer.write(large);
+        writer.write(new byte[]{2});
+        writer.start();
+        writer.quitAndWait(5000);
+        writer.write(new byte[]{3});
+
+        assertEquals(3, stream.getWriteCount());
+        assertArrayEquals(new byte[]{1}, stream.getWrite(0));
+        assertArrayEquals(large, stream.getWrite(1));
+        assertArrayEquals(new byte[]{2}, stream.getWrite(2));
+        writer = null;
+    }
+
+    private static class RecordingStream extends OutputStream {
+        private final List<byte[]> writes = new ArrayList<>();
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writes.add(Arrays.copyOfRange(b, off, off + len));
+            notifyAll();
+        }
+
+        synchronized void awaitWrites(int count, long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (writes.size() < count && System.currentTimeMillis() < deadline) {
+                wait(deadline - System.currentTimeMillis());
+            }
+            assertTrue("expected " + count + " writes, got " + writes.size(), writes.size() >= count);
+        }
+
+        synchronized int getWriteCount() {
+            return writes.size();
+        }
+
+        synchronized byte[] getWrite(int index) {
+            return writes.get(index);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+
+import nodomain.freeyourgadget.gadgetbridge.util.LatencyHistogram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest extends TestBase {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 16; i++) {
+            histogram.record(i);
+        }
+        assertEquals(0, histogram.getValueAtPercentile(0));
+        assertEquals(7, histogram.getValueAtPercentile(50));
+        assertEquals(15, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1000 is in the bucket 992..1023, 3000 in the bucket 2944..3071
+        histogram.record(1000);
+        histogram.record(3000);
+        assertEquals(1023, histogram.getValueAtPercentile(50));
+        // not above the highest recorded value
+        assertEquals(3000, histogram.getValueAtPercentile(90));
+
+        histogram.record(992);
+        histogram.record(1023);
+        histogram.record(1024);
+        assertEquals(1023, histogram.getValueAtPercentile(60));
+        assertEquals(1087, histogram.getValueAtPercentile(80));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 10000; i >= 1; i--) {
+            histogram.record(i);
+        }
+        int[] percentiles = {50, 90, 99, 100};
+        for (int percentile : percentiles) {
+            long expected = percentile * 100;
+            long value = histogram.getValueAtPercentile(percentile);
+            assertTrue("p" + percentile + " = " + value, value >= expected && value <= expected * 1.0625);
+        }
+    }
+
+    @Test
+    public void testCounters() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(100);
+        histogram.record(200);
+        assertEquals(3, histogram.getCount());
+        // negative durations are counted as 0
+        assertEquals(0, histogram.getMin());
+        assertEquals(200, histogram.getMax());
+        assertEquals(100, histogram.getMean());
+
+        histogram.record(Long.MAX_VALUE);
+        assertEquals((1L << 41) - 1, histogram.getMax());
+        assertEquals((1L << 41) - 1, histogram.getValueAtPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        histogram.record(50);
+        assertEquals(50, histogram.getMin());
+        assertEquals(50, histogram.getValueAtPercentile(99));
+    }
+}
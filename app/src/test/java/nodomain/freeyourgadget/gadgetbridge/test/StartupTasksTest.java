@@ -0,0 +1,85 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.util.StartupTasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StartupTasksTest extends TestBase {
+    @Test
+    public void testInline() {
+        final List<String> done = new ArrayList<>();
+        StartupTasks startup = new StartupTasks(true);
+        startup.mark("first");
+        startup.runInBackground("a", createStep(done, "a", null));
+        assertEquals(Collections.singletonList("a"), done);
+        startup.runInBackground("b", createStep(done, "b", null), "a");
+        assertEquals(Arrays.asList("a", "b"), done);
+        startup.finish();
+    }
+
+    @Test
+    public void testDependencies() throws Exception {
+        final List<String> done = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch finished = new CountDownLatch(3);
+        StartupTasks startup = new StartupTasks(false);
+        startup.runInBackground("slow", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.add("slow");
+                finished.countDown();
+            }
+        });
+        startup.runInBackground("failing", new Runnable() {
+            @Override
+            public void run() {
+                finished.countDown();
+                throw new IllegalStateException("failing step");
+            }
+        });
+        // runs after both, even though one of them failed
+        startup.runInBackground("dependent", createStep(done, "dependent", finished), "slow", "failing");
+        startup.finish();
+
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("slow", "dependent"), done);
+    }
+
+    @Test
+    public void testUnknownDependency() {
+        StartupTasks startup = new StartupTasks(false);
+        try {
+            startup.runInBackground("b", createStep(new ArrayList<String>(), "b", null), "a");
+            fail("dependency on a step that was not added before");
+        } catch (IllegalArgumentException expected) {
+        }
+        startup.finish();
+    }
+
+    private static Runnable createStep(final List<String> done, final String name, final CountDownLatch finished) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                done.add(name);
+                if (finished != null) {
+                    finished.countDown();
+                }
+            }
+        };
+    }
+}
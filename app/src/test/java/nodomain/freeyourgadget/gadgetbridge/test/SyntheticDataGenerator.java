@@ -0,0 +1,306 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PebbleHealthSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.entities.BatteryLevel;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlay;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+
+/**
+ * Fills a database with plausible data of several devices over a long time, e.g. to
+ * measure how queries and analyses scale with years of data.
+ * <p/>
+ * Devices alternate between Mi Band (with per sample activity kinds and workout summaries)
+ * and Pebble (with sleep overlays). Every device records one sample per minute, with a
+ * night of light and deep sleep phases, a short non-wear period in the morning and walks
+ * during the day, and reports its discharging and recharging battery every 30 minutes.
+ * The same seed always generates the same data.
+ */
+public class SyntheticDataGenerator {
+    public static final int DAY = 24 * 60 * 60;
+    // a fixed end of the generated data, so that tests do not depend on the current time
+    public static final int END = 1600000000;
+    private static final int MINUTE = 60;
+
+    private final DaoSession session;
+    private final Random random;
+    private long userId;
+
+    public SyntheticDataGenerator(DaoSession session, long seed) {
+        this.session = session;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Generates the given number of days of data for the given number of devices, ending
+     * at the given timestamp.
+     *
+     * @return the generated devices
+     */
+    public List<GBDevice> generate(int deviceCount, int days, int endTimestamp) {
+        userId = DBHelper.getUser(session).getId();
+        List<GBDevice> devices = new ArrayList<>(deviceCount);
+        for (int i = 0; i < deviceCount; i++) {
+            boolean pebble = i % 2 == 1;
+            String address = String.format(Locale.US, "00:00:00:00:%02X:%02X", i / 256, i % 256);
+            GBDevice device = new GBDevice(address, pebble ? "Pebble " + i : "Mi Band " + i, null, pebble ? DeviceType.PEBBLE : DeviceType.MIBAND);
+            devices.add(device);
+            long deviceId = DBHelper.getDevice(device, session).getId();
+
+            int firstDay = endTimestamp - endTimestamp % DAY - (days - 1) * DAY;
+            Battery battery = new Battery();
+            for (int day = firstDay; day < endTimestamp; day += DAY) {
+                generateDay(deviceId, pebble, day, Math.min(day + DAY, endTimestamp), battery);
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * Returns the samples of a generated Mi Band in the given range, ordered by time. The
+     * devices at even indices, e.g. the first one, are Mi Bands.
+     */
+    public static List<MiBandActivitySample> getMiBandSamples(DaoSession session, GBDevice device, int timestampFrom, int timestampTo) {
+        List<MiBandActivitySample> samples = new MiBandSampleProvider(device, session).getAllActivitySamples(timestampFrom, timestampTo);
+        Collections.sort(samples, new Comparator<MiBandActivitySample>() {
+            @Override
+            public int compare(MiBandActivitySample lhs, MiBandActivitySample rhs) {
+                return lhs.getTimestamp() - rhs.getTimestamp();
+            }
+        });
+        return samples;
+    }
+
+    private void generateDay(final long deviceId, final boolean pebble, final int dayStart, final int dayEnd, final Battery battery) {
+        session.runInTx(new Runnable() {
+            @Override
+            public void run() {
+                if (pebble) {
+                    generatePebbleDay(deviceId, dayStart, dayEnd);
+                } else {
+                    generateMiBandDay(deviceId, dayStart, dayEnd);
+                }
+                generateBattery(deviceId, dayStart, dayEnd, battery);
+            }
+        });
+    }
+
+    private void generateMiBandDay(long deviceId, int dayStart, int dayEnd) {
+        Day day = new Day(dayStart);
+        List<MiBandActivitySample> samples = new ArrayList<>(DAY / MINUTE);
+        for (int ts = dayStart; ts < dayEnd; ts += MINUTE) {
+            MiBandActivitySample sample = new MiBandActivitySample();
+            sample.setTimestamp(ts);
+            sample.setDeviceId(deviceId);
+            sample.setUserId(userId);
+            int kind = day.getKind(ts);
+            switch (kind) {
+                case ActivityKind.TYPE_DEEP_SLEEP:
+                    sample.setRawKind(MiBandSampleProvider.TYPE_DEEP_SLEEP);
+                    break;
+                case ActivityKind.TYPE_LIGHT_SLEEP:
+                    sample.setRawKind(MiBandSampleProvider.TYPE_LIGHT_SLEEP);
+                    break;
+                case ActivityKind.TYPE_NOT_WORN:
+                    sample.setRawKind(MiBandSampleProvider.TYPE_NONWEAR);
+                    break;
+                default:
+                    sample.setRawKind(MiBandSampleProvider.TYPE_ACTIVITY);
+            }
+            fillValues(day, ts, kind, sample);
+            samples.add(sample);
+        }
+        session.getMiBandActivitySampleDao().insertOrReplaceInTx(samples);
+
+        if (day.workoutStart > 0 && day.workoutStart + day.workoutLength <= dayEnd) {
+            BaseActivitySummary summary = new BaseActivitySummary();
+            summary.setName("Run");
+            summary.setStartTime(new Date(day.workoutStart * 1000L));
+            summary.setEndTime(new Date((day.workoutStart + day.workoutLength) * 1000L));
+            summary.setActivityKind(ActivityKind.TYPE_RUNNING);
+            summary.setDeviceId(deviceId);
+            summary.setUserId(userId);
+            summary.setSummaryData("{\"distanceMeters\":{\"value\":" + day.workoutLength * 3 + ",\"unit\":\"meters\"},"
+                    + "\"caloriesBurnt\":{\"value\":" + day.workoutLength / 10 + ",\"unit\":\"calories_unit\"}}");
+            session.getBaseActivitySummaryDao().insert(summary);
+        }
+    }
+
+    private void generatePebbleDay(long deviceId, int dayStart, int dayEnd) {
+        Day day = new Day(dayStart);
+        List<PebbleHealthActivitySample> samples = new ArrayList<>(DAY / MINUTE);
+        List<PebbleHealthActivityOverlay> overlays = new ArrayList<>();
+        PebbleHealthActivityOverlay overlay = null;
+        for (int ts = dayStart; ts < dayEnd; ts += MINUTE) {
+            PebbleHealthActivitySample sample = new PebbleHealthActivitySample();
+            sample.setTimestamp(ts);
+            sample.setDeviceId(deviceId);
+            sample.setUserId(userId);
+            int kind = day.getKind(ts);
+            fillValues(day, ts, kind, sample);
+            samples.add(sample);
+
+            int rawKind = kind == ActivityKind.TYPE_DEEP_SLEEP ? PebbleHealthSampleProvider.TYPE_DEEP_SLEEP
+                    : kind == ActivityKind.TYPE_LIGHT_SLEEP ? PebbleHealthSampleProvider.TYPE_LIGHT_SLEEP : 0;
+            if (overlay != null && rawKind != overlay.getRawKind()) {
+                overlay.setTimestampTo(ts);
+                overlays.add(overlay);
+                overlay = null;
+            }
+            if (overlay == null && rawKind != 0) {
+                overlay = new PebbleHealthActivityOverlay();
+                overlay.setDeviceId(deviceId);
+                overlay.setUserId(userId);
+                overlay.setTimestampFrom(ts);
+                overlay.setRawKind(rawKind);
+            }
+        }
+        if (overlay != null) {
+            overlay.setTimestampTo(dayEnd);
+            overlays.add(overlay);
+        }
+        session.getPebbleHealthActivitySampleDao().insertOrReplaceInTx(samples);
+        session.getPebbleHealthActivityOverlayDao().insertOrReplaceInTx(overlays);
+    }
+
+    private void fillValues(Day day, int ts, int kind, ActivitySample sample) {
+        int intensity;
+        int steps;
+        int heartRate;
+        switch (kind) {
+            case ActivityKind.TYPE_DEEP_SLEEP:
+                intensity = random.nextInt(5);
+                steps = 0;
+                heartRate = 48 + random.nextInt(6);
+                break;
+            case ActivityKind.TYPE_LIGHT_SLEEP:
+                intensity = 5 + random.nextInt(20);
+                steps = 0;
+                heartRate = 52 + random.nextInt(8);
+                break;
+            case ActivityKind.TYPE_NOT_WORN:
+                intensity = 0;
+                steps = 0;
+                heartRate = ActivitySample.NOT_MEASURED;
+                break;
+            default:
+                if (day.isWorkout(ts)) {
+                    intensity = 150 + random.nextInt(100);
+                    steps = 150 + random.nextInt(30);
+                    heartRate = 140 + random.nextInt(30);
+                } else if (random.nextInt(100) < 12) {
+                    intensity = 60 + random.nextInt(80);
+                    steps = 60 + random.nextInt(60);
+                    heartRate = 85 + random.nextInt(25);
+                } else {
+                    intensity = 10 + random.nextInt(40);
+                    steps = random.nextInt(100) < 30 ? random.nextInt(15) : 0;
+                    heartRate = 62 + random.nextInt(18);
+                }
+        }
+        if (sample instanceof MiBandActivitySample) {
+            MiBandActivitySample miBandSample = (MiBandActivitySample) sample;
+            miBandSample.setRawIntensity(intensity);
+            miBandSample.setSteps(steps);
+            miBandSample.setHeartRate(heartRate);
+        } else {
+            PebbleHealthActivitySample pebbleSample = (PebbleHealthActivitySample) sample;
+            pebbleSample.setRawIntensity(intensity);
+            pebbleSample.setSteps(steps);
+            pebbleSample.setHeartRate(heartRate);
+        }
+    }
+
+    private void generateBattery(long deviceId, int dayStart, int dayEnd, Battery battery) {
+        List<BatteryLevel> levels = new ArrayList<>(48);
+        for (int ts = dayStart; ts < dayEnd; ts += 30 * MINUTE) {
+            BatteryLevel level = new BatteryLevel();
+            level.setTimestamp(ts);
+            level.setDeviceId(deviceId);
+            level.setLevel(battery.next());
+            levels.add(level);
+        }
+        session.getBatteryLevelDao().insertOrReplaceInTx(levels);
+    }
+
+    /**
+     * The randomized schedule of one day.
+     */
+    private class Day {
+        // the night ending in the morning of this day, and the one starting in its evening
+        final int wakeUp;
+        final int fallAsleep;
+        final int nonWearStart;
+        final int nonWearLength;
+        final int workoutStart;
+        final int workoutLength;
+        final int sleepCycleLength;
+
+        Day(int dayStart) {
+            wakeUp = dayStart + 6 * 60 * MINUTE + random.nextInt(120) * MINUTE;
+            fallAsleep = dayStart + 22 * 60 * MINUTE + random.nextInt(120) * MINUTE;
+            nonWearStart = wakeUp + 15 * MINUTE + random.nextInt(30) * MINUTE;
+            nonWearLength = (10 + random.nextInt(30)) * MINUTE;
+            if (random.nextInt(3) == 0) {
+                workoutStart = dayStart + 17 * 60 * MINUTE + random.nextInt(120) * MINUTE;
+                workoutLength = (20 + random.nextInt(60)) * MINUTE;
+            } else {
+                workoutStart = 0;
+                workoutLength = 0;
+            }
+            sleepCycleLength = (80 + random.nextInt(30)) * MINUTE;
+        }
+
+        int getKind(int ts) {
+            if (ts < wakeUp || ts >= fallAsleep) {
+                int sinceFallingAsleep = ts < wakeUp ? ts - (wakeUp - 8 * 60 * MINUTE) : ts - fallAsleep;
+                // a bit of deep sleep at the start of every cycle
+                return Math.abs(sinceFallingAsleep) % sleepCycleLength < sleepCycleLength / 3
+                        ? ActivityKind.TYPE_DEEP_SLEEP : ActivityKind.TYPE_LIGHT_SLEEP;
+            }
+            if (ts >= nonWearStart && ts < nonWearStart + nonWearLength) {
+                return ActivityKind.TYPE_NOT_WORN;
+            }
+            return ActivityKind.TYPE_ACTIVITY;
+        }
+
+        boolean isWorkout(int ts) {
+            return ts >= workoutStart && ts < workoutStart + workoutLength;
+        }
+    }
+
+    /**
+     * Discharges by about 1% per hour and is recharged once it gets low.
+     */
+    private class Battery {
+        private float level = 100;
+        private boolean charging;
+
+        int next() {
+            if (charging) {
+                level = Math.min(100, level + 25);
+                charging = level < 100;
+            } else {
+                level -= 0.3f + random.nextFloat() * 0.4f;
+                charging = level < 15 + random.nextInt(10);
+            }
+            return Math.round(level);
+        }
+    }
+}